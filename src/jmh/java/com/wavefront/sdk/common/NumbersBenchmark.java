@@ -0,0 +1,53 @@
+package com.wavefront.sdk.common;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link Numbers#appendDouble} with {@link StringBuilder#append(double)}.
+ *
+ * Run with {@code mvn -P benchmark test-compile exec:exec -Dbenchmark=NumbersBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NumbersBenchmark {
+
+  @Param({"42422", "5.1", "1234.5678", "0.30000000000000004"})
+  public double value;
+
+  private final StringBuilder sb = new StringBuilder(64);
+
+  @Setup
+  public void setUp() {
+    sb.setLength(0);
+  }
+
+  @Benchmark
+  public int appendDouble() {
+    sb.setLength(0);
+    Numbers.appendDouble(sb, value);
+    return sb.length();
+  }
+
+  @Benchmark
+  public int stringBuilderAppend() {
+    sb.setLength(0);
+    sb.append(value);
+    return sb.length();
+  }
+}
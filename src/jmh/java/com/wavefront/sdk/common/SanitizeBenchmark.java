@@ -0,0 +1,109 @@
+package com.wavefront.sdk.common;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link Utils#sanitize(String)} and {@link Utils#sanitizeValue(String)} with the
+ * implementation they replaced, for strings that need no replacement and strings that do.
+ *
+ * Run with {@code mvn -P benchmark test-compile exec:exec -Dbenchmark=SanitizeBenchmark}, and add
+ * {@code -prof gc} to the benchmark pattern to compare allocation rates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SanitizeBenchmark {
+
+  @Param({"clean", "dirty"})
+  public String input;
+
+  private String name;
+  private String value;
+
+  @Setup
+  public void setUp() {
+    if ("clean".equals(input)) {
+      name = "∆application.http.server.requests.latency_p99";
+      value = "us-west-2.prod.checkout-service";
+    } else {
+      name = "∆application http server/requests latency p99";
+      value = " us-west-2 \"prod\"\ncheckout service ";
+    }
+  }
+
+  @Benchmark
+  public String sanitize() {
+    return Utils.sanitize(name);
+  }
+
+  @Benchmark
+  public String legacySanitize() {
+    return legacySanitizeInternal(name, true, false);
+  }
+
+  @Benchmark
+  public String sanitizeValue() {
+    return Utils.sanitizeValue(value);
+  }
+
+  @Benchmark
+  public String legacySanitizeValue() {
+    String res = value.trim();
+    if (value.contains("\"") || value.contains("'")) {
+      res = res.replace("\"", "\\\"");
+    }
+    return "\"" + res.replace("\n", "\\n") + "\"";
+  }
+
+  @Benchmark
+  public int appendSanitized() {
+    StringBuilder sb = new StringBuilder(128);
+    Utils.appendSanitized(sb, name);
+    sb.append('=');
+    Utils.appendSanitizedValue(sb, value);
+    return sb.length();
+  }
+
+  private static String legacySanitizeInternal(String s, boolean addQuotes, boolean ignoreSlash) {
+    StringBuilder sb = new StringBuilder();
+    if (addQuotes) {
+      sb.append('"');
+    }
+    for (int i = 0; i < s.length(); i++) {
+      char cur = s.charAt(i);
+      boolean isLegal = true;
+      boolean isTildaPrefixed = s.charAt(0) == 126;
+      boolean isDeltaPrefixed = (s.charAt(0) == 0x2206) || (s.charAt(0) == 0x0394);
+      boolean isDeltaTildaPrefixed = isDeltaPrefixed && s.charAt(1) == 126;
+      if (!(44 <= cur && cur <= 57) && !(65 <= cur && cur <= 90) && !(97 <= cur && cur <= 122) &&
+          cur != 95) {
+        if (!(i == 0 && (isDeltaPrefixed || isTildaPrefixed) || (i == 1 && isDeltaTildaPrefixed))) {
+          isLegal = false;
+        }
+      }
+      if (cur == '/' && !ignoreSlash) {
+        isLegal = false;
+      }
+      sb.append(isLegal ? cur : '-');
+    }
+    if (addQuotes) {
+      sb.append('"');
+    }
+    return sb.toString();
+  }
+}
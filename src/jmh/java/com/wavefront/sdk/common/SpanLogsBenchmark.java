@@ -0,0 +1,65 @@
+package com.wavefront.sdk.common;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+import com.wavefront.sdk.entities.tracing.SpanLog;
+import com.wavefront.sdk.entities.tracing.SpanLogsDTO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link SpanLogsEncoder} with serializing a {@link SpanLogsDTO} with an
+ * {@link ObjectMapper}, for span logs carrying an error stack.
+ *
+ * Run with {@code mvn -P benchmark test-compile exec:exec -Dbenchmark=SpanLogsBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SpanLogsBenchmark {
+
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+  private static final SpanLogsEncoder TRUNCATING = new SpanLogsEncoder(0, 1024);
+
+  private final UUID traceId = UUID.randomUUID();
+  private final UUID spanId = UUID.randomUUID();
+  private final List<SpanLog> spanLogs = Collections.singletonList(new SpanLog(1493773500000L,
+      ImmutableMap.of("event", "error", "error.kind", "exception", "message", "timed out",
+          "stack", Strings.repeat("\tat com.example.Service.call(Service.java:42)\n", 50))));
+  private final String span = "\"getAllUsers\" source=\"localhost\" traceId=" + traceId +
+      " spanId=" + spanId + " \"application\"=\"Wavefront\" \"error\"=\"true\" 1493773500 343500\n";
+
+  @Benchmark
+  public byte[] objectMapper() throws JsonProcessingException {
+    return (OBJECT_MAPPER.writeValueAsString(new SpanLogsDTO(traceId, spanId, spanLogs, span)) +
+        "\n").getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Benchmark
+  public byte[] encoder() throws JsonProcessingException {
+    return SpanLogsEncoder.DEFAULT.encodeToBytes(traceId, spanId, spanLogs, span);
+  }
+
+  @Benchmark
+  public byte[] truncatingEncoder() throws JsonProcessingException {
+    return TRUNCATING.encodeToBytes(traceId, spanId, spanLogs, span);
+  }
+}
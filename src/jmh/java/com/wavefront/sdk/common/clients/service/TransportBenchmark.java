@@ -0,0 +1,130 @@
+package com.wavefront.sdk.common.clients.service;
+
+import com.sun.net.httpserver.HttpServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/**
+ * Compares the cost of reporting a batch through each {@link Transport}: the pooled and
+ * {@link java.net.HttpURLConnection} transports post to an HTTP server on the loopback
+ * interface, while the in-process transport only drains the request body, which leaves the
+ * cost of building the body.
+ *
+ * Run with {@code mvn -P benchmark test-compile exec:exec -Dbenchmark=TransportBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransportBenchmark {
+
+  @Param({"pooled", "urlConnection", "inProcess"})
+  public String transport;
+
+  @Param({"NONE", "GZIP"})
+  public Compression compression;
+
+  @Param({"10", "1000"})
+  public int batchSize;
+
+  private HttpServer server;
+  private ReportingService service;
+  private List<byte[]> items;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/", exchange -> {
+      try (InputStream is = exchange.getRequestBody()) {
+        drain(is);
+      }
+      exchange.sendResponseHeaders(202, -1);
+      exchange.close();
+    });
+    server.start();
+
+    Transport selected;
+    switch (transport) {
+      case "pooled":
+        selected = new PooledHttpTransport.Builder().build();
+        break;
+      case "urlConnection":
+        selected = new HttpURLConnectionTransport(30000, 10000);
+        break;
+      default:
+        selected = new InProcessTransport();
+    }
+    service = new ReportingService("http://127.0.0.1:" + server.getAddress().getPort(), null,
+        compression, Deflater.DEFAULT_COMPRESSION, selected, null);
+
+    items = new ArrayList<>(batchSize);
+    for (int i = 0; i < batchSize; i++) {
+      items.add(("new-york.power.usage " + i + " 1493773500 source=localhost " +
+          "\"datacenter\"=\"dc1\"\n").getBytes(StandardCharsets.UTF_8));
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    service.close();
+    server.stop(0);
+  }
+
+  @Benchmark
+  public int send() {
+    return service.send("wavefront", items);
+  }
+
+  private static void drain(InputStream is) throws IOException {
+    byte[] buffer = new byte[8192];
+    while (is.read(buffer) >= 0) {
+    }
+  }
+
+  /**
+   * Discards request bodies without leaving the process.
+   */
+  private static final class InProcessTransport implements Transport {
+    private final OutputStream sink = new OutputStream() {
+      @Override
+      public void write(int b) {
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) {
+      }
+    };
+
+    @Override
+    public int post(URL url, Map<String, String> headers, long contentLength, Body body)
+        throws IOException {
+      body.writeTo(sink);
+      return 202;
+    }
+  }
+}
@@ -0,0 +1,222 @@
+package com.wavefront.sdk.common;
+
+import com.wavefront.sdk.common.annotation.Nullable;
+import com.wavefront.sdk.entities.histograms.HistogramGranularity;
+import com.wavefront.sdk.entities.tracing.SpanLog;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Encodes metric, histogram, span and log lines to UTF-8 without creating a String per line.
+ *
+ * Each thread has its own encoder, which keeps the char and byte buffers it encodes into across
+ * lines. A line is appended to the char buffer by the {@code append*} serializers of
+ * {@link Utils}, then encoded inline into the byte buffer, from which it can be copied out or
+ * written to a stream. The buffers are only valid until the next line is encoded on the same
+ * thread, and buffers grown by a very long line are released when the next line is encoded.
+ *
+ * <pre>
+ * byte[] line = LineEncoder.get().metric(name, value, timestamp, source, tags, defaultSource).
+ *     toByteArray();
+ * </pre>
+ */
+public final class LineEncoder {
+
+  private static final int INITIAL_CHARS = 512;
+  private static final int MAX_RETAINED_CHARS = 16 * 1024;
+
+  private static final ThreadLocal<LineEncoder> ENCODERS =
+      ThreadLocal.withInitial(LineEncoder::new);
+
+  private StringBuilder chars = new StringBuilder(INITIAL_CHARS);
+  private byte[] bytes = new byte[INITIAL_CHARS * 3];
+  private int length;
+
+  private LineEncoder() {
+  }
+
+  /**
+   * @return the encoder of the current thread.
+   */
+  public static LineEncoder get() {
+    return ENCODERS.get();
+  }
+
+  /**
+   * Encodes a metric line, as returned by {@link Utils#metricToLineData}.
+   *
+   * @return {@code this}
+   * @throws IllegalArgumentException if the name, source or a tag is blank.
+   */
+  public LineEncoder metric(String name, double value, @Nullable Long timestamp,
+                            @Nullable String source, @Nullable Map<String, String> tags,
+                            String defaultSource) {
+    Utils.appendMetricLine(reset(), name, value, timestamp, source, tags, defaultSource);
+    return encode();
+  }
+
+  /**
+   * Encodes a log line, as returned by {@link Utils#logToLineData}.
+   *
+   * @return {@code this}
+   * @throws IllegalArgumentException if the name, source or a label is blank.
+   */
+  public LineEncoder log(String name, double value, @Nullable Long timestamp,
+                         @Nullable String source, @Nullable Map<String, String> tags,
+                         String defaultSource) {
+    Utils.appendLogLine(reset(), name, value, timestamp, source, tags, defaultSource);
+    return encode();
+  }
+
+  /**
+   * Encodes the histogram lines of a distribution, as returned by
+   * {@link Utils#histogramToLineData}.
+   *
+   * @return {@code this}
+   * @throws IllegalArgumentException if the histogram is invalid.
+   */
+  public LineEncoder histogram(String name, List<Pair<Double, Integer>> centroids,
+                               Set<HistogramGranularity> histogramGranularities,
+                               @Nullable Long timestamp, @Nullable String source,
+                               @Nullable Map<String, String> tags, String defaultSource) {
+    Utils.appendHistogramLines(reset(), name, centroids, histogramGranularities, timestamp,
+        source, tags, defaultSource);
+    return encode();
+  }
+
+  /**
+   * Encodes the histogram lines of a distribution whose centroids are given as arrays of
+   * primitives, as returned by {@link Utils#histogramToLineData}.
+   *
+   * @return {@code this}
+   * @throws IllegalArgumentException if the histogram is invalid.
+   */
+  public LineEncoder histogram(String name, double[] means, int[] counts,
+                               Set<HistogramGranularity> histogramGranularities,
+                               @Nullable Long timestamp, @Nullable String source,
+                               @Nullable Map<String, String> tags, String defaultSource) {
+    Utils.appendHistogramLines(reset(), name, means, counts, histogramGranularities, timestamp,
+        source, tags, defaultSource);
+    return encode();
+  }
+
+  /**
+   * Encodes a span line, as returned by {@link Utils#tracingSpanToLineData}.
+   *
+   * @return {@code this}
+   * @throws IllegalArgumentException if the name, source or a tag is blank.
+   */
+  public LineEncoder span(String name, long startMillis, long durationMillis,
+                          @Nullable String source, UUID traceId, UUID spanId,
+                          @Nullable List<UUID> parents, @Nullable List<UUID> followsFrom,
+                          @Nullable List<Pair<String, String>> tags,
+                          @Nullable List<SpanLog> spanLogs, String defaultSource) {
+    Utils.appendSpanLine(reset(), name, startMillis, durationMillis, source, traceId, spanId,
+        parents, followsFrom, tags, spanLogs, defaultSource);
+    return encode();
+  }
+
+  /**
+   * Encodes a line that is already in the Wavefront data format.
+   *
+   * @param line The line, which should end with a newline.
+   * @return {@code this}
+   */
+  public LineEncoder text(CharSequence line) {
+    reset().append(line);
+    return encode();
+  }
+
+  /**
+   * @return the buffer holding the encoded line from index 0 to {@link #length()}.
+   */
+  public byte[] array() {
+    return bytes;
+  }
+
+  /**
+   * @return the number of bytes of the encoded line.
+   */
+  public int length() {
+    return length;
+  }
+
+  /**
+   * @return a copy of the encoded line.
+   */
+  public byte[] toByteArray() {
+    return Arrays.copyOf(bytes, length);
+  }
+
+  /**
+   * Writes the encoded line to a stream.
+   *
+   * @param out The stream to write to.
+   * @throws IOException if the stream fails.
+   */
+  public void writeTo(OutputStream out) throws IOException {
+    out.write(bytes, 0, length);
+  }
+
+  /**
+   * @return the line last encoded.
+   */
+  @Override
+  public String toString() {
+    return chars.toString();
+  }
+
+  private StringBuilder reset() {
+    if (chars.capacity() > MAX_RETAINED_CHARS) {
+      chars = new StringBuilder(INITIAL_CHARS);
+      bytes = new byte[INITIAL_CHARS * 3];
+    } else {
+      chars.setLength(0);
+    }
+    length = 0;
+    return chars;
+  }
+
+  private LineEncoder encode() {
+    int numChars = chars.length();
+    if (bytes.length < numChars * 3) {
+      bytes = new byte[Math.max(numChars * 3, bytes.length * 2)];
+    }
+    byte[] out = bytes;
+    int position = 0;
+    for (int i = 0; i < numChars; i++) {
+      char c = chars.charAt(i);
+      if (c < 0x80) {
+        out[position++] = (byte) c;
+      } else if (c < 0x800) {
+        out[position++] = (byte) (0xc0 | (c >> 6));
+        out[position++] = (byte) (0x80 | (c & 0x3f));
+      } else if (Character.isSurrogate(c)) {
+        char low = i + 1 < numChars ? chars.charAt(i + 1) : 0;
+        if (Character.isHighSurrogate(c) && Character.isLowSurrogate(low)) {
+          int codePoint = Character.toCodePoint(c, low);
+          out[position++] = (byte) (0xf0 | (codePoint >> 18));
+          out[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+          out[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+          out[position++] = (byte) (0x80 | (codePoint & 0x3f));
+          i++;
+        } else {
+          // same replacement as String.getBytes for malformed input
+          out[position++] = '?';
+        }
+      } else {
+        out[position++] = (byte) (0xe0 | (c >> 12));
+        out[position++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+        out[position++] = (byte) (0x80 | (c & 0x3f));
+      }
+    }
+    length = position;
+    return this;
+  }
+}
@@ -0,0 +1,734 @@
+package com.wavefront.sdk.common;
+
+import com.wavefront.sdk.common.annotation.Nullable;
+import com.wavefront.sdk.common.clients.buffer.BufferFullPolicy;
+import com.wavefront.sdk.common.clients.buffer.DiskSpool;
+import com.wavefront.sdk.common.logging.MessageSuppressingLogger;
+import com.wavefront.sdk.common.metrics.WavefrontSdkDeltaCounter;
+import com.wavefront.sdk.common.metrics.WavefrontSdkMetricsRegistry;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A TCP client for the WF proxy that never writes to the network on the caller's thread.
+ *
+ * Callers append their lines to a buffer of pooled direct {@link ByteBuffer} segments. A
+ * segment is handed to the writer thread once it is full or when {@link #flush()} is called.
+ * The writer thread sends segments with gathering writes on a non-blocking
+ * {@link SocketChannel}, driven by a {@link Selector}, and also connects, notices when the
+ * server closes the connection (TCP FIN or RST), and reconnects. While the proxy is slow or
+ * unreachable, data accumulates in the buffer, and once the buffer is full the configured
+ * {@link BufferFullPolicy} applies.
+ *
+ * When the connection breaks, the data already handed to the operating system is lost, as with
+ * {@link ReconnectingSocket}. The remainder of a line that was partly sent is skipped so that
+ * the new connection starts on a line boundary.
+ */
+public class NioReconnectingSocket implements ProxySocket {
+  private static final Logger logger = Logger.getLogger(
+      NioReconnectingSocket.class.getCanonicalName());
+  private static final MessageSuppressingLogger suppressingLogger =
+      new MessageSuppressingLogger(logger, 1, TimeUnit.MINUTES);
+
+  private static final long SERVER_CONNECT_TIMEOUT_MILLIS = 5000;
+  private static final long RECONNECT_DELAY_MILLIS = 1000;
+  private static final long SELECT_TIMEOUT_MILLIS = 1000;
+  private static final long CLOSE_TIMEOUT_MILLIS = 5000;
+  private static final int MAX_GATHERED_SEGMENTS = 64;
+
+  private final InetSocketAddress address;
+  private final String addressString;
+  private final int segmentBytes;
+  private final int maxSegments;
+  private final BufferFullPolicy bufferFullPolicy;
+  private final long blockTimeoutNanos;
+  @Nullable
+  private final DiskSpool spool;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notFull = lock.newCondition();
+  // The segment callers append to, in write mode. Guarded by lock.
+  @Nullable
+  private ByteBuffer current;
+  // Segments handed to the writer thread, in read mode. Guarded by lock.
+  private final ArrayDeque<ByteBuffer> ready = new ArrayDeque<>();
+  // Cleared segments available for reuse. Guarded by lock.
+  private final ArrayDeque<ByteBuffer> free = new ArrayDeque<>();
+  private int allocatedSegments;
+  private long bufferedBytes;
+  private volatile boolean closed;
+
+  private final Selector selector;
+  private final Thread writerThread;
+  private volatile long closeDeadlineNanos;
+
+  // State of the writer thread
+  @Nullable
+  private SocketChannel channel;
+  @Nullable
+  private SelectionKey selectionKey;
+  private volatile boolean connected;
+  private boolean everConnected;
+  private long connectDeadlineNanos;
+  private long nextConnectNanos;
+  @Nullable
+  private byte[] spilledItem;
+  // Whether the last byte written to a connection ended a line
+  private boolean lineEnded = true;
+  private final ByteBuffer readBuffer = ByteBuffer.allocate(1024);
+  private final ByteBuffer[] gathered = new ByteBuffer[MAX_GATHERED_SEGMENTS];
+
+  private final WavefrontSdkDeltaCounter writeSuccesses;
+  private final WavefrontSdkDeltaCounter writeErrors;
+  private final WavefrontSdkDeltaCounter writeDropped;
+  private final WavefrontSdkDeltaCounter writeSpilled;
+  private final WavefrontSdkDeltaCounter spillReplayed;
+  private final WavefrontSdkDeltaCounter flushSuccesses;
+  private final WavefrontSdkDeltaCounter resetSuccesses;
+  private final WavefrontSdkDeltaCounter resetErrors;
+  private final WavefrontSdkDeltaCounter bytesWritten;
+
+  public static class Builder {
+    // Required parameters
+    private final InetSocketAddress address;
+    private final WavefrontSdkMetricsRegistry sdkMetricsRegistry;
+    private final String entityPrefix;
+
+    // Optional parameters
+    private long bufferBytes = 4 * 1024 * 1024;
+    private int segmentBytes = 64 * 1024;
+    private BufferFullPolicy bufferFullPolicy = BufferFullPolicy.DROP;
+    private long blockTimeoutMillis = 100;
+    @Nullable
+    private File spillDirectory = null;
+    private long maxSpillBytes = 256L * 1024 * 1024;
+
+    /**
+     * @param address            The {@link InetSocketAddress} of the server to connect to.
+     * @param sdkMetricsRegistry The {@link WavefrontSdkMetricsRegistry} for internal metrics.
+     * @param entityPrefix       A prefix for internal metrics pertaining to this instance.
+     */
+    public Builder(InetSocketAddress address, WavefrontSdkMetricsRegistry sdkMetricsRegistry,
+                   String entityPrefix) {
+      this.address = address;
+      this.sdkMetricsRegistry = sdkMetricsRegistry;
+      this.entityPrefix = entityPrefix;
+    }
+
+    /**
+     * Set the max number of bytes buffered in memory. The default is 4 MiB.
+     *
+     * @param bufferBytes Max number of buffered bytes
+     * @return {@code this}
+     */
+    public Builder bufferBytes(long bufferBytes) {
+      if (bufferBytes <= 0) {
+        throw new IllegalArgumentException("bufferBytes must be positive: " + bufferBytes);
+      }
+      this.bufferBytes = bufferBytes;
+      return this;
+    }
+
+    /**
+     * Set the size of each direct buffer segment. The default is 64 KiB.
+     *
+     * @param segmentBytes Size of each segment in bytes
+     * @return {@code this}
+     */
+    public Builder segmentBytes(int segmentBytes) {
+      if (segmentBytes <= 0) {
+        throw new IllegalArgumentException("segmentBytes must be positive: " + segmentBytes);
+      }
+      this.segmentBytes = segmentBytes;
+      return this;
+    }
+
+    /**
+     * Set what happens to data written while the buffer is full. The default is
+     * {@link BufferFullPolicy#DROP}.
+     *
+     * @param bufferFullPolicy The policy applied when the buffer is full
+     * @return {@code this}
+     */
+    public Builder bufferFullPolicy(BufferFullPolicy bufferFullPolicy) {
+      this.bufferFullPolicy = bufferFullPolicy;
+      return this;
+    }
+
+    /**
+     * Set how long a write waits for room in the buffer under {@link BufferFullPolicy#BLOCK}.
+     * The default is 100 milliseconds.
+     *
+     * @param blockTimeout Max time to wait
+     * @param unit         Unit of the time
+     * @return {@code this}
+     */
+    public Builder blockTimeout(long blockTimeout, TimeUnit unit) {
+      if (blockTimeout < 0) {
+        throw new IllegalArgumentException("blockTimeout must not be negative: " + blockTimeout);
+      }
+      this.blockTimeoutMillis = unit.toMillis(blockTimeout);
+      return this;
+    }
+
+    /**
+     * Set the directory data is spilled to under {@link BufferFullPolicy#SPILL}.
+     *
+     * @param spillDirectory The spill directory
+     * @return {@code this}
+     */
+    public Builder spillDirectory(File spillDirectory) {
+      this.spillDirectory = spillDirectory;
+      return this;
+    }
+
+    /**
+     * Set the max number of bytes spilled to disk, past which the oldest spilled data is
+     * dropped. The default is 256 MiB.
+     *
+     * @param maxSpillBytes Max number of spilled bytes
+     * @return {@code this}
+     */
+    public Builder maxSpillBytes(long maxSpillBytes) {
+      if (maxSpillBytes <= 0) {
+        throw new IllegalArgumentException("maxSpillBytes must be positive: " + maxSpillBytes);
+      }
+      this.maxSpillBytes = maxSpillBytes;
+      return this;
+    }
+
+    /**
+     * Creates a new socket, which connects in the background.
+     *
+     * @return {@link NioReconnectingSocket}
+     * @throws IOException if the selector or the spill directory cannot be opened.
+     */
+    public NioReconnectingSocket build() throws IOException {
+      if (bufferFullPolicy == BufferFullPolicy.SPILL && spillDirectory == null) {
+        throw new IllegalArgumentException("The SPILL policy requires a spill directory");
+      }
+      return new NioReconnectingSocket(this);
+    }
+  }
+
+  private NioReconnectingSocket(Builder builder) throws IOException {
+    this.address = builder.address;
+    this.addressString = address.getHostString() + ":" + address.getPort();
+    this.segmentBytes = builder.segmentBytes;
+    this.maxSegments = (int) Math.max(1, Math.min(Integer.MAX_VALUE,
+        builder.bufferBytes / builder.segmentBytes));
+    this.bufferFullPolicy = builder.bufferFullPolicy;
+    this.blockTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(builder.blockTimeoutMillis);
+    this.spool = builder.bufferFullPolicy == BufferFullPolicy.SPILL ?
+        new DiskSpool(builder.spillDirectory, builder.maxSpillBytes) : null;
+
+    String entityPrefix = builder.entityPrefix == null || builder.entityPrefix.isEmpty() ? "" :
+        builder.entityPrefix + ".";
+    WavefrontSdkMetricsRegistry sdkMetricsRegistry = builder.sdkMetricsRegistry;
+    writeSuccesses = sdkMetricsRegistry.newDeltaCounter(entityPrefix + "write.success");
+    writeErrors = sdkMetricsRegistry.newDeltaCounter(entityPrefix + "write.errors");
+    writeDropped = sdkMetricsRegistry.newDeltaCounter(entityPrefix + "write.dropped");
+    writeSpilled = sdkMetricsRegistry.newDeltaCounter(entityPrefix + "write.spilled");
+    spillReplayed = sdkMetricsRegistry.newDeltaCounter(entityPrefix + "spill.replayed");
+    flushSuccesses = sdkMetricsRegistry.newDeltaCounter(entityPrefix + "flush.success");
+    resetSuccesses = sdkMetricsRegistry.newDeltaCounter(entityPrefix + "reset.success");
+    resetErrors = sdkMetricsRegistry.newDeltaCounter(entityPrefix + "reset.errors");
+    bytesWritten = sdkMetricsRegistry.newDeltaCounter(entityPrefix + "bytes.written");
+    sdkMetricsRegistry.newGauge(entityPrefix + "buffer.bytes", this::getBufferedBytes);
+
+    this.selector = Selector.open();
+    this.writerThread = new NamedThreadFactory("wavefrontProxySocket-" + addressString).
+        setDaemon(true).newThread(this::run);
+    writerThread.start();
+  }
+
+  /**
+   * Appends the given bytes to the buffer, or applies the {@link BufferFullPolicy} if the
+   * buffer is full. The bytes are sent by the writer thread.
+   *
+   * @param data   The buffer holding the bytes to send.
+   * @param offset The position of the first byte to send.
+   * @param length The number of bytes to send.
+   * @throws IOException if the socket is closed.
+   */
+  @Override
+  public void write(byte[] data, int offset, int length) throws IOException {
+    if (length == 0) {
+      return;
+    }
+    boolean wakeWriter;
+    lock.lock();
+    try {
+      if (closed) {
+        throw new IOException("Socket to " + addressString + " is closed");
+      }
+      if (!hasRoom(length) && bufferFullPolicy == BufferFullPolicy.BLOCK) {
+        // full segments are already with the writer thread, hand it the partial one as well
+        sealCurrent();
+        selector.wakeup();
+        long nanos = blockTimeoutNanos;
+        while (!hasRoom(length) && nanos > 0 && !closed) {
+          nanos = notFull.awaitNanos(nanos);
+        }
+      }
+      if (!closed && hasRoom(length)) {
+        wakeWriter = append(data, offset, length);
+        writeSuccesses.inc();
+        if (wakeWriter) {
+          selector.wakeup();
+        }
+        return;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      lock.unlock();
+    }
+    if (spool != null && spool.offer(Arrays.copyOfRange(data, offset, offset + length))) {
+      writeSpilled.inc();
+      return;
+    }
+    writeDropped.inc();
+    suppressingLogger.log(addressString, Level.WARNING, () ->
+        "Buffer of the connection to " + addressString + " is full, dropping data");
+  }
+
+  /**
+   * Hands the data buffered so far to the writer thread, without waiting for it to be sent.
+   */
+  @Override
+  public void flush() {
+    lock.lock();
+    try {
+      sealCurrent();
+    } finally {
+      lock.unlock();
+    }
+    selector.wakeup();
+    flushSuccesses.inc();
+  }
+
+  /**
+   * Stops accepting data and waits for up to 5 seconds for the buffered data to be sent.
+   */
+  @Override
+  public void close() throws IOException {
+    lock.lock();
+    try {
+      if (closed) {
+        return;
+      }
+      // set before the writer thread can see the flag
+      closeDeadlineNanos = System.nanoTime() +
+          TimeUnit.MILLISECONDS.toNanos(CLOSE_TIMEOUT_MILLIS);
+      closed = true;
+      sealCurrent();
+      notFull.signalAll();
+    } finally {
+      lock.unlock();
+    }
+    selector.wakeup();
+    try {
+      writerThread.join(CLOSE_TIMEOUT_MILLIS * 2);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      if (spool != null) {
+        spool.close();
+      }
+    }
+  }
+
+  /**
+   * @return the number of bytes buffered in memory and not yet sent.
+   */
+  public long getBufferedBytes() {
+    lock.lock();
+    try {
+      return bufferedBytes;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return true if the writer thread is connected to the server.
+   */
+  public boolean isConnected() {
+    return connected;
+  }
+
+  private boolean hasRoom(int length) {
+    long room = (current == null ? 0 : current.remaining()) +
+        (long) (free.size() + maxSegments - allocatedSegments) * segmentBytes;
+    return length <= room;
+  }
+
+  /**
+   * @return true if a segment was handed to the writer thread.
+   */
+  private boolean append(byte[] data, int offset, int length) {
+    boolean sealed = false;
+    bufferedBytes += length;
+    while (length > 0) {
+      if (current == null) {
+        current = free.isEmpty() ? newSegment() : free.pollFirst();
+      }
+      int copied = Math.min(length, current.remaining());
+      current.put(data, offset, copied);
+      offset += copied;
+      length -= copied;
+      if (!current.hasRemaining()) {
+        sealCurrent();
+        sealed = true;
+      }
+    }
+    return sealed;
+  }
+
+  private ByteBuffer newSegment() {
+    allocatedSegments++;
+    return ByteBuffer.allocateDirect(segmentBytes);
+  }
+
+  private void sealCurrent() {
+    if (current != null && current.position() > 0) {
+      current.flip();
+      ready.addLast(current);
+      current = null;
+    }
+  }
+
+  private void run() {
+    try {
+      while (true) {
+        long now = System.nanoTime();
+        if (closed && (!hasPendingData() || now - closeDeadlineNanos >= 0)) {
+          break;
+        }
+        if (channel == null && now - nextConnectNanos >= 0) {
+          startConnect();
+        } else if (channel != null && !connected && now - connectDeadlineNanos >= 0) {
+          disconnect(new IOException("Timed out connecting"));
+        }
+        boolean pending = false;
+        if (connected) {
+          replaySpilled();
+          pending = writeReady();
+        }
+        if (selectionKey != null && selectionKey.isValid()) {
+          selectionKey.interestOps(!connected ? SelectionKey.OP_CONNECT :
+              pending ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        }
+        selector.select(selectTimeoutMillis());
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          if (key.isValid() && key.isConnectable()) {
+            finishConnect();
+          }
+          if (key.isValid() && key.isReadable()) {
+            readAndDiscard();
+          }
+          // writable keys are served at the top of the loop
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      logger.log(Level.SEVERE, "Writer thread of the connection to " + addressString +
+          " failed", e);
+    } finally {
+      if (spilledItem != null) {
+        // put back for the next time the spill directory is opened
+        spool.offer(spilledItem);
+      }
+      long unsent = getBufferedBytes();
+      if (unsent > 0) {
+        logger.warning("Closing the connection to " + addressString + " with " + unsent +
+            " bytes unsent");
+      }
+      closeChannel();
+      try {
+        selector.close();
+      } catch (IOException e) {
+        // nothing left to release
+      }
+    }
+  }
+
+  private boolean hasPendingData() {
+    lock.lock();
+    try {
+      return !ready.isEmpty();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private long selectTimeoutMillis() {
+    long now = System.nanoTime();
+    long deadline = channel == null ? nextConnectNanos :
+        !connected ? connectDeadlineNanos : now + TimeUnit.MILLISECONDS.toNanos(
+            SELECT_TIMEOUT_MILLIS);
+    if (closed) {
+      deadline = Math.min(deadline, closeDeadlineNanos);
+    }
+    // select(0) waits indefinitely
+    return Math.max(1, Math.min(SELECT_TIMEOUT_MILLIS,
+        TimeUnit.NANOSECONDS.toMillis(deadline - now)));
+  }
+
+  private void startConnect() {
+    try {
+      // resolve the host again on each attempt, in case the proxy moved
+      InetSocketAddress target = new InetSocketAddress(address.getHostString(),
+          address.getPort());
+      if (target.isUnresolved()) {
+        throw new UnknownHostException(address.getHostString());
+      }
+      channel = SocketChannel.open();
+      channel.configureBlocking(false);
+      channel.socket().setTcpNoDelay(true);
+      connectDeadlineNanos = System.nanoTime() +
+          TimeUnit.MILLISECONDS.toNanos(SERVER_CONNECT_TIMEOUT_MILLIS);
+      boolean done = channel.connect(target);
+      selectionKey = channel.register(selector, SelectionKey.OP_CONNECT);
+      if (done) {
+        onConnected();
+      }
+    } catch (IOException e) {
+      disconnect(e);
+    }
+  }
+
+  private void finishConnect() {
+    try {
+      if (channel.finishConnect()) {
+        onConnected();
+      }
+    } catch (IOException e) {
+      disconnect(e);
+    }
+  }
+
+  private void onConnected() {
+    connected = true;
+    resetSuccesses.inc();
+    suppressingLogger.reset(addressString);
+    if (everConnected) {
+      logger.info("Successfully reset connection to " + addressString);
+    }
+    everConnected = true;
+    skipPartialLine();
+  }
+
+  private void disconnect(IOException cause) {
+    if (connected) {
+      writeErrors.inc();
+      logger.warning("Lost connection to " + addressString + " (" + cause.getMessage() +
+          "), reconnecting ...");
+    } else {
+      resetErrors.inc();
+      suppressingLogger.log(addressString, Level.WARNING, () -> "Unable to connect to " +
+          addressString + " (" + cause + "), retrying ...");
+    }
+    closeChannel();
+    nextConnectNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RECONNECT_DELAY_MILLIS);
+  }
+
+  private void closeChannel() {
+    connected = false;
+    if (selectionKey != null) {
+      selectionKey.cancel();
+      selectionKey = null;
+    }
+    if (channel != null) {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        // nothing left to release
+      }
+      channel = null;
+    }
+  }
+
+  private void readAndDiscard() {
+    try {
+      readBuffer.clear();
+      if (channel.read(readBuffer) < 0) {
+        disconnect(new EOFException("Connection closed by the server"));
+      }
+    } catch (IOException e) {
+      disconnect(e);
+    }
+  }
+
+  /**
+   * Writes ready segments until the socket buffer is full.
+   *
+   * @return true if ready data is left to write.
+   */
+  private boolean writeReady() {
+    while (true) {
+      int count = 0;
+      lock.lock();
+      try {
+        for (ByteBuffer segment : ready) {
+          if (count == gathered.length) {
+            break;
+          }
+          gathered[count++] = segment;
+        }
+      } finally {
+        lock.unlock();
+      }
+      if (count == 0) {
+        return false;
+      }
+      long written;
+      try {
+        written = channel.write(gathered, 0, count);
+        if (written > 0) {
+          // the last byte written is right before the position of the last segment written to
+          for (int i = count - 1; i >= 0; i--) {
+            ByteBuffer segment = gathered[i];
+            if (segment.position() > 0) {
+              lineEnded = segment.get(segment.position() - 1) == '\n';
+              break;
+            }
+          }
+        }
+      } catch (IOException e) {
+        disconnect(e);
+        return false;
+      } finally {
+        Arrays.fill(gathered, 0, count, null);
+      }
+      bytesWritten.inc(written);
+      boolean more = release(written);
+      if (written == 0 || !more) {
+        return more;
+      }
+    }
+  }
+
+  /**
+   * Returns fully written segments to the pool.
+   *
+   * @return true if ready data is left to write.
+   */
+  private boolean release(long written) {
+    lock.lock();
+    try {
+      bufferedBytes -= written;
+      boolean released = false;
+      while (!ready.isEmpty() && !ready.peekFirst().hasRemaining()) {
+        ByteBuffer segment = ready.pollFirst();
+        segment.clear();
+        free.addLast(segment);
+        released = true;
+      }
+      if (released) {
+        notFull.signalAll();
+      }
+      return !ready.isEmpty();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Skips the rest of a line that was partly written to a connection that broke, so that the
+   * new connection does not start in the middle of a line. The rest of the line may span several
+   * segments, up to the one callers append to.
+   */
+  private void skipPartialLine() {
+    if (lineEnded) {
+      return;
+    }
+    lineEnded = true;
+    lock.lock();
+    try {
+      long skipped = 0;
+      for (ByteBuffer segment : ready) {
+        while (segment.hasRemaining()) {
+          skipped++;
+          if (segment.get() == '\n') {
+            bufferedBytes -= skipped;
+            release(0);
+            return;
+          }
+        }
+      }
+      if (current != null) {
+        for (int i = 0; i < current.position(); i++) {
+          if (current.get(i) == '\n') {
+            skipped += i + 1;
+            current.flip();
+            current.position(i + 1);
+            current.compact();
+            break;
+          }
+        }
+      }
+      bufferedBytes -= skipped;
+      release(0);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Moves spilled data back to the buffer as long as it has room.
+   */
+  private void replaySpilled() {
+    if (spool == null) {
+      return;
+    }
+    boolean replayed = false;
+    while (true) {
+      if (spilledItem == null) {
+        spilledItem = spool.poll();
+        if (spilledItem == null) {
+          break;
+        }
+      }
+      lock.lock();
+      try {
+        if (closed || !hasRoom(spilledItem.length)) {
+          break;
+        }
+        append(spilledItem, 0, spilledItem.length);
+      } finally {
+        lock.unlock();
+      }
+      spilledItem = null;
+      spillReplayed.inc();
+      replayed = true;
+    }
+    if (replayed) {
+      lock.lock();
+      try {
+        sealCurrent();
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+}
@@ -0,0 +1,188 @@
+package com.wavefront.sdk.common;
+
+/**
+ * Writes numbers in the Wavefront data format without going through {@link Double#toString} or
+ * {@link Long#toString}, which allocate for every value.
+ *
+ * Doubles are written with the fewest fractional digits that parse back to the same value, and
+ * integral values are written without a fractional part, so {@code 42422.0} is written as
+ * {@code 42422}. A decimal {@code m / 10^k}, where {@code m} and {@code 10^k} are both exactly
+ * representable as doubles, parses to the correctly rounded result of dividing them, so the
+ * smallest {@code k} for which that division gives back the value is found with plain double
+ * arithmetic. Values that are too small, too large or not finite are written by
+ * {@link Double#toString}.
+ */
+public final class Numbers {
+
+  /**
+   * The max number of characters written for a double.
+   */
+  public static final int MAX_DOUBLE_LENGTH = 24;
+
+  /**
+   * The max number of characters written for a long.
+   */
+  public static final int MAX_LONG_LENGTH = 20;
+
+  private static final int MAX_FRACTION_DIGITS = 17;
+  // 2^53, above which not every integer is representable as a double
+  private static final double MAX_EXACT = 9007199254740992.0;
+  private static final double MIN_FAST = 1e-3;
+  private static final double[] POWERS_OF_TEN = new double[MAX_FRACTION_DIGITS + 1];
+  private static final long[] LONG_POWERS_OF_TEN = new long[MAX_FRACTION_DIGITS + 1];
+
+  static {
+    long power = 1;
+    for (int i = 0; i <= MAX_FRACTION_DIGITS; i++) {
+      POWERS_OF_TEN[i] = power;
+      LONG_POWERS_OF_TEN[i] = power;
+      power *= 10;
+    }
+  }
+
+  private Numbers() {
+  }
+
+  /**
+   * Appends a double to a builder.
+   *
+   * @param sb    The builder to append to.
+   * @param value The value to append.
+   */
+  public static void appendDouble(StringBuilder sb, double value) {
+    int scale = scale(value);
+    if (scale < 0) {
+      sb.append(value);
+      return;
+    }
+    long unscaled = Math.round(value * POWERS_OF_TEN[scale]);
+    if (unscaled < 0) {
+      sb.append('-');
+      unscaled = -unscaled;
+    }
+    if (scale == 0) {
+      sb.append(unscaled);
+      return;
+    }
+    long divisor = LONG_POWERS_OF_TEN[scale];
+    long fraction = unscaled % divisor;
+    sb.append(unscaled / divisor).append('.');
+    for (long zeros = divisor / 10; fraction < zeros; zeros /= 10) {
+      sb.append('0');
+    }
+    sb.append(fraction);
+  }
+
+  /**
+   * Writes a double into a buffer as ASCII characters.
+   *
+   * @param buffer The buffer to write to, with room for {@link #MAX_DOUBLE_LENGTH} bytes after
+   *               the offset.
+   * @param offset The position of the first character.
+   * @param value  The value to write.
+   * @return the position after the last character written.
+   */
+  public static int writeDouble(byte[] buffer, int offset, double value) {
+    int scale = scale(value);
+    if (scale < 0) {
+      String string = Double.toString(value);
+      for (int i = 0; i < string.length(); i++) {
+        buffer[offset++] = (byte) string.charAt(i);
+      }
+      return offset;
+    }
+    long unscaled = Math.round(value * POWERS_OF_TEN[scale]);
+    if (unscaled < 0) {
+      buffer[offset++] = '-';
+      unscaled = -unscaled;
+    }
+    if (scale == 0) {
+      return writeDigits(buffer, offset, unscaled, digits(unscaled));
+    }
+    long divisor = LONG_POWERS_OF_TEN[scale];
+    long integer = unscaled / divisor;
+    offset = writeDigits(buffer, offset, integer, digits(integer));
+    buffer[offset++] = '.';
+    return writeDigits(buffer, offset, unscaled % divisor, scale);
+  }
+
+  /**
+   * Writes a long into a buffer as ASCII characters.
+   *
+   * @param buffer The buffer to write to, with room for {@link #MAX_LONG_LENGTH} bytes after the
+   *               offset.
+   * @param offset The position of the first character.
+   * @param value  The value to write.
+   * @return the position after the last character written.
+   */
+  public static int writeLong(byte[] buffer, int offset, long value) {
+    if (value == Long.MIN_VALUE) {
+      String string = Long.toString(value);
+      for (int i = 0; i < string.length(); i++) {
+        buffer[offset++] = (byte) string.charAt(i);
+      }
+      return offset;
+    }
+    if (value < 0) {
+      buffer[offset++] = '-';
+      value = -value;
+    }
+    return writeDigits(buffer, offset, value, digits(value));
+  }
+
+  /**
+   * @param value The value to write.
+   * @return the number of characters {@link #writeLong} writes for the value.
+   */
+  public static int longLength(long value) {
+    if (value == Long.MIN_VALUE) {
+      return MAX_LONG_LENGTH;
+    }
+    return value < 0 ? 1 + digits(-value) : digits(value);
+  }
+
+  /**
+   * Returns the fewest fractional digits that represent the value exactly, or -1 if the value has
+   * to be written by {@link Double#toString}.
+   */
+  private static int scale(double value) {
+    double magnitude = Math.abs(value);
+    if (magnitude == 0) {
+      return 0;
+    }
+    if (!(magnitude >= MIN_FAST && magnitude < MAX_EXACT)) {
+      return -1;
+    }
+    for (int scale = 0; scale <= MAX_FRACTION_DIGITS; scale++) {
+      double scaled = value * POWERS_OF_TEN[scale];
+      if (Math.abs(scaled) >= MAX_EXACT) {
+        return -1;
+      }
+      if (Math.round(scaled) / POWERS_OF_TEN[scale] == value) {
+        return scale;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Writes the given number of least significant digits of a non-negative value, padding with
+   * zeros.
+   */
+  private static int writeDigits(byte[] buffer, int offset, long value, int digits) {
+    for (int i = offset + digits - 1; i >= offset; i--) {
+      buffer[i] = (byte) ('0' + value % 10);
+      value /= 10;
+    }
+    return offset + digits;
+  }
+
+  private static int digits(long value) {
+    int digits = 1;
+    while (value >= 10) {
+      value /= 10;
+      digits++;
+    }
+    return digits;
+  }
+}
@@ -0,0 +1,28 @@
+package com.wavefront.sdk.common;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A long-lived, one-way connection to a Wavefront proxy, which reconnects on its own when the
+ * connection is broken.
+ */
+public interface ProxySocket extends Closeable {
+
+  /**
+   * Sends the given bytes, which should hold whole lines.
+   *
+   * @param data   The buffer holding the bytes to send.
+   * @param offset The position of the first byte to send.
+   * @param length The number of bytes to send.
+   * @throws Exception if the bytes could not be sent.
+   */
+  void write(byte[] data, int offset, int length) throws Exception;
+
+  /**
+   * Sends the bytes buffered so far.
+   *
+   * @throws IOException if the bytes could not be sent.
+   */
+  void flush() throws IOException;
+}
@@ -0,0 +1,533 @@
+package com.wavefront.sdk.common;
+
+import com.wavefront.sdk.common.annotation.Nullable;
+import com.wavefront.sdk.common.clients.buffer.BufferType;
+import com.wavefront.sdk.common.clients.buffer.ByteBoundedBuffer;
+import com.wavefront.sdk.common.clients.buffer.ByteBudget;
+import com.wavefront.sdk.common.logging.MessageSuppressingLogger;
+import com.wavefront.sdk.common.metrics.WavefrontSdkDeltaCounter;
+import com.wavefront.sdk.common.metrics.WavefrontSdkMetricsRegistry;
+
+import javax.net.SocketFactory;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A TCP client for the WF proxy that queues lines in memory and sends them from a background
+ * writer thread, in the same way {@link com.wavefront.sdk.common.clients.WavefrontClient}
+ * buffers data for its flush threads.
+ *
+ * Callers only copy their lines into a bounded {@link ByteBoundedBuffer}, and lines that do not
+ * fit are dropped right away. The writer thread packs queued lines into batches of up to
+ * {@link Builder#batchBytes(int)} bytes, each sent with a single write on a blocking
+ * {@link Socket}. It also connects, notices when the server closes the connection, and
+ * reconnects after a delay that doubles on each failed attempt, up to a bound, so application
+ * threads never wait on the network or on a reconnect.
+ *
+ * A batch that fails to be written is sent again on the next connection, but the data already
+ * handed to the operating system when the connection breaks is lost, as with
+ * {@link ReconnectingSocket}.
+ */
+public class QueuedProxySocket implements ProxySocket {
+  private static final Logger logger = Logger.getLogger(
+      QueuedProxySocket.class.getCanonicalName());
+  private static final MessageSuppressingLogger suppressingLogger =
+      new MessageSuppressingLogger(logger, 1, TimeUnit.MINUTES);
+
+  private static final int SERVER_CONNECT_TIMEOUT_MILLIS = 5000;
+  private static final long SERVER_POLL_INTERVAL_MILLIS = 1000;
+  private static final long IDLE_WAIT_MILLIS = 1000;
+  private static final long CLOSE_TIMEOUT_MILLIS = 5000;
+
+  private final InetSocketAddress address;
+  private final String addressString;
+  private final SocketFactory socketFactory;
+  private final ByteBoundedBuffer queue;
+  private final long minReconnectDelayMillis;
+  private final long maxReconnectDelayMillis;
+
+  private final Thread writerThread;
+  // Set by the writer thread before it parks, so that callers know to wake it up
+  private volatile boolean writerWaiting;
+  private volatile boolean closed;
+  private volatile long closeDeadlineNanos;
+
+  // State of the writer thread, except that close() may close the socket to unblock a write
+  @Nullable
+  private volatile Socket socket;
+  @Nullable
+  private OutputStream outputStream;
+  private volatile boolean connected;
+  private boolean everConnected;
+  private long reconnectDelayMillis;
+  private long nextConnectNanos;
+  private long nextPollNanos;
+  private final byte[] batch;
+  private int batchLength;
+  private int batchLines;
+  // A line too large for the batch, or that did not fit in the current one
+  @Nullable
+  private byte[] pendingLine;
+  private final byte[] readBuffer = new byte[1024];
+
+  private final WavefrontSdkDeltaCounter writeSuccesses;
+  private final WavefrontSdkDeltaCounter writeErrors;
+  private final WavefrontSdkDeltaCounter writeDropped;
+  private final WavefrontSdkDeltaCounter flushSuccesses;
+  private final WavefrontSdkDeltaCounter resetSuccesses;
+  private final WavefrontSdkDeltaCounter resetErrors;
+  private final WavefrontSdkDeltaCounter batchesWritten;
+  private final WavefrontSdkDeltaCounter bytesWritten;
+
+  public static class Builder {
+    // Required parameters
+    private final InetSocketAddress address;
+    private final WavefrontSdkMetricsRegistry sdkMetricsRegistry;
+    private final String entityPrefix;
+
+    // Optional parameters
+    private SocketFactory socketFactory = SocketFactory.getDefault();
+    private int maxQueueSize = 500000;
+    private long maxQueueBytes = Long.MAX_VALUE;
+    @Nullable
+    private ByteBudget sharedQueueBytes = null;
+    private BufferType bufferType = BufferType.LINKED_QUEUE;
+    private int batchBytes = 64 * 1024;
+    private long minReconnectDelayMillis = 100;
+    private long maxReconnectDelayMillis = 30000;
+
+    /**
+     * @param address            The address of the server to connect to.
+     * @param sdkMetricsRegistry The registry for internal metrics.
+     * @param entityPrefix       A prefix for internal metrics pertaining to this instance.
+     */
+    public Builder(InetSocketAddress address, WavefrontSdkMetricsRegistry sdkMetricsRegistry,
+                   String entityPrefix) {
+      this.address = address;
+      this.sdkMetricsRegistry = sdkMetricsRegistry;
+      this.entityPrefix = entityPrefix;
+    }
+
+    /**
+     * Set the {@link SocketFactory} used to create the underlying socket.
+     *
+     * @param socketFactory The socket factory
+     * @return {@code this}
+     */
+    public Builder socketFactory(SocketFactory socketFactory) {
+      this.socketFactory = socketFactory;
+      return this;
+    }
+
+    /**
+     * Set the max number of lines queued in memory. The default is 500000.
+     *
+     * @param maxQueueSize Max number of queued lines
+     * @return {@code this}
+     */
+    public Builder maxQueueSize(int maxQueueSize) {
+      if (maxQueueSize < 1) {
+        throw new IllegalArgumentException("maxQueueSize must be positive: " + maxQueueSize);
+      }
+      this.maxQueueSize = maxQueueSize;
+      return this;
+    }
+
+    /**
+     * Set the max number of bytes queued in memory. There is no byte limit by default.
+     *
+     * @param maxQueueBytes Max number of queued bytes
+     * @return {@code this}
+     */
+    public Builder maxQueueBytes(long maxQueueBytes) {
+      if (maxQueueBytes <= 0) {
+        throw new IllegalArgumentException("maxQueueBytes must be positive: " + maxQueueBytes);
+      }
+      this.maxQueueBytes = maxQueueBytes;
+      return this;
+    }
+
+    /**
+     * Set a byte budget shared with the queues of other sockets, which bounds the bytes they
+     * hold combined. There is no shared budget by default.
+     *
+     * @param sharedQueueBytes The shared byte budget
+     * @return {@code this}
+     */
+    public Builder sharedQueueBytes(@Nullable ByteBudget sharedQueueBytes) {
+      this.sharedQueueBytes = sharedQueueBytes;
+      return this;
+    }
+
+    /**
+     * Set the type of in-memory queue. The default is {@link BufferType#LINKED_QUEUE}.
+     *
+     * @param bufferType The type of queue
+     * @return {@code this}
+     */
+    public Builder bufferType(BufferType bufferType) {
+      this.bufferType = bufferType;
+      return this;
+    }
+
+    /**
+     * Set the max number of bytes sent with a single write. Longer lines are sent on their own.
+     * The default is 64 KiB.
+     *
+     * @param batchBytes Max number of bytes per write
+     * @return {@code this}
+     */
+    public Builder batchBytes(int batchBytes) {
+      if (batchBytes < 1) {
+        throw new IllegalArgumentException("batchBytes must be positive: " + batchBytes);
+      }
+      this.batchBytes = batchBytes;
+      return this;
+    }
+
+    /**
+     * Set the delay before reconnecting after the first failure, which doubles on each further
+     * failure up to the given max. The defaults are 100 milliseconds and 30 seconds.
+     *
+     * @param minDelay Delay after the first failure
+     * @param maxDelay Max delay between attempts
+     * @param unit     Unit of the delays
+     * @return {@code this}
+     */
+    public Builder reconnectBackoff(long minDelay, long maxDelay, TimeUnit unit) {
+      if (minDelay <= 0 || maxDelay < minDelay) {
+        throw new IllegalArgumentException("Invalid reconnect backoff: " + minDelay + " to " +
+            maxDelay);
+      }
+      this.minReconnectDelayMillis = Math.max(1, unit.toMillis(minDelay));
+      this.maxReconnectDelayMillis = Math.max(minReconnectDelayMillis, unit.toMillis(maxDelay));
+      return this;
+    }
+
+    /**
+     * Creates the socket and starts its writer thread, which connects in the background.
+     *
+     * @return {@link QueuedProxySocket}
+     */
+    public QueuedProxySocket build() {
+      return new QueuedProxySocket(this);
+    }
+  }
+
+  private QueuedProxySocket(Builder builder) {
+    this.address = builder.address;
+    this.addressString = address.getHostString() + ":" + address.getPort();
+    this.socketFactory = builder.socketFactory;
+    this.queue = new ByteBoundedBuffer(builder.bufferType.newBuffer(builder.maxQueueSize),
+        new ByteBudget(builder.maxQueueBytes), builder.sharedQueueBytes == null ?
+        new ByteBudget(Long.MAX_VALUE) : builder.sharedQueueBytes);
+    this.batch = new byte[builder.batchBytes];
+    this.minReconnectDelayMillis = builder.minReconnectDelayMillis;
+    this.maxReconnectDelayMillis = builder.maxReconnectDelayMillis;
+    this.reconnectDelayMillis = minReconnectDelayMillis;
+
+    String entityPrefix = builder.entityPrefix == null || builder.entityPrefix.isEmpty() ? "" :
+        builder.entityPrefix + ".";
+    WavefrontSdkMetricsRegistry sdkMetricsRegistry = builder.sdkMetricsRegistry;
+    writeSuccesses = sdkMetricsRegistry.newDeltaCounter(entityPrefix + "write.success");
+    writeErrors = sdkMetricsRegistry.newDeltaCounter(entityPrefix + "write.errors");
+    writeDropped = sdkMetricsRegistry.newDeltaCounter(entityPrefix + "write.dropped");
+    flushSuccesses = sdkMetricsRegistry.newDeltaCounter(entityPrefix + "flush.success");
+    resetSuccesses = sdkMetricsRegistry.newDeltaCounter(entityPrefix + "reset.success");
+    resetErrors = sdkMetricsRegistry.newDeltaCounter(entityPrefix + "reset.errors");
+    batchesWritten = sdkMetricsRegistry.newDeltaCounter(entityPrefix + "batches.written");
+    bytesWritten = sdkMetricsRegistry.newDeltaCounter(entityPrefix + "bytes.written");
+    sdkMetricsRegistry.newGauge(entityPrefix + "queue.size", queue::size);
+    sdkMetricsRegistry.newGauge(entityPrefix + "queue.remaining_capacity",
+        queue::remainingCapacity);
+    sdkMetricsRegistry.newGauge(entityPrefix + "queue.bytes", queue::bytes);
+
+    this.writerThread = new NamedThreadFactory("wavefrontProxyWriter-" + addressString).
+        setDaemon(true).newThread(this::run);
+    writerThread.start();
+  }
+
+  /**
+   * Queues a copy of the given bytes, or drops them if the queue is full. The bytes are sent by
+   * the writer thread.
+   *
+   * @param data   The buffer holding the bytes to send.
+   * @param offset The position of the first byte to send.
+   * @param length The number of bytes to send.
+   * @throws IOException if the socket is closed.
+   */
+  @Override
+  public void write(byte[] data, int offset, int length) throws IOException {
+    if (closed) {
+      throw new IOException("Socket to " + addressString + " is closed");
+    }
+    if (length == 0) {
+      return;
+    }
+    if (!queue.offer(Arrays.copyOfRange(data, offset, offset + length))) {
+      writeDropped.inc();
+      suppressingLogger.log(addressString, Level.WARNING, () ->
+          "Queue of the connection to " + addressString + " is full, dropping data");
+      return;
+    }
+    writeSuccesses.inc();
+    if (writerWaiting) {
+      LockSupport.unpark(writerThread);
+    }
+  }
+
+  /**
+   * Wakes up the writer thread, without waiting for the queued data to be sent. The writer
+   * thread sends queued data as soon as it can anyway.
+   */
+  @Override
+  public void flush() {
+    LockSupport.unpark(writerThread);
+    flushSuccesses.inc();
+  }
+
+  /**
+   * Stops accepting data and waits for up to 5 seconds for the queued data to be sent. Data
+   * still unsent by then is dropped, and the socket is closed even if a write to a server that
+   * stopped reading is in progress.
+   */
+  @Override
+  public void close() {
+    if (closed) {
+      return;
+    }
+    // set before the writer thread can see the flag
+    closeDeadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CLOSE_TIMEOUT_MILLIS);
+    closed = true;
+    LockSupport.unpark(writerThread);
+    try {
+      writerThread.join(CLOSE_TIMEOUT_MILLIS);
+      if (writerThread.isAlive()) {
+        // a blocking write has no timeout, so closing the socket is the only way to end it
+        Socket current = socket;
+        if (current != null) {
+          try {
+            current.close();
+          } catch (IOException e) {
+            // nothing left to release
+          }
+        }
+        writerThread.join(SERVER_CONNECT_TIMEOUT_MILLIS);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * @return the number of lines queued and not yet sent.
+   */
+  public int getQueueSize() {
+    return queue.size();
+  }
+
+  /**
+   * @return true if the writer thread is connected to the server.
+   */
+  public boolean isConnected() {
+    return connected;
+  }
+
+  private void run() {
+    try {
+      while (true) {
+        long now = System.nanoTime();
+        if (closed && (!hasPendingData() || now - closeDeadlineNanos >= 0)) {
+          break;
+        }
+        if (socket == null) {
+          if (now - nextConnectNanos < 0) {
+            // close() cuts the backoff short, callers queueing data do not
+            LockSupport.parkNanos(this, closed ? Math.min(nextConnectNanos - now,
+                closeDeadlineNanos - now) : nextConnectNanos - now);
+            continue;
+          }
+          connect();
+          continue;
+        }
+        if (now - nextPollNanos >= 0) {
+          pollServer();
+          if (socket == null) {
+            continue;
+          }
+        }
+        if (batchLength == 0 && pendingLine == null) {
+          fillBatch();
+        }
+        if (batchLength > 0) {
+          writeBatch(batch, batchLength, batchLines);
+        } else if (pendingLine != null) {
+          writeBatch(pendingLine, pendingLine.length, 1);
+        } else {
+          waitForData();
+        }
+      }
+    } catch (RuntimeException e) {
+      logger.log(Level.SEVERE, "Writer thread of the connection to " + addressString +
+          " failed", e);
+    } finally {
+      // release the queued lines from the byte budgets, which may be shared with other sockets
+      int unsent = batchLines + (pendingLine == null ? 0 : 1);
+      while (queue.poll() != null) {
+        unsent++;
+      }
+      if (unsent > 0) {
+        writeDropped.inc(unsent);
+        logger.warning("Closing the connection to " + addressString + " with " + unsent +
+            " lines unsent");
+      }
+      closeSocket();
+    }
+  }
+
+  private boolean hasPendingData() {
+    return batchLength > 0 || pendingLine != null || queue.size() > 0;
+  }
+
+  /**
+   * Parks the writer thread until callers queue data, or for at most a second so that it keeps
+   * polling the server.
+   */
+  private void waitForData() {
+    writerWaiting = true;
+    // check again, as callers may have queued data before seeing the flag
+    if (queue.size() == 0 && !closed) {
+      LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(IDLE_WAIT_MILLIS));
+    }
+    writerWaiting = false;
+  }
+
+  /**
+   * Moves queued lines into the batch until it is full or the queue is empty. A line that does
+   * not fit is kept for the next batch, or sent on its own if it is larger than a batch.
+   */
+  private void fillBatch() {
+    byte[] line;
+    while ((line = queue.poll()) != null) {
+      if (batchLength + line.length > batch.length) {
+        pendingLine = line;
+        return;
+      }
+      System.arraycopy(line, 0, batch, batchLength, line.length);
+      batchLength += line.length;
+      batchLines++;
+    }
+  }
+
+  private void writeBatch(byte[] data, int length, int lines) {
+    try {
+      outputStream.write(data, 0, length);
+    } catch (IOException e) {
+      // keep the batch for the next connection
+      disconnect(e);
+      return;
+    }
+    batchesWritten.inc();
+    bytesWritten.inc(length);
+    if (data == batch) {
+      batchLength = 0;
+      batchLines = 0;
+    } else {
+      pendingLine = null;
+    }
+  }
+
+  private void connect() {
+    Socket newSocket = null;
+    try {
+      // resolve the host again on each attempt, in case the proxy moved
+      InetSocketAddress target = new InetSocketAddress(address.getHostString(),
+          address.getPort());
+      if (target.isUnresolved()) {
+        throw new UnknownHostException(address.getHostString());
+      }
+      newSocket = socketFactory.createSocket();
+      newSocket.setTcpNoDelay(true);
+      newSocket.connect(target, SERVER_CONNECT_TIMEOUT_MILLIS);
+      outputStream = newSocket.getOutputStream();
+      socket = newSocket;
+    } catch (IOException e) {
+      if (newSocket != null) {
+        try {
+          newSocket.close();
+        } catch (IOException ce) {
+          // nothing left to release
+        }
+      }
+      disconnect(e);
+      return;
+    }
+    connected = true;
+    reconnectDelayMillis = minReconnectDelayMillis;
+    nextPollNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SERVER_POLL_INTERVAL_MILLIS);
+    resetSuccesses.inc();
+    suppressingLogger.reset(addressString);
+    if (everConnected) {
+      logger.info("Successfully reset connection to " + addressString);
+    }
+    everConnected = true;
+  }
+
+  /**
+   * Checks whether the server closed the connection, which a write does not reliably reveal
+   * until data is lost. Waits for at most a millisecond.
+   */
+  private void pollServer() {
+    nextPollNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SERVER_POLL_INTERVAL_MILLIS);
+    try {
+      socket.setSoTimeout(1);
+      InputStream inputStream = socket.getInputStream();
+      if (inputStream.read(readBuffer) < 0) {
+        disconnect(new EOFException("Connection closed by the server"));
+      }
+    } catch (SocketTimeoutException e) {
+      // nothing to read, the connection is still open
+    } catch (IOException e) {
+      disconnect(e);
+    }
+  }
+
+  private void disconnect(IOException cause) {
+    if (connected) {
+      writeErrors.inc();
+      logger.warning("Lost connection to " + addressString + " (" + cause.getMessage() +
+          "), reconnecting ...");
+    } else {
+      resetErrors.inc();
+      suppressingLogger.log(addressString, Level.WARNING, () -> "Unable to connect to " +
+          addressString + " (" + cause + "), retrying in " + reconnectDelayMillis + " ms ...");
+    }
+    closeSocket();
+    nextConnectNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(reconnectDelayMillis);
+    reconnectDelayMillis = Math.min(reconnectDelayMillis * 2, maxReconnectDelayMillis);
+  }
+
+  private void closeSocket() {
+    connected = false;
+    outputStream = null;
+    if (socket != null) {
+      try {
+        socket.close();
+      } catch (IOException e) {
+        // nothing left to release
+      }
+      socket = null;
+    }
+  }
+}
@@ -25,7 +25,7 @@ import java.util.logging.Logger;
  *
  * @author Mori Bellamy (mori@wavefront.com).
  */
-public class ReconnectingSocket {
+public class ReconnectingSocket implements ProxySocket {
   private static final Logger logger = Logger.getLogger(
       ReconnectingSocket.class.getCanonicalName());
 
@@ -175,12 +175,28 @@ public class ReconnectingSocket {
    * the remote host.
    */
   public void write(String message) throws Exception {
+    byte[] data = message.getBytes(StandardCharsets.UTF_8);
+    write(data, 0, data.length);
+  }
+
+  /**
+   * Try to send the given bytes. On failure, reset and try again. If _that_ fails,
+   * just rethrow the exception.
+   *
+   * @param data   The buffer holding the bytes to send.
+   * @param offset The position of the first byte to send.
+   * @param length The number of bytes to send.
+   * @throws Exception when a single retry is not enough to have a successful write to
+   * the remote host.
+   */
+  @Override
+  public void write(byte[] data, int offset, int length) throws Exception {
     try {
       if (serverTerminated) {
         throw new Exception("Remote server terminated.");  // Handled below.
       }
       // Might be NPE due to previously failed call to resetSocket.
-      socketOutputStream.get().write(message.getBytes(StandardCharsets.UTF_8));
+      socketOutputStream.get().write(data, offset, length);
       writeSuccesses.inc();
     } catch (Exception e) {
       try {
@@ -193,7 +209,7 @@ public class ReconnectingSocket {
           logger.warning(warningMsg);
         }
         resetSocket();
-        socketOutputStream.get().write(message.getBytes(StandardCharsets.UTF_8));
+        socketOutputStream.get().write(data, offset, length);
         writeSuccesses.inc();
       } catch (Exception e2) {
         writeErrors.inc();
@@ -205,6 +221,7 @@ public class ReconnectingSocket {
   /**
    * Flushes the outputStream best-effort. If that fails, we reset the connection.
    */
+  @Override
   public void flush() throws IOException {
     try {
       socketOutputStream.get().flush();
@@ -223,6 +240,7 @@ public class ReconnectingSocket {
     }
   }
 
+  @Override
   public void close() throws IOException {
     try {
       flush();
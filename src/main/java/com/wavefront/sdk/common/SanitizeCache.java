@@ -0,0 +1,101 @@
+package com.wavefront.sdk.common;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+/**
+ * A bounded cache of the sanitized forms of metric and log names, sources, tag keys and tag
+ * values.
+ *
+ * Names and tags are usually drawn from a small and stable vocabulary, so caching their sanitized
+ * forms saves scanning and copying them on every send. Strings longer than
+ * {@link #MAX_CACHED_LENGTH} are never cached, since they are unlikely to repeat and would take
+ * most of the memory of the cache.
+ *
+ * @see Utils#enableSanitizeCache(long, com.wavefront.sdk.common.metrics.WavefrontSdkMetricsRegistry)
+ */
+public class SanitizeCache {
+
+  /**
+   * The length of the longest string cached.
+   */
+  public static final int MAX_CACHED_LENGTH = 256;
+
+  private final Cache<String, String> names;
+  // Log names, which keep their slashes
+  private final Cache<String, String> slashedNames;
+  private final Cache<String, String> values;
+
+  /**
+   * @param maximumSize The max number of names, of log names and of values cached, each. The
+   *                    least recently used entries are evicted first.
+   */
+  public SanitizeCache(long maximumSize) {
+    if (maximumSize < 1) {
+      throw new IllegalArgumentException("maximumSize must be positive: " + maximumSize);
+    }
+    names = CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats().build();
+    slashedNames = CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats().build();
+    values = CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats().build();
+  }
+
+  /**
+   * @param s The metric name, source or tag key.
+   * @return the quoted and sanitized form of the string, as returned by
+   * {@link Utils#sanitize(String)}.
+   */
+  String sanitize(String s) {
+    return sanitize(s, false);
+  }
+
+  /**
+   * @param s           The metric or log name, source or tag key.
+   * @param ignoreSlash Whether slashes are kept instead of being replaced with a dash.
+   * @return the quoted and sanitized form of the string, as returned by
+   * {@link Utils#sanitize(String, boolean)}.
+   */
+  String sanitize(String s, boolean ignoreSlash) {
+    if (s.length() > MAX_CACHED_LENGTH) {
+      return Utils.sanitizeUncached(s, ignoreSlash);
+    }
+    Cache<String, String> cache = ignoreSlash ? slashedNames : names;
+    String sanitized = cache.getIfPresent(s);
+    if (sanitized == null) {
+      sanitized = Utils.sanitizeUncached(s, ignoreSlash);
+      cache.put(s, sanitized);
+    }
+    return sanitized;
+  }
+
+  /**
+   * @param s The tag value.
+   * @return the quoted and sanitized form of the value, as returned by
+   * {@link Utils#sanitizeValue(String)}.
+   */
+  String sanitizeValue(String s) {
+    if (s.length() > MAX_CACHED_LENGTH) {
+      return Utils.sanitizeValueUncached(s);
+    }
+    String sanitized = values.getIfPresent(s);
+    if (sanitized == null) {
+      sanitized = Utils.sanitizeValueUncached(s);
+      values.put(s, sanitized);
+    }
+    return sanitized;
+  }
+
+  /**
+   * @return the statistics of the cache, summed over names, log names and values.
+   */
+  public CacheStats stats() {
+    return names.stats().plus(slashedNames.stats()).plus(values.stats());
+  }
+
+  /**
+   * @return the number of names, log names and values cached.
+   */
+  public long size() {
+    return names.size() + slashedNames.size() + values.size();
+  }
+}
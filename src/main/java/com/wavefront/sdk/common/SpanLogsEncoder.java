@@ -0,0 +1,219 @@
+package com.wavefront.sdk.common;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerationException;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.wavefront.sdk.common.annotation.NonNull;
+import com.wavefront.sdk.common.annotation.Nullable;
+import com.wavefront.sdk.entities.tracing.SpanLog;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Encodes span logs to the Wavefront span log format with a streaming {@link JsonGenerator},
+ * without going through data binding.
+ *
+ * By default the output is the same as serializing a
+ * {@link com.wavefront.sdk.entities.tracing.SpanLogsDTO} with an {@code ObjectMapper}, followed
+ * by a newline. The encoder can also leave out or truncate the copy of the span line embedded in
+ * the span logs, and truncate long field values such as stack traces. The embedded span is used
+ * to sample the span logs along with their span, so span logs sent without it are always kept.
+ *
+ * Each thread encodes into its own buffer, which is reused across calls. Lines are encoded to
+ * UTF-8 by the {@link LineEncoder} of the thread.
+ */
+public final class SpanLogsEncoder {
+
+  /**
+   * Encodes span logs the same way as {@link Utils#spanLogsToLineData}.
+   */
+  public static final SpanLogsEncoder DEFAULT = new SpanLogsEncoder(-1, -1);
+
+  private static final int INITIAL_CHARS = 1024;
+  private static final int MAX_RETAINED_CHARS = 64 * 1024;
+  private static final JsonFactory JSON_FACTORY = new JsonFactory();
+  private static final ThreadLocal<Buffer> BUFFERS = ThreadLocal.withInitial(Buffer::new);
+
+  private final int maxSpanLength;
+  private final int maxFieldValueLength;
+
+  /**
+   * @param maxSpanLength       The max number of characters of the span line embedded in the
+   *                            span logs, 0 to leave it out or -1 to embed it whole.
+   * @param maxFieldValueLength The max number of characters of each field value, or -1 to keep
+   *                            values whole.
+   */
+  public SpanLogsEncoder(int maxSpanLength, int maxFieldValueLength) {
+    if (maxSpanLength < -1) {
+      throw new IllegalArgumentException("maxSpanLength must be -1 or more: " + maxSpanLength);
+    }
+    if (maxFieldValueLength < -1) {
+      throw new IllegalArgumentException("maxFieldValueLength must be -1 or more: " +
+          maxFieldValueLength);
+    }
+    this.maxSpanLength = maxSpanLength;
+    this.maxFieldValueLength = maxFieldValueLength;
+  }
+
+  /**
+   * @return true if the span line passed to the encoder is embedded in the span logs, in which
+   * case callers have to provide it.
+   */
+  public boolean includesSpan() {
+    return maxSpanLength != 0;
+  }
+
+  /**
+   * Encodes span logs to a line in the Wavefront span log format.
+   *
+   * @param traceId  The trace of the span.
+   * @param spanId   The span the logs belong to.
+   * @param spanLogs The span logs.
+   * @param span     The span line, used for sampling the span logs, or null.
+   * @return the line, which ends with a newline.
+   * @throws JsonProcessingException if a field has a null key.
+   */
+  public String encode(UUID traceId, UUID spanId, @NonNull List<SpanLog> spanLogs,
+                       @Nullable String span) throws JsonProcessingException {
+    return write(traceId, spanId, spanLogs, span).toString();
+  }
+
+  /**
+   * Encodes span logs to a line in the Wavefront span log format, encoded in UTF-8. This
+   * replaces the line last encoded by the {@link LineEncoder} of the thread.
+   *
+   * @param traceId  The trace of the span.
+   * @param spanId   The span the logs belong to.
+   * @param spanLogs The span logs.
+   * @param span     The span line, used for sampling the span logs, or null.
+   * @return the line, which ends with a newline.
+   * @throws JsonProcessingException if a field has a null key.
+   */
+  public byte[] encodeToBytes(UUID traceId, UUID spanId, @NonNull List<SpanLog> spanLogs,
+                              @Nullable String span) throws JsonProcessingException {
+    return LineEncoder.get().text(write(traceId, spanId, spanLogs, span)).toByteArray();
+  }
+
+  private StringBuilder write(UUID traceId, UUID spanId, List<SpanLog> spanLogs,
+                             @Nullable String span) throws JsonProcessingException {
+    Buffer buffer = BUFFERS.get();
+    buffer.reset();
+    JsonGenerator generator = null;
+    try {
+      // Same generator as ObjectMapper.writeValueAsString, which unlike the UTF-8 one does not
+      // escape characters outside the basic multilingual plane
+      generator = JSON_FACTORY.createGenerator(buffer);
+      generator.writeStartObject();
+      writeUuid(generator, "traceId", traceId);
+      writeUuid(generator, "spanId", spanId);
+      generator.writeFieldName("logs");
+      writeLogs(generator, spanLogs);
+      generator.writeStringField("span", includesSpan() ? truncate(span, maxSpanLength) : null);
+      generator.writeEndObject();
+      generator.writeRaw('\n');
+      generator.close();
+    } catch (JsonProcessingException e) {
+      throw e;
+    } catch (IOException e) {
+      // not thrown when writing to memory
+      throw new JsonGenerationException(e, generator);
+    }
+    return buffer.chars;
+  }
+
+  private void writeLogs(JsonGenerator generator, @Nullable List<SpanLog> spanLogs)
+      throws IOException {
+    if (spanLogs == null) {
+      generator.writeNull();
+      return;
+    }
+    generator.writeStartArray();
+    for (SpanLog spanLog : spanLogs) {
+      if (spanLog == null) {
+        generator.writeNull();
+        continue;
+      }
+      generator.writeStartObject();
+      generator.writeNumberField("timestamp", spanLog.getTimestamp());
+      generator.writeFieldName("fields");
+      Map<String, String> fields = spanLog.getFields();
+      if (fields == null) {
+        generator.writeNull();
+      } else {
+        generator.writeStartObject();
+        for (Map.Entry<String, String> field : fields.entrySet()) {
+          if (field.getKey() == null) {
+            throw new JsonGenerationException("Null key for a Map not allowed in JSON",
+                generator);
+          }
+          generator.writeStringField(field.getKey(),
+              truncate(field.getValue(), maxFieldValueLength));
+        }
+        generator.writeEndObject();
+      }
+      generator.writeEndObject();
+    }
+    generator.writeEndArray();
+  }
+
+  private static void writeUuid(JsonGenerator generator, String name, @Nullable UUID uuid)
+      throws IOException {
+    generator.writeStringField(name, uuid == null ? null : uuid.toString());
+  }
+
+  @Nullable
+  private static String truncate(@Nullable String value, int maxLength) {
+    if (value == null || maxLength < 0 || value.length() <= maxLength) {
+      return value;
+    }
+    int end = maxLength;
+    // do not split a surrogate pair
+    if (end > 0 && Character.isHighSurrogate(value.charAt(end - 1))) {
+      end--;
+    }
+    return value.substring(0, end);
+  }
+
+  /**
+   * A writer appending to a builder that is reused across calls.
+   */
+  private static final class Buffer extends Writer {
+    private StringBuilder chars = new StringBuilder(INITIAL_CHARS);
+
+    void reset() {
+      if (chars.capacity() > MAX_RETAINED_CHARS) {
+        chars = new StringBuilder(INITIAL_CHARS);
+      } else {
+        chars.setLength(0);
+      }
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) {
+      chars.append(cbuf, off, len);
+    }
+
+    @Override
+    public void write(String str, int off, int len) {
+      chars.append(str, off, off + len);
+    }
+
+    @Override
+    public void write(int c) {
+      chars.append((char) c);
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+}
@@ -2,15 +2,17 @@ package com.wavefront.sdk.common;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.CacheStats;
 import com.wavefront.sdk.common.annotation.NonNull;
 import com.wavefront.sdk.common.annotation.Nullable;
+import com.wavefront.sdk.common.metrics.WavefrontSdkMetricsRegistry;
 import com.wavefront.sdk.entities.events.EventDTO;
 import com.wavefront.sdk.entities.histograms.HistogramGranularity;
 import com.wavefront.sdk.entities.tracing.SpanLog;
-import com.wavefront.sdk.entities.tracing.SpanLogsDTO;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -19,6 +21,7 @@ import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
@@ -40,11 +43,95 @@ public class Utils {
 
   private static final ObjectMapper JSON_PARSER = new ObjectMapper();
 
+  /**
+   * Characters allowed anywhere in metric names, sources and tag keys, indexed by ASCII code. All
+   * other characters are replaced with a dash.
+   */
+  private static final boolean[] LEGAL_CHARS = new boolean[128];
+
+  static {
+    for (char c = ','; c <= '9'; c++) {
+      LEGAL_CHARS[c] = c != '/';
+    }
+    for (char c = 'A'; c <= 'Z'; c++) {
+      LEGAL_CHARS[c] = true;
+    }
+    for (char c = 'a'; c <= 'z'; c++) {
+      LEGAL_CHARS[c] = true;
+    }
+    LEGAL_CHARS['_'] = true;
+  }
+
+  @Nullable
+  private static volatile SanitizeCache sanitizeCache;
+
+  /**
+   * Caches the sanitized forms of metric names, sources and tags used by all senders of the
+   * process. Calling it again replaces the cache.
+   *
+   * @param maximumSize The max number of names and of values cached.
+   */
+  public static void enableSanitizeCache(long maximumSize) {
+    sanitizeCache = new SanitizeCache(maximumSize);
+  }
+
+  /**
+   * Caches the sanitized forms of metric names, sources and tags used by all senders of the
+   * process, and reports the statistics of the cache to the given registry. The cache is shared
+   * by every sender of the process, so its statistics are global and should be registered with
+   * a single registry. They keep following the cache if it is replaced or disabled later.
+   *
+   * @param maximumSize The max number of names and of values cached.
+   * @param registry    The registry to report the hits, misses, evictions and size of the cache
+   *                    to.
+   */
+  public static void enableSanitizeCache(long maximumSize, WavefrontSdkMetricsRegistry registry) {
+    enableSanitizeCache(maximumSize);
+    registry.newGauge("sanitize_cache.hits", () -> sanitizeCacheStat(CacheStats::hitCount));
+    registry.newGauge("sanitize_cache.misses", () -> sanitizeCacheStat(CacheStats::missCount));
+    registry.newGauge("sanitize_cache.evictions",
+        () -> sanitizeCacheStat(CacheStats::evictionCount));
+    registry.newGauge("sanitize_cache.size", () -> {
+      SanitizeCache cache = sanitizeCache;
+      return cache == null ? 0 : cache.size();
+    });
+  }
+
+  private static long sanitizeCacheStat(ToLongFunction<CacheStats> stat) {
+    SanitizeCache cache = sanitizeCache;
+    return cache == null ? 0 : stat.applyAsLong(cache.stats());
+  }
+
+  /**
+   * Stops caching sanitized names and values.
+   */
+  public static void disableSanitizeCache() {
+    sanitizeCache = null;
+  }
+
+  /**
+   * @return the cache of sanitized names and values, or null if it is disabled.
+   */
+  @Nullable
+  public static SanitizeCache getSanitizeCache() {
+    return sanitizeCache;
+  }
+
   public static String sanitize(String s) {
+    SanitizeCache cache = sanitizeCache;
+    return cache == null ? sanitizeUncached(s) : cache.sanitize(s);
+  }
+
+  static String sanitizeUncached(String s) {
     return sanitizeInternal(s, true, false);
   }
 
   public static String sanitize(String s, boolean ignoreSlash) {
+    SanitizeCache cache = sanitizeCache;
+    return cache == null ? sanitizeUncached(s, ignoreSlash) : cache.sanitize(s, ignoreSlash);
+  }
+
+  static String sanitizeUncached(String s, boolean ignoreSlash) {
     return sanitizeInternal(s, true, ignoreSlash);
   }
 
@@ -52,28 +139,180 @@ public class Utils {
     return sanitizeInternal(s, false, false);
   }
 
+  /**
+   * Appends the quoted and sanitized form of a metric name, source or tag key, without creating
+   * intermediate strings.
+   *
+   * @param sb The builder to append to.
+   * @param s  The string to sanitize.
+   */
+  public static void appendSanitized(StringBuilder sb, String s) {
+    SanitizeCache cache = sanitizeCache;
+    if (cache == null) {
+      appendSanitizedInternal(sb, s, true, false);
+    } else {
+      sb.append(cache.sanitize(s));
+    }
+  }
+
+  /**
+   * Appends the quoted and sanitized form of a metric name, source or tag key, without creating
+   * intermediate strings.
+   *
+   * @param sb          The builder to append to.
+   * @param s           The string to sanitize.
+   * @param ignoreSlash Whether slashes are kept instead of being replaced with a dash.
+   */
+  public static void appendSanitized(StringBuilder sb, String s, boolean ignoreSlash) {
+    SanitizeCache cache = sanitizeCache;
+    if (cache == null) {
+      appendSanitizedInternal(sb, s, true, ignoreSlash);
+    } else {
+      sb.append(cache.sanitize(s, ignoreSlash));
+    }
+  }
+
   public static String sanitizeValue(String s) {
+    SanitizeCache cache = sanitizeCache;
+    return cache == null ? sanitizeValueUncached(s) : cache.sanitizeValue(s);
+  }
+
+  static String sanitizeValueUncached(String s) {
+    StringBuilder sb = new StringBuilder(s.length() + 2);
+    appendSanitizedValueInternal(sb, s);
+    return sb.toString();
+  }
+
+  /**
+   * Appends the quoted and sanitized form of a tag value, without creating intermediate strings.
+   *
+   * @param sb The builder to append to.
+   * @param s  The value to sanitize.
+   */
+  public static void appendSanitizedValue(StringBuilder sb, String s) {
+    SanitizeCache cache = sanitizeCache;
+    if (cache == null) {
+      appendSanitizedValueInternal(sb, s);
+    } else {
+      sb.append(cache.sanitizeValue(s));
+    }
+  }
+
+  private static void appendSanitizedValueInternal(StringBuilder sb, String s) {
     /*
      * Sanitize string of tags value, etc.
      */
-    String res = s.trim();
-    if (s.contains("\"") || s.contains("'")) {
-      // for single quotes, once we are double-quoted, single quotes can exist happily inside it.
-      res = res.replace("\"", "\\\"");
+    int start = 0;
+    int end = s.length();
+    while (start < end && s.charAt(start) <= ' ') {
+      start++;
+    }
+    while (end > start && s.charAt(end - 1) <= ' ') {
+      end--;
+    }
+    int clean = start;
+    while (clean < end && s.charAt(clean) != '"' && s.charAt(clean) != '\n') {
+      clean++;
+    }
+    sb.append('"');
+    sb.append(s, start, clean);
+    for (int i = clean; i < end; i++) {
+      char cur = s.charAt(i);
+      if (cur == '"') {
+        // single quotes can exist happily inside double quotes, only escape double quotes.
+        sb.append("\\\"");
+      } else if (cur == '\n') {
+        sb.append("\\n");
+      } else {
+        sb.append(cur);
+      }
     }
-    return "\"" + res.replace("\n", "\\n") + "\"";
+    sb.append('"');
   }
 
   public static String metricToLineData(String name, double value, @Nullable Long timestamp,
                                         String source, @Nullable Map<String, String> tags,
                                         String defaultSource) {
+    final StringBuilder sb = new StringBuilder();
+    appendMetricLine(sb, name, value, timestamp, source, tags, defaultSource);
+    return sb.toString();
+  }
+
+  /**
+   * Appends a metric line, in the format returned by {@link #metricToLineData}.
+   *
+   * @param sb            The builder to append to.
+   * @param name          The name of the metric.
+   * @param value         The value of the point.
+   * @param timestamp     The timestamp of the point, or null to let Wavefront assign it.
+   * @param source        The source of the metric, or null to use the default source.
+   * @param tags          The tags of the metric.
+   * @param defaultSource The source to use when none is given.
+   * @throws IllegalArgumentException if the name, source or a tag is blank, in which case part
+   * of the line may have been appended.
+   */
+  public static void appendMetricLine(StringBuilder sb, String name, double value,
+                                      @Nullable Long timestamp, @Nullable String source,
+                                      @Nullable Map<String, String> tags, String defaultSource) {
     /*
      * Wavefront Metrics Data format
      * <metricName> <metricValue> [<timestamp>] source=<source> [pointTags]
      *
      * Example: "new-york.power.usage 42422 1533531013 source=localhost datacenter=dc1"
      */
+    source = checkMetric(name, source, tags, defaultSource);
+    appendSanitized(sb, name);
+    sb.append(' ');
+    Numbers.appendDouble(sb, value);
+    if (timestamp != null) {
+      sb.append(' ');
+      sb.append(timestamp.longValue());
+    }
+    appendMetricSourceAndTags(sb, name, source, tags);
+  }
+
+  /**
+   * Validates and sanitizes the parts of a metric line that do not depend on the value of the
+   * point, so that they can be reused for every point of the same series.
+   *
+   * @param name          The name of the metric.
+   * @param source        The source of the metric, or null to use the default source.
+   * @param tags          The tags of the metric.
+   * @param defaultSource The source to use when none is given.
+   * @return the part of the line before the value, which ends with a space, and the part after
+   * the value and the optional timestamp, which starts with a space and ends with a newline.
+   * @throws IllegalArgumentException if the name, source or a tag is blank.
+   */
+  public static Pair<String, String> metricLineParts(String name, @Nullable String source,
+                                                     @Nullable Map<String, String> tags,
+                                                     String defaultSource) {
+    source = checkMetric(name, source, tags, defaultSource);
+    final StringBuilder sb = new StringBuilder();
+    appendMetricSourceAndTags(sb, name, source, tags);
+    return new Pair<>(sanitize(name) + ' ', sb.toString());
+  }
 
+  /**
+   * Validates a metric point the way {@link #metricToLineData} does, without serializing it.
+   *
+   * @param name          The name of the metric.
+   * @param source        The source of the metric, or null to use the default source.
+   * @param tags          The tags of the metric.
+   * @param defaultSource The source to use when none is given.
+   * @throws IllegalArgumentException if the name, source or a tag is blank.
+   */
+  public static void validateMetric(String name, @Nullable String source,
+                                    @Nullable Map<String, String> tags, String defaultSource) {
+    source = checkMetric(name, source, tags, defaultSource);
+    if (tags != null) {
+      for (final Map.Entry<String, String> tag : tags.entrySet()) {
+        checkMetricTag(name, source, tags, tag.getKey(), tag.getValue());
+      }
+    }
+  }
+
+  private static String checkMetric(String name, @Nullable String source,
+                                    @Nullable Map<String, String> tags, String defaultSource) {
     if (source == null || source.isEmpty()) {
       source = defaultSource;
     }
@@ -85,42 +324,63 @@ public class Utils {
       throw new IllegalArgumentException("source cannot be blank " +
           getContextInfo(name, source, tags));
     }
+    return source;
+  }
 
-    final StringBuilder sb = new StringBuilder();
-    sb.append(sanitize(name));
-    sb.append(' ');
-    sb.append(value);
-    if (timestamp != null) {
-      sb.append(' ');
-      sb.append(timestamp);
-    }
+  private static void appendMetricSourceAndTags(StringBuilder sb, String name, String source,
+                                                @Nullable Map<String, String> tags) {
     sb.append(" source=");
-    sb.append(sanitizeValue(source));
+    appendSanitizedValue(sb, source);
     if (tags != null) {
       for (final Map.Entry<String, String> tag : tags.entrySet()) {
         String key = tag.getKey();
         String val = tag.getValue();
-        if (key == null || key.isEmpty()) {
-          throw new IllegalArgumentException("metric point tag key cannot be blank " +
-              getContextInfo(name, source, tags));
-        }
-        if (val == null || val.isEmpty()) {
-          throw new IllegalArgumentException("metric point tag value cannot be blank for " +
-              "tag key: " + key + " " + getContextInfo(name, source, tags));
-        }
+        checkMetricTag(name, source, tags, key, val);
         sb.append(' ');
-        sb.append(sanitize(key));
+        appendSanitized(sb, key);
         sb.append('=');
-        sb.append(sanitizeValue(val));
+        appendSanitizedValue(sb, val);
       }
     }
     sb.append('\n');
-    return sb.toString();
+  }
+
+  private static void checkMetricTag(String name, String source, Map<String, String> tags,
+                                     @Nullable String key, @Nullable String val) {
+    if (key == null || key.isEmpty()) {
+      throw new IllegalArgumentException("metric point tag key cannot be blank " +
+          getContextInfo(name, source, tags));
+    }
+    if (val == null || val.isEmpty()) {
+      throw new IllegalArgumentException("metric point tag value cannot be blank for " +
+          "tag key: " + key + " " + getContextInfo(name, source, tags));
+    }
   }
 
   public static String logToLineData(String name, double value, @Nullable Long timestamp,
                                      String source, @Nullable Map<String, String> tags,
                                      String defaultSource) {
+    final StringBuilder sb = new StringBuilder();
+    appendLogLine(sb, name, value, timestamp, source, tags, defaultSource);
+    return sb.toString();
+  }
+
+  /**
+   * Appends a log line, in the format returned by {@link #logToLineData}.
+   *
+   * @param sb            The builder to append to.
+   * @param name          The name of the log.
+   * @param value         The value of the log.
+   * @param timestamp     The timestamp of the log, or null to let Wavefront assign it.
+   * @param source        The source of the log, or null to use the default source.
+   * @param tags          The labels of the log.
+   * @param defaultSource The source to use when none is given.
+   * @throws IllegalArgumentException if the name, source or a label is blank, in which case part
+   * of the line may have been appended.
+   */
+  public static void appendLogLine(StringBuilder sb, String name, double value,
+                                   @Nullable Long timestamp, @Nullable String source,
+                                   @Nullable Map<String, String> tags, String defaultSource) {
     if (source == null || source.isEmpty()) {
       source = defaultSource;
     }
@@ -133,16 +393,15 @@ public class Utils {
               getContextInfo(name, source, tags));
     }
 
-    final StringBuilder sb = new StringBuilder();
-    sb.append(sanitize(name, true));
+    appendSanitized(sb, name, true);
     sb.append(' ');
-    sb.append(value);
+    Numbers.appendDouble(sb, value);
     if (timestamp != null) {
       sb.append(' ');
-      sb.append(timestamp);
+      sb.append(timestamp.longValue());
     }
     sb.append(" source=");
-    sb.append(sanitizeValue(source));
+    appendSanitizedValue(sb, source);
     if (tags != null) {
       for (final Map.Entry<String, String> tag : tags.entrySet()) {
         String key = tag.getKey();
@@ -156,13 +415,12 @@ public class Utils {
                   "log label key: " + key + " " + getContextInfo(name, source, tags));
         }
         sb.append(' ');
-        sb.append(sanitize(key));
+        appendSanitized(sb, key);
         sb.append('=');
-        sb.append(sanitizeValue(val));
+        appendSanitizedValue(sb, val);
       }
     }
     sb.append('\n');
-    return sb.toString();
   }
 
   public static String histogramToLineData(String name, List<Pair<Double, Integer>> centroids,
@@ -170,6 +428,94 @@ public class Utils {
                                            @Nullable Long timestamp, String source,
                                            @Nullable Map<String, String> tags,
                                            String defaultSource) {
+    final StringBuilder sb = new StringBuilder();
+    appendHistogramLines(sb, name, centroids, histogramGranularities, timestamp, source, tags,
+        defaultSource);
+    return sb.toString();
+  }
+
+  /**
+   * Same as {@link #histogramToLineData(String, List, Set, Long, String, Map, String)}, with the
+   * centroids given as arrays of primitives.
+   *
+   * @param means  The mean value of each centroid.
+   * @param counts The number of points in each centroid.
+   */
+  public static String histogramToLineData(String name, double[] means, int[] counts,
+                                           Set<HistogramGranularity> histogramGranularities,
+                                           @Nullable Long timestamp, String source,
+                                           @Nullable Map<String, String> tags,
+                                           String defaultSource) {
+    final StringBuilder sb = new StringBuilder();
+    appendHistogramLines(sb, name, means, counts, histogramGranularities, timestamp, source, tags,
+        defaultSource);
+    return sb.toString();
+  }
+
+  /**
+   * Appends one histogram line per granularity, in the format returned by
+   * {@link #histogramToLineData}. The lines only differ by their granularity, so the rest of
+   * the line is encoded once and copied after each granularity.
+   *
+   * @param sb                     The builder to append to.
+   * @param name                   The name of the histogram.
+   * @param centroids              The centroids of the distribution.
+   * @param histogramGranularities The granularities of the distribution.
+   * @param timestamp              The timestamp of the distribution, or null to let Wavefront
+   *                               assign it.
+   * @param source                 The source of the histogram, or null to use the default source.
+   * @param tags                   The tags of the histogram.
+   * @param defaultSource          The source to use when none is given.
+   * @throws IllegalArgumentException if the histogram is invalid, in which case part of the lines
+   * may have been appended.
+   */
+  public static void appendHistogramLines(StringBuilder sb, String name,
+                                          List<Pair<Double, Integer>> centroids,
+                                          Set<HistogramGranularity> histogramGranularities,
+                                          @Nullable Long timestamp, @Nullable String source,
+                                          @Nullable Map<String, String> tags,
+                                          String defaultSource) {
+    source = checkHistogram(name, centroids == null || centroids.isEmpty(),
+        histogramGranularities, source, tags, defaultSource);
+    Iterator<HistogramGranularity> granularities = histogramGranularities.iterator();
+    int bodyStart = appendHistogramPrefix(sb, granularities.next(), timestamp);
+    appendCompactedCentroids(sb, centroids);
+    appendHistogramSuffix(sb, name, source, tags);
+    appendOtherGranularities(sb, bodyStart, granularities);
+  }
+
+  /**
+   * Same as {@link #appendHistogramLines(StringBuilder, String, List, Set, Long, String, Map,
+   * String)}, with the centroids given as arrays of primitives.
+   *
+   * @param means  The mean value of each centroid.
+   * @param counts The number of points in each centroid.
+   * @throws IllegalArgumentException if the histogram is invalid or the arrays differ in
+   * length.
+   */
+  public static void appendHistogramLines(StringBuilder sb, String name, double[] means,
+                                          int[] counts,
+                                          Set<HistogramGranularity> histogramGranularities,
+                                          @Nullable Long timestamp, @Nullable String source,
+                                          @Nullable Map<String, String> tags,
+                                          String defaultSource) {
+    source = checkHistogram(name, means == null || means.length == 0, histogramGranularities,
+        source, tags, defaultSource);
+    if (counts == null || counts.length != means.length) {
+      throw new IllegalArgumentException("A distribution should have as many counts as means " +
+          getContextInfo(name, source, tags));
+    }
+    Iterator<HistogramGranularity> granularities = histogramGranularities.iterator();
+    int bodyStart = appendHistogramPrefix(sb, granularities.next(), timestamp);
+    appendCompactedCentroids(sb, means, counts);
+    appendHistogramSuffix(sb, name, source, tags);
+    appendOtherGranularities(sb, bodyStart, granularities);
+  }
+
+  private static String checkHistogram(String name, boolean noCentroids,
+                                       Set<HistogramGranularity> histogramGranularities,
+                                       @Nullable String source,
+                                       @Nullable Map<String, String> tags, String defaultSource) {
     /*
      * Wavefront Histogram Data format
      * {!M | !H | !D} [<timestamp>] #<count> <mean> [centroids] <histogramName> source=<source>
@@ -193,43 +539,71 @@ public class Utils {
       throw new IllegalArgumentException("Histogram granularities cannot be null or empty " +
           getContextInfo(name, source, tags));
     }
-    if (centroids == null || centroids.isEmpty()) {
+    if (noCentroids) {
       throw new IllegalArgumentException("A distribution should have at least one centroid " +
           getContextInfo(name, source, tags));
     }
-    final StringBuilder sb = new StringBuilder();
-    for (HistogramGranularity histogramGranularity : histogramGranularities) {
-      sb.append(histogramGranularity.identifier);
-      if (timestamp != null) {
-        sb.append(' ');
-        sb.append(Long.toString(timestamp));
-      }
+    return source;
+  }
+
+  /**
+   * Appends the granularity and the timestamp of the first histogram line.
+   *
+   * @return the position in the builder of the line after its granularity.
+   */
+  private static int appendHistogramPrefix(StringBuilder sb, HistogramGranularity granularity,
+                                           @Nullable Long timestamp) {
+    sb.append(granularity.identifier);
+    int bodyStart = sb.length();
+    if (timestamp != null) {
       sb.append(' ');
-      appendCompactedCentroids(sb, centroids);
-      sb.append(sanitize(name));
-      sb.append(" source=");
-      sb.append(sanitizeValue(source));
-      if (tags != null) {
-        for (final Map.Entry<String, String> tag : tags.entrySet()) {
-          String key = tag.getKey();
-          String val = tag.getValue();
-          if (key == null || key.isEmpty()) {
-            throw new IllegalArgumentException("histogram tag key cannot be blank " +
-                getContextInfo(name, source, tags));
-          }
-          if (val == null || val.isEmpty()) {
-            throw new IllegalArgumentException("histogram tag value cannot be blank for " +
-                "tag key: " + key + " " + getContextInfo(name, source, tags));
-          }
-          sb.append(' ');
-          sb.append(sanitize(tag.getKey()));
-          sb.append('=');
-          sb.append(sanitizeValue(tag.getValue()));
+      sb.append(timestamp.longValue());
+    }
+    sb.append(' ');
+    return bodyStart;
+  }
+
+  private static void appendHistogramSuffix(StringBuilder sb, String name, String source,
+                                            @Nullable Map<String, String> tags) {
+    appendSanitized(sb, name);
+    sb.append(" source=");
+    appendSanitizedValue(sb, source);
+    if (tags != null) {
+      for (final Map.Entry<String, String> tag : tags.entrySet()) {
+        String key = tag.getKey();
+        String val = tag.getValue();
+        if (key == null || key.isEmpty()) {
+          throw new IllegalArgumentException("histogram tag key cannot be blank " +
+              getContextInfo(name, source, tags));
+        }
+        if (val == null || val.isEmpty()) {
+          throw new IllegalArgumentException("histogram tag value cannot be blank for " +
+              "tag key: " + key + " " + getContextInfo(name, source, tags));
         }
+        sb.append(' ');
+        appendSanitized(sb, key);
+        sb.append('=');
+        appendSanitizedValue(sb, val);
       }
-      sb.append('\n');
     }
-    return sb.toString();
+    sb.append('\n');
+  }
+
+  /**
+   * Appends a line for each remaining granularity, made of the granularity followed by a copy
+   * of the last line from the given position.
+   */
+  private static void appendOtherGranularities(StringBuilder sb, int bodyStart,
+                                               Iterator<HistogramGranularity> granularities) {
+    if (!granularities.hasNext()) {
+      return;
+    }
+    int lineEnd = sb.length();
+    while (granularities.hasNext()) {
+      sb.append(granularities.next().identifier);
+      // the copied range lies before the end of the builder, so it is not overwritten
+      sb.append(sb, bodyStart, lineEnd);
+    }
   }
 
   public static String tracingSpanToLineData(String name, long startMillis, long durationMillis,
@@ -238,6 +612,36 @@ public class Utils {
                                              @Nullable List<UUID> followsFrom,
                                              @Nullable List<Pair<String, String>> tags,
                                              @Nullable List<SpanLog> spanLogs, String defaultSource) {
+    final StringBuilder sb = new StringBuilder();
+    appendSpanLine(sb, name, startMillis, durationMillis, source, traceId, spanId, parents,
+        followsFrom, tags, spanLogs, defaultSource);
+    return sb.toString();
+  }
+
+  /**
+   * Appends a span line, in the format returned by {@link #tracingSpanToLineData}.
+   *
+   * @param sb             The builder to append to.
+   * @param name           The operation name of the span.
+   * @param startMillis    The start time of the span in milliseconds since the epoch.
+   * @param durationMillis The duration of the span in milliseconds.
+   * @param source         The source of the span, or null to use the default source.
+   * @param traceId        The trace of the span.
+   * @param spanId         The id of the span.
+   * @param parents        The ids of the parents of the span.
+   * @param followsFrom    The ids of the spans the span follows from.
+   * @param tags           The tags of the span.
+   * @param spanLogs       The span logs of the span.
+   * @param defaultSource  The source to use when none is given.
+   * @throws IllegalArgumentException if the name, source or a tag is blank, in which case part
+   * of the line may have been appended.
+   */
+  public static void appendSpanLine(StringBuilder sb, String name, long startMillis,
+                                    long durationMillis, @Nullable String source, UUID traceId,
+                                    UUID spanId, @Nullable List<UUID> parents,
+                                    @Nullable List<UUID> followsFrom,
+                                    @Nullable List<Pair<String, String>> tags,
+                                    @Nullable List<SpanLog> spanLogs, String defaultSource) {
     /*
      * Wavefront Tracing Span Data format
      * <tracingSpanName> source=<source> [pointTags] <start_millis> <duration_milli_seconds>
@@ -261,10 +665,9 @@ public class Utils {
       throw new IllegalArgumentException("span source cannot be blank " +
           getContextInfo(name, source, tags));
     }
-    final StringBuilder sb = new StringBuilder();
-    sb.append(sanitizeValue(name));
+    appendSanitizedValue(sb, name);
     sb.append(" source=");
-    sb.append(sanitizeValue(source));
+    appendSanitizedValue(sb, source);
     sb.append(" traceId=");
     sb.append(traceId);
     sb.append(" spanId=");
@@ -294,16 +697,16 @@ public class Utils {
               "tag key: " + key + " " + getContextInfo(name, source, tags));
         }
         sb.append(' ');
-        sb.append(sanitize(key));
+        appendSanitized(sb, key);
         sb.append('=');
-        sb.append(sanitizeValue(val));
+        appendSanitizedValue(sb, val);
       }
     }
     if (spanLogs != null && !spanLogs.isEmpty()) {
       sb.append(' ');
-      sb.append(sanitize(SPAN_LOG_KEY));
+      appendSanitized(sb, SPAN_LOG_KEY);
       sb.append('=');
-      sb.append(sanitize("true"));
+      appendSanitized(sb, "true");
     }
     sb.append(' ');
     sb.append(startMillis);
@@ -311,7 +714,6 @@ public class Utils {
     sb.append(durationMillis);
     // TODO - Support SpanLogs
     sb.append('\n');
-    return sb.toString();
   }
 
   public static String eventToLineData(String name, long startMillis, long endMillis,
@@ -419,24 +821,24 @@ public class Utils {
     sb.append(' ');
     sb.append(endMillis);
     sb.append(' ');
-    sb.append(sanitizeValue(name));
+    appendSanitizedValue(sb, name);
 
     if (sanitizedAnnotations != null) {
       for (final Map.Entry<String, String> annotation : sanitizedAnnotations.entrySet()) {
         sb.append(' ');
         sb.append(annotation.getKey());
         sb.append('=');
-        sb.append(sanitizeValue(annotation.getValue()));
+        appendSanitizedValue(sb, annotation.getValue());
       }
     }
 
     sb.append(" host=");
-    sb.append(sanitizeValue(source));
+    appendSanitizedValue(sb, source);
 
     if (sanitizedTags != null) {
       for (String tag : sanitizedTags) {
         sb.append(" tag=");
-        sb.append(sanitizeValue(tag));
+        appendSanitizedValue(sb, tag);
       }
     }
 
@@ -472,11 +874,7 @@ public class Utils {
      *  }
      */
 
-    StringBuilder toReturn = new StringBuilder();
-    toReturn.append(JSON_PARSER.writeValueAsString(new SpanLogsDTO(traceId, spanId, spanLogs,
-        span)));
-    toReturn.append("\n");
-    return toReturn.toString();
+    return SpanLogsEncoder.DEFAULT.encode(traceId, spanId, spanLogs, span);
   }
 
   public static void shutdownExecutorAndWait(ExecutorService tpe) {
@@ -494,39 +892,60 @@ public class Utils {
   }
   
   private static String sanitizeInternal(String s, boolean addQuotes, boolean ignoreSlash) {
+    if (!addQuotes && firstIllegalChar(s, ignoreSlash) == s.length()) {
+      return s;
+    }
+    StringBuilder sb = new StringBuilder(s.length() + 2);
+    appendSanitizedInternal(sb, s, addQuotes, ignoreSlash);
+    return sb.toString();
+  }
+
+  private static void appendSanitizedInternal(StringBuilder sb, String s, boolean addQuotes,
+                                              boolean ignoreSlash) {
     /*
      * Sanitize string of metric name, source and key of tags according to the rule of Wavefront proxy.
      */
-
-    StringBuilder sb = new StringBuilder();
     if (addQuotes) {
       sb.append('"');
     }
-    for (int i = 0; i < s.length(); i++) {
+    int clean = firstIllegalChar(s, ignoreSlash);
+    sb.append(s, 0, clean);
+    for (int i = clean; i < s.length(); i++) {
       char cur = s.charAt(i);
-      boolean isLegal = true;
-      boolean isTildaPrefixed = s.charAt(0) == 126;
-      boolean isDeltaPrefixed = (s.charAt(0) == 0x2206) || (s.charAt(0) == 0x0394);
-      boolean isDeltaTildaPrefixed = isDeltaPrefixed && s.charAt(1) == 126;
-      if (!(44 <= cur && cur <= 57) && !(65 <= cur && cur <= 90) && !(97 <= cur && cur <= 122) &&
-          cur != 95) {
-        if (!(i == 0 && (isDeltaPrefixed || isTildaPrefixed) || (i == 1 && isDeltaTildaPrefixed))) {
-          // first character can also be \u2206 (∆ - INCREMENT) or \u0394 (Δ - GREEK CAPITAL LETTER DELTA)
-          // or ~ tilda character for internal metrics
-          // second character can be ~ tilda character if first character is \u2206 (∆ - INCREMENT)
-          // or \u0394 (Δ - GREEK CAPITAL LETTER DELTA)
-          isLegal = false;
-        }
-      }
-      if (cur == '/' && !ignoreSlash) {
-        isLegal = false;
-      }
-      sb.append(isLegal ? cur : '-');
+      sb.append(isLegalChar(cur, ignoreSlash) ? cur : '-');
     }
     if (addQuotes) {
       sb.append('"');
     }
-    return sb.toString();
+  }
+
+  /**
+   * Returns the index of the first character that has to be replaced, or the length of the
+   * string if it can be used as is.
+   */
+  private static int firstIllegalChar(String s, boolean ignoreSlash) {
+    int length = s.length();
+    int i = 0;
+    if (length > 0) {
+      // first character can also be \u2206 (∆ - INCREMENT) or \u0394 (Δ - GREEK CAPITAL LETTER DELTA)
+      // or ~ tilda character for internal metrics
+      // second character can be ~ tilda character if first character is \u2206 (∆ - INCREMENT)
+      // or \u0394 (Δ - GREEK CAPITAL LETTER DELTA)
+      char first = s.charAt(0);
+      if (first == '~') {
+        i = 1;
+      } else if (first == 0x2206 || first == 0x0394) {
+        i = length > 1 && s.charAt(1) == '~' ? 2 : 1;
+      }
+    }
+    while (i < length && isLegalChar(s.charAt(i), ignoreSlash)) {
+      i++;
+    }
+    return i;
+  }
+
+  private static boolean isLegalChar(char c, boolean ignoreSlash) {
+    return c < LEGAL_CHARS.length && (LEGAL_CHARS[c] || (ignoreSlash && c == '/'));
   }
 
   /**
@@ -566,28 +985,51 @@ public class Utils {
     }
   }
 
+  private static void appendCompactedCentroids(StringBuilder sb, double[] means, int[] counts) {
+    double accumulatedValue = means[0];
+    int accumulatedCount = counts[0];
+    for (int i = 1; i < means.length; i++) {
+      if (means[i] != accumulatedValue) {
+        sb.append('#').append(accumulatedCount).append(' ');
+        Numbers.appendDouble(sb, accumulatedValue);
+        sb.append(' ');
+        accumulatedValue = means[i];
+        accumulatedCount = counts[i];
+      } else {
+        accumulatedCount += counts[i];
+      }
+    }
+    sb.append('#').append(accumulatedCount).append(' ');
+    Numbers.appendDouble(sb, accumulatedValue);
+    sb.append(' ');
+  }
+
   private static void appendCompactedCentroids(StringBuilder sb,
                                                List<Pair<Double, Integer>> centroids) {
-    Double accumulatedValue = null;
+    boolean accumulated = false;
+    double accumulatedValue = 0;
     int accumulatedCount = 0;
     for (Pair<Double, Integer> centroid : centroids) {
       double value = centroid._1;
       int count = centroid._2;
-      if (accumulatedValue != null && value != accumulatedValue) {
+      if (accumulated && value != accumulatedValue) {
         sb.append('#').append(accumulatedCount).append(' ');
-        sb.append(accumulatedValue).append(' ');
+        Numbers.appendDouble(sb, accumulatedValue);
+        sb.append(' ');
         accumulatedValue = value;
         accumulatedCount = count;
       } else {
-        if (accumulatedValue == null) {
+        if (!accumulated) {
+          accumulated = true;
           accumulatedValue = value;
         }
         accumulatedCount += count;
       }
     }
-    if (accumulatedValue != null) {
+    if (accumulated) {
       sb.append('#').append(accumulatedCount).append(' ');
-      sb.append(accumulatedValue).append(' ');
+      Numbers.appendDouble(sb, accumulatedValue);
+      sb.append(' ');
     }
   }
 
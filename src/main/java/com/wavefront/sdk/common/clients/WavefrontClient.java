@@ -2,25 +2,43 @@ package com.wavefront.sdk.common.clients;
 
 import com.google.common.base.Throwables;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.RateLimiter;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.wavefront.sdk.common.Constants;
+import com.wavefront.sdk.common.LineEncoder;
 import com.wavefront.sdk.common.NamedThreadFactory;
+import com.wavefront.sdk.common.Numbers;
 import com.wavefront.sdk.common.Pair;
+import com.wavefront.sdk.common.SpanLogsEncoder;
 import com.wavefront.sdk.common.Utils;
 import com.wavefront.sdk.common.WavefrontSender;
 import com.wavefront.sdk.common.annotation.NonNull;
 import com.wavefront.sdk.common.annotation.Nullable;
+import com.wavefront.sdk.common.clients.buffer.BufferType;
+import com.wavefront.sdk.common.clients.buffer.ByteBoundedBuffer;
+import com.wavefront.sdk.common.clients.buffer.ByteBudget;
+import com.wavefront.sdk.common.clients.buffer.DeferredRecordBuffer;
+import com.wavefront.sdk.common.clients.buffer.DiskSpool;
+import com.wavefront.sdk.common.clients.buffer.ItemBuffer;
+import com.wavefront.sdk.common.clients.service.Compression;
+import com.wavefront.sdk.common.clients.service.PooledHttpTransport;
 import com.wavefront.sdk.common.clients.service.ReportingService;
+import com.wavefront.sdk.common.clients.service.Transport;
 import com.wavefront.sdk.common.logging.MessageDedupingLogger;
 import com.wavefront.sdk.common.metrics.WavefrontSdkDeltaCounter;
 import com.wavefront.sdk.common.metrics.WavefrontSdkMetricsRegistry;
+import com.wavefront.sdk.entities.histograms.Distribution;
 import com.wavefront.sdk.entities.histograms.HistogramGranularity;
+import com.wavefront.sdk.entities.metrics.DeltaCounterAccumulator;
+import com.wavefront.sdk.entities.metrics.GaugeCoalescer;
+import com.wavefront.sdk.entities.metrics.Metric;
+import com.wavefront.sdk.entities.metrics.PreparedPoint;
+import com.wavefront.sdk.entities.tracing.Span;
 import com.wavefront.sdk.entities.tracing.SpanLog;
 
-import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.lang.management.ManagementFactory;
 import java.net.HttpURLConnection;
 import java.net.InetAddress;
@@ -30,26 +48,32 @@ import java.net.URL;
 import java.net.UnknownHostException;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.Deflater;
 
+import static com.wavefront.sdk.common.Constants.DELTA_PREFIX;
+import static com.wavefront.sdk.common.Constants.DELTA_PREFIX_2;
 import static com.wavefront.sdk.common.Utils.eventToLineData;
 import static com.wavefront.sdk.common.Utils.getSemVerGauge;
-import static com.wavefront.sdk.common.Utils.histogramToLineData;
-import static com.wavefront.sdk.common.Utils.metricToLineData;
-import static com.wavefront.sdk.common.Utils.spanLogsToLineData;
-import static com.wavefront.sdk.common.Utils.tracingSpanToLineData;
-import static com.wavefront.sdk.common.Utils.logToLineData;
+import static com.wavefront.sdk.common.Utils.metricLineParts;
 
 /**
  * Wavefront client that sends data to Wavefront via Proxy or Directly to a Wavefront service
@@ -63,6 +87,13 @@ public class WavefrontClient implements WavefrontSender, Runnable {
   private static final MessageDedupingLogger logger = new MessageDedupingLogger(Logger.getLogger(
       WavefrontClient.class.getCanonicalName()), LogMessageType.values().length, 0.02);
 
+  private static final ThreadLocal<byte[]> NUMBER_BUFFER =
+      ThreadLocal.withInitial(() -> new byte[Numbers.MAX_DOUBLE_LENGTH]);
+
+  // Rough heap footprint of an object or a string header, used to estimate the size of records
+  // waiting to be encoded
+  private static final int OBJECT_BYTES = 32;
+
   /**
    * Source to use if entity source is null
    */
@@ -76,14 +107,42 @@ public class WavefrontClient implements WavefrontSender, Runnable {
 
   private final int batchSize;
   private final int messageSizeBytes;
-  private final LinkedBlockingQueue<String> metricsBuffer;
-  private final LinkedBlockingQueue<String> histogramsBuffer;
-  private final LinkedBlockingQueue<String> tracingSpansBuffer;
-  private final LinkedBlockingQueue<String> spanLogsBuffer;
-  private final LinkedBlockingQueue<String> eventsBuffer;
-  private final LinkedBlockingQueue<String> logsBuffer;
+  private final int maxConcurrentRequests;
+  private final long flushThresholdBytes;
+  @Nullable
+  private final File spoolDirectory;
+  private final long maxSpoolBytes;
+  private final double spoolReplayRate;
+  private final int spoolHighWaterItems;
+  private final long spoolHighWaterBytes;
+  @Nullable
+  private final File writeAheadLogDirectory;
+  private final long maxWriteAheadLogBytes;
+  // Sums delta counter increments between flushes, or null if delta counters are not accumulated
+  @Nullable
+  private final DeltaCounterAccumulator deltaCounters;
+  // Keeps one value per gauge series between flushes, or null if gauges are not coalesced
+  @Nullable
+  private final GaugeCoalescer gauges;
+  // Metrics and spans sent since the last flush that are still to be encoded, or null if they
+  // are encoded by the sending thread
+  @Nullable
+  private final DeferredRecordBuffer<Metric> deferredMetrics;
+  @Nullable
+  private final DeferredRecordBuffer<Span> deferredSpans;
+  private final SpanLogsEncoder spanLogsEncoder;
+  private final ByteBoundedBuffer metricsBuffer;
+  private final ByteBoundedBuffer histogramsBuffer;
+  private final ByteBoundedBuffer tracingSpansBuffer;
+  private final ByteBoundedBuffer spanLogsBuffer;
+  private final ByteBoundedBuffer eventsBuffer;
+  private final ByteBoundedBuffer logsBuffer;
+  private final ByteBudget totalQueueBytes;
   private final ReportingService reportingService;
   private final ScheduledExecutorService scheduler;
+  // Syncs the write-ahead logs, or null if the write-ahead log is disabled
+  @Nullable
+  private final ScheduledExecutorService walScheduler;
   private final WavefrontSdkMetricsRegistry sdkMetricsRegistry;
 
   // Internal point metrics
@@ -122,13 +181,14 @@ public class WavefrontClient implements WavefrontSender, Runnable {
   private final WavefrontSdkDeltaCounter eventsDropped;
   private final WavefrontSdkDeltaCounter eventsReportErrors;
 
-  // Consider the feature to be enabled when value is 0, and disabled otherwise
-  private final AtomicInteger metricsDisabledStatusCode;
-  private final AtomicInteger histogramsDisabledStatusCode;
-  private final AtomicInteger spansDisabledStatusCode;
-  private final AtomicInteger spanLogsDisabledStatusCode;
-  private final AtomicInteger eventsDisabledStatusCode;
-  private final AtomicInteger logsDisabledStatusCode;
+  // One flush lane per entity type, each scheduled independently
+  private final FlushLane metricsLane;
+  private final FlushLane histogramsLane;
+  private final FlushLane tracingSpansLane;
+  private final FlushLane spanLogsLane;
+  private final FlushLane eventsLane;
+  private final FlushLane logsLane;
+  private final List<FlushLane> flushLanes;
 
   // Flag to prevent sending after close() has been called
   private final AtomicBoolean closed = new AtomicBoolean(false);
@@ -140,10 +200,34 @@ public class WavefrontClient implements WavefrontSender, Runnable {
 
     // Optional parameters
     private int maxQueueSize = 500000;
+    private long maxQueueBytes = Long.MAX_VALUE;
+    private long maxTotalQueueBytes = Long.MAX_VALUE;
+    private BufferType bufferType = BufferType.LINKED_QUEUE;
+    private Compression compression = Compression.GZIP;
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
     private int batchSize = 10000;
     private long flushInterval = 1;
     private TimeUnit flushIntervalTimeUnit = TimeUnit.SECONDS;
     private int messageSizeBytes = Integer.MAX_VALUE;
+    private int maxConcurrentRequests = 1;
+    private long flushThresholdBytes = Long.MAX_VALUE;
+    private File spoolDirectory = null;
+    private long maxSpoolBytes = 256L * 1024 * 1024;
+    private double spoolHighWaterMark = 0.8;
+    private double spoolReplayRate = 10000;
+    private File writeAheadLogDirectory = null;
+    private long maxWriteAheadLogBytes = 256L * 1024 * 1024;
+    private long writeAheadLogSyncInterval = 100;
+    private TimeUnit writeAheadLogSyncIntervalTimeUnit = TimeUnit.MILLISECONDS;
+    private boolean accumulateDeltaCounters = false;
+    private int maxDeltaCounterSeries = 10000;
+    private GaugeCoalescer.Rollup gaugeRollup = null;
+    private int maxCoalescedGaugeSeries = 10000;
+    private boolean deferEncoding = false;
+    private SpanLogsEncoder spanLogsEncoder = SpanLogsEncoder.DEFAULT;
+    @Nullable
+    private Transport transport = null;
+    private boolean pooledConnections = false;
     private boolean includeSdkMetrics = true;
     private Map<String, String> tags = Maps.newHashMap();
 
@@ -179,6 +263,80 @@ public class WavefrontClient implements WavefrontSender, Runnable {
       return this;
     }
 
+    /**
+     * Set the max number of bytes of encoded data held by each in-memory buffer (one per entity
+     * type). Data is dropped once either this or {@link #maxQueueSize(int)} is reached. There is
+     * no byte limit by default.
+     *
+     * @param maxQueueBytes Max number of bytes held by each in-memory buffer
+     * @return {@code this}
+     */
+    public Builder maxQueueBytes(long maxQueueBytes) {
+      this.maxQueueBytes = maxQueueBytes;
+      return this;
+    }
+
+    /**
+     * Set the max number of bytes of encoded data held by all in-memory buffers combined. Use
+     * this to put an upper bound on the memory used by the client regardless of the mix of
+     * entity types sent. There is no byte limit by default.
+     *
+     * @param maxTotalQueueBytes Max number of bytes held by all in-memory buffers combined
+     * @return {@code this}
+     */
+    public Builder maxTotalQueueBytes(long maxTotalQueueBytes) {
+      this.maxTotalQueueBytes = maxTotalQueueBytes;
+      return this;
+    }
+
+    /**
+     * Set the type of in-memory buffer used to hold data until it is flushed. The default is
+     * {@link BufferType#LINKED_QUEUE}. {@link BufferType#RING_BUFFER} avoids contention between
+     * threads sending data concurrently, at the cost of allocating each buffer for its full
+     * {@link #maxQueueSize(int)} up front.
+     *
+     * @param bufferType The type of in-memory buffer
+     * @return {@code this}
+     */
+    public Builder bufferType(@NonNull BufferType bufferType) {
+      this.bufferType = bufferType;
+      return this;
+    }
+
+    /**
+     * Set the compression applied to data reported to the Proxy or Wavefront service. The default
+     * is {@link Compression#GZIP}. Use {@link Compression#NONE} when reporting to a proxy on the
+     * same host or network, where compression costs more CPU than it saves. Events sent directly
+     * to a Wavefront service are never compressed.
+     *
+     * @param compression The compression applied to reported data
+     * @return {@code this}
+     */
+    public Builder compression(@NonNull Compression compression) {
+      this.compression = compression;
+      return this;
+    }
+
+    /**
+     * Set the compression applied to data reported to the Proxy or Wavefront service, along with
+     * the compression level. Higher levels give a better compression ratio at the cost of more
+     * CPU, which can pay off when reporting over a slow or metered link.
+     *
+     * @param compression      The compression applied to reported data
+     * @param compressionLevel The compression level, from 0 (no compression) to 9 (best
+     *                         compression), or -1 for the default level
+     * @return {@code this}
+     */
+    public Builder compression(@NonNull Compression compression, int compressionLevel) {
+      if (compressionLevel < Deflater.DEFAULT_COMPRESSION ||
+          compressionLevel > Deflater.BEST_COMPRESSION) {
+        throw new IllegalArgumentException("Invalid compression level: " + compressionLevel);
+      }
+      this.compression = compression;
+      this.compressionLevel = compressionLevel;
+      return this;
+    }
+
     /**
      * Set batch size to be reported during every flush.
      *
@@ -215,6 +373,212 @@ public class WavefrontClient implements WavefrontSender, Runnable {
       return this;
     }
 
+    /**
+     * Set the number of bytes of buffered data of one entity type that triggers a flush ahead of
+     * the regular flush interval. A flush is also triggered early once {@link #batchSize(int)}
+     * items are buffered. There is no byte threshold by default.
+     *
+     * @param flushThresholdBytes Number of buffered bytes that triggers an early flush
+     * @return {@code this}
+     */
+    public Builder flushThresholdBytes(long flushThresholdBytes) {
+      this.flushThresholdBytes = flushThresholdBytes;
+      return this;
+    }
+
+    /**
+     * Enable spooling data to disk under the given directory, with one subdirectory per entity
+     * type. Data is spooled instead of being dropped once an in-memory buffer passes its
+     * {@link #spoolHighWaterMark(double) high-water mark}, and instead of being requeued when
+     * reporting fails. Spooled data is replayed at a bounded rate once reporting succeeds again,
+     * including after a restart. Spooling is disabled by default.
+     *
+     * @param spoolDirectory The directory to spool data to
+     * @return {@code this}
+     */
+    public Builder spoolDirectory(@NonNull String spoolDirectory) {
+      this.spoolDirectory = new File(spoolDirectory);
+      return this;
+    }
+
+    /**
+     * Set the max number of bytes spooled to disk for each entity type. Once reached, the oldest
+     * spooled data is evicted to make room for new data. The default is 256 MB.
+     *
+     * @param maxSpoolBytes Max number of bytes spooled for each entity type
+     * @return {@code this}
+     */
+    public Builder maxSpoolBytes(long maxSpoolBytes) {
+      this.maxSpoolBytes = maxSpoolBytes;
+      return this;
+    }
+
+    /**
+     * Set the fraction of an in-memory buffer's item and byte limits above which new data is
+     * spooled to disk. The default is 0.8.
+     *
+     * @param spoolHighWaterMark Fraction of the buffer limits, between 0 and 1
+     * @return {@code this}
+     */
+    public Builder spoolHighWaterMark(double spoolHighWaterMark) {
+      if (spoolHighWaterMark < 0 || spoolHighWaterMark > 1) {
+        throw new IllegalArgumentException("spoolHighWaterMark must be between 0 and 1: " +
+            spoolHighWaterMark);
+      }
+      this.spoolHighWaterMark = spoolHighWaterMark;
+      return this;
+    }
+
+    /**
+     * Set the max number of spooled items replayed per second for each entity type, so that
+     * catching up after an outage does not flood the Proxy or Wavefront service. The default is
+     * 10000.
+     *
+     * @param spoolReplayRate Max number of items replayed per second for each entity type
+     * @return {@code this}
+     */
+    public Builder spoolReplayRate(double spoolReplayRate) {
+      if (spoolReplayRate <= 0) {
+        throw new IllegalArgumentException("spoolReplayRate must be positive: " +
+            spoolReplayRate);
+      }
+      this.spoolReplayRate = spoolReplayRate;
+      return this;
+    }
+
+    /**
+     * Enable the write-ahead log under the given directory, with one subdirectory per entity
+     * type. Buffered data is then appended to the log and synced to disk at every
+     * {@link #writeAheadLogSyncInterval(long, TimeUnit) sync interval}, and is only removed from
+     * the log once it has been reported successfully. Data that was not reported before the JVM
+     * stopped, including when it was killed, is reported by the next client created with the
+     * same directory. The write-ahead log supersedes {@link #spoolDirectory(String) spooling},
+     * and is disabled by default.
+     *
+     * @param writeAheadLogDirectory The directory to keep the write-ahead log in
+     * @return {@code this}
+     */
+    public Builder writeAheadLogDirectory(@NonNull String writeAheadLogDirectory) {
+      this.writeAheadLogDirectory = new File(writeAheadLogDirectory);
+      return this;
+    }
+
+    /**
+     * Set the max number of bytes kept in the write-ahead log for each entity type. Once reached,
+     * the oldest data is evicted to make room for new data. The default is 256 MB.
+     *
+     * @param maxWriteAheadLogBytes Max number of bytes in the write-ahead log of each entity type
+     * @return {@code this}
+     */
+    public Builder maxWriteAheadLogBytes(long maxWriteAheadLogBytes) {
+      this.maxWriteAheadLogBytes = maxWriteAheadLogBytes;
+      return this;
+    }
+
+    /**
+     * Set the interval at which buffered data is appended to the write-ahead log and synced to
+     * disk. All the data buffered during an interval is synced at once, so a shorter interval
+     * loses less data when the JVM is killed, at the cost of more frequent disk syncs. The
+     * default is 100 milliseconds.
+     *
+     * @param writeAheadLogSyncInterval Interval between syncs of the write-ahead log
+     * @param timeUnit                  Time unit for the sync interval
+     * @return {@code this}
+     */
+    public Builder writeAheadLogSyncInterval(long writeAheadLogSyncInterval,
+                                             @NonNull TimeUnit timeUnit) {
+      if (writeAheadLogSyncInterval <= 0) {
+        throw new IllegalArgumentException("writeAheadLogSyncInterval must be positive: " +
+            writeAheadLogSyncInterval);
+      }
+      this.writeAheadLogSyncInterval = writeAheadLogSyncInterval;
+      this.writeAheadLogSyncIntervalTimeUnit = timeUnit;
+      return this;
+    }
+
+    /**
+     * Accumulate delta counters on the client. Increments of the same delta counter, source and
+     * tags sent without a timestamp are then summed in memory and reported as a single point
+     * once per flush interval, instead of each being reported on its own. Accumulation is
+     * disabled by default.
+     *
+     * @param accumulateDeltaCounters Whether to accumulate delta counters on the client
+     * @return {@code this}
+     */
+    public Builder accumulateDeltaCounters(boolean accumulateDeltaCounters) {
+      this.accumulateDeltaCounters = accumulateDeltaCounters;
+      return this;
+    }
+
+    /**
+     * Set the max number of delta counter series accumulated at the same time. Increments of
+     * further series are reported on their own. The default is 10000.
+     *
+     * @param maxDeltaCounterSeries Max number of accumulated delta counter series
+     * @return {@code this}
+     */
+    public Builder maxDeltaCounterSeries(int maxDeltaCounterSeries) {
+      if (maxDeltaCounterSeries < 1) {
+        throw new IllegalArgumentException("maxDeltaCounterSeries must be positive: " +
+            maxDeltaCounterSeries);
+      }
+      this.maxDeltaCounterSeries = maxDeltaCounterSeries;
+      return this;
+    }
+
+    /**
+     * Coalesce gauges on the client. Metrics sent several times for the same name, source and
+     * tags within a flush interval are then kept in memory and reported once per interval,
+     * using the given rollup of the values received. {@link GaugeCoalescer.Rollup#LAST} keeps
+     * the last value. Delta counters are never coalesced. Coalescing is disabled by default.
+     *
+     * @param rollup The value reported for each gauge series
+     * @return {@code this}
+     */
+    public Builder coalesceGauges(@NonNull GaugeCoalescer.Rollup rollup) {
+      this.gaugeRollup = rollup;
+      return this;
+    }
+
+    /**
+     * Set the max number of gauge series coalesced within a flush interval. Values of further
+     * series are reported on their own. The default is 10000.
+     *
+     * @param maxCoalescedGaugeSeries Max number of coalesced gauge series
+     * @return {@code this}
+     */
+    public Builder maxCoalescedGaugeSeries(int maxCoalescedGaugeSeries) {
+      if (maxCoalescedGaugeSeries < 1) {
+        throw new IllegalArgumentException("maxCoalescedGaugeSeries must be positive: " +
+            maxCoalescedGaugeSeries);
+      }
+      this.maxCoalescedGaugeSeries = maxCoalescedGaugeSeries;
+      return this;
+    }
+
+    /**
+     * Defer the encoding of metrics and spans to the flush threads. Sending a metric or a span
+     * then only checks its name and source and queues it, and the tags and the rest of the line
+     * are validated and encoded in bulk right before the buffer is flushed. Invalid data is
+     * counted and logged at that point instead of being rejected by the send call. The maps and
+     * lists passed to the sender must not be modified once sent. Deferred encoding is disabled
+     * by default.
+     *
+     * Until they are encoded, metrics and spans are held in queues of up to
+     * {@link #maxQueueSize} records each, in front of the buffers of encoded lines. Each record
+     * is charged an estimate of the heap it keeps reachable, tags and span logs included, to
+     * the {@link #maxQueueBytes} budget of its buffer and to the {@link #maxTotalQueueBytes}
+     * budget, so that these keep bounding memory. A record is dropped if its estimate does not
+     * fit, as an encoded line is.
+     *
+     * @param deferEncoding Whether to encode metrics and spans on the flush threads
+     * @return {@code this}
+     */
+    public Builder deferEncoding(boolean deferEncoding) {
+      this.deferEncoding = deferEncoding;
+      return this;
+    }
+
     /**
      * Set max message size, such that each batch is reported as one or more messages where no
      * message exceeds the specified size in bytes. The default message size is
@@ -228,6 +592,62 @@ public class WavefrontClient implements WavefrontSender, Runnable {
       return this;
     }
 
+    /**
+     * Set the max number of requests each entity type can have in flight at the same time. Each
+     * flush then drains up to this many batches and reports their messages concurrently, which
+     * raises throughput over high-latency links. The default is 1, which reports messages one
+     * after another.
+     *
+     * @param maxConcurrentRequests Max number of in-flight requests per entity type
+     * @return {@code this}
+     */
+    public Builder maxConcurrentRequests(int maxConcurrentRequests) {
+      if (maxConcurrentRequests < 1) {
+        throw new IllegalArgumentException("maxConcurrentRequests must be at least 1: " +
+            maxConcurrentRequests);
+      }
+      this.maxConcurrentRequests = maxConcurrentRequests;
+      return this;
+    }
+
+    /**
+     * Set the encoder of span logs, which can leave out or truncate the copy of the span and
+     * long field values. The default encoder keeps them whole.
+     *
+     * @param spanLogsEncoder The encoder of span logs
+     * @return {@code this}
+     */
+    public Builder spanLogsEncoder(@NonNull SpanLogsEncoder spanLogsEncoder) {
+      this.spanLogsEncoder = spanLogsEncoder;
+      return this;
+    }
+
+    /**
+     * Set the transport sending the requests, which is closed along with the client. By default
+     * requests are sent through {@link java.net.HttpURLConnection}.
+     *
+     * @param transport The transport sending the requests
+     * @return {@code this}
+     */
+    public Builder transport(@NonNull Transport transport) {
+      this.transport = transport;
+      return this;
+    }
+
+    /**
+     * Send requests over a pool of keep-alive connections managed by a
+     * {@link PooledHttpTransport}, which reports its metrics along with the other SDK metrics.
+     * The pooled transport connects directly to the server and ignores the HTTP proxy configured
+     * for the JVM. It is not used if a {@link #transport} is set. Default is false.
+     *
+     * @param pooledConnections Whether to send requests over pooled keep-alive connections
+     * @return {@code this}
+     */
+    public Builder pooledConnections(boolean pooledConnections) {
+      this.pooledConnections = pooledConnections;
+      return this;
+    }
+
     /**
      * Default is true, if false the internal metrics emitted from this sender will be disabled
      *
@@ -298,17 +718,35 @@ public class WavefrontClient implements WavefrontSender, Runnable {
 
     batchSize = builder.batchSize;
     messageSizeBytes = builder.messageSizeBytes;
-    metricsBuffer = new LinkedBlockingQueue<>(builder.maxQueueSize);
-    histogramsBuffer = new LinkedBlockingQueue<>(builder.maxQueueSize);
-    tracingSpansBuffer = new LinkedBlockingQueue<>(builder.maxQueueSize);
-    spanLogsBuffer = new LinkedBlockingQueue<>(builder.maxQueueSize);
-    eventsBuffer = new LinkedBlockingQueue<>(builder.maxQueueSize);
-    logsBuffer = new LinkedBlockingQueue<>(builder.maxQueueSize);
-    reportingService = new ReportingService(builder.server, builder.token);
-    scheduler = Executors.newScheduledThreadPool(1,
-        new NamedThreadFactory("wavefrontClientSender").setDaemon(true));
-    scheduler.scheduleAtFixedRate(this, 1, builder.flushInterval, builder.flushIntervalTimeUnit);
-
+    maxConcurrentRequests = builder.maxConcurrentRequests;
+    flushThresholdBytes = builder.flushThresholdBytes;
+    spoolDirectory = builder.spoolDirectory;
+    maxSpoolBytes = builder.maxSpoolBytes;
+    spoolReplayRate = builder.spoolReplayRate;
+    spoolHighWaterItems = (int) (builder.maxQueueSize * builder.spoolHighWaterMark);
+    spoolHighWaterBytes = (long) (Math.min(builder.maxQueueBytes, builder.maxTotalQueueBytes) *
+        builder.spoolHighWaterMark);
+    writeAheadLogDirectory = builder.writeAheadLogDirectory;
+    maxWriteAheadLogBytes = builder.maxWriteAheadLogBytes;
+    deltaCounters = builder.accumulateDeltaCounters ?
+        new DeltaCounterAccumulator(builder.maxDeltaCounterSeries) : null;
+    gauges = builder.gaugeRollup == null ? null :
+        new GaugeCoalescer(builder.maxCoalescedGaugeSeries, builder.gaugeRollup);
+    spanLogsEncoder = builder.spanLogsEncoder;
+    totalQueueBytes = new ByteBudget(builder.maxTotalQueueBytes);
+    ByteBudget metricsBytes = new ByteBudget(builder.maxQueueBytes);
+    ByteBudget tracingSpansBytes = new ByteBudget(builder.maxQueueBytes);
+    // Records waiting to be encoded count against the budgets of the lines they are encoded to
+    deferredMetrics = builder.deferEncoding ? new DeferredRecordBuffer<>(builder.maxQueueSize,
+        WavefrontClient::estimateMetricBytes, metricsBytes, totalQueueBytes) : null;
+    deferredSpans = builder.deferEncoding ? new DeferredRecordBuffer<>(builder.maxQueueSize,
+        WavefrontClient::estimateSpanBytes, tracingSpansBytes, totalQueueBytes) : null;
+    metricsBuffer = newBuffer(builder, metricsBytes);
+    histogramsBuffer = newBuffer(builder);
+    tracingSpansBuffer = newBuffer(builder, tracingSpansBytes);
+    spanLogsBuffer = newBuffer(builder);
+    eventsBuffer = newBuffer(builder);
+    logsBuffer = newBuffer(builder);
     String processId = ManagementFactory.getRuntimeMXBean().getName().split("@")[0];
     sdkMetricsRegistry = new WavefrontSdkMetricsRegistry.Builder(this).
         prefix(Constants.SDK_METRIC_PREFIX + ".core.sender.wfclient").
@@ -318,12 +756,24 @@ public class WavefrontClient implements WavefrontSender, Runnable {
         sendSdkMetrics(builder.includeSdkMetrics).
         build();
 
+    Transport transport = builder.transport;
+    if (transport == null && builder.pooledConnections) {
+      transport = new PooledHttpTransport.Builder().
+          sdkMetricsRegistry(sdkMetricsRegistry).
+          build();
+    }
+    reportingService = new ReportingService(builder.server, builder.token, builder.compression,
+        builder.compressionLevel, transport, sdkMetricsRegistry);
+
     double sdkVersion = getSemVerGauge("wavefront-sdk-java");
     sdkMetricsRegistry.newGauge("version", () -> sdkVersion);
 
+    sdkMetricsRegistry.newGauge("queue.bytes", totalQueueBytes::used);
+
     sdkMetricsRegistry.newGauge("points.queue.size", metricsBuffer::size);
     sdkMetricsRegistry.newGauge("points.queue.remaining_capacity",
         metricsBuffer::remainingCapacity);
+    sdkMetricsRegistry.newGauge("points.queue.bytes", metricsBuffer::bytes);
     pointsValid = sdkMetricsRegistry.newDeltaCounter("points.valid");
     pointsInvalid = sdkMetricsRegistry.newDeltaCounter("points.invalid");
     pointsDropped = sdkMetricsRegistry.newDeltaCounter("points.dropped");
@@ -332,6 +782,7 @@ public class WavefrontClient implements WavefrontSender, Runnable {
     sdkMetricsRegistry.newGauge("histograms.queue.size", histogramsBuffer::size);
     sdkMetricsRegistry.newGauge("histograms.queue.remaining_capacity",
         histogramsBuffer::remainingCapacity);
+    sdkMetricsRegistry.newGauge("histograms.queue.bytes", histogramsBuffer::bytes);
     histogramsValid = sdkMetricsRegistry.newDeltaCounter("histograms.valid");
     histogramsInvalid = sdkMetricsRegistry.newDeltaCounter("histograms.invalid");
     histogramsDropped = sdkMetricsRegistry.newDeltaCounter("histograms.dropped");
@@ -340,6 +791,7 @@ public class WavefrontClient implements WavefrontSender, Runnable {
     sdkMetricsRegistry.newGauge("spans.queue.size", tracingSpansBuffer::size);
     sdkMetricsRegistry.newGauge("spans.queue.remaining_capacity",
         tracingSpansBuffer::remainingCapacity);
+    sdkMetricsRegistry.newGauge("spans.queue.bytes", tracingSpansBuffer::bytes);
     spansValid = sdkMetricsRegistry.newDeltaCounter("spans.valid");
     spansInvalid = sdkMetricsRegistry.newDeltaCounter("spans.invalid");
     spansDropped = sdkMetricsRegistry.newDeltaCounter("spans.dropped");
@@ -348,11 +800,13 @@ public class WavefrontClient implements WavefrontSender, Runnable {
     sdkMetricsRegistry.newGauge("span_logs.queue.size", spanLogsBuffer::size);
     sdkMetricsRegistry.newGauge("span_logs.queue.remaining_capacity",
         spanLogsBuffer::remainingCapacity);
+    sdkMetricsRegistry.newGauge("span_logs.queue.bytes", spanLogsBuffer::bytes);
     spanLogsValid = sdkMetricsRegistry.newDeltaCounter("span_logs.valid");
     spanLogsInvalid = sdkMetricsRegistry.newDeltaCounter("span_logs.invalid");
     spanLogsDropped = sdkMetricsRegistry.newDeltaCounter("span_logs.dropped");
     spanLogReportErrors = sdkMetricsRegistry.newDeltaCounter("span_logs.report.errors");
 
+    sdkMetricsRegistry.newGauge("logs.queue.bytes", logsBuffer::bytes);
     logsValid = sdkMetricsRegistry.newDeltaCounter("logs.valid");
     logsInvalid = sdkMetricsRegistry.newDeltaCounter("logs.invalid");
     logsDropped = sdkMetricsRegistry.newDeltaCounter("logs.dropped");
@@ -361,21 +815,135 @@ public class WavefrontClient implements WavefrontSender, Runnable {
     sdkMetricsRegistry.newGauge("events.queue.size", eventsBuffer::size);
     sdkMetricsRegistry.newGauge("events.queue.remaining_capacity",
         eventsBuffer::remainingCapacity);
+    sdkMetricsRegistry.newGauge("events.queue.bytes", eventsBuffer::bytes);
     eventsValid = sdkMetricsRegistry.newDeltaCounter("events.valid");
     eventsInvalid = sdkMetricsRegistry.newDeltaCounter("events.invalid");
     eventsDropped = sdkMetricsRegistry.newDeltaCounter("events.dropped");
     eventsReportErrors = sdkMetricsRegistry.newDeltaCounter("events.report.errors");
 
-    metricsDisabledStatusCode = new AtomicInteger();
-    histogramsDisabledStatusCode = new AtomicInteger();
-    spansDisabledStatusCode = new AtomicInteger();
-    spanLogsDisabledStatusCode = new AtomicInteger();
-    eventsDisabledStatusCode = new AtomicInteger();
-    logsDisabledStatusCode = new AtomicInteger();
+    metricsLane = new FlushLane(metricsBuffer, Constants.WAVEFRONT_METRIC_FORMAT, "points",
+        "points", pointsDropped, pointReportErrors, LogMessageType.SEND_METRICS_ERROR,
+        LogMessageType.SEND_METRICS_PERMISSIONS, LogMessageType.METRICS_BUFFER_FULL);
+    histogramsLane = new FlushLane(histogramsBuffer, Constants.WAVEFRONT_HISTOGRAM_FORMAT,
+        "histograms", "histograms", histogramsDropped, histogramReportErrors,
+        LogMessageType.SEND_HISTOGRAMS_ERROR, LogMessageType.SEND_HISTOGRAMS_PERMISSIONS,
+        LogMessageType.HISTOGRAMS_BUFFER_FULL);
+    tracingSpansLane = new FlushLane(tracingSpansBuffer, Constants.WAVEFRONT_TRACING_SPAN_FORMAT,
+        "spans", "spans", spansDropped, spanReportErrors, LogMessageType.SEND_SPANS_ERROR,
+        LogMessageType.SEND_SPANS_PERMISSIONS, LogMessageType.SPANS_BUFFER_FULL);
+    spanLogsLane = new FlushLane(spanLogsBuffer, Constants.WAVEFRONT_SPAN_LOG_FORMAT,
+        "span_logs", "span logs", spanLogsDropped, spanLogReportErrors,
+        LogMessageType.SEND_SPANLOGS_ERROR, LogMessageType.SEND_SPANLOGS_PERMISSIONS,
+        LogMessageType.SPANLOGS_BUFFER_FULL);
+    eventsLane = new FlushLane(eventsBuffer, Constants.WAVEFRONT_EVENT_FORMAT, "events",
+        "events", eventsDropped, eventsReportErrors, LogMessageType.SEND_EVENTS_ERROR,
+        LogMessageType.SEND_EVENTS_PERMISSIONS, LogMessageType.EVENTS_BUFFER_FULL);
+    logsLane = new FlushLane(logsBuffer, Constants.WAVEFRONT_LOG_FORMAT, "logs", "logs",
+        logsDropped, logsReportErrors, LogMessageType.SEND_LOGS_ERROR,
+        LogMessageType.SEND_LOGS_PERMISSIONS, LogMessageType.LOGS_BUFFER_FULL);
+    flushLanes = Arrays.asList(metricsLane, histogramsLane, tracingSpansLane, spanLogsLane,
+        eventsLane, logsLane);
+    if (deferredMetrics != null) {
+      sdkMetricsRegistry.newGauge("points.deferred.size", deferredMetrics::size);
+      sdkMetricsRegistry.newGauge("spans.deferred.size", deferredSpans::size);
+      metricsLane.encodeBeforeFlush(this::encodeDeferredMetrics);
+      tracingSpansLane.encodeBeforeFlush(this::encodeDeferredSpans);
+    }
+
+    // Give every lane its own thread so that a slow or failing endpoint for one entity type
+    // never delays flushing the others
+    scheduler = Executors.newScheduledThreadPool(
+        deltaCounters == null && gauges == null ? flushLanes.size() : flushLanes.size() + 1,
+        new NamedThreadFactory("wavefrontClientSender").setDaemon(true));
+    // Start each lane at a random point within the first interval, so that the timer-driven
+    // flushes of different lanes and clients do not all fire at the same instant
+    long flushIntervalMillis = Math.max(1,
+        builder.flushIntervalTimeUnit.toMillis(builder.flushInterval));
+    for (FlushLane lane : flushLanes) {
+      long initialDelayMillis = ThreadLocalRandom.current().nextLong(flushIntervalMillis) + 1;
+      scheduler.scheduleAtFixedRate(lane, initialDelayMillis, flushIntervalMillis,
+          TimeUnit.MILLISECONDS);
+    }
+    if (deltaCounters != null || gauges != null) {
+      scheduler.scheduleAtFixedRate(this::drainAggregates, flushIntervalMillis,
+          flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    if (writeAheadLogDirectory != null) {
+      // Group commit: whatever was buffered since the last sync is appended and synced at once
+      walScheduler = Executors.newSingleThreadScheduledExecutor(
+          new NamedThreadFactory("wavefrontClientWal").setDaemon(true));
+      walScheduler.scheduleAtFixedRate(() -> {
+        for (FlushLane lane : flushLanes) {
+          lane.syncWriteAheadLog();
+        }
+      }, builder.writeAheadLogSyncInterval, builder.writeAheadLogSyncInterval,
+          builder.writeAheadLogSyncIntervalTimeUnit);
+    } else {
+      walScheduler = null;
+    }
 
     this.clientId = builder.server;
   }
 
+  private ByteBoundedBuffer newBuffer(Builder builder) {
+    return newBuffer(builder, new ByteBudget(builder.maxQueueBytes));
+  }
+
+  private ByteBoundedBuffer newBuffer(Builder builder, ByteBudget budget) {
+    return new ByteBoundedBuffer(builder.bufferType.newBuffer(builder.maxQueueSize), budget,
+        totalQueueBytes);
+  }
+
+  /**
+   * Estimates the number of bytes a metric waiting to be encoded keeps reachable.
+   */
+  private static long estimateMetricBytes(Metric metric) {
+    return OBJECT_BYTES + estimateBytes(metric.getName()) + estimateBytes(metric.getSource()) +
+        estimateBytes(metric.getTags());
+  }
+
+  /**
+   * Estimates the number of bytes a span waiting to be encoded keeps reachable, including its
+   * span logs.
+   */
+  private static long estimateSpanBytes(Span span) {
+    long bytes = OBJECT_BYTES * 3 + estimateBytes(span.getName()) +
+        estimateBytes(span.getSource());
+    if (span.getParents() != null) {
+      bytes += OBJECT_BYTES * (1 + span.getParents().size());
+    }
+    if (span.getFollowsFrom() != null) {
+      bytes += OBJECT_BYTES * (1 + span.getFollowsFrom().size());
+    }
+    if (span.getTags() != null) {
+      for (Pair<String, String> tag : span.getTags()) {
+        bytes += OBJECT_BYTES + estimateBytes(tag._1) + estimateBytes(tag._2);
+      }
+    }
+    if (span.getSpanLogs() != null) {
+      for (SpanLog spanLog : span.getSpanLogs()) {
+        bytes += OBJECT_BYTES + estimateBytes(spanLog.getFields());
+      }
+    }
+    return bytes;
+  }
+
+  private static long estimateBytes(@Nullable Map<String, String> map) {
+    if (map == null) {
+      return 0;
+    }
+    long bytes = OBJECT_BYTES;
+    for (Map.Entry<String, String> entry : map.entrySet()) {
+      bytes += OBJECT_BYTES + estimateBytes(entry.getKey()) + estimateBytes(entry.getValue());
+    }
+    return bytes;
+  }
+
+  private static long estimateBytes(@Nullable String value) {
+    return value == null ? 0 : OBJECT_BYTES + 2L * value.length();
+  }
+
   @Override
   public String getClientId() {
     return clientId;
@@ -388,69 +956,368 @@ public class WavefrontClient implements WavefrontSender, Runnable {
     if (closed.get()) {
       throw new IOException("attempt to send using closed sender");
     }
-    String point;
+    if (gauges != null) {
+      // The coalescer only serializes the point at the next flush, too late to reject it
+      validateMetric(name, source, tags);
+      // Delta counters are summed by Wavefront, so none of their values may be coalesced away
+      if (!name.startsWith(DELTA_PREFIX) && !name.startsWith(DELTA_PREFIX_2) &&
+          gauges.add(name, value, timestamp, source, tags)) {
+        return;
+      }
+    }
+    acceptMetric(name, value, timestamp, source, tags);
+  }
+
+  @Override
+  public void sendDeltaCounter(String name, double value, @Nullable String source,
+                               @Nullable Map<String, String> tags) throws IOException {
+    if (deltaCounters == null) {
+      WavefrontSender.super.sendDeltaCounter(name, value, source, tags);
+      return;
+    }
+    if (closed.get()) {
+      throw new IOException("attempt to send using closed sender");
+    }
+    if (name != null && !name.startsWith(DELTA_PREFIX) && !name.startsWith(DELTA_PREFIX_2)) {
+      name = DELTA_PREFIX + name;
+    }
+    if (value <= 0) {
+      return;
+    }
+    // The accumulator only serializes the series at the next flush, too late to reject it
+    validateMetric(name, source, tags);
+    if (!deltaCounters.add(name, value, source, tags)) {
+      acceptMetric(name, value, null, source, tags);
+    }
+  }
+
+  private void validateMetric(String name, @Nullable String source,
+                              @Nullable Map<String, String> tags) {
     try {
-      point = metricToLineData(name, value, timestamp, source, tags, defaultSource);
-      pointsValid.inc();
+      Utils.validateMetric(name, source, tags, defaultSource);
     } catch (IllegalArgumentException e) {
       pointsInvalid.inc();
       throw e;
     }
+  }
 
-    if (!metricsBuffer.offer(point)) {
+  private void acceptMetric(String name, double value, @Nullable Long timestamp,
+                            @Nullable String source, @Nullable Map<String, String> tags) {
+    if (deferredMetrics == null) {
+      enqueueMetric(name, value, timestamp, source, tags);
+      return;
+    }
+    checkDeferredMetric(name, source);
+    if (!deferredMetrics.offer(new Metric(name, value, timestamp, source, tags))) {
       pointsDropped.inc();
-      logger.log(LogMessageType.METRICS_BUFFER_FULL.toString(), Level.WARNING,
-          "Buffer full, dropping metric point: " + point + ". Consider increasing the batch " +
+      logger.log(LogMessageType.METRICS_BUFFER_FULL.toString(), Level.WARNING, () ->
+          "Buffer full, dropping metric point: " + name + ". Consider increasing the batch " +
               "size of your sender to increase throughput.");
-
     }
+    metricsLane.onDeferred(deferredMetrics.size());
   }
 
-  @Override
-  public void sendFormattedMetric(String point) throws IOException {
-    if (closed.get()) {
-      throw new IOException("attempt to send using closed sender");
+  /**
+   * The part of the validation of a metric that is done by the sending thread when encoding is
+   * deferred, the rest being done by {@link #encodeDeferredMetrics}.
+   */
+  private void checkDeferredMetric(String name, @Nullable String source) {
+    if (name == null || name.isEmpty()) {
+      pointsInvalid.inc();
+      throw new IllegalArgumentException("metrics name cannot be blank");
     }
-    if (point == null || "".equals(point.trim())) {
+    if ((source == null || source.isEmpty()) && (defaultSource == null ||
+        defaultSource.isEmpty())) {
       pointsInvalid.inc();
-      throw new IllegalArgumentException("point must be non-null and in WF data format");
+      throw new IllegalArgumentException("source cannot be blank");
+    }
+  }
+
+  private void enqueueMetric(String name, double value, @Nullable Long timestamp,
+                             @Nullable String source, @Nullable Map<String, String> tags) {
+    byte[] point;
+    try {
+      point = LineEncoder.get().metric(name, value, timestamp, source, tags, defaultSource).
+          toByteArray();
+      pointsValid.inc();
+    } catch (IllegalArgumentException e) {
+      pointsInvalid.inc();
+      throw e;
     }
-    pointsValid.inc();
-    String finalPoint = point.endsWith("\n") ? point : point + "\n";
 
-    if (!metricsBuffer.offer(finalPoint)) {
+    if (!metricsLane.offer(point)) {
       pointsDropped.inc();
-      logger.log(LogMessageType.METRICS_BUFFER_FULL.toString(), Level.WARNING,
-          "Buffer full, dropping metric point: " + finalPoint + ". Consider increasing the batch " +
-              "size of your sender to increase throughput.");
+      logger.log(LogMessageType.METRICS_BUFFER_FULL.toString(), Level.WARNING, () ->
+          "Buffer full, dropping metric point: " + new String(point, StandardCharsets.UTF_8) +
+              ". Consider increasing the batch size of your sender to increase throughput.");
+
     }
   }
 
   @Override
-  public void sendDistribution(String name, List<Pair<Double, Integer>> centroids,
-                               Set<HistogramGranularity> histogramGranularities,
-                               @Nullable Long timestamp, @Nullable String source,
-                               @Nullable Map<String, String> tags)
-      throws IOException {
+  public void sendMetrics(Collection<Metric> metrics) throws IOException {
+    if (gauges != null) {
+      // Points of gauges must go through the coalescer
+      WavefrontSender.super.sendMetrics(metrics);
+      return;
+    }
     if (closed.get()) {
       throw new IOException("attempt to send using closed sender");
     }
-    String histograms;
-    try {
-      histograms = histogramToLineData(name, centroids, histogramGranularities, timestamp,
-          source, tags, defaultSource);
-      histogramsValid.inc();
-    } catch (IllegalArgumentException e) {
+    if (deferredMetrics != null) {
+      deferMetrics(metrics);
+      return;
+    }
+    List<byte[]> points = new ArrayList<>(metrics.size());
+    IllegalArgumentException invalid = null;
+    for (Metric metric : metrics) {
+      try {
+        points.add(LineEncoder.get().metric(metric.getName(), metric.getValue(),
+            metric.getTimestamp(), metric.getSource(), metric.getTags(), defaultSource).
+            toByteArray());
+      } catch (IllegalArgumentException e) {
+        if (invalid == null) {
+          invalid = e;
+        }
+      }
+    }
+    pointsValid.inc(points.size());
+    pointsInvalid.inc(metrics.size() - points.size());
+    enqueuePoints(points);
+    if (invalid != null) {
+      throw invalid;
+    }
+  }
+
+  private void deferMetrics(Collection<Metric> metrics) {
+    List<Metric> validMetrics = new ArrayList<>(metrics.size());
+    IllegalArgumentException invalid = null;
+    for (Metric metric : metrics) {
+      try {
+        checkDeferredMetric(metric.getName(), metric.getSource());
+        validMetrics.add(metric);
+      } catch (IllegalArgumentException e) {
+        if (invalid == null) {
+          invalid = e;
+        }
+      }
+    }
+    int numDropped = validMetrics.size() - deferredMetrics.offerAll(validMetrics);
+    if (numDropped > 0) {
+      pointsDropped.inc(numDropped);
+      logger.log(LogMessageType.METRICS_BUFFER_FULL.toString(), Level.WARNING, () ->
+          "Buffer full, dropping " + numDropped + " metric points. Consider increasing the " +
+              "batch size of your sender to increase throughput.");
+    }
+    metricsLane.onDeferred(deferredMetrics.size());
+    if (invalid != null) {
+      throw invalid;
+    }
+  }
+
+  private void enqueuePoints(List<byte[]> points) {
+    int numDropped = points.size() - metricsLane.offerAll(points);
+    if (numDropped > 0) {
+      pointsDropped.inc(numDropped);
+      logger.log(LogMessageType.METRICS_BUFFER_FULL.toString(), Level.WARNING, () ->
+          "Buffer full, dropping " + numDropped + " metric points. Consider increasing the " +
+              "batch size of your sender to increase throughput.");
+    }
+  }
+
+  /**
+   * Encodes the metrics queued while encoding is deferred and moves them to the metrics buffer.
+   * Runs on the flush thread of the metrics lane right before it flushes.
+   */
+  private void encodeDeferredMetrics() {
+    LineEncoder encoder = LineEncoder.get();
+    List<byte[]> points = new ArrayList<>(Math.min(batchSize, deferredMetrics.size()));
+    // Only take what is queued now, so that a steady stream of sends cannot hold up the flush
+    for (int pending = deferredMetrics.size(); pending > 0; pending--) {
+      Metric metric = deferredMetrics.poll();
+      if (metric == null) {
+        break;
+      }
+      try {
+        points.add(encoder.metric(metric.getName(), metric.getValue(), metric.getTimestamp(),
+            metric.getSource(), metric.getTags(), defaultSource).toByteArray());
+        pointsValid.inc();
+      } catch (IllegalArgumentException e) {
+        pointsInvalid.inc();
+        logger.log(LogMessageType.DEFERRED_ENCODING_ERROR.toString(), Level.WARNING, () ->
+            "Dropping invalid metric point: " + e.getMessage());
+      }
+      if (points.size() >= batchSize) {
+        enqueuePoints(points);
+        points.clear();
+      }
+    }
+    if (!points.isEmpty()) {
+      enqueuePoints(points);
+    }
+  }
+
+  @Override
+  public PreparedPoint preparePoint(String name, @Nullable String source,
+                                    @Nullable Map<String, String> tags) {
+    if (gauges != null && name != null && !name.startsWith(DELTA_PREFIX) &&
+        !name.startsWith(DELTA_PREFIX_2)) {
+      // Points of gauges must go through the coalescer
+      return WavefrontSender.super.preparePoint(name, source, tags);
+    }
+    Pair<String, String> parts;
+    try {
+      parts = metricLineParts(name, source, tags, defaultSource);
+    } catch (IllegalArgumentException e) {
+      pointsInvalid.inc();
+      throw e;
+    }
+    return new PreparedMetricPoint(parts._1.getBytes(StandardCharsets.UTF_8),
+        parts._2.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * A series whose line is already encoded, except for the value and timestamp of its points.
+   */
+  private class PreparedMetricPoint implements PreparedPoint {
+    private final byte[] prefix;
+    private final byte[] suffix;
+
+    PreparedMetricPoint(byte[] prefix, byte[] suffix) {
+      this.prefix = prefix;
+      this.suffix = suffix;
+    }
+
+    @Override
+    public void send(double value, @Nullable Long timestamp) throws IOException {
+      if (closed.get()) {
+        throw new IOException("attempt to send using closed sender");
+      }
+      // Same representation as metricToLineData
+      byte[] number = NUMBER_BUFFER.get();
+      int valueLength = Numbers.writeDouble(number, 0, value);
+      int timestampLength = timestamp == null ? 0 : 1 + Numbers.longLength(timestamp);
+      byte[] line = new byte[prefix.length + valueLength + timestampLength + suffix.length];
+      System.arraycopy(prefix, 0, line, 0, prefix.length);
+      System.arraycopy(number, 0, line, prefix.length, valueLength);
+      int position = prefix.length + valueLength;
+      if (timestamp != null) {
+        line[position++] = ' ';
+        position = Numbers.writeLong(line, position, timestamp);
+      }
+      System.arraycopy(suffix, 0, line, position, suffix.length);
+      pointsValid.inc();
+
+      if (!metricsLane.offer(line)) {
+        pointsDropped.inc();
+        logger.log(LogMessageType.METRICS_BUFFER_FULL.toString(), Level.WARNING, () ->
+            "Buffer full, dropping metric point: " + new String(line, StandardCharsets.UTF_8) +
+                ". Consider increasing the batch size of your sender to increase throughput.");
+      }
+    }
+  }
+
+  @Override
+  public void sendFormattedMetric(String point) throws IOException {
+    if (closed.get()) {
+      throw new IOException("attempt to send using closed sender");
+    }
+    if (point == null || "".equals(point.trim())) {
+      pointsInvalid.inc();
+      throw new IllegalArgumentException("point must be non-null and in WF data format");
+    }
+    pointsValid.inc();
+    String finalPoint = point.endsWith("\n") ? point : point + "\n";
+
+    if (!metricsLane.offer(finalPoint.getBytes(StandardCharsets.UTF_8))) {
+      pointsDropped.inc();
+      logger.log(LogMessageType.METRICS_BUFFER_FULL.toString(), Level.WARNING, () ->
+          "Buffer full, dropping metric point: " + finalPoint + ". Consider increasing the batch " +
+              "size of your sender to increase throughput.");
+    }
+  }
+
+  @Override
+  public void sendDistribution(String name, List<Pair<Double, Integer>> centroids,
+                               Set<HistogramGranularity> histogramGranularities,
+                               @Nullable Long timestamp, @Nullable String source,
+                               @Nullable Map<String, String> tags)
+      throws IOException {
+    if (closed.get()) {
+      throw new IOException("attempt to send using closed sender");
+    }
+    byte[] histograms;
+    try {
+      histograms = LineEncoder.get().histogram(name, centroids, histogramGranularities,
+          timestamp, source, tags, defaultSource).toByteArray();
+      histogramsValid.inc();
+    } catch (IllegalArgumentException e) {
       histogramsInvalid.inc();
       throw e;
     }
+    enqueueHistograms(histograms);
+  }
 
-    if (!histogramsBuffer.offer(histograms)) {
+  @Override
+  public void sendDistribution(String name, double[] means, int[] counts,
+                               Set<HistogramGranularity> histogramGranularities,
+                               @Nullable Long timestamp, @Nullable String source,
+                               @Nullable Map<String, String> tags) throws IOException {
+    if (closed.get()) {
+      throw new IOException("attempt to send using closed sender");
+    }
+    byte[] histograms;
+    try {
+      histograms = LineEncoder.get().histogram(name, means, counts, histogramGranularities,
+          timestamp, source, tags, defaultSource).toByteArray();
+      histogramsValid.inc();
+    } catch (IllegalArgumentException e) {
+      histogramsInvalid.inc();
+      throw e;
+    }
+    enqueueHistograms(histograms);
+  }
+
+  private void enqueueHistograms(byte[] histograms) {
+    if (!histogramsLane.offer(histograms)) {
       histogramsDropped.inc();
-      logger.log(LogMessageType.HISTOGRAMS_BUFFER_FULL.toString(), Level.WARNING,
-          "Buffer full, dropping histograms: " + histograms + ". Consider increasing the batch " +
-              "size of your sender to increase throughput.");
+      logger.log(LogMessageType.HISTOGRAMS_BUFFER_FULL.toString(), Level.WARNING, () ->
+          "Buffer full, dropping histograms: " + new String(histograms, StandardCharsets.UTF_8) +
+              ". Consider increasing the batch size of your sender to increase throughput.");
+    }
+  }
 
+  @Override
+  public void sendDistributions(Collection<Distribution> distributions) throws IOException {
+    if (closed.get()) {
+      throw new IOException("attempt to send using closed sender");
+    }
+    List<byte[]> histograms = new ArrayList<>(distributions.size());
+    IllegalArgumentException invalid = null;
+    for (Distribution distribution : distributions) {
+      try {
+        histograms.add(LineEncoder.get().histogram(distribution.getName(),
+            distribution.getCentroids(), distribution.getHistogramGranularities(),
+            distribution.getTimestamp(), distribution.getSource(), distribution.getTags(),
+            defaultSource).toByteArray());
+      } catch (IllegalArgumentException e) {
+        if (invalid == null) {
+          invalid = e;
+        }
+      }
+    }
+    histogramsValid.inc(histograms.size());
+    histogramsInvalid.inc(distributions.size() - histograms.size());
+
+    int numDropped = histograms.size() - histogramsLane.offerAll(histograms);
+    if (numDropped > 0) {
+      histogramsDropped.inc(numDropped);
+      logger.log(LogMessageType.HISTOGRAMS_BUFFER_FULL.toString(), Level.WARNING, () ->
+          "Buffer full, dropping " + numDropped + " histograms. Consider increasing the batch " +
+              "size of your sender to increase throughput.");
+    }
+    if (invalid != null) {
+      throw invalid;
     }
   }
 
@@ -460,20 +1327,21 @@ public class WavefrontClient implements WavefrontSender, Runnable {
     if (closed.get()) {
       throw new IOException("attempt to send using closed sender");
     }
-    String point;
+    byte[] point;
     try {
-      point = logToLineData(name, value, timestamp, source, tags, defaultSource);
+      point = LineEncoder.get().log(name, value, timestamp, source, tags, defaultSource).
+          toByteArray();
       logsValid.inc();
     } catch (IllegalArgumentException e) {
       logsInvalid.inc();
       throw e;
     }
 
-    if (!logsBuffer.offer(point)) {
+    if (!logsLane.offer(point)) {
       logsDropped.inc();
-      logger.log(LogMessageType.LOGS_BUFFER_FULL.toString(), Level.WARNING,
-              "Buffer full, dropping log point: " + point + ". Consider increasing the batch " +
-                      "size of your sender to increase throughput.");
+      logger.log(LogMessageType.LOGS_BUFFER_FULL.toString(), Level.WARNING, () ->
+              "Buffer full, dropping log point: " + new String(point, StandardCharsets.UTF_8) +
+                      ". Consider increasing the batch size of your sender to increase throughput.");
 
     }
   }
@@ -501,9 +1369,9 @@ public class WavefrontClient implements WavefrontSender, Runnable {
       eventsInvalid.inc();
       throw e;
     }
-    if (!eventsBuffer.offer(event)) {
+    if (!eventsLane.offer(event.getBytes(StandardCharsets.UTF_8))) {
       eventsDropped.inc();
-      logger.log(LogMessageType.EVENTS_BUFFER_FULL.toString(), Level.WARNING,
+      logger.log(LogMessageType.EVENTS_BUFFER_FULL.toString(), Level.WARNING, () ->
           "Buffer full, dropping events: " + event + ".");
     }
   }
@@ -517,42 +1385,222 @@ public class WavefrontClient implements WavefrontSender, Runnable {
     if (closed.get()) {
       throw new IOException("attempt to send using closed sender");
     }
-    String span;
+    if (deferredSpans != null) {
+      checkDeferredSpan(name);
+      if (!deferredSpans.offer(new Span(name, startMillis, durationMillis, source, traceId,
+          spanId, parents, followsFrom, tags, spanLogs))) {
+        spansDropped.inc();
+        if (spanLogs != null && !spanLogs.isEmpty()) {
+          spanLogsDropped.inc();
+        }
+        logger.log(LogMessageType.SPANS_BUFFER_FULL.toString(), Level.WARNING, () ->
+            "Buffer full, dropping span: " + name + ". Consider increasing the batch size of " +
+                "your sender to increase throughput.");
+      }
+      tracingSpansLane.onDeferred(deferredSpans.size());
+      return;
+    }
+    LineEncoder encoder = LineEncoder.get();
+    byte[] span;
     try {
-      span = tracingSpanToLineData(name, startMillis, durationMillis, source, traceId,
-          spanId, parents, followsFrom, tags, spanLogs, defaultSource);
+      span = encoder.span(name, startMillis, durationMillis, source, traceId, spanId, parents,
+          followsFrom, tags, spanLogs, defaultSource).toByteArray();
       spansValid.inc();
     } catch (IllegalArgumentException e) {
       spansInvalid.inc();
       throw e;
     }
 
-    if (tracingSpansBuffer.offer(span)) {
+    if (tracingSpansLane.offer(span)) {
       // attempt span logs after span is sent.
       if (spanLogs != null && !spanLogs.isEmpty()) {
-        sendSpanLogs(traceId, spanId, spanLogs, span);
+        sendSpanLogs(traceId, spanId, spanLogs,
+            spanLogsEncoder.includesSpan() ? encoder.toString() : null);
       }
     } else {
       spansDropped.inc();
       if (spanLogs != null && !spanLogs.isEmpty()) {
         spanLogsDropped.inc();
       }
-      logger.log(LogMessageType.SPANS_BUFFER_FULL.toString(), Level.WARNING,
-          "Buffer full, dropping span: " + span + ". Consider increasing the batch size of your " +
-              "sender to increase throughput.");
+      logger.log(LogMessageType.SPANS_BUFFER_FULL.toString(), Level.WARNING, () ->
+          "Buffer full, dropping span: " + new String(span, StandardCharsets.UTF_8) + ". " +
+              "Consider increasing the batch size of your sender to increase throughput.");
+    }
+  }
+
+  @Override
+  public void sendSpans(Collection<Span> spans) throws IOException {
+    if (closed.get()) {
+      throw new IOException("attempt to send using closed sender");
+    }
+    if (deferredSpans != null) {
+      deferSpans(spans);
+      return;
+    }
+    List<Span> validSpans = new ArrayList<>(spans.size());
+    List<byte[]> encoded = new ArrayList<>(spans.size());
+    IllegalArgumentException invalid = null;
+    for (Span span : spans) {
+      try {
+        encoded.add(LineEncoder.get().span(span.getName(), span.getStartMillis(),
+            span.getDurationMillis(), span.getSource(), span.getTraceId(), span.getSpanId(),
+            span.getParents(), span.getFollowsFrom(), span.getTags(), span.getSpanLogs(),
+            defaultSource).toByteArray());
+        validSpans.add(span);
+      } catch (IllegalArgumentException e) {
+        if (invalid == null) {
+          invalid = e;
+        }
+      }
+    }
+    spansValid.inc(validSpans.size());
+    spansInvalid.inc(spans.size() - validSpans.size());
+    enqueueSpans(validSpans, encoded);
+    if (invalid != null) {
+      throw invalid;
+    }
+  }
+
+  private void deferSpans(Collection<Span> spans) {
+    List<Span> validSpans = new ArrayList<>(spans.size());
+    IllegalArgumentException invalid = null;
+    for (Span span : spans) {
+      try {
+        checkDeferredSpan(span.getName());
+        validSpans.add(span);
+      } catch (IllegalArgumentException e) {
+        if (invalid == null) {
+          invalid = e;
+        }
+      }
+    }
+    int added = deferredSpans.offerAll(validSpans);
+    if (added < validSpans.size()) {
+      spansDropped.inc(validSpans.size() - added);
+      for (Span span : validSpans.subList(added, validSpans.size())) {
+        if (span.getSpanLogs() != null && !span.getSpanLogs().isEmpty()) {
+          spanLogsDropped.inc();
+        }
+      }
+      logger.log(LogMessageType.SPANS_BUFFER_FULL.toString(), Level.WARNING, () ->
+          "Buffer full, dropping " + (validSpans.size() - added) + " spans. Consider " +
+              "increasing the batch size of your sender to increase throughput.");
+    }
+    tracingSpansLane.onDeferred(deferredSpans.size());
+    if (invalid != null) {
+      throw invalid;
+    }
+  }
+
+  /**
+   * The part of the validation of a span that is done by the sending thread when encoding is
+   * deferred, the rest being done by {@link #encodeDeferredSpans}.
+   */
+  private void checkDeferredSpan(String name) {
+    if (name == null || name.isEmpty()) {
+      spansInvalid.inc();
+      throw new IllegalArgumentException("span name cannot be blank");
+    }
+  }
+
+  /**
+   * Encodes the spans queued while encoding is deferred and moves them to the spans buffer,
+   * along with their span logs. Runs on the flush thread of the spans lane right before it
+   * flushes.
+   */
+  private void encodeDeferredSpans() {
+    LineEncoder encoder = LineEncoder.get();
+    int capacity = Math.min(batchSize, deferredSpans.size());
+    List<Span> validSpans = new ArrayList<>(capacity);
+    List<byte[]> encoded = new ArrayList<>(capacity);
+    // Only take what is queued now, so that a steady stream of sends cannot hold up the flush
+    for (int pending = deferredSpans.size(); pending > 0; pending--) {
+      Span span = deferredSpans.poll();
+      if (span == null) {
+        break;
+      }
+      try {
+        encoded.add(encoder.span(span.getName(), span.getStartMillis(),
+            span.getDurationMillis(), span.getSource(), span.getTraceId(), span.getSpanId(),
+            span.getParents(), span.getFollowsFrom(), span.getTags(), span.getSpanLogs(),
+            defaultSource).toByteArray());
+        validSpans.add(span);
+        spansValid.inc();
+      } catch (IllegalArgumentException e) {
+        spansInvalid.inc();
+        logger.log(LogMessageType.DEFERRED_ENCODING_ERROR.toString(), Level.WARNING, () ->
+            "Dropping invalid span: " + e.getMessage());
+      }
+      if (encoded.size() >= batchSize) {
+        enqueueSpans(validSpans, encoded);
+        validSpans.clear();
+        encoded.clear();
+      }
+    }
+    if (!encoded.isEmpty()) {
+      enqueueSpans(validSpans, encoded);
+    }
+  }
+
+  /**
+   * Adds encoded spans to the spans buffer, followed by the span logs of the spans that fit.
+   *
+   * @param validSpans The spans.
+   * @param encoded    The encoded line of each span.
+   */
+  private void enqueueSpans(List<Span> validSpans, List<byte[]> encoded) {
+    int added = tracingSpansLane.offerAll(encoded);
+    // attempt span logs of the spans that were sent.
+    List<byte[]> spanLogsLines = new ArrayList<>();
+    for (int i = 0; i < validSpans.size(); i++) {
+      Span span = validSpans.get(i);
+      if (span.getSpanLogs() == null || span.getSpanLogs().isEmpty()) {
+        continue;
+      }
+      if (i >= added) {
+        spanLogsDropped.inc();
+        continue;
+      }
+      try {
+        spanLogsLines.add(spanLogsEncoder.encodeToBytes(span.getTraceId(), span.getSpanId(),
+            span.getSpanLogs(), spanLogsEncoder.includesSpan() ?
+                new String(encoded.get(i), StandardCharsets.UTF_8) : null));
+      } catch (JsonProcessingException e) {
+        spanLogsInvalid.inc();
+        logger.log(LogMessageType.SPANLOGS_PROCESSING_ERROR.toString(), Level.WARNING,
+            "Unable to serialize span logs to JSON: traceId=" + span.getTraceId() + " spanId=" +
+                span.getSpanId() + " spanLogs=" + span.getSpanLogs());
+      }
+    }
+    if (added < validSpans.size()) {
+      spansDropped.inc(validSpans.size() - added);
+      logger.log(LogMessageType.SPANS_BUFFER_FULL.toString(), Level.WARNING, () ->
+          "Buffer full, dropping " + (validSpans.size() - added) + " spans. Consider " +
+              "increasing the batch size of your sender to increase throughput.");
+    }
+    if (!spanLogsLines.isEmpty()) {
+      spanLogsValid.inc(spanLogsLines.size());
+      int numDropped = spanLogsLines.size() - spanLogsLane.offerAll(spanLogsLines);
+      if (numDropped > 0) {
+        spanLogsDropped.inc(numDropped);
+        logger.log(LogMessageType.SPANLOGS_BUFFER_FULL.toString(), Level.WARNING, () ->
+            "Buffer full, dropping " + numDropped + " spanLogs. Consider increasing the batch " +
+                "size of your sender to increase throughput.");
+      }
     }
   }
 
-  private void sendSpanLogs(UUID traceId, UUID spanId, List<SpanLog> spanLogs, String span) {
+  private void sendSpanLogs(UUID traceId, UUID spanId, List<SpanLog> spanLogs,
+                            @Nullable String span) {
     // attempt span logs
     try {
-      String spanLogsJson = spanLogsToLineData(traceId, spanId, spanLogs, span);
+      byte[] spanLogsJson = spanLogsEncoder.encodeToBytes(traceId, spanId, spanLogs, span);
       spanLogsValid.inc();
-      if (!spanLogsBuffer.offer(spanLogsJson)) {
+      if (!spanLogsLane.offer(spanLogsJson)) {
         spanLogsDropped.inc();
-        logger.log(LogMessageType.SPANLOGS_BUFFER_FULL.toString(), Level.WARNING,
-            "Buffer full, dropping spanLogs: " + spanLogsJson + ". Consider increasing the batch " +
-                "size of your sender to increase throughput.");
+        logger.log(LogMessageType.SPANLOGS_BUFFER_FULL.toString(), Level.WARNING, () ->
+            "Buffer full, dropping spanLogs: " + new String(spanLogsJson, StandardCharsets.UTF_8) +
+                ". Consider increasing the batch size of your sender to increase throughput.");
       }
     } catch (JsonProcessingException e) {
       spanLogsInvalid.inc();
@@ -580,50 +1628,422 @@ public class WavefrontClient implements WavefrontSender, Runnable {
       this.flushNoCheck();
   }
 
+  /**
+   * Moves the delta counters and gauges aggregated since the last call to the metrics buffer.
+   */
+  private void drainAggregates() {
+    try {
+      if (deltaCounters != null) {
+        deltaCounters.drain((name, value, source, tags) ->
+            enqueueMetric(name, value, null, source, tags));
+      }
+      if (gauges != null) {
+        gauges.drain(this::enqueueMetric);
+      }
+    } catch (Throwable ex) {
+      logger.log(LogMessageType.FLUSH_ERROR.toString(), Level.WARNING,
+          "Unable to report aggregated metrics: " + Throwables.getRootCause(ex));
+    }
+  }
+
   private void flushNoCheck() throws IOException {
-    internalFlush(metricsBuffer, Constants.WAVEFRONT_METRIC_FORMAT, "points", "points",
-        pointsDropped, pointReportErrors, metricsDisabledStatusCode,
-        LogMessageType.SEND_METRICS_ERROR, LogMessageType.SEND_METRICS_PERMISSIONS,
-        LogMessageType.METRICS_BUFFER_FULL);
-    internalFlush(histogramsBuffer, Constants.WAVEFRONT_HISTOGRAM_FORMAT, "histograms",
-        "histograms", histogramsDropped, histogramReportErrors, histogramsDisabledStatusCode,
-        LogMessageType.SEND_HISTOGRAMS_ERROR, LogMessageType.SEND_HISTOGRAMS_PERMISSIONS,
-        LogMessageType.HISTOGRAMS_BUFFER_FULL);
-    internalFlush(tracingSpansBuffer, Constants.WAVEFRONT_TRACING_SPAN_FORMAT, "spans", "spans",
-        spansDropped, spanReportErrors, spansDisabledStatusCode, LogMessageType.SEND_SPANS_ERROR,
-        LogMessageType.SEND_SPANS_PERMISSIONS, LogMessageType.SPANS_BUFFER_FULL);
-    internalFlush(spanLogsBuffer, Constants.WAVEFRONT_SPAN_LOG_FORMAT, "span_logs", "span logs",
-        spanLogsDropped, spanLogReportErrors, spanLogsDisabledStatusCode,
-        LogMessageType.SEND_SPANLOGS_ERROR, LogMessageType.SEND_SPANLOGS_PERMISSIONS,
-        LogMessageType.SPANLOGS_BUFFER_FULL);
-    internalFlush(eventsBuffer, Constants.WAVEFRONT_EVENT_FORMAT, "events", "events",
-        eventsDropped, eventsReportErrors, eventsDisabledStatusCode,
-        LogMessageType.SEND_EVENTS_ERROR, LogMessageType.SEND_EVENTS_PERMISSIONS,
-        LogMessageType.EVENTS_BUFFER_FULL);
-    internalFlush(logsBuffer, Constants.WAVEFRONT_LOG_FORMAT, "logs", "logs",
-        logsDropped, logsReportErrors, logsDisabledStatusCode,
-        LogMessageType.SEND_LOGS_ERROR, LogMessageType.SEND_LOGS_PERMISSIONS,
-        LogMessageType.LOGS_BUFFER_FULL);
-  }
-
-  private void internalFlush(LinkedBlockingQueue<String> buffer, String format,
-                             String entityPrefix, String entityType,
-                             WavefrontSdkDeltaCounter dropped, WavefrontSdkDeltaCounter reportErrors,
-                             AtomicInteger featureDisabledStatusCode,
-                             LogMessageType errorMessageType,
-                             LogMessageType permissionsMessageType,
-                             LogMessageType bufferFullMessageType)
-      throws IOException {
-    List<List<String>> batch = null;
-    if(format.equals(Constants.WAVEFRONT_EVENT_FORMAT)){
-      // Event direct ingestion now does not support batching
-      batch = getBatch(buffer, 1, messageSizeBytes, dropped);
-    }else{
-      batch = getBatch(buffer, batchSize, messageSizeBytes, dropped);
-    }
-    for (int i = 0; i < batch.size(); i++) {
-      List<String> items = batch.get(i);
-      int featureDisabledReason = featureDisabledStatusCode.get();
+    drainAggregates();
+    // Flush every lane even if one of them fails, and report the failures afterwards
+    IOException error = null;
+    for (FlushLane lane : flushLanes) {
+      try {
+        lane.flush();
+      } catch (IOException ex) {
+        if (error == null) {
+          error = ex;
+        } else {
+          error.addSuppressed(ex);
+        }
+      }
+    }
+    if (error != null) {
+      throw error;
+    }
+  }
+
+  /**
+   * Flushes the buffered data of a single entity type. Each lane is scheduled on its own, so
+   * that data of one type is never held up by reporting data of another type.
+   */
+  private class FlushLane implements Runnable {
+    private final ByteBoundedBuffer buffer;
+    private final String format;
+    private final String entityPrefix;
+    private final String entityType;
+    private final WavefrontSdkDeltaCounter dropped;
+    private final WavefrontSdkDeltaCounter reportErrors;
+    private final WavefrontSdkDeltaCounter flushes;
+    private final WavefrontSdkDeltaCounter flushDurationMillis;
+    private final LogMessageType errorMessageType;
+    private final LogMessageType permissionsMessageType;
+    private final LogMessageType bufferFullMessageType;
+
+    // Sends the messages of a flush concurrently, or null to send them one after another
+    @Nullable
+    private final ExecutorService requestExecutor;
+
+    // Consider the feature to be enabled when value is 0, and disabled otherwise
+    private final AtomicInteger disabledStatusCode = new AtomicInteger();
+    private volatile long lastFlushDurationMillis;
+
+    // Serializes flushes of this lane, whether triggered by the timer, early or by the user
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final AtomicBoolean earlyFlushPending = new AtomicBoolean(false);
+    // Early flushes are suspended while reporting fails, leaving retries to the timer
+    private volatile boolean reportFailing = false;
+
+    // Holds data that does not fit in memory or failed to be reported, or null if not spooling.
+    // In write-ahead mode it holds all the data of this lane until it is reported.
+    @Nullable
+    private final DiskSpool spool;
+    private final boolean writeAhead;
+    @Nullable
+    private final RateLimiter replayRateLimiter;
+    @Nullable
+    private final WavefrontSdkDeltaCounter spooled;
+    @Nullable
+    private final WavefrontSdkDeltaCounter replayed;
+    // Moves data whose encoding was deferred to the buffer before each flush, or null
+    @Nullable
+    private Runnable deferredEncoder;
+
+    FlushLane(ByteBoundedBuffer buffer, String format, String entityPrefix, String entityType,
+              WavefrontSdkDeltaCounter dropped, WavefrontSdkDeltaCounter reportErrors,
+              LogMessageType errorMessageType, LogMessageType permissionsMessageType,
+              LogMessageType bufferFullMessageType) {
+      this.buffer = buffer;
+      this.format = format;
+      this.entityPrefix = entityPrefix;
+      this.entityType = entityType;
+      this.dropped = dropped;
+      this.reportErrors = reportErrors;
+      this.errorMessageType = errorMessageType;
+      this.permissionsMessageType = permissionsMessageType;
+      this.bufferFullMessageType = bufferFullMessageType;
+      this.flushes = sdkMetricsRegistry.newDeltaCounter(entityPrefix + ".flush.count");
+      this.flushDurationMillis =
+          sdkMetricsRegistry.newDeltaCounter(entityPrefix + ".flush.duration_millis");
+      sdkMetricsRegistry.newGauge(entityPrefix + ".flush.last_duration_millis",
+          () -> lastFlushDurationMillis);
+      this.requestExecutor = maxConcurrentRequests > 1 ?
+          Executors.newFixedThreadPool(maxConcurrentRequests,
+              new NamedThreadFactory("wavefrontClientSender-" + entityPrefix).setDaemon(true)) :
+          null;
+
+      DiskSpool openedSpool = null;
+      if (writeAheadLogDirectory != null) {
+        File directory = new File(writeAheadLogDirectory, entityPrefix);
+        try {
+          // Items read from the log are only consumed once their report has been acknowledged
+          openedSpool = new DiskSpool(directory, maxWriteAheadLogBytes, false);
+        } catch (IOException e) {
+          logger.log(LogMessageType.SPOOL_ERROR.toString(), Level.SEVERE,
+              "Unable to open write-ahead log directory " + directory + ", " + entityType +
+                  " will only be buffered in memory: " + Throwables.getRootCause(e));
+        }
+      } else if (spoolDirectory != null) {
+        File directory = new File(spoolDirectory, entityPrefix);
+        try {
+          openedSpool = new DiskSpool(directory, maxSpoolBytes);
+        } catch (IOException e) {
+          logger.log(LogMessageType.SPOOL_ERROR.toString(), Level.SEVERE,
+              "Unable to open spool directory " + directory + ", " + entityType + " will not " +
+                  "be spooled to disk: " + Throwables.getRootCause(e));
+        }
+      }
+      this.spool = openedSpool;
+      this.writeAhead = openedSpool != null && writeAheadLogDirectory != null;
+      this.replayRateLimiter = openedSpool == null || writeAhead ? null :
+          RateLimiter.create(spoolReplayRate);
+      this.spooled = openedSpool == null ? null : sdkMetricsRegistry.newDeltaCounter(
+          entityPrefix + (writeAhead ? ".wal.appended" : ".spooled"));
+      this.replayed = openedSpool == null || writeAhead ? null :
+          sdkMetricsRegistry.newDeltaCounter(entityPrefix + ".spool.replayed");
+      if (openedSpool != null) {
+        String spoolPrefix = entityPrefix + (writeAhead ? ".wal" : ".spool");
+        sdkMetricsRegistry.newGauge(spoolPrefix + ".size", openedSpool::size);
+        sdkMetricsRegistry.newGauge(spoolPrefix + ".bytes", openedSpool::bytes);
+        sdkMetricsRegistry.newGauge(spoolPrefix + ".evicted", openedSpool::evicted);
+      }
+    }
+
+    /**
+     * Adds an item to the buffer of this lane, and wakes up the flusher early if the buffer has
+     * reached the batch size or the byte threshold.
+     *
+     * @param item The encoded item.
+     * @return true if the item was added, false if the buffer is full.
+     */
+    boolean offer(byte[] item) {
+      boolean added;
+      if (spool != null && !writeAhead && aboveHighWaterMark()) {
+        added = spill(item);
+      } else {
+        added = buffer.offer(item) || (spool != null && spill(item));
+      }
+      if (added && !earlyFlushPending.get() && !reportFailing && shouldFlushEarly()) {
+        requestEarlyFlush();
+      }
+      return added;
+    }
+
+    /**
+     * Adds items to the buffer of this lane with a single operation, spilling those that do not
+     * fit to the spool when there is one.
+     *
+     * @param items The encoded items.
+     * @return the number of items added, counted from the start of the list.
+     */
+    int offerAll(List<byte[]> items) {
+      int added;
+      if (spool != null && !writeAhead && aboveHighWaterMark()) {
+        added = spool.offerAll(items);
+        spooled.inc(added);
+      } else {
+        added = buffer.offerAll(items);
+        if (added < items.size() && spool != null) {
+          int numSpooled = spool.offerAll(items.subList(added, items.size()));
+          spooled.inc(numSpooled);
+          added += numSpooled;
+        }
+      }
+      if (added > 0 && !earlyFlushPending.get() && !reportFailing && shouldFlushEarly()) {
+        requestEarlyFlush();
+      }
+      return added;
+    }
+
+    /**
+     * Sets the task that encodes the data queued for this lane while encoding is deferred. It
+     * runs on the flush thread before each flush. Must be called before the lane is scheduled.
+     *
+     * @param deferredEncoder The task moving encoded data to the buffer of this lane.
+     */
+    void encodeBeforeFlush(Runnable deferredEncoder) {
+      this.deferredEncoder = deferredEncoder;
+    }
+
+    /**
+     * Wakes up the flusher early if as many items as the batch size are waiting to be encoded
+     * for this lane.
+     *
+     * @param numDeferred The number of items waiting to be encoded.
+     */
+    void onDeferred(int numDeferred) {
+      if (numDeferred >= batchSize && !earlyFlushPending.get() && !reportFailing) {
+        requestEarlyFlush();
+      }
+    }
+
+    private boolean aboveHighWaterMark() {
+      return buffer.size() >= spoolHighWaterItems || buffer.bytes() >= spoolHighWaterBytes;
+    }
+
+    private boolean spill(byte[] item) {
+      if (spool.offer(item)) {
+        spooled.inc();
+        return true;
+      }
+      return false;
+    }
+
+    private void spill(List<byte[]> items) {
+      int numSpooled = spool.offerAll(items);
+      spooled.inc(numSpooled);
+      if (numSpooled < items.size()) {
+        dropped.inc(items.size() - numSpooled);
+      }
+    }
+
+    private boolean shouldFlushEarly() {
+      return buffer.size() >= batchSize || buffer.bytes() >= flushThresholdBytes ||
+          (writeAhead && spool.size() >= batchSize);
+    }
+
+    /**
+     * Moves everything buffered in memory to the write-ahead log with a single append, and syncs
+     * the log to disk. Does nothing unless the lane is in write-ahead mode.
+     */
+    synchronized void syncWriteAheadLog() {
+      if (!writeAhead) {
+        return;
+      }
+      List<byte[]> items = new ArrayList<>(buffer.size());
+      byte[] item;
+      while ((item = buffer.poll()) != null) {
+        items.add(item);
+      }
+      if (!items.isEmpty()) {
+        spill(items);
+      }
+      try {
+        spool.sync();
+      } catch (IOException e) {
+        logger.log(LogMessageType.SPOOL_ERROR.toString(), Level.WARNING,
+            "Unable to sync " + entityType + " write-ahead log: " + Throwables.getRootCause(e));
+      }
+    }
+
+    private void requestEarlyFlush() {
+      if (earlyFlushPending.compareAndSet(false, true)) {
+        try {
+          scheduler.execute(() -> {
+            earlyFlushPending.set(false);
+            run();
+          });
+        } catch (RejectedExecutionException ex) {
+          // the client is being closed, which flushes the buffer anyway
+          earlyFlushPending.set(false);
+        }
+      }
+    }
+
+    @Override
+    public void run() {
+      // Skip if a flush of this lane is already in progress; it drains the same buffer
+      if (!flushLock.tryLock()) {
+        return;
+      }
+      try {
+        flushLocked();
+      } catch (Throwable ex) {
+        logger.log(LogMessageType.FLUSH_ERROR.toString(), Level.WARNING,
+            "Unable to report " + entityType + " to Wavefront cluster: " +
+                Throwables.getRootCause(ex));
+      } finally {
+        flushLock.unlock();
+      }
+      // Keep draining without waiting for the next tick while the buffer stays deep
+      if (!reportFailing && shouldFlushEarly()) {
+        requestEarlyFlush();
+      }
+    }
+
+    void flush() throws IOException {
+      flushLock.lock();
+      try {
+        flushLocked();
+      } finally {
+        flushLock.unlock();
+      }
+    }
+
+    private void flushLocked() throws IOException {
+      long startNanos = System.nanoTime();
+      try {
+        if (deferredEncoder != null) {
+          deferredEncoder.run();
+        }
+        flushBuffer();
+      } finally {
+        long durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        lastFlushDurationMillis = durationMillis;
+        flushDurationMillis.inc(durationMillis);
+        flushes.inc();
+      }
+    }
+
+    private void flushBuffer() throws IOException {
+      if (writeAhead) {
+        flushWriteAheadLog();
+        return;
+      }
+      List<List<byte[]>> batch = new ArrayList<>();
+      // Drain one batch per request that can be in flight, so that a deep buffer is reported at
+      // up to maxConcurrentRequests batches per round-trip
+      for (int i = 0; i < maxConcurrentRequests; i++) {
+        List<List<byte[]>> next;
+        if (format.equals(Constants.WAVEFRONT_EVENT_FORMAT)) {
+          // Event direct ingestion now does not support batching
+          next = getBatch(buffer, 1, messageSizeBytes, dropped);
+        } else {
+          next = getBatch(buffer, batchSize, messageSizeBytes, dropped);
+        }
+        if (next.isEmpty()) {
+          break;
+        }
+        batch.addAll(next);
+      }
+      if (spool != null && spool.size() > 0) {
+        // Replay spooled data at a bounded rate. While reporting fails, only probe with a single
+        // item when there is no fresh data whose report would tell if the endpoint is back.
+        int maxReplay = format.equals(Constants.WAVEFRONT_EVENT_FORMAT) ? 1 : batchSize;
+        int permits = reportFailing ? (batch.isEmpty() ? 1 : 0) :
+            Math.min(spool.size(), maxReplay);
+        if (permits > 0 && replayRateLimiter.tryAcquire(permits)) {
+          for (List<byte[]> items : getBatch(spool, permits, messageSizeBytes, dropped)) {
+            replayed.inc(items.size());
+            batch.add(items);
+          }
+        }
+      }
+      sendAll(batch);
+    }
+
+    /**
+     * Reports data read from the write-ahead log, and commits the log once every report has
+     * either been acknowledged, or failed and been appended to the log again.
+     */
+    private void flushWriteAheadLog() throws IOException {
+      syncWriteAheadLog();
+      int limit = format.equals(Constants.WAVEFRONT_EVENT_FORMAT) ? 1 : batchSize;
+      // While reporting fails, only probe with a single batch instead of cycling the whole log
+      int requests = reportFailing ? 1 : maxConcurrentRequests;
+      List<List<byte[]>> batch = new ArrayList<>();
+      for (int i = 0; i < requests; i++) {
+        List<List<byte[]>> next = getBatch(spool, limit, messageSizeBytes, dropped);
+        if (next.isEmpty()) {
+          break;
+        }
+        batch.addAll(next);
+      }
+      if (batch.isEmpty()) {
+        return;
+      }
+      sendAll(batch);
+      // Failed reports were appended to the log again, sync them before dropping the originals
+      spool.sync();
+      spool.commit();
+    }
+
+    private void sendAll(List<List<byte[]>> batch) throws IOException {
+      if (requestExecutor == null || batch.size() == 1) {
+        for (List<byte[]> items : batch) {
+          send(items);
+        }
+        return;
+      }
+
+      List<Future<?>> futures = new ArrayList<>(batch.size());
+      for (List<byte[]> items : batch) {
+        futures.add(requestExecutor.submit(() -> send(items)));
+      }
+      Throwable error = null;
+      for (Future<?> future : futures) {
+        try {
+          future.get();
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          throw new IOException("interrupted while reporting " + entityType, ex);
+        } catch (ExecutionException ex) {
+          if (error == null) {
+            error = ex.getCause();
+          }
+        }
+      }
+      if (error != null) {
+        Throwables.throwIfUnchecked(error);
+        throw new IOException(error);
+      }
+    }
+
+    private void send(List<byte[]> items) {
+      int featureDisabledReason = disabledStatusCode.get();
       if (featureDisabledReason != 0) {
         switch (featureDisabledReason) {
           case 401:
@@ -643,86 +2063,105 @@ public class WavefrontClient implements WavefrontSender, Runnable {
                       "until the service is restarted.");
             }
         }
-        continue;
+        return;
       }
-      try (InputStream is = itemsToStream(items)) {
-        int statusCode;
-        if (format.equals(Constants.WAVEFRONT_EVENT_FORMAT)) {
-          statusCode = reportingService.sendEvent(is);
-        } else {
-          statusCode = reportingService.send(format, is);
-        }
-        sdkMetricsRegistry.newDeltaCounter(entityPrefix + ".report." + statusCode).inc();
-        if ((400 <= statusCode && statusCode <= 599) || statusCode == -1) {
-          switch (statusCode) {
-            case 401:
+      int statusCode;
+      if (format.equals(Constants.WAVEFRONT_EVENT_FORMAT)) {
+        statusCode = reportingService.sendEvent(items);
+      } else {
+        statusCode = reportingService.send(format, items);
+      }
+      sdkMetricsRegistry.newDeltaCounter(entityPrefix + ".report." + statusCode).inc();
+      if (statusCode == -1) {
+        reportErrors.inc();
+      }
+      reportFailing = (400 <= statusCode && statusCode <= 599) || statusCode == -1;
+      if ((400 <= statusCode && statusCode <= 599) || statusCode == -1) {
+        switch (statusCode) {
+          case 401:
+            logger.log(permissionsMessageType.toString(), Level.SEVERE,
+                "Error sending " + entityType + " to Wavefront (HTTP " + statusCode + "). " +
+                    "Please verify that your API Token is correct! All " + entityType + " will " +
+                    "be discarded until the service is restarted.");
+            disabledStatusCode.set(statusCode);
+            dropped.inc(items.size());
+            break;
+          case 403:
+            if (format.equals(Constants.WAVEFRONT_METRIC_FORMAT)) {
+              logger.log(permissionsMessageType.toString(), Level.SEVERE,
+                  "Error sending " + entityType + " to Wavefront (HTTP " + statusCode + "). " +
+                      "Please verify that Direct Data Ingestion is enabled for your account! " +
+                      "All " + entityType + " will be discarded until the service is restarted.");
+            } else {
               logger.log(permissionsMessageType.toString(), Level.SEVERE,
                   "Error sending " + entityType + " to Wavefront (HTTP " + statusCode + "). " +
-                      "Please verify that your API Token is correct! All " + entityType + " will " +
-                      "be discarded until the service is restarted.");
-              featureDisabledStatusCode.set(statusCode);
-              dropped.inc(items.size());
-              break;
-            case 403:
-              if (format.equals(Constants.WAVEFRONT_METRIC_FORMAT)) {
-                logger.log(permissionsMessageType.toString(), Level.SEVERE,
-                    "Error sending " + entityType + " to Wavefront (HTTP " + statusCode + "). " +
-                        "Please verify that Direct Data Ingestion is enabled for your account! " +
-                        "All " + entityType + " will be discarded until the service is restarted.");
-              } else {
-                logger.log(permissionsMessageType.toString(), Level.SEVERE,
-                    "Error sending " + entityType + " to Wavefront (HTTP " + statusCode + "). " +
-                        "Please verify that Direct Data Ingestion and " + entityType + " are " +
-                        "enabled for your account! All " + entityType + " will be discarded until" +
-                        " the service is restarted.");
-              }
-              featureDisabledStatusCode.set(statusCode);
-              dropped.inc(items.size());
-              break;
-            default:
+                      "Please verify that Direct Data Ingestion and " + entityType + " are " +
+                      "enabled for your account! All " + entityType + " will be discarded until" +
+                      " the service is restarted.");
+            }
+            disabledStatusCode.set(statusCode);
+            dropped.inc(items.size());
+            break;
+          default:
+            if (writeAhead) {
               logger.log(errorMessageType.toString(), Level.WARNING,
-                  "Error sending " + entityType + " to Wavefront (HTTP " + statusCode + "). Data " +
-                      "will be requeued and resent.");
-              requeue(buffer, items, dropped, entityType, bufferFullMessageType);
-          }
-        }
-      } catch (IOException ex) {
-        dropped.inc(items.size());
-        reportErrors.inc();
-        for (int j = i + 1; j < batch.size(); j++) {
-          dropped.inc(batch.get(j).size());
+                  "Error sending " + entityType + " to Wavefront (HTTP " + statusCode + "). " +
+                      "Data will be kept in the write-ahead log and resent.");
+              spill(items);
+            } else if (spool != null) {
+              logger.log(errorMessageType.toString(), Level.WARNING,
+                  "Error sending " + entityType + " to Wavefront (HTTP " + statusCode + "). " +
+                      "Data will be spooled to disk and resent.");
+              spill(items);
+            } else {
+              logger.log(errorMessageType.toString(), Level.WARNING,
+                  "Error sending " + entityType + " to Wavefront (HTTP " + statusCode + "). " +
+                      "Data will be requeued and resent.");
+              requeue(items);
+            }
         }
-        throw ex;
       }
     }
-  }
 
-  private void requeue(LinkedBlockingQueue<String> buffer, List<String> items,
-                       WavefrontSdkDeltaCounter dropped, String entityType,
-                       LogMessageType bufferFullMessageType) {
-    int numAddedBackToBuffer = 0;
-    for (String item : items) {
-      if (buffer.offer(item)) {
-        numAddedBackToBuffer++;
-      } else {
-        int numDropped = items.size() - numAddedBackToBuffer;
-        dropped.inc(numDropped);
-        logger.log(bufferFullMessageType.toString(), Level.WARNING,
-            "Buffer full, dropping " + numDropped + " " + entityType + ". Consider increasing " +
-                "the batch size of your sender to increase throughput.");
-        break;
+    void close() {
+      if (requestExecutor != null) {
+        Utils.shutdownExecutorAndWait(requestExecutor);
+      }
+      if (spool != null) {
+        // Keep whatever is still buffered in memory so that it is replayed on the next start
+        List<byte[]> remaining = new ArrayList<>(buffer.size());
+        byte[] item;
+        while ((item = buffer.poll()) != null) {
+          remaining.add(item);
+        }
+        spill(remaining);
+        try {
+          if (writeAhead) {
+            spool.sync();
+          }
+          spool.close();
+        } catch (IOException e) {
+          logger.log(LogMessageType.SPOOL_ERROR.toString(), Level.WARNING,
+              "Unable to close " + entityType + " spool: " + Throwables.getRootCause(e));
+        }
       }
     }
-  }
 
-
-  private InputStream itemsToStream(List<String> items) {
-    StringBuilder sb = new StringBuilder();
-    for (String item : items) {
-      // every line item ends with \n
-      sb.append(item);
+    private void requeue(List<byte[]> items) {
+      int numAddedBackToBuffer = 0;
+      for (byte[] item : items) {
+        if (buffer.offer(item)) {
+          numAddedBackToBuffer++;
+        } else {
+          int numDropped = items.size() - numAddedBackToBuffer;
+          dropped.inc(numDropped);
+          logger.log(bufferFullMessageType.toString(), Level.WARNING, () ->
+              "Buffer full, dropping " + numDropped + " " + entityType + ". Consider " +
+                  "increasing the batch size of your sender to increase throughput.");
+          break;
+        }
+      }
     }
-    return new ByteArrayInputStream(sb.toString().getBytes(StandardCharsets.UTF_8));
   }
 
   @Override
@@ -749,15 +2188,28 @@ public class WavefrontClient implements WavefrontSender, Runnable {
 
     try {
       Utils.shutdownExecutorAndWait(scheduler);
+      if (walScheduler != null) {
+        Utils.shutdownExecutorAndWait(walScheduler);
+      }
+      for (FlushLane lane : flushLanes) {
+        lane.close();
+      }
     } catch (SecurityException ex) {
       logger.log(LogMessageType.SHUTDOWN_ERROR.toString(), Level.WARNING,
           "shutdown error: " + Throwables.getRootCause(ex));
     }
+    try {
+      reportingService.close();
+    } catch (IOException ex) {
+      logger.log(LogMessageType.SHUTDOWN_ERROR.toString(), Level.WARNING,
+          "shutdown error: " + Throwables.getRootCause(ex));
+    }
   }
 
   /**
    * Dequeue and return a batch of at most N items from buffer (where N = batchSize), broken into
-   * chunks where each chunk has at most M bytes of data (where M = messageSizeBytes).
+   * chunks where each chunk has at most M bytes of data (where M = messageSizeBytes). Items are
+   * the UTF-8 encoded lines that were enqueued, so their length is their size on the wire.
    *
    * Visible for testing.
    *
@@ -767,23 +2219,24 @@ public class WavefrontClient implements WavefrontSender, Runnable {
    * @param dropped           A counter counting the number of items that are dropped.
    * @return A batch of items retrieved from buffer.
    */
-  static List<List<String>> getBatch(LinkedBlockingQueue<String> buffer, int batchSize,
+  static List<List<byte[]>> getBatch(ItemBuffer<byte[]> buffer, int batchSize,
                                      int messageSizeBytes, WavefrontSdkDeltaCounter dropped) {
     batchSize = Math.min(buffer.size(), batchSize);
-    List<List<String>> batch = new ArrayList<>();
-    List<String> chunk = new ArrayList<>();
+    List<List<byte[]>> batch = new ArrayList<>();
+    List<byte[]> chunk = new ArrayList<>();
     int numBytesInChunk = 0;
     int count = 0;
 
     while (count < batchSize) {
-      String item = buffer.poll();
+      byte[] item = buffer.poll();
       if (item == null) {
         break;
       }
-      int numBytes = item.getBytes().length;
+      int numBytes = item.length;
       if (numBytes > messageSizeBytes) {
-        logger.log(LogMessageType.MESSAGE_SIZE_LIMIT_EXCEEDED.toString(), Level.WARNING,
-            "Dropping data larger than " + messageSizeBytes + " bytes: " + item + ". Consider " +
+        logger.log(LogMessageType.MESSAGE_SIZE_LIMIT_EXCEEDED.toString(), Level.WARNING, () ->
+            "Dropping data larger than " + messageSizeBytes + " bytes: " +
+                new String(item, StandardCharsets.UTF_8) + ". Consider " +
                 "increasing the message size limit of your sender.");
         dropped.inc();
         continue;
@@ -830,6 +2283,8 @@ public class WavefrontClient implements WavefrontSender, Runnable {
     SEND_EVENTS_PERMISSIONS,
     SEND_LOGS_PERMISSIONS,
     SHUTDOWN_ERROR,
-    MESSAGE_SIZE_LIMIT_EXCEEDED
+    MESSAGE_SIZE_LIMIT_EXCEEDED,
+    SPOOL_ERROR,
+    DEFERRED_ENCODING_ERROR
   }
 }
@@ -4,10 +4,14 @@ import com.wavefront.sdk.common.Pair;
 import com.wavefront.sdk.common.WavefrontSender;
 import com.wavefront.sdk.common.annotation.Nullable;
 import com.wavefront.sdk.common.clients.exceptions.MultiClientIOException;
+import com.wavefront.sdk.entities.histograms.Distribution;
 import com.wavefront.sdk.entities.histograms.HistogramGranularity;
+import com.wavefront.sdk.entities.metrics.Metric;
+import com.wavefront.sdk.entities.tracing.Span;
 import com.wavefront.sdk.entities.tracing.SpanLog;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -115,6 +119,21 @@ public class WavefrontMultiClient implements WavefrontSender, Runnable {
     exceptions.checkAndThrow();
   }
 
+  @Override
+  public void sendMetrics(Collection<Metric> metrics) throws IOException {
+    MultiClientIOException exceptions = new MultiClientIOException();
+    for (WavefrontSender client : wavefrontSenders.values()) {
+      try {
+        client.sendMetrics(metrics);
+      } catch (IOException ex) {
+        logger.log(Level.SEVERE, "Client " + client.getClientId() + " failed to send metrics.", ex);
+        exceptions.add(ex);
+      }
+    }
+
+    exceptions.checkAndThrow();
+  }
+
   @Override
   public void sendLog(String name, double value, Long timestamp, String source, Map<String, String> tags)
           throws IOException {
@@ -165,6 +184,40 @@ public class WavefrontMultiClient implements WavefrontSender, Runnable {
     exceptions.checkAndThrow();
   }
 
+  @Override
+  public void sendDistribution(String name, double[] means, int[] counts,
+                               Set<HistogramGranularity> histogramGranularities,
+                               @Nullable Long timestamp, @Nullable String source,
+                               @Nullable Map<String, String> tags) throws IOException {
+    MultiClientIOException exceptions = new MultiClientIOException();
+    for (WavefrontSender client : wavefrontSenders.values()) {
+      try {
+        client.sendDistribution(name, means, counts, histogramGranularities, timestamp, source,
+            tags);
+      } catch (IOException ex) {
+        logger.log(Level.SEVERE, "Client " + client.getClientId() + " failed to send distribution.", ex);
+        exceptions.add(ex);
+      }
+    }
+
+    exceptions.checkAndThrow();
+  }
+
+  @Override
+  public void sendDistributions(Collection<Distribution> distributions) throws IOException {
+    MultiClientIOException exceptions = new MultiClientIOException();
+    for (WavefrontSender client : wavefrontSenders.values()) {
+      try {
+        client.sendDistributions(distributions);
+      } catch (IOException ex) {
+        logger.log(Level.SEVERE, "Client " + client.getClientId() + " failed to send distributions.", ex);
+        exceptions.add(ex);
+      }
+    }
+
+    exceptions.checkAndThrow();
+  }
+
   @Override
   public void sendSpan(String name, long startMillis, long durationMillis,
                        @Nullable String source, UUID traceId, UUID spanId,
@@ -184,6 +237,21 @@ public class WavefrontMultiClient implements WavefrontSender, Runnable {
     exceptions.checkAndThrow();
   }
 
+  @Override
+  public void sendSpans(Collection<Span> spans) throws IOException {
+    MultiClientIOException exceptions = new MultiClientIOException();
+    for (WavefrontSender client : wavefrontSenders.values()) {
+      try {
+        client.sendSpans(spans);
+      } catch (IOException ex) {
+        logger.log(Level.SEVERE, "Client " + client.getClientId() + " failed to send spans.", ex);
+        exceptions.add(ex);
+      }
+    }
+
+    exceptions.checkAndThrow();
+  }
+
   public void sendEvent(String name, long startMillis, long endMillis, @Nullable String source,
                         @Nullable Map<String, String> tags,
                         @Nullable Map<String, String> annotations)
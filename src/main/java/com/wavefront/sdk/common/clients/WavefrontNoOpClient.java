@@ -46,6 +46,13 @@ public class WavefrontNoOpClient implements WavefrontSender {
     // no-op
   }
 
+  @Override
+  public void sendDistribution(String name, double[] means, int[] counts,
+                               Set<HistogramGranularity> histogramGranularities, Long timestamp, String source,
+                               Map<String, String> tags) throws IOException {
+    // no-op
+  }
+
   @Override
   public void sendLog(String name, double value, Long timestamp, String source, Map<String, String> tags)
           throws IOException {
@@ -0,0 +1,23 @@
+package com.wavefront.sdk.common.clients.buffer;
+
+/**
+ * What a writer does with data that does not fit in a full in-memory buffer.
+ */
+public enum BufferFullPolicy {
+
+  /**
+   * Drop the data right away, so that the caller never waits.
+   */
+  DROP,
+
+  /**
+   * Wait up to a timeout for room in the buffer, then drop the data if there still is none.
+   */
+  BLOCK,
+
+  /**
+   * Write the data to a {@link DiskSpool}, from which it is sent once the buffer has room again.
+   * Data is dropped if it cannot be spilled either.
+   */
+  SPILL
+}
@@ -0,0 +1,36 @@
+package com.wavefront.sdk.common.clients.buffer;
+
+/**
+ * The kinds of in-memory buffers available to hold data before it is flushed to Wavefront.
+ */
+public enum BufferType {
+
+  /**
+   * A {@link java.util.concurrent.LinkedBlockingQueue} backed buffer. Memory is allocated per
+   * item as the buffer fills up, but producers contend on a shared lock.
+   */
+  LINKED_QUEUE,
+
+  /**
+   * A lock-free multi-producer/single-consumer ring buffer. Producers never block each other,
+   * but the backing array is allocated up front for the full capacity.
+   */
+  RING_BUFFER;
+
+  /**
+   * Creates a new buffer of this type.
+   *
+   * @param capacity The maximum number of items the buffer can hold.
+   * @param <E>      The type of items held in the buffer.
+   * @return a new, empty buffer.
+   */
+  public <E> ItemBuffer<E> newBuffer(int capacity) {
+    switch (this) {
+      case RING_BUFFER:
+        return new MpscRingBuffer<>(capacity);
+      case LINKED_QUEUE:
+      default:
+        return new LinkedItemBuffer<>(capacity);
+    }
+  }
+}
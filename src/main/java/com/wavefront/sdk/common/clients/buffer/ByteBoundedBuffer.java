@@ -0,0 +1,100 @@
+package com.wavefront.sdk.common.clients.buffer;
+
+import java.util.List;
+
+/**
+ * An {@link ItemBuffer} of encoded items that, in addition to the item count limit of the
+ * underlying buffer, limits the number of bytes it holds. Items are charged both against this
+ * buffer's own {@link ByteBudget} and a budget that may be shared with other buffers.
+ */
+public class ByteBoundedBuffer implements ItemBuffer<byte[]> {
+  private final ItemBuffer<byte[]> delegate;
+  private final ByteBudget budget;
+  private final ByteBudget sharedBudget;
+
+  /**
+   * @param delegate     The buffer that holds the items.
+   * @param budget       The byte budget of this buffer.
+   * @param sharedBudget The byte budget shared with other buffers.
+   */
+  public ByteBoundedBuffer(ItemBuffer<byte[]> delegate, ByteBudget budget,
+                           ByteBudget sharedBudget) {
+    this.delegate = delegate;
+    this.budget = budget;
+    this.sharedBudget = sharedBudget;
+  }
+
+  @Override
+  public boolean offer(byte[] item) {
+    int numBytes = item.length;
+    if (!budget.tryAcquire(numBytes)) {
+      return false;
+    }
+    if (!sharedBudget.tryAcquire(numBytes)) {
+      budget.release(numBytes);
+      return false;
+    }
+    if (!delegate.offer(item)) {
+      budget.release(numBytes);
+      sharedBudget.release(numBytes);
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Charges the bytes of all the items at once, and falls back to offering items one by one when
+   * they do not all fit in the byte budgets.
+   */
+  @Override
+  public int offerAll(List<byte[]> items) {
+    long numBytes = 0;
+    for (byte[] item : items) {
+      numBytes += item.length;
+    }
+    if (!budget.tryAcquire(numBytes)) {
+      return ItemBuffer.super.offerAll(items);
+    }
+    if (!sharedBudget.tryAcquire(numBytes)) {
+      budget.release(numBytes);
+      return ItemBuffer.super.offerAll(items);
+    }
+    int added = delegate.offerAll(items);
+    if (added < items.size()) {
+      long unused = 0;
+      for (int i = added; i < items.size(); i++) {
+        unused += items.get(i).length;
+      }
+      budget.release(unused);
+      sharedBudget.release(unused);
+    }
+    return added;
+  }
+
+  @Override
+  public byte[] poll() {
+    byte[] item = delegate.poll();
+    if (item != null) {
+      budget.release(item.length);
+      sharedBudget.release(item.length);
+    }
+    return item;
+  }
+
+  @Override
+  public int size() {
+    return delegate.size();
+  }
+
+  @Override
+  public int remainingCapacity() {
+    return delegate.remainingCapacity();
+  }
+
+  /**
+   * @return the number of bytes currently held by this buffer.
+   */
+  public long bytes() {
+    return budget.used();
+  }
+}
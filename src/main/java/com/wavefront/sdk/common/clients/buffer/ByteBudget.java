@@ -0,0 +1,81 @@
+package com.wavefront.sdk.common.clients.buffer;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tracks the number of bytes held by one or more buffers against an upper limit.
+ *
+ * An unlimited budget only keeps count, using a striped adder so that concurrent producers do
+ * not contend with each other.
+ */
+public class ByteBudget {
+  private final long limit;
+  private final AtomicLong used;
+  private final LongAdder unlimitedUsed;
+
+  /**
+   * @param limit The maximum number of bytes, or {@link Long#MAX_VALUE} for no limit.
+   */
+  public ByteBudget(long limit) {
+    if (limit <= 0) {
+      throw new IllegalArgumentException("byte limit must be positive: " + limit);
+    }
+    this.limit = limit;
+    if (limit == Long.MAX_VALUE) {
+      this.used = null;
+      this.unlimitedUsed = new LongAdder();
+    } else {
+      this.used = new AtomicLong();
+      this.unlimitedUsed = null;
+    }
+  }
+
+  /**
+   * Reserves the given number of bytes if doing so does not exceed the limit.
+   *
+   * @param bytes The number of bytes to reserve.
+   * @return true if the bytes were reserved, false if the limit would have been exceeded.
+   */
+  public boolean tryAcquire(long bytes) {
+    if (used == null) {
+      unlimitedUsed.add(bytes);
+      return true;
+    }
+    long current;
+    do {
+      current = used.get();
+      if (current + bytes > limit) {
+        return false;
+      }
+    } while (!used.compareAndSet(current, current + bytes));
+    return true;
+  }
+
+  /**
+   * Returns previously reserved bytes to the budget.
+   *
+   * @param bytes The number of bytes to release.
+   */
+  public void release(long bytes) {
+    if (used == null) {
+      unlimitedUsed.add(-bytes);
+    } else {
+      used.addAndGet(-bytes);
+    }
+  }
+
+  /**
+   * @return the number of bytes currently reserved.
+   */
+  public long used() {
+    return used == null ? unlimitedUsed.sum() : used.get();
+  }
+
+  /**
+   * @return the maximum number of bytes, or {@link Long#MAX_VALUE} if there is no limit.
+   */
+  public long limit() {
+    return limit;
+  }
+}
@@ -0,0 +1,116 @@
+package com.wavefront.sdk.common.clients.buffer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.ToLongFunction;
+
+/**
+ * Holds records that are not encoded yet, bounded by their number and by the estimated number of
+ * bytes they keep reachable, which are charged to the same byte budgets as their encoded lines.
+ *
+ * The size of a record is estimated once, when it is offered, and released when it is polled,
+ * so that the budgets stay balanced even if the estimate of a record would change later.
+ *
+ * @param <E> The type of records held in the buffer.
+ */
+public class DeferredRecordBuffer<E> implements ItemBuffer<E> {
+  private final ItemBuffer<Charged<E>> delegate;
+  private final ToLongFunction<E> sizeEstimator;
+  private final ByteBudget budget;
+  private final ByteBudget sharedBudget;
+
+  /**
+   * @param capacity      The maximum number of records the buffer can hold.
+   * @param sizeEstimator Estimates the number of bytes a record keeps reachable.
+   * @param budget        The byte budget of the buffer the records are encoded into.
+   * @param sharedBudget  The byte budget shared with other buffers.
+   */
+  public DeferredRecordBuffer(int capacity, ToLongFunction<E> sizeEstimator, ByteBudget budget,
+                              ByteBudget sharedBudget) {
+    this.delegate = new MpscRingBuffer<>(capacity);
+    this.sizeEstimator = sizeEstimator;
+    this.budget = budget;
+    this.sharedBudget = sharedBudget;
+  }
+
+  @Override
+  public boolean offer(E item) {
+    long numBytes = sizeEstimator.applyAsLong(item);
+    if (!budget.tryAcquire(numBytes)) {
+      return false;
+    }
+    if (!sharedBudget.tryAcquire(numBytes)) {
+      budget.release(numBytes);
+      return false;
+    }
+    if (!delegate.offer(new Charged<>(item, numBytes))) {
+      budget.release(numBytes);
+      sharedBudget.release(numBytes);
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Charges the bytes of all the records at once, and falls back to offering records one by one
+   * when they do not all fit in the byte budgets.
+   */
+  @Override
+  public int offerAll(List<E> items) {
+    List<Charged<E>> charged = new ArrayList<>(items.size());
+    long numBytes = 0;
+    for (E item : items) {
+      Charged<E> record = new Charged<>(item, sizeEstimator.applyAsLong(item));
+      charged.add(record);
+      numBytes += record.bytes;
+    }
+    if (!budget.tryAcquire(numBytes)) {
+      return ItemBuffer.super.offerAll(items);
+    }
+    if (!sharedBudget.tryAcquire(numBytes)) {
+      budget.release(numBytes);
+      return ItemBuffer.super.offerAll(items);
+    }
+    int added = delegate.offerAll(charged);
+    if (added < charged.size()) {
+      long unused = 0;
+      for (int i = added; i < charged.size(); i++) {
+        unused += charged.get(i).bytes;
+      }
+      budget.release(unused);
+      sharedBudget.release(unused);
+    }
+    return added;
+  }
+
+  @Override
+  public E poll() {
+    Charged<E> record = delegate.poll();
+    if (record == null) {
+      return null;
+    }
+    budget.release(record.bytes);
+    sharedBudget.release(record.bytes);
+    return record.item;
+  }
+
+  @Override
+  public int size() {
+    return delegate.size();
+  }
+
+  @Override
+  public int remainingCapacity() {
+    return delegate.remainingCapacity();
+  }
+
+  private static final class Charged<E> {
+    final E item;
+    final long bytes;
+
+    Charged(E item, long bytes) {
+      this.item = item;
+      this.bytes = bytes;
+    }
+  }
+}
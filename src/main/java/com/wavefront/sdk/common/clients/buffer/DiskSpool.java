@@ -0,0 +1,562 @@
+package com.wavefront.sdk.common.clients.buffer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A disk-backed buffer of encoded items, stored as a sequence of append-only segment files in a
+ * directory.
+ *
+ * Each item is written as a 4-byte length followed by its bytes. Items are read back in the order
+ * they were written. When appending an item would take the spool past its size limit, the oldest
+ * segments are evicted to make room, so the spool always keeps the most recent data.
+ *
+ * By default items are considered consumed as soon as they are read, and a segment file is
+ * deleted once every item in it has been read. Without auto-commit, reading only moves a read
+ * cursor: items are consumed when {@link #commit()} is called, which durably records the position
+ * of the read cursor. Items read but not committed are read again when the spool is reopened,
+ * which makes the spool usable as a write-ahead log.
+ *
+ * Segments left over in the directory, for instance after a restart, are read back before new
+ * data, starting from the last committed position. In auto-commit mode that position is recorded
+ * when the spool is closed, so items read from the oldest segment before a crash are read again
+ * and delivery across restarts is at-least-once.
+ */
+public class DiskSpool implements ItemBuffer<byte[]>, Closeable {
+  private static final Logger logger = Logger.getLogger(DiskSpool.class.getCanonicalName());
+
+  private static final String SEGMENT_SUFFIX = ".spool";
+  private static final Pattern SEGMENT_PATTERN = Pattern.compile("(\\d+)\\.spool");
+  private static final String LOCK_FILE = "spool.lock";
+  private static final String CHECKPOINT_FILE = "spool.checkpoint";
+  private static final int HEADER_SIZE = 4;
+  private static final int CHECKPOINT_SIZE = 8 + 8 + 4;
+  private static final int READ_BUFFER_SIZE = 64 * 1024;
+  private static final long MAX_SEGMENT_BYTES = 64L * 1024 * 1024;
+  private static final int SEGMENTS_PER_SPOOL = 8;
+
+  private final File directory;
+  private final long maxBytes;
+  private final long segmentBytes;
+  private final boolean autoCommit;
+  private final FileChannel lockChannel;
+  private final FileLock lock;
+
+  // Oldest segment first; the last segment is the one being written to. Segments before the one
+  // being read have been read entirely but not committed yet.
+  private final List<Segment> segments = new ArrayList<>();
+  private FileChannel writeChannel;
+
+  // Read cursor
+  private int readIndex;
+  private long readPosition;
+  private int readItems;
+  private boolean uncommitted;
+  private FileChannel readChannel;
+  private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+  private volatile int size;
+  private volatile long bytes;
+  private volatile long evicted;
+  private boolean closed = false;
+
+  /**
+   * Opens an auto-commit spool in the given directory, creating the directory if needed.
+   * Segments left in the directory by a previous spool are kept and read back first.
+   *
+   * @param directory The directory to store segment files in.
+   * @param maxBytes  The maximum number of bytes the spool can hold on disk.
+   * @throws IOException If the directory cannot be created or read, or is in use by another
+   *                     spool.
+   */
+  public DiskSpool(File directory, long maxBytes) throws IOException {
+    this(directory, maxBytes, true);
+  }
+
+  /**
+   * Opens a spool in the given directory, creating the directory if needed. Segments left in the
+   * directory by a previous spool are kept and read back first.
+   *
+   * @param directory  The directory to store segment files in.
+   * @param maxBytes   The maximum number of bytes the spool can hold on disk.
+   * @param autoCommit Whether items are consumed as soon as they are read, rather than when
+   *                   {@link #commit()} is called.
+   * @throws IOException If the directory cannot be created or read, or is in use by another
+   *                     spool.
+   */
+  public DiskSpool(File directory, long maxBytes, boolean autoCommit) throws IOException {
+    if (maxBytes <= 0) {
+      throw new IllegalArgumentException("maxBytes must be positive: " + maxBytes);
+    }
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Unable to create spool directory " + directory);
+    }
+    this.directory = directory;
+    this.maxBytes = maxBytes;
+    this.segmentBytes = Math.max(1, Math.min(MAX_SEGMENT_BYTES, maxBytes / SEGMENTS_PER_SPOOL));
+    this.autoCommit = autoCommit;
+
+    lockChannel = FileChannel.open(new File(directory, LOCK_FILE).toPath(),
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    FileLock acquired;
+    try {
+      acquired = lockChannel.tryLock();
+    } catch (OverlappingFileLockException e) {
+      acquired = null;
+    }
+    if (acquired == null) {
+      lockChannel.close();
+      throw new IOException("Spool directory " + directory + " is in use by another spool");
+    }
+    lock = acquired;
+
+    readBuffer.limit(0);
+    long nextSequence = recover();
+    roll(nextSequence);
+  }
+
+  /**
+   * Appends an item to the spool, evicting the oldest segments if the spool is full.
+   *
+   * @param item The item to append.
+   * @return true if the item was appended, false if it is larger than the spool or could not be
+   * written to disk.
+   */
+  @Override
+  public boolean offer(byte[] item) {
+    List<byte[]> items = new ArrayList<>(1);
+    items.add(item);
+    return offerAll(items) == 1;
+  }
+
+  /**
+   * Appends items to the spool with a single write, evicting the oldest segments if the spool is
+   * full.
+   *
+   * @param items The items to append.
+   * @return the number of items appended, counted from the start of the list.
+   */
+  @Override
+  public synchronized int offerAll(List<byte[]> items) {
+    if (closed) {
+      return 0;
+    }
+    int appended = 0;
+    while (appended < items.size()) {
+      // Write as many items as fit in the current segment in one go
+      Segment tail = tail();
+      long recordBytes = HEADER_SIZE + (long) items.get(appended).length;
+      if (recordBytes > maxBytes) {
+        logger.log(Level.WARNING, "Unable to spool item of " + recordBytes + " bytes, larger " +
+            "than the spool size limit of " + maxBytes + " bytes");
+        return appended;
+      }
+      if (tail.items > 0 && tail.bytes + recordBytes > segmentBytes) {
+        try {
+          roll(tail.sequence + 1);
+        } catch (IOException e) {
+          logger.log(Level.WARNING, "Unable to create spool segment in " + directory, e);
+          return appended;
+        }
+        tail = tail();
+      }
+      int end = appended;
+      long chunkBytes = 0;
+      while (end < items.size()) {
+        long next = HEADER_SIZE + (long) items.get(end).length;
+        if (end > appended && tail.bytes + chunkBytes + next > segmentBytes) {
+          break;
+        }
+        chunkBytes += next;
+        end++;
+      }
+      evict(chunkBytes);
+      ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(chunkBytes, Integer.MAX_VALUE));
+      for (int i = appended; i < end; i++) {
+        byte[] item = items.get(i);
+        buffer.putInt(item.length);
+        buffer.put(item);
+      }
+      buffer.flip();
+      try {
+        while (buffer.hasRemaining()) {
+          writeChannel.write(buffer);
+        }
+      } catch (IOException e) {
+        logger.log(Level.WARNING, "Unable to write to spool segment " + tail.file, e);
+        try {
+          // Drop any partially written record so that later records stay readable
+          writeChannel.truncate(tail.bytes);
+        } catch (IOException ex) {
+          logger.log(Level.WARNING, "Unable to truncate spool segment " + tail.file, ex);
+        }
+        return appended;
+      }
+      tail.bytes += chunkBytes;
+      tail.items += end - appended;
+      bytes += chunkBytes;
+      size += end - appended;
+      appended = end;
+    }
+    return appended;
+  }
+
+  /**
+   * Reads the next item and moves the read cursor past it.
+   *
+   * @return the next unread item, or null if every item has been read.
+   */
+  @Override
+  public synchronized byte[] poll() {
+    while (size > 0) {
+      Segment segment = segments.get(readIndex);
+      if (readItems == segment.items) {
+        // Every item of this segment has been read, move on to the next one
+        nextReadSegment();
+        continue;
+      }
+      try {
+        if (readChannel == null) {
+          readChannel = FileChannel.open(segment.file.toPath(), StandardOpenOption.READ);
+        }
+        int length = ensureReadable(HEADER_SIZE).getInt();
+        byte[] item = new byte[length];
+        int buffered = Math.min(length, readBuffer.remaining());
+        readBuffer.get(item, 0, buffered);
+        if (buffered < length) {
+          ByteBuffer rest = ByteBuffer.wrap(item, buffered, length - buffered);
+          while (rest.hasRemaining()) {
+            if (readChannel.read(rest, readPosition) < 0) {
+              throw new IOException("unexpected end of segment");
+            }
+            readPosition += rest.position() - buffered;
+            buffered = rest.position();
+          }
+        }
+        readItems++;
+        size--;
+        uncommitted = true;
+        return item;
+      } catch (IOException e) {
+        // Skip the rest of an unreadable segment rather than getting stuck on it
+        int lost = segment.items - readItems;
+        logger.log(Level.WARNING, "Unable to read spool segment " + segment.file + ", " +
+            "discarding " + lost + " items", e);
+        size -= lost;
+        evicted += lost;
+        readItems = segment.items;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Consumes every item read so far: durably records the position of the read cursor, so that
+   * those items are not read again when the spool is reopened, and deletes segments that have
+   * been read entirely.
+   *
+   * @throws IOException If the position cannot be recorded.
+   */
+  public synchronized void commit() throws IOException {
+    if (closed || !uncommitted) {
+      return;
+    }
+    deleteReadSegments();
+    writeCheckpoint();
+    uncommitted = false;
+  }
+
+  /**
+   * Forces every item appended so far to be written to the storage device.
+   *
+   * @throws IOException If the data cannot be forced to the storage device.
+   */
+  public synchronized void sync() throws IOException {
+    if (!closed) {
+      writeChannel.force(false);
+    }
+  }
+
+  /**
+   * @return the number of items that have not been read yet.
+   */
+  @Override
+  public int size() {
+    return size;
+  }
+
+  /**
+   * The spool evicts its oldest data instead of rejecting new items, so it never runs out of
+   * capacity.
+   *
+   * @return {@link Integer#MAX_VALUE}.
+   */
+  @Override
+  public int remainingCapacity() {
+    return Integer.MAX_VALUE;
+  }
+
+  /**
+   * @return the number of bytes held on disk.
+   */
+  public long bytes() {
+    return bytes;
+  }
+
+  /**
+   * @return the total number of unread items evicted to stay within the size limit, or
+   * discarded because they could not be read back.
+   */
+  public long evicted() {
+    return evicted;
+  }
+
+  /**
+   * Closes the spool. In auto-commit mode, every item read so far is committed first.
+   *
+   * @throws IOException If the spool cannot be closed cleanly.
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    try {
+      if (autoCommit) {
+        deleteReadSegments();
+      }
+      closeReadChannel();
+      writeChannel.close();
+      if (size == 0 && (autoCommit || !uncommitted)) {
+        // Every item has been consumed, so there is nothing to replay on the next start
+        for (Segment segment : segments) {
+          segment.file.delete();
+        }
+        new File(directory, CHECKPOINT_FILE).delete();
+      } else {
+        if (tail().items == 0) {
+          tail().file.delete();
+        }
+        if (autoCommit) {
+          writeCheckpoint();
+        }
+      }
+    } finally {
+      closed = true;
+      lock.release();
+      lockChannel.close();
+    }
+  }
+
+  private Segment tail() {
+    return segments.get(segments.size() - 1);
+  }
+
+  private ByteBuffer ensureReadable(int needed) throws IOException {
+    if (readBuffer.remaining() < needed) {
+      readBuffer.compact();
+      while (readBuffer.position() < needed) {
+        int read = readChannel.read(readBuffer, readPosition);
+        if (read < 0) {
+          throw new IOException("unexpected end of segment");
+        }
+        readPosition += read;
+      }
+      readBuffer.flip();
+    }
+    return readBuffer;
+  }
+
+  private void nextReadSegment() {
+    closeReadChannel();
+    readIndex++;
+    readPosition = 0;
+    readItems = 0;
+    readBuffer.clear().limit(0);
+    if (autoCommit) {
+      deleteReadSegments();
+    }
+  }
+
+  private void closeReadChannel() {
+    if (readChannel != null) {
+      try {
+        readChannel.close();
+      } catch (IOException e) {
+        // ignore, nothing was written through this channel
+      }
+      readChannel = null;
+    }
+  }
+
+  /**
+   * Deletes the segments before the one being read, which have been read entirely.
+   */
+  private void deleteReadSegments() {
+    while (readIndex > 0) {
+      deleteOldest();
+      readIndex--;
+    }
+  }
+
+  private void evict(long neededBytes) {
+    while (bytes + neededBytes > maxBytes && segments.size() > 1) {
+      if (readIndex == 0) {
+        // Evicting the segment being read loses its unread items
+        int lost = segments.get(0).items - readItems;
+        size -= lost;
+        evicted += lost;
+        closeReadChannel();
+        readPosition = 0;
+        readItems = 0;
+        readBuffer.clear().limit(0);
+      } else {
+        readIndex--;
+      }
+      deleteOldest();
+    }
+  }
+
+  private void deleteOldest() {
+    Segment oldest = segments.remove(0);
+    if (!oldest.file.delete()) {
+      logger.log(Level.WARNING, "Unable to delete spool segment " + oldest.file);
+    }
+    bytes -= oldest.bytes;
+  }
+
+  private void roll(long sequence) throws IOException {
+    File file = new File(directory, String.format("%019d", sequence) + SEGMENT_SUFFIX);
+    FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    if (writeChannel != null) {
+      // Make sure a later sync() covers the data written to the previous segment
+      writeChannel.force(false);
+      writeChannel.close();
+    }
+    writeChannel = channel;
+    segments.add(new Segment(file, sequence));
+  }
+
+  /**
+   * Records the position of the read cursor, which is in the oldest segment once the segments
+   * read before it have been deleted.
+   */
+  private void writeCheckpoint() throws IOException {
+    // The read buffer may hold bytes of records that have not been read yet
+    long position = readPosition - readBuffer.remaining();
+    ByteBuffer checkpoint = ByteBuffer.allocate(CHECKPOINT_SIZE);
+    checkpoint.putLong(segments.get(0).sequence).putLong(position).putInt(readItems).flip();
+    try (FileChannel channel = FileChannel.open(new File(directory, CHECKPOINT_FILE).toPath(),
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+      while (checkpoint.hasRemaining()) {
+        channel.write(checkpoint, checkpoint.position());
+      }
+      channel.force(false);
+    }
+  }
+
+  /**
+   * Scans the segments left in the directory, truncating any record that was only partially
+   * written, moves the read cursor to the last committed position, and returns the sequence
+   * number for the next segment.
+   */
+  private long recover() throws IOException {
+    File[] files = directory.listFiles();
+    List<Segment> found = new ArrayList<>();
+    if (files != null) {
+      for (File file : files) {
+        Matcher matcher = SEGMENT_PATTERN.matcher(file.getName());
+        if (matcher.matches()) {
+          found.add(new Segment(file, Long.parseLong(matcher.group(1))));
+        }
+      }
+    }
+    found.sort((a, b) -> Long.compare(a.sequence, b.sequence));
+    long nextSequence = 0;
+    for (Segment segment : found) {
+      nextSequence = segment.sequence + 1;
+      try (FileChannel channel = FileChannel.open(segment.file.toPath(),
+          StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+        long fileSize = channel.size();
+        long position = 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (position + HEADER_SIZE <= fileSize) {
+          header.clear();
+          while (header.hasRemaining()) {
+            channel.read(header, position + header.position());
+          }
+          int length = header.getInt(0);
+          if (length < 0 || position + HEADER_SIZE + length > fileSize) {
+            break;
+          }
+          position += HEADER_SIZE + length;
+          segment.items++;
+        }
+        if (position < fileSize) {
+          logger.log(Level.WARNING, "Truncating partially written spool segment " +
+              segment.file);
+          channel.truncate(position);
+        }
+        segment.bytes = position;
+      }
+      if (segment.items == 0) {
+        segment.file.delete();
+        continue;
+      }
+      segments.add(segment);
+      size += segment.items;
+      bytes += segment.bytes;
+    }
+
+    File checkpointFile = new File(directory, CHECKPOINT_FILE);
+    if (segments.isEmpty()) {
+      checkpointFile.delete();
+    } else if (checkpointFile.exists()) {
+      ByteBuffer checkpoint = ByteBuffer.allocate(CHECKPOINT_SIZE);
+      try (FileChannel channel = FileChannel.open(checkpointFile.toPath(),
+          StandardOpenOption.READ)) {
+        while (checkpoint.hasRemaining() && channel.read(checkpoint) >= 0) {
+        }
+      }
+      if (!checkpoint.hasRemaining()) {
+        checkpoint.flip();
+        long sequence = checkpoint.getLong();
+        long position = checkpoint.getLong();
+        int items = checkpoint.getInt();
+        Segment oldest = segments.get(0);
+        // A checkpoint left by segments that have since been deleted does not apply
+        if (sequence == oldest.sequence && position <= oldest.bytes && items <= oldest.items) {
+          readPosition = position;
+          readItems = items;
+          size -= items;
+        }
+      }
+    }
+    return nextSequence;
+  }
+
+  private static class Segment {
+    final File file;
+    final long sequence;
+    long bytes;
+    int items;
+
+    Segment(File file, long sequence) {
+      this.file = file;
+      this.sequence = sequence;
+    }
+  }
+}
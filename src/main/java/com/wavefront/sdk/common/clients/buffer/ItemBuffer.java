@@ -0,0 +1,61 @@
+package com.wavefront.sdk.common.clients.buffer;
+
+import java.util.List;
+
+/**
+ * A bounded, thread-safe buffer that holds items until they are flushed to Wavefront.
+ *
+ * Any number of threads may {@link #offer} items concurrently. Items are removed via
+ * {@link #poll}, which implementations may serialize internally.
+ *
+ * @param <E> The type of items held in the buffer.
+ */
+public interface ItemBuffer<E> {
+
+  /**
+   * Inserts the given item if it is possible to do so without exceeding the buffer's capacity.
+   *
+   * @param item The item to add, must not be null.
+   * @return true if the item was added, false if the buffer is full.
+   */
+  boolean offer(E item);
+
+  /**
+   * Retrieves and removes the oldest item in the buffer.
+   *
+   * @return The oldest item, or null if the buffer is empty.
+   */
+  E poll();
+
+  /**
+   * Inserts as many of the given items as the buffer's capacity allows, in order. By default the
+   * items are offered one by one; implementations may insert them with a single operation.
+   *
+   * @param items The items to add, must not contain null.
+   * @return the number of items added, counted from the start of the list.
+   */
+  default int offerAll(List<E> items) {
+    int added = 0;
+    for (E item : items) {
+      if (!offer(item)) {
+        break;
+      }
+      added++;
+    }
+    return added;
+  }
+
+  /**
+   * Returns the number of items in the buffer.
+   *
+   * @return the number of items in the buffer.
+   */
+  int size();
+
+  /**
+   * Returns the number of additional items that the buffer can accept.
+   *
+   * @return the remaining capacity of the buffer.
+   */
+  int remainingCapacity();
+}
@@ -0,0 +1,39 @@
+package com.wavefront.sdk.common.clients.buffer;
+
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * An {@link ItemBuffer} backed by a bounded {@link LinkedBlockingQueue}.
+ *
+ * @param <E> The type of items held in the buffer.
+ */
+public class LinkedItemBuffer<E> implements ItemBuffer<E> {
+  private final LinkedBlockingQueue<E> queue;
+
+  /**
+   * @param capacity The maximum number of items the buffer can hold.
+   */
+  public LinkedItemBuffer(int capacity) {
+    this.queue = new LinkedBlockingQueue<>(capacity);
+  }
+
+  @Override
+  public boolean offer(E item) {
+    return queue.offer(item);
+  }
+
+  @Override
+  public E poll() {
+    return queue.poll();
+  }
+
+  @Override
+  public int size() {
+    return queue.size();
+  }
+
+  @Override
+  public int remainingCapacity() {
+    return queue.remainingCapacity();
+  }
+}
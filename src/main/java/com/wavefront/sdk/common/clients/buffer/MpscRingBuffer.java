@@ -0,0 +1,138 @@
+package com.wavefront.sdk.common.clients.buffer;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, lock-free, multi-producer/single-consumer ring buffer.
+ *
+ * Producers claim a slot with a single CAS on the producer index and then publish the item into
+ * the pre-allocated slot, so offering an item neither takes a lock nor allocates. The consumer
+ * side is serialized internally, which keeps the buffer safe when a flush is triggered by an
+ * application thread while the background flusher is draining it.
+ *
+ * @param <E> The type of items held in the buffer.
+ */
+public class MpscRingBuffer<E> implements ItemBuffer<E> {
+  private static final int MAX_CAPACITY = 1 << 30;
+
+  private final int capacity;
+  private final int mask;
+  private final AtomicReferenceArray<E> slots;
+  private final AtomicLong producerIndex = new AtomicLong();
+  private final AtomicLong consumerIndex = new AtomicLong();
+
+  // Cached upper bound for the producer index, refreshed from consumerIndex only when reached
+  private volatile long producerLimit;
+
+  /**
+   * @param capacity The maximum number of items the buffer can hold.
+   */
+  public MpscRingBuffer(int capacity) {
+    if (capacity < 1 || capacity > MAX_CAPACITY) {
+      throw new IllegalArgumentException("capacity must be between 1 and " + MAX_CAPACITY +
+          ": " + capacity);
+    }
+    int arraySize = 1;
+    while (arraySize < capacity) {
+      arraySize <<= 1;
+    }
+    this.capacity = capacity;
+    this.mask = arraySize - 1;
+    this.slots = new AtomicReferenceArray<>(arraySize);
+    this.producerLimit = capacity;
+  }
+
+  @Override
+  public boolean offer(E item) {
+    if (item == null) {
+      throw new NullPointerException();
+    }
+    long limit = producerLimit;
+    long index;
+    do {
+      index = producerIndex.get();
+      if (index >= limit) {
+        limit = consumerIndex.get() + capacity;
+        if (index >= limit) {
+          return false;
+        }
+        producerLimit = limit;
+      }
+    } while (!producerIndex.compareAndSet(index, index + 1));
+    slots.lazySet((int) index & mask, item);
+    return true;
+  }
+
+  /**
+   * Claims slots for as many of the items as fit with a single CAS, then publishes them.
+   */
+  @Override
+  public int offerAll(List<E> items) {
+    int count = items.size();
+    for (E item : items) {
+      if (item == null) {
+        throw new NullPointerException();
+      }
+    }
+    if (count == 0) {
+      return 0;
+    }
+    long limit = producerLimit;
+    long index;
+    int claimed;
+    do {
+      index = producerIndex.get();
+      if (index + count > limit) {
+        limit = consumerIndex.get() + capacity;
+        producerLimit = limit;
+      }
+      claimed = (int) Math.min(count, limit - index);
+      if (claimed <= 0) {
+        return 0;
+      }
+    } while (!producerIndex.compareAndSet(index, index + claimed));
+    for (int i = 0; i < claimed; i++) {
+      slots.lazySet((int) (index + i) & mask, items.get(i));
+    }
+    return claimed;
+  }
+
+  @Override
+  public synchronized E poll() {
+    long index = consumerIndex.get();
+    int offset = (int) index & mask;
+    E item = slots.get(offset);
+    if (item == null) {
+      if (index == producerIndex.get()) {
+        return null;
+      }
+      // A producer has claimed this slot but has not published its item yet
+      do {
+        item = slots.get(offset);
+      } while (item == null);
+    }
+    slots.lazySet(offset, null);
+    consumerIndex.lazySet(index + 1);
+    return item;
+  }
+
+  @Override
+  public int size() {
+    long after = consumerIndex.get();
+    while (true) {
+      long before = after;
+      long produced = producerIndex.get();
+      after = consumerIndex.get();
+      if (before == after) {
+        return (int) Math.min(produced - after, capacity);
+      }
+    }
+  }
+
+  @Override
+  public int remainingCapacity() {
+    return capacity - size();
+  }
+}
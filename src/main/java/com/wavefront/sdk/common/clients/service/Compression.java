@@ -0,0 +1,19 @@
+package com.wavefront.sdk.common.clients.service;
+
+/**
+ * The compression applied to request bodies reported to a Proxy or Wavefront service.
+ */
+public enum Compression {
+
+  /**
+   * Request bodies are sent uncompressed. Useful when reporting to a proxy on the same host or
+   * network, where compressing the data costs more CPU than it saves in transfer time.
+   */
+  NONE,
+
+  /**
+   * Request bodies are compressed with GZIP. The compression level trades CPU for a better
+   * compression ratio.
+   */
+  GZIP
+}
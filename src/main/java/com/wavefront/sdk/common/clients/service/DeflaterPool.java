@@ -0,0 +1,46 @@
+package com.wavefront.sdk.common.clients.service;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.Deflater;
+
+/**
+ * A bounded pool of {@link Deflater}s, so that compressing a request body does not allocate
+ * (and later free) the native compressor state on every flush.
+ */
+class DeflaterPool {
+  private final ArrayBlockingQueue<Deflater> pool;
+  private final int level;
+  private final boolean nowrap;
+
+  /**
+   * @param maxIdle The maximum number of idle deflaters to retain.
+   * @param level   The compression level of the deflaters.
+   * @param nowrap  Whether the deflaters omit the ZLIB header and checksum (as GZIP requires).
+   */
+  DeflaterPool(int maxIdle, int level, boolean nowrap) {
+    this.pool = new ArrayBlockingQueue<>(maxIdle);
+    this.level = level;
+    this.nowrap = nowrap;
+  }
+
+  /**
+   * @return an idle deflater from the pool, or a new one if the pool is empty.
+   */
+  Deflater borrow() {
+    Deflater deflater = pool.poll();
+    return deflater == null ? new Deflater(level, nowrap) : deflater;
+  }
+
+  /**
+   * Resets the given deflater and returns it to the pool, or releases its resources if the pool
+   * is already full.
+   *
+   * @param deflater A deflater previously obtained from {@link #borrow()}.
+   */
+  void release(Deflater deflater) {
+    deflater.reset();
+    if (!pool.offer(deflater)) {
+      deflater.end();
+    }
+  }
+}
@@ -0,0 +1,90 @@
+package com.wavefront.sdk.common.clients.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpRetryException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * A {@link Transport} on top of {@link HttpURLConnection}, which leaves connection reuse to the
+ * keep-alive cache of the JDK. Unlike {@link PooledHttpTransport} it goes through the HTTP proxy
+ * configured for the JVM, if any.
+ */
+public class HttpURLConnectionTransport implements Transport {
+
+  private static final int BUFFER_SIZE = 4096;
+
+  private final int connectTimeoutMillis;
+  private final int readTimeoutMillis;
+
+  /**
+   * @param connectTimeoutMillis The timeout for opening a connection, in milliseconds.
+   * @param readTimeoutMillis    The timeout for reading the response, in milliseconds.
+   */
+  public HttpURLConnectionTransport(int connectTimeoutMillis, int readTimeoutMillis) {
+    this.connectTimeoutMillis = connectTimeoutMillis;
+    this.readTimeoutMillis = readTimeoutMillis;
+  }
+
+  @Override
+  public int post(URL url, Map<String, String> headers, long contentLength, Body body)
+      throws IOException {
+    HttpURLConnection urlConn = (HttpURLConnection) url.openConnection();
+    try {
+      urlConn.setDoOutput(true);
+      urlConn.setRequestMethod("POST");
+      for (Map.Entry<String, String> header : headers.entrySet()) {
+        urlConn.addRequestProperty(header.getKey(), header.getValue());
+      }
+      urlConn.setConnectTimeout(connectTimeoutMillis);
+      urlConn.setReadTimeout(readTimeoutMillis);
+      // Stream the body to the connection as it is written, so that the JDK does not buffer the
+      // whole body again before sending it.
+      if (contentLength < 0) {
+        urlConn.setChunkedStreamingMode(0);
+      } else {
+        urlConn.setFixedLengthStreamingMode(contentLength);
+      }
+      try (OutputStream os = urlConn.getOutputStream()) {
+        body.writeTo(os);
+      }
+      int statusCode = urlConn.getResponseCode();
+      readAndClose(urlConn.getInputStream());
+      return statusCode;
+    } catch (HttpRetryException ex) {
+      // In streaming mode the connection cannot follow redirects or answer authentication
+      // challenges, and reports the response code through this exception instead.
+      urlConn.disconnect();
+      return ex.responseCode();
+    } catch (IOException ex) {
+      // error responses throw from getInputStream, in which case the status code is known
+      int statusCode;
+      try {
+        statusCode = urlConn.getResponseCode();
+      } catch (IOException e) {
+        ex.addSuppressed(e);
+        throw ex;
+      }
+      try {
+        readAndClose(urlConn.getErrorStream());
+      } catch (IOException e) {
+        // the status code is all that matters
+      }
+      return statusCode;
+    }
+  }
+
+  private static void readAndClose(InputStream stream) throws IOException {
+    if (stream != null) {
+      try (InputStream is = stream) {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        // read entire stream before closing, so that the connection can be reused
+        while (is.read(buffer) > 0) {
+        }
+      }
+    }
+  }
+}
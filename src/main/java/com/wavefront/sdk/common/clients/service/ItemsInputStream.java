@@ -0,0 +1,62 @@
+package com.wavefront.sdk.common.clients.service;
+
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * An {@link InputStream} that reads a list of encoded items back to back without first copying
+ * them into a single array.
+ */
+class ItemsInputStream extends InputStream {
+  private final List<byte[]> items;
+  private int index = 0;
+  private int offset = 0;
+  private long remaining;
+
+  ItemsInputStream(List<byte[]> items) {
+    this.items = items;
+    for (byte[] item : items) {
+      remaining += item.length;
+    }
+  }
+
+  @Override
+  public int read() {
+    while (index < items.size()) {
+      byte[] item = items.get(index);
+      if (offset < item.length) {
+        remaining--;
+        return item[offset++] & 0xff;
+      }
+      index++;
+      offset = 0;
+    }
+    return -1;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) {
+    if (len == 0) {
+      return 0;
+    }
+    int read = 0;
+    while (read < len && index < items.size()) {
+      byte[] item = items.get(index);
+      int n = Math.min(len - read, item.length - offset);
+      System.arraycopy(item, offset, b, off + read, n);
+      read += n;
+      offset += n;
+      if (offset == item.length) {
+        index++;
+        offset = 0;
+      }
+    }
+    remaining -= read;
+    return read == 0 ? -1 : read;
+  }
+
+  @Override
+  public int available() {
+    return (int) Math.min(remaining, Integer.MAX_VALUE);
+  }
+}
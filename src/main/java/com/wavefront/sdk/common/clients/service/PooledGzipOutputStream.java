@@ -0,0 +1,68 @@
+package com.wavefront.sdk.common.clients.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes data in the GZIP format using a caller-supplied {@link Deflater}.
+ *
+ * Unlike {@link java.util.zip.GZIPOutputStream}, which allocates and ends its own deflater,
+ * closing this stream leaves the deflater usable so it can be reset and reused for the next
+ * request. The deflater must have been created with {@code nowrap} set to true.
+ */
+class PooledGzipOutputStream extends DeflaterOutputStream {
+  private static final int GZIP_MAGIC = 0x8b1f;
+  private static final byte[] HEADER = {
+      (byte) GZIP_MAGIC, (byte) (GZIP_MAGIC >> 8), Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0
+  };
+  private static final int TRAILER_SIZE = 8;
+
+  private final CRC32 crc = new CRC32();
+  private boolean finished = false;
+
+  /**
+   * @param out      The stream to write compressed data to.
+   * @param deflater A deflater created with {@code nowrap} set to true.
+   * @param size     The output buffer size.
+   * @throws IOException If the GZIP header cannot be written.
+   */
+  PooledGzipOutputStream(OutputStream out, Deflater deflater, int size) throws IOException {
+    super(out, deflater, size);
+    out.write(HEADER);
+  }
+
+  @Override
+  public synchronized void write(byte[] b, int off, int len) throws IOException {
+    super.write(b, off, len);
+    crc.update(b, off, len);
+  }
+
+  @Override
+  public void finish() throws IOException {
+    if (finished) {
+      return;
+    }
+    finished = true;
+    def.finish();
+    while (!def.finished()) {
+      int len = def.deflate(buf, 0, buf.length);
+      if (len > 0) {
+        out.write(buf, 0, len);
+      }
+    }
+    byte[] trailer = new byte[TRAILER_SIZE];
+    writeInt((int) crc.getValue(), trailer, 0);
+    writeInt((int) def.getBytesRead(), trailer, 4);
+    out.write(trailer);
+  }
+
+  private static void writeInt(int i, byte[] buf, int offset) {
+    buf[offset] = (byte) i;
+    buf[offset + 1] = (byte) (i >> 8);
+    buf[offset + 2] = (byte) (i >> 16);
+    buf[offset + 3] = (byte) (i >> 24);
+  }
+}
@@ -0,0 +1,866 @@
+package com.wavefront.sdk.common.clients.service;
+
+import com.wavefront.sdk.common.annotation.Nullable;
+import com.wavefront.sdk.common.metrics.WavefrontSdkDeltaCounter;
+import com.wavefront.sdk.common.metrics.WavefrontSdkMetricsRegistry;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * A {@link Transport} speaking HTTP/1.1 over a bounded pool of keep-alive connections.
+ *
+ * Each request borrows an idle connection to its host, or opens a new one, and returns it to
+ * the pool once the response has been read in full. Connections stay idle for at most the
+ * keep-alive time, or the time advertised by the server if shorter, and at most
+ * {@code maxIdleConnections} are kept per host. Reusing connections also reuses their TLS
+ * sessions, and new TLS connections resume sessions from the session cache of the socket
+ * factory. Host names are resolved once per DNS TTL, and resolved again after a connection to
+ * the cached addresses fails.
+ *
+ * TLS connections are opened with the socket factory and host name verifier of
+ * {@link HttpsURLConnection} at the time they are opened, unless set on the builder. As with
+ * {@link HttpsURLConnection}, the host name is checked against the certificate of the server
+ * while the default host name verifier is in place, and is otherwise left to the verifier.
+ *
+ * Unlike {@link HttpURLConnectionTransport}, this transport connects directly to the server and
+ * ignores the HTTP proxy configured for the JVM.
+ */
+public class PooledHttpTransport implements Transport {
+
+  private static final Logger logger = Logger.getLogger(
+      PooledHttpTransport.class.getCanonicalName());
+
+  private static final int BUFFER_SIZE = 8192;
+  private static final int MAX_LINE_LENGTH = 8192;
+  // how long a connection can stay idle before it is probed for being closed by the server
+  private static final long STALE_CHECK_NANOS = TimeUnit.SECONDS.toNanos(1);
+  // the class of the verifier HttpsURLConnection defaults to, which defers to the TLS handshake
+  private static final String DEFAULT_HOSTNAME_VERIFIER =
+      "javax.net.ssl.HttpsURLConnection.DefaultHostnameVerifier";
+
+  private final int connectTimeoutMillis;
+  private final int readTimeoutMillis;
+  private final int maxIdleConnections;
+  private final long keepAliveNanos;
+  private final long dnsTtlNanos;
+  @Nullable
+  private final SSLSocketFactory sslSocketFactory;
+  @Nullable
+  private final HostnameVerifier hostnameVerifier;
+
+  // Idle connections per host, most recently used last. Guarded by this.
+  private final Map<String, ArrayDeque<Connection>> idleConnections = new HashMap<>();
+  private int idleCount;
+  private boolean closed;
+
+  private final Map<String, Resolution> dnsCache = new ConcurrentHashMap<>();
+
+  @Nullable
+  private final WavefrontSdkDeltaCounter requests;
+  @Nullable
+  private final WavefrontSdkDeltaCounter errors;
+  @Nullable
+  private final WavefrontSdkDeltaCounter retries;
+  @Nullable
+  private final WavefrontSdkDeltaCounter requestDurationMillis;
+  @Nullable
+  private final WavefrontSdkDeltaCounter connectionsOpened;
+  @Nullable
+  private final WavefrontSdkDeltaCounter connectionsReused;
+  @Nullable
+  private final WavefrontSdkDeltaCounter connectionsClosed;
+  @Nullable
+  private final WavefrontSdkDeltaCounter dnsLookups;
+  private volatile long lastRequestDurationMillis;
+
+  public static class Builder {
+    // Optional parameters
+    private int connectTimeoutMillis = 30000;
+    private int readTimeoutMillis = 10000;
+    private int maxIdleConnections = 4;
+    private long keepAliveMillis = 30000;
+    private long dnsTtlMillis = 30000;
+    @Nullable
+    private SSLSocketFactory sslSocketFactory;
+    @Nullable
+    private HostnameVerifier hostnameVerifier;
+    @Nullable
+    private WavefrontSdkMetricsRegistry sdkMetricsRegistry;
+
+    /**
+     * Set the timeout for opening a connection, including the TLS handshake.
+     *
+     * @param connectTimeoutMillis The timeout in milliseconds, or 0 to wait indefinitely.
+     * @return {@code this}
+     */
+    public Builder connectTimeoutMillis(int connectTimeoutMillis) {
+      if (connectTimeoutMillis < 0) {
+        throw new IllegalArgumentException("Invalid connect timeout: " + connectTimeoutMillis);
+      }
+      this.connectTimeoutMillis = connectTimeoutMillis;
+      return this;
+    }
+
+    /**
+     * Set the timeout for each read of the response.
+     *
+     * @param readTimeoutMillis The timeout in milliseconds, or 0 to wait indefinitely.
+     * @return {@code this}
+     */
+    public Builder readTimeoutMillis(int readTimeoutMillis) {
+      if (readTimeoutMillis < 0) {
+        throw new IllegalArgumentException("Invalid read timeout: " + readTimeoutMillis);
+      }
+      this.readTimeoutMillis = readTimeoutMillis;
+      return this;
+    }
+
+    /**
+     * Set the max number of idle connections kept per host. Requests in flight are not bounded,
+     * connections beyond this number are closed once their request completes.
+     *
+     * @param maxIdleConnections The max number of idle connections per host, or 0 to close
+     *                           every connection after its request.
+     * @return {@code this}
+     */
+    public Builder maxIdleConnections(int maxIdleConnections) {
+      if (maxIdleConnections < 0) {
+        throw new IllegalArgumentException("Invalid max idle connections: " +
+            maxIdleConnections);
+      }
+      this.maxIdleConnections = maxIdleConnections;
+      return this;
+    }
+
+    /**
+     * Set how long a connection is kept idle before it is closed.
+     *
+     * @param keepAlive The keep-alive time.
+     * @param unit      The unit of the keep-alive time.
+     * @return {@code this}
+     */
+    public Builder keepAlive(long keepAlive, TimeUnit unit) {
+      if (keepAlive < 0) {
+        throw new IllegalArgumentException("Invalid keep-alive time: " + keepAlive);
+      }
+      this.keepAliveMillis = unit.toMillis(keepAlive);
+      return this;
+    }
+
+    /**
+     * Set how long the addresses of a host are cached.
+     *
+     * @param dnsTtl The time to cache addresses for, or 0 to resolve the host for each new
+     *               connection.
+     * @param unit   The unit of the time.
+     * @return {@code this}
+     */
+    public Builder dnsTtl(long dnsTtl, TimeUnit unit) {
+      if (dnsTtl < 0) {
+        throw new IllegalArgumentException("Invalid DNS TTL: " + dnsTtl);
+      }
+      this.dnsTtlMillis = unit.toMillis(dnsTtl);
+      return this;
+    }
+
+    /**
+     * Set the factory of TLS sockets, which defaults to the default factory of
+     * {@link HttpsURLConnection} when each connection is opened.
+     *
+     * @param sslSocketFactory The factory used for https URLs.
+     * @return {@code this}
+     */
+    public Builder sslSocketFactory(SSLSocketFactory sslSocketFactory) {
+      this.sslSocketFactory = sslSocketFactory;
+      return this;
+    }
+
+    /**
+     * Set the verifier of the host names of TLS connections, which defaults to the default
+     * verifier of {@link HttpsURLConnection} when each connection is opened.
+     *
+     * @param hostnameVerifier The verifier used for https URLs.
+     * @return {@code this}
+     */
+    public Builder hostnameVerifier(HostnameVerifier hostnameVerifier) {
+      this.hostnameVerifier = hostnameVerifier;
+      return this;
+    }
+
+    /**
+     * Set the registry used to report request latency and connection churn.
+     *
+     * @param sdkMetricsRegistry The registry, or null to not report metrics.
+     * @return {@code this}
+     */
+    public Builder sdkMetricsRegistry(@Nullable WavefrontSdkMetricsRegistry sdkMetricsRegistry) {
+      this.sdkMetricsRegistry = sdkMetricsRegistry;
+      return this;
+    }
+
+    /**
+     * Creates a new transport.
+     *
+     * @return {@link PooledHttpTransport}
+     */
+    public PooledHttpTransport build() {
+      return new PooledHttpTransport(this);
+    }
+  }
+
+  private PooledHttpTransport(Builder builder) {
+    connectTimeoutMillis = builder.connectTimeoutMillis;
+    readTimeoutMillis = builder.readTimeoutMillis;
+    maxIdleConnections = builder.maxIdleConnections;
+    keepAliveNanos = TimeUnit.MILLISECONDS.toNanos(builder.keepAliveMillis);
+    dnsTtlNanos = TimeUnit.MILLISECONDS.toNanos(builder.dnsTtlMillis);
+    sslSocketFactory = builder.sslSocketFactory;
+    hostnameVerifier = builder.hostnameVerifier;
+
+    WavefrontSdkMetricsRegistry registry = builder.sdkMetricsRegistry;
+    if (registry != null) {
+      requests = registry.newDeltaCounter("http.requests");
+      errors = registry.newDeltaCounter("http.errors");
+      retries = registry.newDeltaCounter("http.retries");
+      requestDurationMillis = registry.newDeltaCounter("http.request.duration_millis");
+      registry.newGauge("http.request.last_duration_millis", () -> lastRequestDurationMillis);
+      connectionsOpened = registry.newDeltaCounter("http.connections.opened");
+      connectionsReused = registry.newDeltaCounter("http.connections.reused");
+      connectionsClosed = registry.newDeltaCounter("http.connections.closed");
+      registry.newGauge("http.connections.idle", this::getIdleConnections);
+      dnsLookups = registry.newDeltaCounter("http.dns.lookups");
+    } else {
+      requests = null;
+      errors = null;
+      retries = null;
+      requestDurationMillis = null;
+      connectionsOpened = null;
+      connectionsReused = null;
+      connectionsClosed = null;
+      dnsLookups = null;
+    }
+  }
+
+  /**
+   * Posts a request. A request that fails on a pooled connection before any byte of the response
+   * is read, other than by timing out, is sent again once on a new connection if its body is
+   * {@link Body#isRepeatable() repeatable}: the server most likely closed the connection while
+   * it was idle, and did not process the request.
+   */
+  @Override
+  public int post(URL url, Map<String, String> headers, long contentLength, Body body)
+      throws IOException {
+    long startNanos = System.nanoTime();
+    inc(requests);
+    String route = route(url);
+    try {
+      Connection pooled = acquire(route, body.isRepeatable());
+      if (pooled != null) {
+        inc(connectionsReused);
+        try {
+          return post(pooled, url, headers, contentLength, body);
+        } catch (IOException e) {
+          if (!body.isRepeatable() || pooled.responseStarted ||
+              e instanceof SocketTimeoutException) {
+            throw e;
+          }
+          logger.log(Level.FINE, "Request failed on a pooled connection, retrying", e);
+          inc(retries);
+        }
+      }
+      Connection connection = connect(url, route);
+      inc(connectionsOpened);
+      return post(connection, url, headers, contentLength, body);
+    } catch (IOException e) {
+      inc(errors);
+      throw e;
+    } finally {
+      long durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+      lastRequestDurationMillis = durationMillis;
+      if (requestDurationMillis != null) {
+        requestDurationMillis.inc(durationMillis);
+      }
+    }
+  }
+
+  private int post(Connection connection, URL url, Map<String, String> headers,
+                   long contentLength, Body body) throws IOException {
+    boolean reusable = false;
+    connection.responseStarted = false;
+    try {
+      writeRequest(connection, url, headers, contentLength, body);
+      int statusCode = readResponse(connection);
+      reusable = connection.keepAlive;
+      return statusCode;
+    } finally {
+      if (reusable) {
+        release(connection);
+      } else {
+        close(connection);
+      }
+    }
+  }
+
+  /**
+   * Closes the idle connections. Connections in use are closed once their request completes.
+   */
+  @Override
+  public void close() {
+    List<Connection> toClose = new ArrayList<>();
+    synchronized (this) {
+      closed = true;
+      for (ArrayDeque<Connection> connections : idleConnections.values()) {
+        toClose.addAll(connections);
+      }
+      idleConnections.clear();
+      idleCount = 0;
+    }
+    for (Connection connection : toClose) {
+      close(connection);
+    }
+  }
+
+  /**
+   * @return the number of idle connections in the pool.
+   */
+  public synchronized int getIdleConnections() {
+    return idleCount;
+  }
+
+  @Nullable
+  private Connection acquire(String route, boolean repeatable) {
+    while (true) {
+      Connection connection;
+      synchronized (this) {
+        ArrayDeque<Connection> connections = idleConnections.get(route);
+        connection = connections == null ? null : connections.pollLast();
+        if (connection == null) {
+          return null;
+        }
+        idleCount--;
+      }
+      long now = System.nanoTime();
+      if (now - connection.expiresAtNanos < 0 && isOpen(connection, repeatable ||
+          now - connection.idleSinceNanos < STALE_CHECK_NANOS)) {
+        return connection;
+      }
+      close(connection);
+    }
+  }
+
+  private void release(Connection connection) {
+    long now = System.nanoTime();
+    connection.idleSinceNanos = now;
+    List<Connection> expired = new ArrayList<>();
+    boolean pooled = false;
+    synchronized (this) {
+      ArrayDeque<Connection> connections =
+          idleConnections.computeIfAbsent(connection.route, route -> new ArrayDeque<>());
+      // the least recently used connections come first and expire first
+      while (!connections.isEmpty() && now - connections.peekFirst().expiresAtNanos >= 0) {
+        expired.add(connections.pollFirst());
+        idleCount--;
+      }
+      if (!closed && connections.size() < maxIdleConnections) {
+        connections.addLast(connection);
+        idleCount++;
+        pooled = true;
+      }
+    }
+    for (Connection expiredConnection : expired) {
+      close(expiredConnection);
+    }
+    if (!pooled) {
+      close(connection);
+    }
+  }
+
+  /**
+   * Checks that the server has not closed an idle connection, for instance after a response to
+   * a request whose body it did not read: a connection that is still open has nothing to read.
+   * Waiting a millisecond for data is only worth it for requests whose body cannot be written
+   * again, on connections idle long enough for the server to have closed them. Other requests
+   * are sent again if the connection turns out to be closed.
+   *
+   * @param quick Whether to only check for data already received, without waiting.
+   */
+  private boolean isOpen(Connection connection, boolean quick) {
+    try {
+      if (connection.in.available() > 0) {
+        return false;
+      }
+      if (quick) {
+        return true;
+      }
+      connection.socket.setSoTimeout(1);
+      try {
+        connection.in.read();
+        return false;
+      } finally {
+        connection.socket.setSoTimeout(readTimeoutMillis);
+      }
+    } catch (SocketTimeoutException e) {
+      return true;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  private Connection connect(URL url, String route) throws IOException {
+    String host = url.getHost();
+    int port = port(url);
+    IOException failure = null;
+    for (InetAddress address : resolve(host)) {
+      Socket socket = new Socket();
+      try {
+        socket.setTcpNoDelay(true);
+        socket.connect(new InetSocketAddress(address, port), connectTimeoutMillis);
+        socket.setSoTimeout(readTimeoutMillis);
+        if ("https".equalsIgnoreCase(url.getProtocol())) {
+          socket = startTls(socket, host, port);
+        }
+        return new Connection(route, socket);
+      } catch (IOException e) {
+        closeQuietly(socket);
+        if (failure == null) {
+          failure = e;
+        } else {
+          failure.addSuppressed(e);
+        }
+      }
+    }
+    // the host may have moved
+    dnsCache.remove(host);
+    throw failure;
+  }
+
+  private Socket startTls(Socket socket, String host, int port) throws IOException {
+    SSLSocketFactory factory = sslSocketFactory != null ? sslSocketFactory :
+        HttpsURLConnection.getDefaultSSLSocketFactory();
+    HostnameVerifier verifier = hostnameVerifier != null ? hostnameVerifier :
+        HttpsURLConnection.getDefaultHostnameVerifier();
+    boolean defaultVerifier =
+        DEFAULT_HOSTNAME_VERIFIER.equals(verifier.getClass().getCanonicalName());
+    SSLSocket sslSocket = (SSLSocket) factory.createSocket(socket, host, port, true);
+    try {
+      if (defaultVerifier) {
+        SSLParameters parameters = sslSocket.getSSLParameters();
+        parameters.setEndpointIdentificationAlgorithm("HTTPS");
+        sslSocket.setSSLParameters(parameters);
+      }
+      sslSocket.startHandshake();
+      if (!defaultVerifier && !verifier.verify(host, sslSocket.getSession())) {
+        throw new SSLPeerUnverifiedException("Host name " + host + " not verified by " +
+            verifier);
+      }
+    } catch (IOException e) {
+      closeQuietly(sslSocket);
+      throw e;
+    }
+    return sslSocket;
+  }
+
+  private InetAddress[] resolve(String host) throws UnknownHostException {
+    long now = System.nanoTime();
+    Resolution cached = dnsCache.get(host);
+    if (cached != null && now - cached.resolvedAtNanos < dnsTtlNanos) {
+      return cached.addresses;
+    }
+    inc(dnsLookups);
+    InetAddress[] addresses;
+    try {
+      addresses = InetAddress.getAllByName(host);
+    } catch (UnknownHostException e) {
+      if (cached == null) {
+        throw e;
+      }
+      // keep using the last known addresses while the name server is unavailable
+      logger.log(Level.FINE, "Unable to resolve " + host + ", using cached addresses", e);
+      addresses = cached.addresses;
+    }
+    dnsCache.put(host, new Resolution(addresses, now));
+    return addresses;
+  }
+
+  private void writeRequest(Connection connection, URL url, Map<String, String> headers,
+                            long contentLength, Body body) throws IOException {
+    StringBuilder head = new StringBuilder(256);
+    String target = url.getFile();
+    head.append("POST ").append(target.isEmpty() ? "/" : target).append(" HTTP/1.1\r\n");
+    head.append("Host: ").append(url.getHost());
+    if (url.getPort() != -1 && url.getPort() != url.getDefaultPort()) {
+      head.append(':').append(url.getPort());
+    }
+    head.append("\r\n");
+    for (Map.Entry<String, String> header : headers.entrySet()) {
+      head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+    }
+    if (contentLength >= 0) {
+      head.append("Content-Length: ").append(contentLength).append("\r\n");
+    } else {
+      head.append("Transfer-Encoding: chunked\r\n");
+    }
+    head.append("\r\n");
+    connection.out.write(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+
+    BodyOutputStream bodyOS = contentLength >= 0 ?
+        new FixedLengthOutputStream(connection.out, contentLength) :
+        new ChunkedOutputStream(connection.out);
+    body.writeTo(bodyOS);
+    bodyOS.close();
+    connection.out.flush();
+  }
+
+  private int readResponse(Connection connection) throws IOException {
+    InputStream in = connection.in;
+    int statusCode;
+    String version;
+    ResponseHeaders headers;
+    // the server may have received the request once it starts to respond
+    in.mark(1);
+    if (in.read() < 0) {
+      throw new EOFException("Connection closed before the response");
+    }
+    connection.responseStarted = true;
+    in.reset();
+    do {
+      String statusLine = readLine(in);
+      int versionEnd = statusLine.indexOf(' ');
+      if (!statusLine.startsWith("HTTP/") || versionEnd < 0 ||
+          statusLine.length() < versionEnd + 4) {
+        throw new ProtocolException("Unexpected status line: " + statusLine);
+      }
+      version = statusLine.substring(0, versionEnd);
+      try {
+        statusCode = Integer.parseInt(statusLine.substring(versionEnd + 1, versionEnd + 4));
+      } catch (NumberFormatException e) {
+        throw new ProtocolException("Unexpected status line: " + statusLine);
+      }
+      headers = readHeaders(in);
+      // skip interim responses such as 100 Continue
+    } while (statusCode >= 100 && statusCode < 200);
+
+    boolean keepAlive = version.equals("HTTP/1.0") ?
+        headers.connection != null && headers.connection.contains("keep-alive") :
+        headers.connection == null || !headers.connection.contains("close");
+    if (statusCode == 204 || statusCode == 304) {
+      // no body
+    } else if (headers.chunked) {
+      drainChunked(connection);
+    } else if (headers.contentLength >= 0) {
+      skip(connection, headers.contentLength);
+    } else {
+      // the body ends when the server closes the connection
+      while (in.read(connection.scratch) >= 0) {
+      }
+      keepAlive = false;
+    }
+    connection.keepAlive = keepAlive;
+    long keepAliveNanos = this.keepAliveNanos;
+    if (headers.keepAliveTimeoutSeconds >= 0) {
+      // leave a margin for the server to not close the connection while a request is sent
+      keepAliveNanos = Math.min(keepAliveNanos,
+          TimeUnit.SECONDS.toNanos(headers.keepAliveTimeoutSeconds) / 2);
+    }
+    connection.expiresAtNanos = System.nanoTime() + keepAliveNanos;
+    return statusCode;
+  }
+
+  private static ResponseHeaders readHeaders(InputStream in) throws IOException {
+    ResponseHeaders headers = new ResponseHeaders();
+    String line;
+    while (!(line = readLine(in)).isEmpty()) {
+      int colon = line.indexOf(':');
+      if (colon <= 0) {
+        throw new ProtocolException("Unexpected header: " + line);
+      }
+      String name = line.substring(0, colon).trim();
+      String value = line.substring(colon + 1).trim();
+      if (name.equalsIgnoreCase("Content-Length")) {
+        try {
+          headers.contentLength = Long.parseLong(value);
+        } catch (NumberFormatException e) {
+          throw new ProtocolException("Unexpected Content-Length: " + value);
+        }
+      } else if (name.equalsIgnoreCase("Transfer-Encoding")) {
+        headers.chunked = value.toLowerCase(Locale.ROOT).contains("chunked");
+      } else if (name.equalsIgnoreCase("Connection")) {
+        headers.connection = value.toLowerCase(Locale.ROOT);
+      } else if (name.equalsIgnoreCase("Keep-Alive")) {
+        headers.keepAliveTimeoutSeconds = parseKeepAliveTimeout(value);
+      }
+    }
+    return headers;
+  }
+
+  private static long parseKeepAliveTimeout(String value) {
+    for (String parameter : value.split(",")) {
+      String[] keyValue = parameter.trim().split("=", 2);
+      if (keyValue.length == 2 && keyValue[0].trim().equalsIgnoreCase("timeout")) {
+        try {
+          return Long.parseLong(keyValue[1].trim());
+        } catch (NumberFormatException e) {
+          return -1;
+        }
+      }
+    }
+    return -1;
+  }
+
+  private static void drainChunked(Connection connection) throws IOException {
+    while (true) {
+      String sizeLine = readLine(connection.in);
+      int extension = sizeLine.indexOf(';');
+      long size;
+      try {
+        size = Long.parseLong((extension < 0 ? sizeLine : sizeLine.substring(0, extension)).
+            trim(), 16);
+      } catch (NumberFormatException e) {
+        throw new ProtocolException("Unexpected chunk size: " + sizeLine);
+      }
+      if (size == 0) {
+        // trailers
+        while (!readLine(connection.in).isEmpty()) {
+        }
+        return;
+      }
+      skip(connection, size);
+      readLine(connection.in);
+    }
+  }
+
+  private static void skip(Connection connection, long length) throws IOException {
+    long remaining = length;
+    while (remaining > 0) {
+      int read = connection.in.read(connection.scratch, 0,
+          (int) Math.min(remaining, connection.scratch.length));
+      if (read < 0) {
+        throw new EOFException("Connection closed before the end of the response");
+      }
+      remaining -= read;
+    }
+  }
+
+  private static String readLine(InputStream in) throws IOException {
+    StringBuilder line = new StringBuilder(64);
+    int b;
+    while ((b = in.read()) != '\n') {
+      if (b < 0) {
+        throw new EOFException("Connection closed by the server");
+      }
+      if (line.length() == MAX_LINE_LENGTH) {
+        throw new ProtocolException("Response line too long");
+      }
+      line.append((char) b);
+    }
+    int length = line.length();
+    if (length > 0 && line.charAt(length - 1) == '\r') {
+      line.setLength(length - 1);
+    }
+    return line.toString();
+  }
+
+  private static String route(URL url) {
+    return url.getProtocol().toLowerCase(Locale.ROOT) + "://" +
+        url.getHost().toLowerCase(Locale.ROOT) + ":" + port(url);
+  }
+
+  private static int port(URL url) {
+    return url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+  }
+
+  private void close(Connection connection) {
+    closeQuietly(connection.socket);
+    inc(connectionsClosed);
+  }
+
+  private static void closeQuietly(Socket socket) {
+    try {
+      socket.close();
+    } catch (IOException e) {
+      // nothing left to release
+    }
+  }
+
+  private static void inc(@Nullable WavefrontSdkDeltaCounter counter) {
+    if (counter != null) {
+      counter.inc();
+    }
+  }
+
+  private static final class Connection {
+    final String route;
+    final Socket socket;
+    final InputStream in;
+    final OutputStream out;
+    final byte[] scratch = new byte[BUFFER_SIZE];
+    boolean keepAlive;
+    long expiresAtNanos;
+    long idleSinceNanos;
+    // Whether any byte of the response to the current request was read
+    boolean responseStarted;
+
+    Connection(String route, Socket socket) throws IOException {
+      this.route = route;
+      this.socket = socket;
+      this.in = new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE);
+      this.out = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
+    }
+  }
+
+  private static final class Resolution {
+    final InetAddress[] addresses;
+    final long resolvedAtNanos;
+
+    Resolution(InetAddress[] addresses, long resolvedAtNanos) {
+      this.addresses = addresses;
+      this.resolvedAtNanos = resolvedAtNanos;
+    }
+  }
+
+  private static final class ResponseHeaders {
+    long contentLength = -1;
+    boolean chunked;
+    @Nullable
+    String connection;
+    long keepAliveTimeoutSeconds = -1;
+  }
+
+  /**
+   * The stream a request body is written to. Closing it ends the body, and leaves the
+   * connection open.
+   */
+  private abstract static class BodyOutputStream extends FilterOutputStream {
+    private boolean finished;
+
+    BodyOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (finished) {
+        throw new IOException("Request body already ended");
+      }
+      writeBody(b, off, len);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void flush() {
+      // the request is flushed once the body ends
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (!finished) {
+        finished = true;
+        finish();
+      }
+    }
+
+    abstract void writeBody(byte[] b, int off, int len) throws IOException;
+
+    abstract void finish() throws IOException;
+  }
+
+  private static final class FixedLengthOutputStream extends BodyOutputStream {
+    private long remaining;
+
+    FixedLengthOutputStream(OutputStream out, long contentLength) {
+      super(out);
+      this.remaining = contentLength;
+    }
+
+    @Override
+    void writeBody(byte[] b, int off, int len) throws IOException {
+      if (len > remaining) {
+        throw new ProtocolException("Request body longer than its Content-Length");
+      }
+      out.write(b, off, len);
+      remaining -= len;
+    }
+
+    @Override
+    void finish() throws IOException {
+      if (remaining != 0) {
+        throw new ProtocolException("Request body shorter than its Content-Length");
+      }
+    }
+  }
+
+  private static final class ChunkedOutputStream extends BodyOutputStream {
+    private final byte[] chunk = new byte[BUFFER_SIZE];
+    private int length;
+
+    ChunkedOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    void writeBody(byte[] b, int off, int len) throws IOException {
+      while (len > 0) {
+        int copied = Math.min(len, chunk.length - length);
+        System.arraycopy(b, off, chunk, length, copied);
+        length += copied;
+        off += copied;
+        len -= copied;
+        if (length == chunk.length) {
+          writeChunk();
+        }
+      }
+    }
+
+    @Override
+    void finish() throws IOException {
+      writeChunk();
+      out.write(new byte[]{'0', '\r', '\n', '\r', '\n'});
+    }
+
+    private void writeChunk() throws IOException {
+      if (length == 0) {
+        return;
+      }
+      out.write((Integer.toHexString(length) + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+      out.write(chunk, 0, length);
+      out.write('\r');
+      out.write('\n');
+      length = 0;
+    }
+  }
+}
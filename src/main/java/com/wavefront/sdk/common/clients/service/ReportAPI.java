@@ -1,7 +1,7 @@
 package com.wavefront.sdk.common.clients.service;
 
-import java.io.IOException;
 import java.io.InputStream;
+import java.util.List;
 
 /**
  * The API for reporting points to Proxy or Direct Data Ingestion
@@ -12,4 +12,27 @@ public interface ReportAPI {
   int send(String format, InputStream stream);
 
   int sendEvent(InputStream stream);
+
+  /**
+   * Sends a batch of encoded items, each of which is expected to end with a newline.
+   * Implementations should write the items directly into the request body rather than first
+   * concatenating them.
+   *
+   * @param format The format of the items.
+   * @param items  The encoded items to send.
+   * @return the HTTP status code of the response, or -1 if no response was received.
+   */
+  default int send(String format, List<byte[]> items) {
+    return send(format, new ItemsInputStream(items));
+  }
+
+  /**
+   * Sends a batch of encoded events.
+   *
+   * @param items The encoded events to send.
+   * @return the HTTP status code of the response, or -1 if no response was received.
+   */
+  default int sendEvent(List<byte[]> items) {
+    return sendEvent(new ItemsInputStream(items));
+  }
 }
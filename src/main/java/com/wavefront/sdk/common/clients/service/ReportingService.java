@@ -1,161 +1,268 @@
 package com.wavefront.sdk.common.clients.service;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.io.CountingOutputStream;
 import com.wavefront.sdk.common.Constants;
+import com.wavefront.sdk.common.annotation.NonNull;
 import com.wavefront.sdk.common.annotation.Nullable;
 import com.wavefront.sdk.common.logging.MessageSuppressingLogger;
+import com.wavefront.sdk.common.metrics.WavefrontSdkMetricsRegistry;
 
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.zip.GZIPOutputStream;
+import java.util.zip.Deflater;
 
 /**
  * ReportingService that reports entities to Proxy or Wavefront services.
  *
  * @author Mike McMahon (mike.mcmahon@wavefront.com)
  */
-public class ReportingService implements ReportAPI {
+public class ReportingService implements ReportAPI, Closeable {
 
   private static final MessageSuppressingLogger MESSAGE_SUPPRESSING_LOGGER = new MessageSuppressingLogger(
       Logger.getLogger(ReportingService.class.getCanonicalName()), 5, TimeUnit.MINUTES);
 
   private final String token;
   private final URI uri;
+  private final Compression compression;
+  private final DeflaterPool deflaterPool;
+  private final Transport transport;
+  @Nullable
+  private final WavefrontSdkMetricsRegistry sdkMetricsRegistry;
 
   private static final int CONNECT_TIMEOUT_MILLIS = 30000;
   private static final int READ_TIMEOUT_MILLIS = 10000;
   private static final int BUFFER_SIZE = 4096;
   private static final int NO_HTTP_RESPONSE = -1;
+  private static final int MAX_IDLE_DEFLATERS = 4;
 
   public ReportingService(String server, @Nullable String token) {
+    this(server, token, Compression.GZIP, Deflater.DEFAULT_COMPRESSION, null);
+  }
+
+  /**
+   * @param server             The server to report to.
+   * @param token              The API token, or null when reporting to a proxy.
+   * @param compression        The compression applied to request bodies.
+   * @param compressionLevel   The compression level, from 0 to 9, or -1 for the codec default.
+   * @param sdkMetricsRegistry The registry used to report the number of bytes sent per entity
+   *                           type before and after compression, or null to not report them.
+   */
+  public ReportingService(String server, @Nullable String token, @NonNull Compression compression,
+                          int compressionLevel,
+                          @Nullable WavefrontSdkMetricsRegistry sdkMetricsRegistry) {
+    this(server, token, compression, compressionLevel, null, sdkMetricsRegistry);
+  }
+
+  /**
+   * @param server             The server to report to.
+   * @param token              The API token, or null when reporting to a proxy.
+   * @param compression        The compression applied to request bodies.
+   * @param compressionLevel   The compression level, from 0 to 9, or -1 for the codec default.
+   * @param transport          The transport sending the requests, which is closed along with
+   *                           this service, or null for an {@link HttpURLConnectionTransport}.
+   * @param sdkMetricsRegistry The registry used to report the number of bytes sent per entity
+   *                           type before and after compression, or null to not report them.
+   */
+  public ReportingService(String server, @Nullable String token, @NonNull Compression compression,
+                          int compressionLevel, @Nullable Transport transport,
+                          @Nullable WavefrontSdkMetricsRegistry sdkMetricsRegistry) {
     this.uri = URI.create(server);
     this.token = token;
+    this.compression = compression;
+    this.deflaterPool = new DeflaterPool(MAX_IDLE_DEFLATERS, compressionLevel, true);
+    this.transport = transport != null ? transport :
+        new HttpURLConnectionTransport(CONNECT_TIMEOUT_MILLIS, READ_TIMEOUT_MILLIS);
+    this.sdkMetricsRegistry = sdkMetricsRegistry;
   }
 
   @Override
   public int send(String format, InputStream stream) {
-    HttpURLConnection urlConn = null;
-    int statusCode = 400;
-    try {
-      URL url = getReportingUrl(uri, format);
-      urlConn = (HttpURLConnection) url.openConnection();
-      urlConn.setDoOutput(true);
-      urlConn.setRequestMethod("POST");
-      urlConn.addRequestProperty("Content-Type", "application/octet-stream");
-      urlConn.addRequestProperty("Content-Encoding", "gzip");
-      if (token != null && !token.equals("")) {
-        urlConn.addRequestProperty("Authorization", "Bearer " + token);
-      }
-      urlConn.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
-      urlConn.setReadTimeout(READ_TIMEOUT_MILLIS);
+    return send(format, -1, os -> copy(stream, os));
+  }
 
-      try (GZIPOutputStream gzipOS = new GZIPOutputStream(urlConn.getOutputStream())) {
-        byte[] buffer = new byte[BUFFER_SIZE];
-        while (stream.available() > 0) {
-          gzipOS.write(buffer, 0, stream.read(buffer));
-        }
-        gzipOS.flush();
-      }
-      statusCode = urlConn.getResponseCode();
-      readAndClose(urlConn.getInputStream());
-      MESSAGE_SUPPRESSING_LOGGER.reset(urlConn.getURL().toString());
-    } catch (IOException ex) {
-      if (urlConn != null) {
-        return safeGetResponseCodeAndClose(urlConn);
-      }
-    }
-    return statusCode;
+  @Override
+  public int send(String format, List<byte[]> items) {
+    return send(format, totalLength(items), os -> writeItems(items, os));
   }
 
   @Override
   public int sendEvent(InputStream stream) {
-    HttpURLConnection urlConn = null;
-    int statusCode = 400;
-    try {
-      URL url = getEventReportingUrl(uri);
-      urlConn = (HttpURLConnection) url.openConnection();
-      urlConn.setDoOutput(true);
-      urlConn.setRequestMethod("POST");
+    return sendEvent(-1, os -> copy(stream, os));
+  }
 
-      if (token != null && !token.equals("")) {
-        urlConn.addRequestProperty("Authorization", "Bearer " + token);
-      }
-      urlConn.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
-      urlConn.setReadTimeout(READ_TIMEOUT_MILLIS);
-
-      if (uri.getScheme().equals(Constants.HTTP_PROXY_SCHEME)) {
-        // Event is in compressed line format for proxy.
-        urlConn.addRequestProperty("Content-Type", "application/octet-stream");
-        urlConn.addRequestProperty("Content-Encoding", "gzip");
-        try (GZIPOutputStream gzipOS = new GZIPOutputStream(urlConn.getOutputStream())) {
-          byte[] buffer = new byte[BUFFER_SIZE];
-          while (stream.available() > 0) {
-            gzipOS.write(buffer, 0, stream.read(buffer));
-          }
-          gzipOS.flush();
-        }
-      } else {
-        // Event is in uncompressed JSON format for direct ingestion.
-        urlConn.addRequestProperty("Content-Type", "application/json");
-        try (OutputStream urlOS = urlConn.getOutputStream()) {
-          byte[] buffer = new byte[BUFFER_SIZE];
-          while (stream.available() > 0) {
-            urlOS.write(buffer, 0, stream.read(buffer));
-          }
-          urlOS.flush();
-        }
-      }
+  @Override
+  public int sendEvent(List<byte[]> items) {
+    return sendEvent(totalLength(items), os -> writeItems(items, os));
+  }
 
-      statusCode = urlConn.getResponseCode();
-      readAndClose(urlConn.getInputStream());
-      MESSAGE_SUPPRESSING_LOGGER.reset(urlConn.getURL().toString());
-    } catch (IOException ex) {
-      if (urlConn != null) {
-        return safeGetResponseCodeAndClose(urlConn);
-      }
+  private int send(String format, long contentLength, Transport.Body body) {
+    URL url;
+    try {
+      url = getReportingUrl(uri, format);
+    } catch (MalformedURLException ex) {
+      return 400;
     }
-    return statusCode;
+    return post(url, format, "application/octet-stream", compression == Compression.GZIP,
+        contentLength, body);
   }
 
-  private int safeGetResponseCodeAndClose(HttpURLConnection urlConn) {
-    int statusCode;
+  private int sendEvent(long contentLength, Transport.Body body) {
+    URL url;
     try {
-      statusCode = urlConn.getResponseCode();
-    } catch (IOException ex) {
-      MESSAGE_SUPPRESSING_LOGGER.log(urlConn.getURL().toString(), Level.SEVERE,
-          "Unable to obtain status code from the Wavefront service at "
-              + urlConn.getURL().toString() + " due to: " + ex.getMessage());
-      statusCode = NO_HTTP_RESPONSE;
+      url = getEventReportingUrl(uri);
+    } catch (MalformedURLException ex) {
+      return 400;
+    }
+    if (uri.getScheme().equals(Constants.HTTP_PROXY_SCHEME)) {
+      // Event is in compressed line format for proxy.
+      return post(url, Constants.WAVEFRONT_EVENT_FORMAT, "application/octet-stream",
+          compression == Compression.GZIP, contentLength, body);
+    } else {
+      // Event is in uncompressed JSON format for direct ingestion.
+      return post(url, Constants.WAVEFRONT_EVENT_FORMAT, "application/json", false,
+          contentLength, body);
     }
+  }
 
+  /**
+   * Posts a request body to the given URL. The body is streamed to the transport as it is
+   * written, with an unknown length when compressed.
+   */
+  private int post(URL url, String format, String contentType, boolean compress,
+                   long contentLength, Transport.Body body) {
+    Map<String, String> headers = new LinkedHashMap<>(4);
+    headers.put("Content-Type", contentType);
+    if (compress) {
+      headers.put("Content-Encoding", "gzip");
+    }
+    if (token != null && !token.equals("")) {
+      headers.put("Authorization", "Bearer " + token);
+    }
+    // the transport may write a repeatable body more than once, so only the last write is kept
+    // and counted once the request is sent
+    BytesWritten bytesWritten = new BytesWritten();
+    Transport.Body requestBody = os -> writeBody(compress, body, os, bytesWritten);
+    if (contentLength >= 0) {
+      // a body of known length is written from the batch items, so it can be written again
+      requestBody = Transport.Body.repeatable(requestBody);
+    }
     try {
-      readAndClose(urlConn.getErrorStream());
+      int statusCode = transport.post(url, headers, compress ? -1 : contentLength, requestBody);
+      MESSAGE_SUPPRESSING_LOGGER.reset(url.toString());
+      reportBytes(format, bytesWritten);
+      return statusCode;
     } catch (IOException ex) {
-      MESSAGE_SUPPRESSING_LOGGER.log(urlConn.getURL().toString(), Level.SEVERE,
-          "Unable to read and close error stream from the Wavefront service at "
-              + urlConn.getURL().toString() + " due to: " + ex.getMessage());
+      MESSAGE_SUPPRESSING_LOGGER.log(url.toString(), Level.SEVERE,
+          "Unable to obtain status code from the Wavefront service at " + url + " due to: " +
+              ex.getMessage());
+      return NO_HTTP_RESPONSE;
     }
-
-    return statusCode;
   }
 
-  private void readAndClose(InputStream stream) throws IOException {
-    if (stream != null) {
-      try (InputStream is = stream) {
-        byte[] buffer = new byte[BUFFER_SIZE];
-        // read entire stream before closing
-        while (is.read(buffer) > 0) {
+  private void writeBody(boolean compress, Transport.Body body, OutputStream os,
+                         BytesWritten bytesWritten) throws IOException {
+    CountingOutputStream countingOS = new CountingOutputStream(os);
+    long uncompressedBytes;
+    if (compress) {
+      Deflater deflater = deflaterPool.borrow();
+      try {
+        try (OutputStream gzipOS = new PooledGzipOutputStream(countingOS, deflater,
+            BUFFER_SIZE)) {
+          body.writeTo(gzipOS);
         }
+        uncompressedBytes = deflater.getBytesRead();
+      } finally {
+        deflaterPool.release(deflater);
       }
+    } else {
+      try (OutputStream bufferedOS = new BufferedOutputStream(countingOS, BUFFER_SIZE)) {
+        body.writeTo(bufferedOS);
+      }
+      uncompressedBytes = countingOS.getCount();
+    }
+    bytesWritten.uncompressed = uncompressedBytes;
+    bytesWritten.compressed = countingOS.getCount();
+  }
+
+  private void reportBytes(String format, BytesWritten bytesWritten) {
+    if (sdkMetricsRegistry == null) {
+      return;
     }
+    String entityPrefix = entityPrefix(format);
+    sdkMetricsRegistry.newDeltaCounter(entityPrefix + ".report.bytes.uncompressed").
+        inc(bytesWritten.uncompressed);
+    sdkMetricsRegistry.newDeltaCounter(entityPrefix + ".report.bytes.compressed").
+        inc(bytesWritten.compressed);
+  }
+
+  /**
+   * The number of bytes of the last write of a request body, before and after compression.
+   */
+  private static final class BytesWritten {
+    long uncompressed;
+    long compressed;
+  }
+
+  private static String entityPrefix(String format) {
+    switch (format) {
+      case Constants.WAVEFRONT_METRIC_FORMAT:
+        return "points";
+      case Constants.WAVEFRONT_HISTOGRAM_FORMAT:
+        return "histograms";
+      case Constants.WAVEFRONT_TRACING_SPAN_FORMAT:
+        return "spans";
+      case Constants.WAVEFRONT_SPAN_LOG_FORMAT:
+        return "span_logs";
+      case Constants.WAVEFRONT_EVENT_FORMAT:
+        return "events";
+      case Constants.WAVEFRONT_LOG_FORMAT:
+        return "logs";
+      default:
+        return format;
+    }
+  }
+
+  private static void copy(InputStream stream, OutputStream os) throws IOException {
+    byte[] buffer = new byte[BUFFER_SIZE];
+    int read;
+    while ((read = stream.read(buffer)) > 0) {
+      os.write(buffer, 0, read);
+    }
+  }
+
+  private static void writeItems(List<byte[]> items, OutputStream os) throws IOException {
+    for (byte[] item : items) {
+      os.write(item);
+    }
+  }
+
+  private static long totalLength(List<byte[]> items) {
+    long length = 0;
+    for (byte[] item : items) {
+      length += item.length;
+    }
+    return length;
+  }
+
+  /**
+   * Closes the transport.
+   */
+  @Override
+  public void close() throws IOException {
+    transport.close();
   }
 
   /**
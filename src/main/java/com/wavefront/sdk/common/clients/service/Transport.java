@@ -0,0 +1,78 @@
+package com.wavefront.sdk.common.clients.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * Sends the HTTP requests of a {@link ReportingService}.
+ *
+ * The reporting service takes care of building the request body, including compression, and of
+ * interpreting the status code, so implementations only move bytes. Besides the default
+ * {@link HttpURLConnectionTransport} and the {@link PooledHttpTransport}, implementations can
+ * for instance hand requests to an in-process server in tests and benchmarks.
+ *
+ * Implementations are called concurrently from the flush threads of a client.
+ */
+public interface Transport extends Closeable {
+
+  /**
+   * Posts a request and reads the response.
+   *
+   * @param url           The URL to post to.
+   * @param headers       The request headers, not including the ones framing the body.
+   * @param contentLength The length of the body in bytes, or -1 if it is not known up front.
+   * @param body          Writes the request body.
+   * @return the HTTP status code of the response.
+   * @throws IOException if the request could not be sent or no response was received.
+   */
+  int post(URL url, Map<String, String> headers, long contentLength, Body body)
+      throws IOException;
+
+  /**
+   * Releases the connections held by the transport.
+   */
+  @Override
+  default void close() {
+  }
+
+  /**
+   * Writes a request body.
+   */
+  @FunctionalInterface
+  interface Body {
+    /**
+     * @param os The stream to write the body to, which may be closed once the body is written.
+     * @throws IOException if the stream fails.
+     */
+    void writeTo(OutputStream os) throws IOException;
+
+    /**
+     * @return true if {@link #writeTo} can be called again to send the same body, which lets a
+     * transport resend a request that failed on a connection the server had already closed.
+     */
+    default boolean isRepeatable() {
+      return false;
+    }
+
+    /**
+     * @param body Writes a body that is the same each time.
+     * @return a body that reports itself as repeatable.
+     */
+    static Body repeatable(Body body) {
+      return new Body() {
+        @Override
+        public void writeTo(OutputStream os) throws IOException {
+          body.writeTo(os);
+        }
+
+        @Override
+        public boolean isRepeatable() {
+          return true;
+        }
+      };
+    }
+  }
+}
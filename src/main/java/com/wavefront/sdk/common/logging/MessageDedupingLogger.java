@@ -8,6 +8,7 @@ import com.google.common.util.concurrent.RateLimiter;
 import java.util.Objects;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.LogRecord;
 import java.util.logging.Logger;
@@ -68,4 +69,26 @@ public class MessageDedupingLogger extends DelegatingLogger {
       log(new LogRecord(level, message));
     }
   }
+
+  /**
+   * Log a message, de-duplicating with the specified key. The message is only built if it is
+   * going to be logged, so that suppressed messages cost no more than a rate limiter check.
+   *
+   * @param messageDedupingKey  String to dedupe the log by.
+   * @param level               Log level.
+   * @param messageSupplier     Builds the string to write to log.
+   */
+  public void log(String messageDedupingKey, Level level, Supplier<String> messageSupplier) {
+    if (!delegate.isLoggable(level)) {
+      return;
+    }
+    try {
+      if (Objects.requireNonNull(rateLimiterCache.get(messageDedupingKey)).tryAcquire()) {
+        log(new LogRecord(level, messageSupplier.get()));
+      }
+    } catch (ExecutionException e) {
+      // Log the message if we encounter an error fetching the rate limiter
+      log(new LogRecord(level, messageSupplier.get()));
+    }
+  }
 }
@@ -4,6 +4,7 @@ import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.LogRecord;
 import java.util.logging.Logger;
@@ -37,7 +38,23 @@ public class MessageSuppressingLogger extends DelegatingLogger {
    */
   public void log(String messageKey, Level level, String message) {
     cache.asMap().compute(messageKey,
-        (key, prevTime) -> logMessageAndComputeTimestamp(message, level, prevTime));
+        (key, prevTime) -> logMessageAndComputeTimestamp(() -> message, level, prevTime));
+  }
+
+  /**
+   * Suppress and log the message based on the specified key. The message is only built if it is
+   * going to be logged.
+   *
+   * @param messageKey      String to suppress the log message.
+   * @param level           Log level.
+   * @param messageSupplier Builds the log message.
+   */
+  public void log(String messageKey, Level level, Supplier<String> messageSupplier) {
+    if (!delegate.isLoggable(level)) {
+      return;
+    }
+    cache.asMap().compute(messageKey,
+        (key, prevTime) -> logMessageAndComputeTimestamp(messageSupplier, level, prevTime));
   }
 
   /**
@@ -50,7 +67,7 @@ public class MessageSuppressingLogger extends DelegatingLogger {
   @Override
   public void log(Level level, String message) {
     cache.asMap().compute(message,
-        (key, prevTime) -> logMessageAndComputeTimestamp(message, level, prevTime));
+        (key, prevTime) -> logMessageAndComputeTimestamp(() -> message, level, prevTime));
   }
 
   /**
@@ -84,18 +101,19 @@ public class MessageSuppressingLogger extends DelegatingLogger {
   /**
    * Log a message based on the previous timestamp for the message key and set a new timestamp.
    *
-   * @param message  String to write to log.
+   * @param message  Builds the string to write to log.
    * @param level    Log level.
    * @param prevTime Previous timestamp for the message key.
    * @return a new timestamp for the message key.
    */
-  private Long logMessageAndComputeTimestamp(String message, Level level, Long prevTime) {
+  private Long logMessageAndComputeTimestamp(Supplier<String> message, Level level,
+                                             Long prevTime) {
     long currentTime = System.currentTimeMillis();
     if (prevTime == null) {
       return currentTime;
     }
     if (currentTime - prevTime > suppressMillis) {
-      log(new LogRecord(level, message));
+      log(new LogRecord(level, message.get()));
       return currentTime;
     }
     return prevTime;
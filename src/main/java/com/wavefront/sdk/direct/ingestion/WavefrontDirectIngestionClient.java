@@ -275,7 +275,7 @@ public class WavefrontDirectIngestionClient implements WavefrontSender, Runnable
 
     if (!metricsBuffer.offer(point)) {
       pointsDropped.inc();
-      logger.log(LogMessageType.METRICS_BUFFER_FULL.toString(), Level.WARNING,
+      logger.log(LogMessageType.METRICS_BUFFER_FULL.toString(), Level.WARNING, () ->
           "Buffer full, dropping metric point: " + point + ". Consider increasing the batch size " +
               "of your sender to increase throughput.");
     }
@@ -300,7 +300,7 @@ public class WavefrontDirectIngestionClient implements WavefrontSender, Runnable
 
     if (!metricsBuffer.offer(finalPoint)) {
       pointsDropped.inc();
-      logger.log(LogMessageType.METRICS_BUFFER_FULL.toString(), Level.WARNING,
+      logger.log(LogMessageType.METRICS_BUFFER_FULL.toString(), Level.WARNING, () ->
           "Buffer full, dropping metric point: " + finalPoint + ". Consider increasing the batch " +
               "size of your sender to increase throughput.");
     }
@@ -327,7 +327,7 @@ public class WavefrontDirectIngestionClient implements WavefrontSender, Runnable
 
     if (!histogramsBuffer.offer(histograms)) {
       histogramsDropped.inc();
-      logger.log(LogMessageType.HISTOGRAMS_BUFFER_FULL.toString(), Level.WARNING,
+      logger.log(LogMessageType.HISTOGRAMS_BUFFER_FULL.toString(), Level.WARNING, () ->
           "Buffer full, dropping histograms: " + histograms + ". Consider increasing the batch " +
               "size of your sender to increase throughput.");
     }
@@ -362,7 +362,7 @@ public class WavefrontDirectIngestionClient implements WavefrontSender, Runnable
       if (spanLogs != null && !spanLogs.isEmpty()) {
         spanLogsDropped.inc();
       }
-      logger.log(LogMessageType.SPANS_BUFFER_FULL.toString(), Level.WARNING,
+      logger.log(LogMessageType.SPANS_BUFFER_FULL.toString(), Level.WARNING, () ->
           "Buffer full, dropping span: " + span + ". Consider increasing the batch size of your " +
               "sender to increase throughput.");
     }
@@ -375,7 +375,7 @@ public class WavefrontDirectIngestionClient implements WavefrontSender, Runnable
       spanLogsValid.inc();
       if (!spanLogsBuffer.offer(spanLogsJson)) {
         spanLogsDropped.inc();
-        logger.log(LogMessageType.SPANLOGS_BUFFER_FULL.toString(), Level.WARNING,
+        logger.log(LogMessageType.SPANLOGS_BUFFER_FULL.toString(), Level.WARNING, () ->
             "Buffer full, dropping spanLogs: " + spanLogsJson + ". Consider increasing the batch " +
                 "size of your sender to increase throughput.");
       }
@@ -521,7 +521,7 @@ public class WavefrontDirectIngestionClient implements WavefrontSender, Runnable
       } else {
         int numDropped = items.size() - numAddedBackToBuffer;
         dropped.inc(numDropped);
-        logger.log(bufferFullMessageType.toString(), Level.WARNING,
+        logger.log(bufferFullMessageType.toString(), Level.WARNING, () ->
             "Buffer full, dropping " + numDropped + " " + entityType + ". Consider increasing " +
                 "the batch size of your sender to increase throughput.");
         break;
@@ -595,7 +595,7 @@ public class WavefrontDirectIngestionClient implements WavefrontSender, Runnable
       }
       int numBytes = item.getBytes().length;
       if (numBytes > messageSizeBytes) {
-        logger.log(LogMessageType.MESSAGE_SIZE_LIMIT_EXCEEDED.toString(), Level.WARNING,
+        logger.log(LogMessageType.MESSAGE_SIZE_LIMIT_EXCEEDED.toString(), Level.WARNING, () ->
             "Dropping data larger than " + messageSizeBytes + " bytes: " + item + ". Consider " +
                 "increasing the message size limit of your sender.");
         dropped.inc();
@@ -0,0 +1,72 @@
+package com.wavefront.sdk.entities.histograms;
+
+import com.wavefront.sdk.common.Pair;
+import com.wavefront.sdk.common.annotation.Nullable;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A distribution, for sending many distributions at once with
+ * {@link WavefrontHistogramSender#sendDistributions(java.util.Collection)}.
+ */
+public class Distribution {
+  private final String name;
+  private final List<Pair<Double, Integer>> centroids;
+  private final Set<HistogramGranularity> histogramGranularities;
+  @Nullable
+  private final Long timestamp;
+  @Nullable
+  private final String source;
+  @Nullable
+  private final Map<String, String> tags;
+
+  /**
+   * @param name                   The name of the histogram.
+   * @param centroids              The centroids of the distribution, as pairs of mean and count.
+   * @param histogramGranularities The granularities the distribution is reported at.
+   * @param timestamp              The timestamp in milliseconds since the epoch, or null to let
+   *                               Wavefront assign it when the distribution is received.
+   * @param source                 The source (or host) of the histogram, or null to use the
+   *                               sender's default.
+   * @param tags                   The tags associated with the histogram.
+   */
+  public Distribution(String name, List<Pair<Double, Integer>> centroids,
+                      Set<HistogramGranularity> histogramGranularities, @Nullable Long timestamp,
+                      @Nullable String source, @Nullable Map<String, String> tags) {
+    this.name = name;
+    this.centroids = centroids;
+    this.histogramGranularities = histogramGranularities;
+    this.timestamp = timestamp;
+    this.source = source;
+    this.tags = tags;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public List<Pair<Double, Integer>> getCentroids() {
+    return centroids;
+  }
+
+  public Set<HistogramGranularity> getHistogramGranularities() {
+    return histogramGranularities;
+  }
+
+  @Nullable
+  public Long getTimestamp() {
+    return timestamp;
+  }
+
+  @Nullable
+  public String getSource() {
+    return source;
+  }
+
+  @Nullable
+  public Map<String, String> getTags() {
+    return tags;
+  }
+}
@@ -4,6 +4,8 @@ import com.wavefront.sdk.common.Pair;
 import com.wavefront.sdk.common.annotation.Nullable;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -37,4 +39,68 @@ public interface WavefrontHistogramSender {
                         Set<HistogramGranularity> histogramGranularities, @Nullable Long timestamp,
                         @Nullable String source, @Nullable Map<String, String> tags)
       throws IOException;
+
+  /**
+   * Sends a distribution whose centroids are given as arrays of primitives, which saves boxing
+   * each centroid. Senders that support it encode the arrays directly. By default the centroids
+   * are converted to pairs and sent with {@link #sendDistribution(String, List, Set, Long,
+   * String, Map)}.
+   *
+   * @param name                       The name of the histogram distribution.
+   * @param means                      The mean value of each centroid.
+   * @param counts                     The number of points in each centroid, in the same order
+   *                                   as the means.
+   * @param histogramGranularities     The set of intervals (minute, hour, and/or day) by which
+   *                                   histogram data should be aggregated.
+   * @param timestamp                  The timestamp in milliseconds since the epoch to be sent.
+   *                                   If null then the timestamp is assigned by Wavefront when
+   *                                   data is received.
+   * @param source                     The source (or host) that's sending the histogram. If
+   *                                   null, then assigned by Wavefront.
+   * @param tags                       The tags associated with this histogram.
+   * @throws IOException               If there was an error sending the histogram.
+   * @throws IllegalArgumentException  If the arrays differ in length.
+   */
+  default void sendDistribution(String name, double[] means, int[] counts,
+                                Set<HistogramGranularity> histogramGranularities,
+                                @Nullable Long timestamp, @Nullable String source,
+                                @Nullable Map<String, String> tags) throws IOException {
+    if (means == null || counts == null || means.length != counts.length) {
+      throw new IllegalArgumentException("A distribution should have as many counts as means");
+    }
+    List<Pair<Double, Integer>> centroids = new ArrayList<>(means.length);
+    for (int i = 0; i < means.length; i++) {
+      centroids.add(new Pair<>(means[i], counts[i]));
+    }
+    sendDistribution(name, centroids, histogramGranularities, timestamp, source, tags);
+  }
+
+  /**
+   * Sends distributions to Wavefront. Senders that support it enqueue all the distributions at
+   * once, which costs less than sending them one by one. By default each distribution is sent
+   * with {@link #sendDistribution}. Invalid distributions are skipped, and the valid ones are
+   * still sent.
+   *
+   * @param distributions              The distributions to send.
+   * @throws IOException               If there was an error sending the distributions.
+   * @throws IllegalArgumentException  If any distribution is invalid, after the valid
+   *                                   distributions were sent.
+   */
+  default void sendDistributions(Collection<Distribution> distributions) throws IOException {
+    IllegalArgumentException invalid = null;
+    for (Distribution distribution : distributions) {
+      try {
+        sendDistribution(distribution.getName(), distribution.getCentroids(),
+            distribution.getHistogramGranularities(), distribution.getTimestamp(),
+            distribution.getSource(), distribution.getTags());
+      } catch (IllegalArgumentException e) {
+        if (invalid == null) {
+          invalid = e;
+        }
+      }
+    }
+    if (invalid != null) {
+      throw invalid;
+    }
+  }
 }
@@ -0,0 +1,185 @@
+package com.wavefront.sdk.entities.metrics;
+
+import com.wavefront.sdk.common.annotation.Nullable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Accumulates delta counter increments per series, so that a counter incremented many times
+ * within a flush interval is reported as a single point holding the sum of the increments.
+ *
+ * Increments are added to a {@link DoubleAdder} per series, which spreads concurrent updates of
+ * the same series over several cells instead of contending on a single value. Like the delta
+ * counters of {@link com.wavefront.sdk.common.metrics.WavefrontSdkMetricsRegistry}, a series is
+ * drained by reading its sum and subtracting what was read, so increments made while draining
+ * are kept for the next drain. Subtracting a sum spread over several cells is not exact for
+ * fractional increments, so a sum within a few ulps of zero, relative to the sums the series
+ * reported before, is residue rather than an increment: it is neither reported nor keeps the
+ * series from being idle.
+ *
+ * A series that stays idle for a whole interval is retired: it is removed from the map so that
+ * new increments start a new series, and whatever increments raced with the removal are
+ * reported by a following drain, once every increment that found the series before it was
+ * retired has completed. Each series counts the increments started and finished on it with a
+ * pair of {@link LongAdder}s, which keeps increments free of contention.
+ */
+public class DeltaCounterAccumulator {
+
+  // Bounds the rounding error left by subtracting a drained sum, in ulps of the largest sum
+  private static final double RESIDUE_ULPS = 1024;
+
+  /**
+   * Receives the accumulated sum of a series when draining.
+   */
+  @FunctionalInterface
+  public interface Sink {
+    /**
+     * @param name   The name of the delta counter.
+     * @param value  The sum of the increments since the series was last drained.
+     * @param source The source of the delta counter.
+     * @param tags   The tags of the delta counter.
+     * @throws IOException if the sum could not be reported.
+     */
+    void accept(String name, double value, @Nullable String source,
+                @Nullable Map<String, String> tags) throws IOException;
+  }
+
+  private final int maxSeries;
+  private final ConcurrentHashMap<SeriesKey, Series> series = new ConcurrentHashMap<>();
+  private List<Map.Entry<SeriesKey, Series>> retired = new ArrayList<>();
+
+  /**
+   * @param maxSeries The max number of series accumulated at the same time. Increments of
+   *                  further series are rejected until idle series are drained.
+   */
+  public DeltaCounterAccumulator(int maxSeries) {
+    if (maxSeries < 1) {
+      throw new IllegalArgumentException("maxSeries must be positive: " + maxSeries);
+    }
+    this.maxSeries = maxSeries;
+  }
+
+  /**
+   * Adds an increment to a series.
+   *
+   * @param name   The name of the delta counter, including its delta prefix.
+   * @param value  The increment.
+   * @param source The source of the delta counter.
+   * @param tags   The tags of the delta counter. They are copied when a new series is created.
+   * @return true if the increment was accumulated, false if the series is new and the max number
+   * of series has been reached, in which case the caller should report the increment itself.
+   */
+  public boolean add(String name, double value, @Nullable String source,
+                     @Nullable Map<String, String> tags) {
+    SeriesKey key = new SeriesKey(name, source, tags);
+    while (true) {
+      Series current = series.get(key);
+      if (current == null) {
+        if (series.size() >= maxSeries) {
+          return false;
+        }
+        current = series.computeIfAbsent(key.copy(), k -> new Series());
+      }
+      current.started.increment();
+      try {
+        if (!current.retired) {
+          current.sum.add(value);
+          return true;
+        }
+      } finally {
+        current.finished.increment();
+      }
+      // Retired concurrently, start a new series
+      series.remove(key, current);
+    }
+  }
+
+  /**
+   * Passes the sum accumulated by every series since the last drain to the given sink. Series
+   * that did not change since the last drain are removed, as are series the sink rejects with an
+   * {@link IllegalArgumentException}.
+   *
+   * @param sink The sink that reports accumulated sums.
+   * @throws IOException if the sink fails to report a sum. The sum is kept and reported by the
+   *                     next drain, and the series after it are left for the next drain.
+   */
+  public synchronized void drain(Sink sink) throws IOException {
+    List<Map.Entry<SeriesKey, Series>> lateSeries = retired;
+    retired = new ArrayList<>();
+    for (int i = 0; i < lateSeries.size(); i++) {
+      Map.Entry<SeriesKey, Series> entry = lateSeries.get(i);
+      SeriesKey key = entry.getKey();
+      Series late = entry.getValue();
+      // Increments started after the series was retired see the flag and move on, so once the
+      // finished ones catch up with the started ones, the sum is final
+      long finished = late.finished.sum();
+      if (late.started.sum() != finished) {
+        retired.add(entry);
+        continue;
+      }
+      double lateSum = late.sum.sum();
+      if (late.isResidue(lateSum)) {
+        continue;
+      }
+      try {
+        sink.accept(key.name, lateSum, key.source, key.tags);
+      } catch (IllegalArgumentException e) {
+        // The series can never be reported, drop its sum
+      } catch (IOException e) {
+        retired.addAll(lateSeries.subList(i, lateSeries.size()));
+        throw e;
+      }
+    }
+    for (Map.Entry<SeriesKey, Series> entry : series.entrySet()) {
+      SeriesKey key = entry.getKey();
+      Series current = entry.getValue();
+      double sum = current.sum.sum();
+      if (current.isResidue(sum)) {
+        // Idle for a whole interval. Increments racing with the removal still land in the retired
+        // series, so keep it around until the next drain reports them.
+        current.retired = true;
+        if (series.remove(key, current)) {
+          retired.add(entry);
+        }
+        continue;
+      }
+      current.sum.add(-sum);
+      current.scale = Math.max(current.scale, Math.abs(sum));
+      try {
+        sink.accept(key.name, sum, key.source, key.tags);
+      } catch (IllegalArgumentException e) {
+        // The series can never be reported, stop accumulating it
+        series.remove(key, current);
+      } catch (IOException e) {
+        current.sum.add(sum);
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * @return the number of series currently accumulated.
+   */
+  public int size() {
+    return series.size();
+  }
+
+  private static final class Series {
+    final DoubleAdder sum = new DoubleAdder();
+    final LongAdder started = new LongAdder();
+    final LongAdder finished = new LongAdder();
+    volatile boolean retired;
+    // The magnitude of the largest sum drained, only accessed while draining
+    double scale;
+
+    boolean isResidue(double value) {
+      return Math.abs(value) <= RESIDUE_ULPS * Math.ulp(scale);
+    }
+  }
+}
@@ -0,0 +1,207 @@
+package com.wavefront.sdk.entities.metrics;
+
+import com.wavefront.sdk.common.annotation.Nullable;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Coalesces the values of gauges reported several times within a flush window, so that each
+ * series is reported at most once per window.
+ *
+ * By default the last value of the window wins. A {@link Rollup} can instead report the min, max
+ * or average of the values seen in the window. The timestamp reported is the one that came with
+ * the last value.
+ */
+public class GaugeCoalescer {
+
+  /**
+   * The value reported for a series that received several values within a window.
+   */
+  public enum Rollup {
+    /**
+     * The last value received.
+     */
+    LAST,
+    /**
+     * The smallest value received.
+     */
+    MIN,
+    /**
+     * The largest value received.
+     */
+    MAX,
+    /**
+     * The average of the values received.
+     */
+    AVG
+  }
+
+  /**
+   * Receives the coalesced value of a series when draining.
+   */
+  @FunctionalInterface
+  public interface Sink {
+    /**
+     * @param name      The name of the gauge.
+     * @param value     The coalesced value of the window.
+     * @param timestamp The timestamp of the last value of the window.
+     * @param source    The source of the gauge.
+     * @param tags      The tags of the gauge.
+     * @throws IOException if the value could not be reported.
+     */
+    void accept(String name, double value, @Nullable Long timestamp, @Nullable String source,
+                @Nullable Map<String, String> tags) throws IOException;
+  }
+
+  private final int maxSeries;
+  private final Rollup rollup;
+  private final ConcurrentHashMap<SeriesKey, Window> series = new ConcurrentHashMap<>();
+
+  /**
+   * @param maxSeries The max number of series coalesced within a window. Values of further
+   *                  series are rejected until the window is drained.
+   * @param rollup    The value reported for each series.
+   */
+  public GaugeCoalescer(int maxSeries, Rollup rollup) {
+    if (maxSeries < 1) {
+      throw new IllegalArgumentException("maxSeries must be positive: " + maxSeries);
+    }
+    this.maxSeries = maxSeries;
+    this.rollup = rollup;
+  }
+
+  /**
+   * Adds a value to the current window of a series.
+   *
+   * @param name      The name of the gauge.
+   * @param value     The value.
+   * @param timestamp The timestamp of the value, or null to let Wavefront assign it.
+   * @param source    The source of the gauge.
+   * @param tags      The tags of the gauge. They are copied when a new series is created.
+   * @return true if the value was coalesced, false if the series is new and the max number of
+   * series has been reached, in which case the caller should report the value itself.
+   */
+  public boolean add(String name, double value, @Nullable Long timestamp,
+                     @Nullable String source, @Nullable Map<String, String> tags) {
+    SeriesKey key = new SeriesKey(name, source, tags);
+    while (true) {
+      Window window = series.get(key);
+      if (window == null) {
+        if (series.size() >= maxSeries) {
+          return false;
+        }
+        window = series.computeIfAbsent(key.copy(), k -> new Window());
+      }
+      if (window.add(value, timestamp)) {
+        return true;
+      }
+      // The window was drained concurrently, start the next one
+    }
+  }
+
+  /**
+   * Ends the current window: passes the coalesced value of every series to the given sink, and
+   * starts a new window. Concurrent drains are serialized, so that each window is reported once.
+   *
+   * @param sink The sink that reports coalesced values.
+   * @throws IOException if the sink fails to report a value. That series and the ones after it
+   *                     are kept and reported by the next drain.
+   */
+  public synchronized void drain(Sink sink) throws IOException {
+    for (Map.Entry<SeriesKey, Window> entry : series.entrySet()) {
+      SeriesKey key = entry.getKey();
+      Window window = entry.getValue();
+      if (!series.remove(key, window)) {
+        continue;
+      }
+      double value;
+      Long timestamp;
+      synchronized (window) {
+        window.drained = true;
+        timestamp = window.timestamp;
+        switch (rollup) {
+          case MIN:
+            value = window.min;
+            break;
+          case MAX:
+            value = window.max;
+            break;
+          case AVG:
+            value = window.sum / window.count;
+            break;
+          default:
+            value = window.last;
+        }
+      }
+      try {
+        sink.accept(key.name, value, timestamp, key.source, key.tags);
+      } catch (IllegalArgumentException e) {
+        // The series can never be reported, drop its value
+      } catch (IOException e) {
+        restore(key, window);
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * Puts back a drained window that could not be reported, merged with the values the series
+   * received since.
+   */
+  private void restore(SeriesKey key, Window drained) {
+    Window restored = new Window();
+    restored.mergeOlder(drained);
+    series.merge(key, restored, (newer, older) -> {
+      newer.mergeOlder(older);
+      return newer;
+    });
+  }
+
+  /**
+   * @return the number of series in the current window.
+   */
+  public int size() {
+    return series.size();
+  }
+
+  private static final class Window {
+    double last;
+    double min = Double.POSITIVE_INFINITY;
+    double max = Double.NEGATIVE_INFINITY;
+    double sum;
+    long count;
+    @Nullable
+    Long timestamp;
+    boolean drained;
+
+    synchronized boolean add(double value, @Nullable Long valueTimestamp) {
+      if (drained) {
+        return false;
+      }
+      last = value;
+      min = Math.min(min, value);
+      max = Math.max(max, value);
+      sum += value;
+      count++;
+      timestamp = valueTimestamp;
+      return true;
+    }
+
+    /**
+     * Adds the values of a window that ended before this one started, so the last value of this
+     * window still wins.
+     */
+    synchronized void mergeOlder(Window older) {
+      if (count == 0) {
+        last = older.last;
+        timestamp = older.timestamp;
+      }
+      min = Math.min(min, older.min);
+      max = Math.max(max, older.max);
+      sum += older.sum;
+      count += older.count;
+    }
+  }
+}
@@ -0,0 +1,60 @@
+package com.wavefront.sdk.entities.metrics;
+
+import com.wavefront.sdk.common.annotation.Nullable;
+
+import java.util.Map;
+
+/**
+ * A metric point, for sending many points at once with
+ * {@link WavefrontMetricSender#sendMetrics(java.util.Collection)}.
+ */
+public class Metric {
+  private final String name;
+  private final double value;
+  @Nullable
+  private final Long timestamp;
+  @Nullable
+  private final String source;
+  @Nullable
+  private final Map<String, String> tags;
+
+  /**
+   * @param name      The name of the metric.
+   * @param value     The value of the point.
+   * @param timestamp The timestamp in milliseconds since the epoch, or null to let Wavefront
+   *                  assign it when the point is received.
+   * @param source    The source (or host) of the metric, or null to use the sender's default.
+   * @param tags      The tags associated with the metric.
+   */
+  public Metric(String name, double value, @Nullable Long timestamp, @Nullable String source,
+                @Nullable Map<String, String> tags) {
+    this.name = name;
+    this.value = value;
+    this.timestamp = timestamp;
+    this.source = source;
+    this.tags = tags;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public double getValue() {
+    return value;
+  }
+
+  @Nullable
+  public Long getTimestamp() {
+    return timestamp;
+  }
+
+  @Nullable
+  public String getSource() {
+    return source;
+  }
+
+  @Nullable
+  public Map<String, String> getTags() {
+    return tags;
+  }
+}
@@ -0,0 +1,26 @@
+package com.wavefront.sdk.entities.metrics;
+
+import com.wavefront.sdk.common.annotation.Nullable;
+
+import java.io.IOException;
+
+/**
+ * A handle to send points of a metric series whose name, source and tags were validated and
+ * encoded once, when the handle was created with
+ * {@link WavefrontMetricSender#preparePoint(String, String, java.util.Map)}. Sending a point then
+ * only encodes its value and timestamp.
+ *
+ * Handles are thread-safe and meant to be kept and reused for the lifetime of their sender.
+ */
+public interface PreparedPoint {
+
+  /**
+   * Sends a point of the series to Wavefront.
+   *
+   * @param value     The value to be sent.
+   * @param timestamp The timestamp in milliseconds since the epoch to be sent. If null then the
+   *                  timestamp is assigned by Wavefront when data is received.
+   * @throws IOException if there was an error sending the point.
+   */
+  void send(double value, @Nullable Long timestamp) throws IOException;
+}
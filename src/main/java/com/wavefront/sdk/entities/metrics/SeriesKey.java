@@ -0,0 +1,45 @@
+package com.wavefront.sdk.entities.metrics;
+
+import com.wavefront.sdk.common.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Identifies a metric series by its name, source and tags.
+ */
+final class SeriesKey {
+  final String name;
+  @Nullable
+  final String source;
+  @Nullable
+  final Map<String, String> tags;
+  final int hashCode;
+
+  SeriesKey(String name, @Nullable String source, @Nullable Map<String, String> tags) {
+    this.name = name;
+    this.source = source;
+    this.tags = tags;
+    this.hashCode = Objects.hash(name, source, tags);
+  }
+
+  SeriesKey copy() {
+    return tags == null ? this : new SeriesKey(name, source, new HashMap<>(tags));
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (obj instanceof SeriesKey) {
+      SeriesKey key = (SeriesKey) obj;
+      return hashCode == key.hashCode && name.equals(key.name) &&
+          Objects.equals(source, key.source) && Objects.equals(tags, key.tags);
+    }
+    return false;
+  }
+
+  @Override
+  public int hashCode() {
+    return hashCode;
+  }
+}
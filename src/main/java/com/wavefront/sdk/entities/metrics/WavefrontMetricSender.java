@@ -3,6 +3,8 @@ package com.wavefront.sdk.entities.metrics;
 import com.wavefront.sdk.common.annotation.Nullable;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Map;
 
 import static com.wavefront.sdk.common.Constants.DELTA_PREFIX;
@@ -40,6 +42,55 @@ public interface WavefrontMetricSender {
    */
   void sendFormattedMetric(String point) throws IOException;
 
+  /**
+   * Sends the given metrics to Wavefront. Senders that support it enqueue all the metrics at
+   * once, which costs less than sending them one by one. By default each metric is sent with
+   * {@link #sendMetric(String, double, Long, String, Map)}. Invalid metrics are skipped, and the
+   * valid ones are still sent.
+   *
+   * @param metrics The metrics to send.
+   * @throws IOException if there was an error sending the metrics.
+   * @throws IllegalArgumentException if any metric is invalid, after the valid metrics were sent.
+   */
+  default void sendMetrics(Collection<Metric> metrics) throws IOException {
+    IllegalArgumentException invalid = null;
+    for (Metric metric : metrics) {
+      try {
+        sendMetric(metric.getName(), metric.getValue(), metric.getTimestamp(), metric.getSource(),
+            metric.getTags());
+      } catch (IllegalArgumentException e) {
+        if (invalid == null) {
+          invalid = e;
+        }
+      }
+    }
+    if (invalid != null) {
+      throw invalid;
+    }
+  }
+
+  /**
+   * Prepares a handle to send points of the given series. Senders that support it validate and
+   * sanitize the name, source and tags once, so that each point sent through the handle only
+   * needs its value and timestamp to be encoded. By default the handle sends each point with
+   * {@link #sendMetric(String, double, Long, String, Map)}.
+   *
+   * @param name   The name of the metric. Spaces are replaced with '-' (dashes) and quotes will
+   *               be automatically escaped.
+   * @param source The source (or host) that's sending the metric. If null then assigned by
+   *               Wavefront.
+   * @param tags   The tags associated with this metric. They are copied, so later changes to the
+   *               map are not reflected in the handle.
+   * @return a handle to send points of the series.
+   * @throws IllegalArgumentException if the name, source or a tag is invalid, for senders that
+   *                                  validate them when preparing the handle.
+   */
+  default PreparedPoint preparePoint(String name, @Nullable String source,
+                                     @Nullable Map<String, String> tags) {
+    Map<String, String> tagsCopy = tags == null ? null : new HashMap<>(tags);
+    return (value, timestamp) -> sendMetric(name, value, timestamp, source, tagsCopy);
+  }
+
   /**
    * Sends the given delta counter to Wavefront. Use this method so that the timestamp for the delta counter
    * is assigned when the delta counter hits Wavefront server.
@@ -0,0 +1,103 @@
+package com.wavefront.sdk.entities.tracing;
+
+import com.wavefront.sdk.common.Pair;
+import com.wavefront.sdk.common.annotation.Nullable;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A tracing span, for sending many spans at once with
+ * {@link WavefrontTracingSpanSender#sendSpans(java.util.Collection)}.
+ */
+public class Span {
+  private final String name;
+  private final long startMillis;
+  private final long durationMillis;
+  @Nullable
+  private final String source;
+  private final UUID traceId;
+  private final UUID spanId;
+  @Nullable
+  private final List<UUID> parents;
+  @Nullable
+  private final List<UUID> followsFrom;
+  @Nullable
+  private final List<Pair<String, String>> tags;
+  @Nullable
+  private final List<SpanLog> spanLogs;
+
+  /**
+   * @param name           The operation name of the span.
+   * @param startMillis    The start time in milliseconds since the epoch.
+   * @param durationMillis The duration of the span in milliseconds.
+   * @param source         The source (or host) that emitted the span, or null to use the
+   *                       sender's default.
+   * @param traceId        The unique trace ID for the span.
+   * @param spanId         The unique span ID for the span.
+   * @param parents        The span IDs of the parents of the span.
+   * @param followsFrom    The span IDs of the spans this span follows from.
+   * @param tags           The span tags.
+   * @param spanLogs       The span logs.
+   */
+  public Span(String name, long startMillis, long durationMillis, @Nullable String source,
+              UUID traceId, UUID spanId, @Nullable List<UUID> parents,
+              @Nullable List<UUID> followsFrom, @Nullable List<Pair<String, String>> tags,
+              @Nullable List<SpanLog> spanLogs) {
+    this.name = name;
+    this.startMillis = startMillis;
+    this.durationMillis = durationMillis;
+    this.source = source;
+    this.traceId = traceId;
+    this.spanId = spanId;
+    this.parents = parents;
+    this.followsFrom = followsFrom;
+    this.tags = tags;
+    this.spanLogs = spanLogs;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public long getStartMillis() {
+    return startMillis;
+  }
+
+  public long getDurationMillis() {
+    return durationMillis;
+  }
+
+  @Nullable
+  public String getSource() {
+    return source;
+  }
+
+  public UUID getTraceId() {
+    return traceId;
+  }
+
+  public UUID getSpanId() {
+    return spanId;
+  }
+
+  @Nullable
+  public List<UUID> getParents() {
+    return parents;
+  }
+
+  @Nullable
+  public List<UUID> getFollowsFrom() {
+    return followsFrom;
+  }
+
+  @Nullable
+  public List<Pair<String, String>> getTags() {
+    return tags;
+  }
+
+  @Nullable
+  public List<SpanLog> getSpanLogs() {
+    return spanLogs;
+  }
+}
@@ -4,6 +4,7 @@ import com.wavefront.sdk.common.Pair;
 import com.wavefront.sdk.common.annotation.Nullable;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.List;
 import java.util.UUID;
 
@@ -35,4 +36,31 @@ public interface WavefrontTracingSpanSender {
                 @Nullable List<UUID> followsFrom, @Nullable List<Pair<String, String>> tags,
                 @Nullable List<SpanLog> spanLogs)
       throws IOException;
+
+  /**
+   * Send trace spans to Wavefront. Senders that support it enqueue all the spans at once, which
+   * costs less than sending them one by one. By default each span is sent with
+   * {@link #sendSpan}. Invalid spans are skipped, and the valid ones are still sent.
+   *
+   * @param spans               The spans to send.
+   * @throws IOException        If there was an error sending the spans.
+   * @throws IllegalArgumentException If any span is invalid, after the valid spans were sent.
+   */
+  default void sendSpans(Collection<Span> spans) throws IOException {
+    IllegalArgumentException invalid = null;
+    for (Span span : spans) {
+      try {
+        sendSpan(span.getName(), span.getStartMillis(), span.getDurationMillis(),
+            span.getSource(), span.getTraceId(), span.getSpanId(), span.getParents(),
+            span.getFollowsFrom(), span.getTags(), span.getSpanLogs());
+      } catch (IllegalArgumentException e) {
+        if (invalid == null) {
+          invalid = e;
+        }
+      }
+    }
+    if (invalid != null) {
+      throw invalid;
+    }
+  }
 }
@@ -1,6 +1,7 @@
 package com.wavefront.sdk.proxy;
 
 import com.wavefront.sdk.common.BufferFlusher;
+import com.wavefront.sdk.common.ProxySocket;
 import com.wavefront.sdk.common.ReconnectingSocket;
 import com.wavefront.sdk.common.metrics.WavefrontSdkDeltaCounter;
 import com.wavefront.sdk.common.metrics.WavefrontSdkMetricsRegistry;
@@ -9,6 +10,8 @@ import javax.net.SocketFactory;
 import java.io.Closeable;
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Callable;
 
 /**
  * Connection Handler class for sending data to a Wavefront proxy listening on a given port.
@@ -19,9 +22,9 @@ import java.net.InetSocketAddress;
 @Deprecated
 public class ProxyConnectionHandler implements BufferFlusher, Closeable {
 
-  private final InetSocketAddress address;
-  private final SocketFactory socketFactory;
-  private volatile ReconnectingSocket reconnectingSocket;
+  // Opens the socket to the proxy
+  private final Callable<ProxySocket> socketOpener;
+  private volatile ProxySocket reconnectingSocket;
 
   private final WavefrontSdkMetricsRegistry sdkMetricsRegistry;
   private String entityPrefix;
@@ -30,23 +33,36 @@ public class ProxyConnectionHandler implements BufferFlusher, Closeable {
 
   ProxyConnectionHandler(InetSocketAddress address, SocketFactory socketFactory,
                          WavefrontSdkMetricsRegistry sdkMetricsRegistry, String entityPrefix) {
-    this.address = address;
-    this.socketFactory = socketFactory;
+    this(() -> new ReconnectingSocket(address, socketFactory, sdkMetricsRegistry,
+        normalizePrefix(entityPrefix) + "socket"), sdkMetricsRegistry, entityPrefix);
+  }
+
+  /**
+   * @param socketOpener       Opens the socket to the proxy.
+   * @param sdkMetricsRegistry The registry for internal metrics.
+   * @param entityPrefix       A prefix for internal metrics pertaining to this handler.
+   */
+  ProxyConnectionHandler(Callable<ProxySocket> socketOpener,
+                         WavefrontSdkMetricsRegistry sdkMetricsRegistry, String entityPrefix) {
+    this.socketOpener = socketOpener;
     this.reconnectingSocket = null;
 
     this.sdkMetricsRegistry = sdkMetricsRegistry;
-    this.entityPrefix = entityPrefix == null || entityPrefix.isEmpty() ? "" : entityPrefix + ".";
+    this.entityPrefix = normalizePrefix(entityPrefix);
     errors = this.sdkMetricsRegistry.newDeltaCounter(this.entityPrefix + "errors");
     connectErrors = this.sdkMetricsRegistry.newDeltaCounter(this.entityPrefix + "connect.errors");
   }
 
+  private static String normalizePrefix(String entityPrefix) {
+    return entityPrefix == null || entityPrefix.isEmpty() ? "" : entityPrefix + ".";
+  }
+
   synchronized void connect() throws IllegalStateException, IOException {
     if (reconnectingSocket != null) {
       throw new IllegalStateException("Already connected");
     }
     try {
-      reconnectingSocket = new ReconnectingSocket(address, socketFactory, sdkMetricsRegistry,
-          entityPrefix + "socket");
+      reconnectingSocket = socketOpener.call();
     } catch (Exception e) {
       connectErrors.inc();
       throw new IOException(e);
@@ -88,6 +104,24 @@ public class ProxyConnectionHandler implements BufferFlusher, Closeable {
    * @throws Exception If there was failure sending the data
    */
   void sendData(String lineData) throws Exception {
+    byte[] data = lineData.getBytes(StandardCharsets.UTF_8);
+    sendData(data, 0, data.length);
+  }
+
+  /**
+   * Sends the given UTF-8 encoded data to the WavefrontProxyClient proxy.
+   *
+   * @param data   buffer holding line data in a WavefrontProxyClient supported format
+   * @param offset position of the first byte to send
+   * @param length number of bytes to send
+   * @throws Exception If there was failure sending the data
+   */
+  void sendData(byte[] data, int offset, int length) throws Exception {
+    connectIfNeeded();
+    reconnectingSocket.write(data, offset, length);
+  }
+
+  private void connectIfNeeded() throws IOException {
     if (!isConnected()) {
       try {
         connect();
@@ -95,6 +129,5 @@ public class ProxyConnectionHandler implements BufferFlusher, Closeable {
         // already connected.
       }
     }
-    reconnectingSocket.write(lineData);
   }
 }
@@ -2,22 +2,36 @@ package com.wavefront.sdk.proxy;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.wavefront.sdk.common.Constants;
+import com.wavefront.sdk.common.LineEncoder;
+import com.wavefront.sdk.common.SpanLogsEncoder;
 import com.wavefront.sdk.common.NamedThreadFactory;
+import com.wavefront.sdk.common.NioReconnectingSocket;
 import com.wavefront.sdk.common.Pair;
+import com.wavefront.sdk.common.QueuedProxySocket;
 import com.wavefront.sdk.common.Utils;
 import com.wavefront.sdk.common.WavefrontSender;
 import com.wavefront.sdk.common.annotation.Nullable;
 import com.wavefront.sdk.common.clients.WavefrontClientFactory;
+import com.wavefront.sdk.common.clients.buffer.BufferFullPolicy;
+import com.wavefront.sdk.common.clients.buffer.BufferType;
+import com.wavefront.sdk.common.clients.buffer.ByteBudget;
 import com.wavefront.sdk.common.metrics.WavefrontSdkDeltaCounter;
 import com.wavefront.sdk.common.metrics.WavefrontSdkMetricsRegistry;
+import com.wavefront.sdk.entities.histograms.Distribution;
 import com.wavefront.sdk.entities.histograms.HistogramGranularity;
+import com.wavefront.sdk.entities.metrics.DeltaCounterAccumulator;
+import com.wavefront.sdk.entities.metrics.Metric;
+import com.wavefront.sdk.entities.tracing.Span;
 import com.wavefront.sdk.entities.tracing.SpanLog;
 
+import java.io.File;
 import java.io.IOException;
 import java.lang.management.ManagementFactory;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -31,10 +45,11 @@ import java.util.logging.Logger;
 
 import javax.net.SocketFactory;
 
-import static com.wavefront.sdk.common.Utils.histogramToLineData;
-import static com.wavefront.sdk.common.Utils.metricToLineData;
-import static com.wavefront.sdk.common.Utils.spanLogsToLineData;
-import static com.wavefront.sdk.common.Utils.tracingSpanToLineData;
+import static com.wavefront.sdk.common.Constants.DELTA_PREFIX;
+import static com.wavefront.sdk.common.Constants.DELTA_PREFIX_2;
+import static com.wavefront.sdk.common.Utils.appendHistogramLines;
+import static com.wavefront.sdk.common.Utils.appendMetricLine;
+import static com.wavefront.sdk.common.Utils.appendSpanLine;
 
 /**
  * WavefrontProxyClient that sends data directly via TCP to the Wavefront Proxy Agent.
@@ -67,7 +82,14 @@ public class WavefrontProxyClient implements WavefrontSender, Runnable {
   private final String clientId;
 
   private final ScheduledExecutorService scheduler;
+  // Sums delta counter increments between flushes, or null if delta counters are not accumulated
+  @Nullable
+  private final DeltaCounterAccumulator deltaCounters;
+  private final SpanLogsEncoder spanLogsEncoder;
   private final WavefrontSdkMetricsRegistry sdkMetricsRegistry;
+  // Bounds the bytes queued for all ports combined, or null if writes are not queued
+  @Nullable
+  private final ByteBudget totalQueueBytes;
 
   // Internal point metrics
   private final WavefrontSdkDeltaCounter pointsDiscarded;
@@ -106,6 +128,22 @@ public class WavefrontProxyClient implements WavefrontSender, Runnable {
     private Integer tracingPort;
     private SocketFactory socketFactory = SocketFactory.getDefault();
     private int flushIntervalSeconds = 5;
+    private boolean accumulateDeltaCounters = false;
+    private int maxDeltaCounterSeries = 10000;
+    private SpanLogsEncoder spanLogsEncoder = SpanLogsEncoder.DEFAULT;
+    private boolean nonBlockingWrites = false;
+    private long socketBufferBytes = 4 * 1024 * 1024;
+    private BufferFullPolicy bufferFullPolicy = BufferFullPolicy.DROP;
+    private long bufferFullTimeoutMillis = 100;
+    private File spillDirectory = null;
+    private long maxSpillBytes = 256L * 1024 * 1024;
+    private boolean queuedWrites = false;
+    private int maxQueueSize = 500000;
+    private long maxQueueBytes = Long.MAX_VALUE;
+    private long maxTotalQueueBytes = Long.MAX_VALUE;
+    private BufferType bufferType = BufferType.LINKED_QUEUE;
+    private long minReconnectDelayMillis = 100;
+    private long maxReconnectDelayMillis = 30000;
 
     /**
      * WavefrontProxyClient.Builder
@@ -171,12 +209,238 @@ public class WavefrontProxyClient implements WavefrontSender, Runnable {
       return this;
     }
 
+    /**
+     * Accumulate delta counters on the client. Increments of the same delta counter, source and
+     * tags sent without a timestamp are then summed in memory and sent to the proxy as a single
+     * point once per flush interval. Accumulation is disabled by default.
+     *
+     * @param accumulateDeltaCounters Whether to accumulate delta counters on the client
+     * @return {@code this}
+     */
+    public Builder accumulateDeltaCounters(boolean accumulateDeltaCounters) {
+      this.accumulateDeltaCounters = accumulateDeltaCounters;
+      return this;
+    }
+
+    /**
+     * Set the max number of delta counter series accumulated at the same time. Increments of
+     * further series are sent on their own. The default is 10000.
+     *
+     * @param maxDeltaCounterSeries Max number of accumulated delta counter series
+     * @return {@code this}
+     */
+    public Builder maxDeltaCounterSeries(int maxDeltaCounterSeries) {
+      if (maxDeltaCounterSeries < 1) {
+        throw new IllegalArgumentException("maxDeltaCounterSeries must be positive: " +
+            maxDeltaCounterSeries);
+      }
+      this.maxDeltaCounterSeries = maxDeltaCounterSeries;
+      return this;
+    }
+
+    /**
+     * Set the encoder of span logs, which can leave out or truncate the copy of the span and
+     * long field values. The default encoder keeps them whole.
+     *
+     * @param spanLogsEncoder The encoder of span logs
+     * @return {@code this}
+     */
+    public Builder spanLogsEncoder(SpanLogsEncoder spanLogsEncoder) {
+      this.spanLogsEncoder = spanLogsEncoder;
+      return this;
+    }
+
+    /**
+     * Write to the proxy from a background thread per port, over a non-blocking socket channel,
+     * so that callers only append to an in-memory buffer and never wait on the network or on a
+     * reconnect. The socket factory is not used in this mode. Disabled by default.
+     *
+     * @param nonBlockingWrites Whether to write to the proxy from a background thread
+     * @return {@code this}
+     */
+    public Builder nonBlockingWrites(boolean nonBlockingWrites) {
+      this.nonBlockingWrites = nonBlockingWrites;
+      return this;
+    }
+
+    /**
+     * Set the max number of bytes buffered in memory per port with
+     * {@link #nonBlockingWrites(boolean)}. The default is 4 MiB.
+     *
+     * @param socketBufferBytes Max number of bytes buffered per port
+     * @return {@code this}
+     */
+    public Builder socketBufferBytes(long socketBufferBytes) {
+      if (socketBufferBytes <= 0) {
+        throw new IllegalArgumentException("socketBufferBytes must be positive: " +
+            socketBufferBytes);
+      }
+      this.socketBufferBytes = socketBufferBytes;
+      return this;
+    }
+
+    /**
+     * Set what happens to data sent while the buffer of a port is full with
+     * {@link #nonBlockingWrites(boolean)}. The default is {@link BufferFullPolicy#DROP}.
+     *
+     * @param bufferFullPolicy The policy applied when the buffer is full
+     * @return {@code this}
+     */
+    public Builder bufferFullPolicy(BufferFullPolicy bufferFullPolicy) {
+      this.bufferFullPolicy = bufferFullPolicy;
+      return this;
+    }
+
+    /**
+     * Set how long a caller waits for room in a full buffer under
+     * {@link BufferFullPolicy#BLOCK}. The default is 100 milliseconds.
+     *
+     * @param timeout Max time to wait
+     * @param unit    Unit of the time
+     * @return {@code this}
+     */
+    public Builder bufferFullTimeout(long timeout, TimeUnit unit) {
+      if (timeout < 0) {
+        throw new IllegalArgumentException("timeout must not be negative: " + timeout);
+      }
+      this.bufferFullTimeoutMillis = unit.toMillis(timeout);
+      return this;
+    }
+
+    /**
+     * Set the directory data is spilled to under {@link BufferFullPolicy#SPILL}, in a
+     * subdirectory per port.
+     *
+     * @param spillDirectory The spill directory
+     * @return {@code this}
+     */
+    public Builder spillDirectory(File spillDirectory) {
+      this.spillDirectory = spillDirectory;
+      return this;
+    }
+
+    /**
+     * Set the max number of bytes spilled to disk per port. The default is 256 MiB.
+     *
+     * @param maxSpillBytes Max number of bytes spilled per port
+     * @return {@code this}
+     */
+    public Builder maxSpillBytes(long maxSpillBytes) {
+      if (maxSpillBytes <= 0) {
+        throw new IllegalArgumentException("maxSpillBytes must be positive: " + maxSpillBytes);
+      }
+      this.maxSpillBytes = maxSpillBytes;
+      return this;
+    }
+
+    /**
+     * Queue data in memory, like {@link com.wavefront.sdk.common.clients.WavefrontClient} does,
+     * and send it to the proxy from a background thread per port, which batches the queued lines
+     * into large socket writes and reconnects with a bounded exponential backoff. Callers never
+     * wait on the network or on a reconnect, and data sent while the queue is full is dropped.
+     * Unlike {@link #nonBlockingWrites(boolean)}, this mode uses the socket factory. Disabled by
+     * default.
+     *
+     * @param queuedWrites Whether to queue data and send it from a background thread
+     * @return {@code this}
+     */
+    public Builder queuedWrites(boolean queuedWrites) {
+      this.queuedWrites = queuedWrites;
+      return this;
+    }
+
+    /**
+     * Set the max number of lines queued per port with {@link #queuedWrites(boolean)}. The
+     * default is 500000.
+     *
+     * @param maxQueueSize Max number of lines queued per port
+     * @return {@code this}
+     */
+    public Builder maxQueueSize(int maxQueueSize) {
+      if (maxQueueSize < 1) {
+        throw new IllegalArgumentException("maxQueueSize must be positive: " + maxQueueSize);
+      }
+      this.maxQueueSize = maxQueueSize;
+      return this;
+    }
+
+    /**
+     * Set the max number of bytes queued per port with {@link #queuedWrites(boolean)}. There is
+     * no byte limit by default.
+     *
+     * @param maxQueueBytes Max number of bytes queued per port
+     * @return {@code this}
+     */
+    public Builder maxQueueBytes(long maxQueueBytes) {
+      if (maxQueueBytes <= 0) {
+        throw new IllegalArgumentException("maxQueueBytes must be positive: " + maxQueueBytes);
+      }
+      this.maxQueueBytes = maxQueueBytes;
+      return this;
+    }
+
+    /**
+     * Set the max number of bytes queued for all ports combined with
+     * {@link #queuedWrites(boolean)}. There is no byte limit by default.
+     *
+     * @param maxTotalQueueBytes Max number of bytes queued for all ports combined
+     * @return {@code this}
+     */
+    public Builder maxTotalQueueBytes(long maxTotalQueueBytes) {
+      if (maxTotalQueueBytes <= 0) {
+        throw new IllegalArgumentException("maxTotalQueueBytes must be positive: " +
+            maxTotalQueueBytes);
+      }
+      this.maxTotalQueueBytes = maxTotalQueueBytes;
+      return this;
+    }
+
+    /**
+     * Set the type of in-memory queue used with {@link #queuedWrites(boolean)}. The default is
+     * {@link BufferType#LINKED_QUEUE}.
+     *
+     * @param bufferType The type of in-memory queue
+     * @return {@code this}
+     */
+    public Builder bufferType(BufferType bufferType) {
+      this.bufferType = bufferType;
+      return this;
+    }
+
+    /**
+     * Set the delay before the background thread reconnects to the proxy after the first
+     * failure with {@link #queuedWrites(boolean)}, which doubles on each further failure up to
+     * the given max. The defaults are 100 milliseconds and 30 seconds.
+     *
+     * @param minDelay Delay after the first failure
+     * @param maxDelay Max delay between attempts
+     * @param unit     Unit of the delays
+     * @return {@code this}
+     */
+    public Builder reconnectBackoff(long minDelay, long maxDelay, TimeUnit unit) {
+      if (minDelay <= 0 || maxDelay < minDelay) {
+        throw new IllegalArgumentException("Invalid reconnect backoff: " + minDelay + " to " +
+            maxDelay);
+      }
+      this.minReconnectDelayMillis = unit.toMillis(minDelay);
+      this.maxReconnectDelayMillis = unit.toMillis(maxDelay);
+      return this;
+    }
+
     /**
      * Builds WavefrontProxyClient instance
      *
      * @return {@link WavefrontProxyClient}
      */
     public WavefrontProxyClient build() {
+      if (nonBlockingWrites && queuedWrites) {
+        throw new IllegalArgumentException("nonBlockingWrites and queuedWrites cannot be " +
+            "enabled together");
+      }
+      if (nonBlockingWrites && bufferFullPolicy == BufferFullPolicy.SPILL &&
+          spillDirectory == null) {
+        throw new IllegalArgumentException("The SPILL policy requires a spill directory");
+      }
       return new WavefrontProxyClient(this);
     }
   }
@@ -197,35 +461,42 @@ public class WavefrontProxyClient implements WavefrontSender, Runnable {
         tag(Constants.PROCESS_TAG_KEY, processId).
         build();
 
+    if (builder.queuedWrites) {
+      totalQueueBytes = new ByteBudget(builder.maxTotalQueueBytes);
+      sdkMetricsRegistry.newGauge("queue.bytes", totalQueueBytes::used);
+    } else {
+      totalQueueBytes = null;
+    }
+
     String uniqueId = builder.proxyHostName + ":";
     if (builder.metricsPort == null) {
       metricsProxyConnectionHandler = null;
     } else {
-      metricsProxyConnectionHandler = new ProxyConnectionHandler(
-          new InetSocketAddress(builder.proxyHostName, builder.metricsPort),
-          builder.socketFactory, sdkMetricsRegistry, "metricHandler");
+      metricsProxyConnectionHandler = newConnectionHandler(builder, builder.metricsPort,
+          "metricHandler");
       uniqueId += builder.metricsPort + ":";
     }
 
     if (builder.distributionPort == null) {
       histogramProxyConnectionHandler = null;
     } else {
-      histogramProxyConnectionHandler = new ProxyConnectionHandler(
-          new InetSocketAddress(builder.proxyHostName, builder.distributionPort),
-          builder.socketFactory, sdkMetricsRegistry, "histogramHandler");
+      histogramProxyConnectionHandler = newConnectionHandler(builder, builder.distributionPort,
+          "histogramHandler");
       uniqueId += builder.distributionPort + ":";
     }
 
     if (builder.tracingPort == null) {
       tracingProxyConnectionHandler = null;
     } else {
-      tracingProxyConnectionHandler = new ProxyConnectionHandler(
-          new InetSocketAddress(builder.proxyHostName, builder.tracingPort),
-          builder.socketFactory, sdkMetricsRegistry, "tracingHandler");
+      tracingProxyConnectionHandler = newConnectionHandler(builder, builder.tracingPort,
+          "tracingHandler");
       uniqueId += builder.tracingPort;
     }
 
     this.clientId = uniqueId;
+    deltaCounters = builder.accumulateDeltaCounters ?
+        new DeltaCounterAccumulator(builder.maxDeltaCounterSeries) : null;
+    spanLogsEncoder = builder.spanLogsEncoder;
 
     scheduler = Executors.newScheduledThreadPool(1,
         new NamedThreadFactory("wavefrontProxySender").setDaemon(true));
@@ -253,6 +524,36 @@ public class WavefrontProxyClient implements WavefrontSender, Runnable {
     spanLogsDropped = sdkMetricsRegistry.newDeltaCounter("span_logs.dropped");
   }
 
+  private ProxyConnectionHandler newConnectionHandler(Builder builder, int port,
+                                                      String entityPrefix) {
+    InetSocketAddress address = new InetSocketAddress(builder.proxyHostName, port);
+    if (builder.queuedWrites) {
+      return new ProxyConnectionHandler(() -> new QueuedProxySocket.Builder(address,
+          sdkMetricsRegistry, entityPrefix + ".socket").
+          socketFactory(builder.socketFactory).
+          maxQueueSize(builder.maxQueueSize).
+          maxQueueBytes(builder.maxQueueBytes).
+          sharedQueueBytes(totalQueueBytes).
+          bufferType(builder.bufferType).
+          reconnectBackoff(builder.minReconnectDelayMillis, builder.maxReconnectDelayMillis,
+              TimeUnit.MILLISECONDS).
+          build(), sdkMetricsRegistry, entityPrefix);
+    }
+    if (!builder.nonBlockingWrites) {
+      return new ProxyConnectionHandler(address, builder.socketFactory, sdkMetricsRegistry,
+          entityPrefix);
+    }
+    return new ProxyConnectionHandler(() -> new NioReconnectingSocket.Builder(address,
+        sdkMetricsRegistry, entityPrefix + ".socket").
+        bufferBytes(builder.socketBufferBytes).
+        bufferFullPolicy(builder.bufferFullPolicy).
+        blockTimeout(builder.bufferFullTimeoutMillis, TimeUnit.MILLISECONDS).
+        spillDirectory(builder.spillDirectory == null ? null :
+            new File(builder.spillDirectory, entityPrefix)).
+        maxSpillBytes(builder.maxSpillBytes).
+        build(), sdkMetricsRegistry, entityPrefix);
+  }
+
   @Override
   public String getClientId() {
     return clientId;
@@ -265,6 +566,91 @@ public class WavefrontProxyClient implements WavefrontSender, Runnable {
     if (closed.get()) {
       throw new IOException("attempt to send using closed sender");
     }
+    enqueueMetric(name, value, timestamp, source, tags);
+  }
+
+  @Override
+  public void sendMetrics(Collection<Metric> metrics) throws IOException {
+    if (closed.get()) {
+      throw new IOException("attempt to send using closed sender");
+    }
+    if (metricsProxyConnectionHandler == null) {
+      pointsDiscarded.inc(metrics.size());
+      logger.warning("Can't send data to Wavefront. " +
+          "Please configure metrics port for Wavefront proxy");
+      return;
+    }
+
+    StringBuilder lineData = new StringBuilder();
+    int numValid = 0;
+    IllegalArgumentException invalid = null;
+    for (Metric metric : metrics) {
+      int mark = lineData.length();
+      try {
+        appendMetricLine(lineData, metric.getName(), metric.getValue(), metric.getTimestamp(),
+            metric.getSource(), metric.getTags(), defaultSource);
+        numValid++;
+      } catch (IllegalArgumentException e) {
+        lineData.setLength(mark);
+        if (invalid == null) {
+          invalid = e;
+        }
+      }
+    }
+    pointsValid.inc(numValid);
+    pointsInvalid.inc(metrics.size() - numValid);
+
+    if (numValid > 0) {
+      try {
+        LineEncoder encoded = LineEncoder.get().text(lineData);
+        metricsProxyConnectionHandler.sendData(encoded.array(), 0, encoded.length());
+      } catch (Exception e) {
+        pointsDropped.inc(numValid);
+        metricsProxyConnectionHandler.incrementFailureCount();
+        throw new IOException(e);
+      }
+    }
+    if (invalid != null) {
+      throw invalid;
+    }
+  }
+
+  @Override
+  public void sendDeltaCounter(String name, double value, @Nullable String source,
+                               @Nullable Map<String, String> tags) throws IOException {
+    if (deltaCounters == null) {
+      WavefrontSender.super.sendDeltaCounter(name, value, source, tags);
+      return;
+    }
+    if (closed.get()) {
+      throw new IOException("attempt to send using closed sender");
+    }
+    if (name != null && !name.startsWith(DELTA_PREFIX) && !name.startsWith(DELTA_PREFIX_2)) {
+      name = DELTA_PREFIX + name;
+    }
+    if (value <= 0) {
+      return;
+    }
+    // The accumulator only serializes the series at the next flush, too late to reject it
+    validateMetric(name, source, tags);
+    if (!deltaCounters.add(name, value, source, tags)) {
+      enqueueMetric(name, value, null, source, tags);
+    }
+  }
+
+  private void validateMetric(String name, @Nullable String source,
+                              @Nullable Map<String, String> tags) {
+    try {
+      Utils.validateMetric(name, source, tags, defaultSource);
+    } catch (IllegalArgumentException e) {
+      pointsInvalid.inc();
+      throw e;
+    }
+  }
+
+  private void enqueueMetric(String name, double value, @Nullable Long timestamp,
+                             @Nullable String source, @Nullable Map<String, String> tags)
+      throws IOException {
     if (metricsProxyConnectionHandler == null) {
       pointsDiscarded.inc();
       logger.warning("Can't send data to Wavefront. " +
@@ -272,9 +658,9 @@ public class WavefrontProxyClient implements WavefrontSender, Runnable {
       return;
     }
 
-    String lineData;
+    LineEncoder lineData;
     try {
-      lineData = metricToLineData(name, value, timestamp, source, tags, defaultSource);
+      lineData = LineEncoder.get().metric(name, value, timestamp, source, tags, defaultSource);
       pointsValid.inc();
     } catch (IllegalArgumentException e) {
       pointsInvalid.inc();
@@ -282,7 +668,7 @@ public class WavefrontProxyClient implements WavefrontSender, Runnable {
     }
 
     try {
-      metricsProxyConnectionHandler.sendData(lineData);
+      metricsProxyConnectionHandler.sendData(lineData.array(), 0, lineData.length());
     } catch (Exception e) {
       pointsDropped.inc();
       metricsProxyConnectionHandler.incrementFailureCount();
@@ -312,10 +698,10 @@ public class WavefrontProxyClient implements WavefrontSender, Runnable {
       throw new IllegalArgumentException("point must be non-null and in WF data format");
     }
     pointsValid.inc();
-    String finalPoint = point.endsWith("\n") ? point : point + "\n";
+    LineEncoder lineData = LineEncoder.get().text(point.endsWith("\n") ? point : point + "\n");
 
     try {
-      metricsProxyConnectionHandler.sendData(finalPoint);
+      metricsProxyConnectionHandler.sendData(lineData.array(), 0, lineData.length());
     } catch (Exception e) {
       pointsDropped.inc();
       metricsProxyConnectionHandler.incrementFailureCount();
@@ -339,18 +725,48 @@ public class WavefrontProxyClient implements WavefrontSender, Runnable {
       return;
     }
 
-    String lineData;
+    LineEncoder lineData;
     try {
-      lineData = histogramToLineData(name, centroids, histogramGranularities, timestamp,
+      lineData = LineEncoder.get().histogram(name, centroids, histogramGranularities, timestamp,
           source, tags, defaultSource);
       histogramsValid.inc();
     } catch (IllegalArgumentException e) {
       histogramsInvalid.inc();
       throw e;
     }
+    sendHistogramData(lineData);
+  }
 
+  @Override
+  public void sendDistribution(String name, double[] means, int[] counts,
+                               Set<HistogramGranularity> histogramGranularities,
+                               @Nullable Long timestamp, @Nullable String source,
+                               @Nullable Map<String, String> tags) throws IOException {
+    if (closed.get()) {
+      throw new IOException("attempt to send using closed sender");
+    }
+    if (histogramProxyConnectionHandler == null) {
+      histogramsDiscarded.inc();
+      logger.warning("Can't send data to Wavefront. " +
+          "Please configure histogram distribution port for Wavefront proxy");
+      return;
+    }
+
+    LineEncoder lineData;
     try {
-      histogramProxyConnectionHandler.sendData(lineData);
+      lineData = LineEncoder.get().histogram(name, means, counts, histogramGranularities,
+          timestamp, source, tags, defaultSource);
+      histogramsValid.inc();
+    } catch (IllegalArgumentException e) {
+      histogramsInvalid.inc();
+      throw e;
+    }
+    sendHistogramData(lineData);
+  }
+
+  private void sendHistogramData(LineEncoder lineData) throws IOException {
+    try {
+      histogramProxyConnectionHandler.sendData(lineData.array(), 0, lineData.length());
     } catch (Exception e) {
       histogramsDropped.inc();
       histogramProxyConnectionHandler.incrementFailureCount();
@@ -358,6 +774,53 @@ public class WavefrontProxyClient implements WavefrontSender, Runnable {
     }
   }
 
+  @Override
+  public void sendDistributions(Collection<Distribution> distributions) throws IOException {
+    if (closed.get()) {
+      throw new IOException("attempt to send using closed sender");
+    }
+    if (histogramProxyConnectionHandler == null) {
+      histogramsDiscarded.inc(distributions.size());
+      logger.warning("Can't send data to Wavefront. " +
+          "Please configure histogram distribution port for Wavefront proxy");
+      return;
+    }
+
+    StringBuilder lineData = new StringBuilder();
+    int numValid = 0;
+    IllegalArgumentException invalid = null;
+    for (Distribution distribution : distributions) {
+      int mark = lineData.length();
+      try {
+        appendHistogramLines(lineData, distribution.getName(), distribution.getCentroids(),
+            distribution.getHistogramGranularities(), distribution.getTimestamp(),
+            distribution.getSource(), distribution.getTags(), defaultSource);
+        numValid++;
+      } catch (IllegalArgumentException e) {
+        lineData.setLength(mark);
+        if (invalid == null) {
+          invalid = e;
+        }
+      }
+    }
+    histogramsValid.inc(numValid);
+    histogramsInvalid.inc(distributions.size() - numValid);
+
+    if (numValid > 0) {
+      try {
+        LineEncoder encoded = LineEncoder.get().text(lineData);
+        histogramProxyConnectionHandler.sendData(encoded.array(), 0, encoded.length());
+      } catch (Exception e) {
+        histogramsDropped.inc(numValid);
+        histogramProxyConnectionHandler.incrementFailureCount();
+        throw new IOException(e);
+      }
+    }
+    if (invalid != null) {
+      throw invalid;
+    }
+  }
+
   @Override
   public void sendSpan(String name, long startMillis, long durationMillis,
                        @Nullable String source, UUID traceId, UUID spanId,
@@ -377,9 +840,9 @@ public class WavefrontProxyClient implements WavefrontSender, Runnable {
       return;
     }
 
-    String lineData;
+    LineEncoder lineData;
     try {
-      lineData = tracingSpanToLineData(name, startMillis, durationMillis, source, traceId,
+      lineData = LineEncoder.get().span(name, startMillis, durationMillis, source, traceId,
           spanId, parents, followsFrom, tags, spanLogs, defaultSource);
       spansValid.inc();
     } catch (IllegalArgumentException e) {
@@ -388,7 +851,7 @@ public class WavefrontProxyClient implements WavefrontSender, Runnable {
     }
 
     try {
-      tracingProxyConnectionHandler.sendData(lineData);
+      tracingProxyConnectionHandler.sendData(lineData.array(), 0, lineData.length());
     } catch (Exception e) {
       spansDropped.inc();
       if (spanLogs != null && !spanLogs.isEmpty()) {
@@ -399,15 +862,85 @@ public class WavefrontProxyClient implements WavefrontSender, Runnable {
     }
 
     if (spanLogs != null && !spanLogs.isEmpty()) {
-      sendSpanLogsData(traceId, spanId, spanLogs, lineData);
+      sendSpanLogsData(traceId, spanId, spanLogs,
+          spanLogsEncoder.includesSpan() ? lineData.toString() : null);
     }
   }
 
-  private void sendSpanLogsData(UUID traceId, UUID spanId, List<SpanLog> spanLogs, String span) {
+  @Override
+  public void sendSpans(Collection<Span> spans) throws IOException {
+    if (closed.get()) {
+      throw new IOException("attempt to send using closed sender");
+    }
+    if (tracingProxyConnectionHandler == null) {
+      spansDiscarded.inc(spans.size());
+      for (Span span : spans) {
+        if (span.getSpanLogs() != null && !span.getSpanLogs().isEmpty()) {
+          spanLogsDiscarded.inc();
+        }
+      }
+      logger.warning("Can't send data to Wavefront. " +
+          "Please configure tracing port for Wavefront proxy");
+      return;
+    }
+
+    StringBuilder lineData = new StringBuilder();
+    List<Span> validSpans = new ArrayList<>(spans.size());
+    List<String> lines = new ArrayList<>(spans.size());
+    IllegalArgumentException invalid = null;
+    for (Span span : spans) {
+      int mark = lineData.length();
+      try {
+        appendSpanLine(lineData, span.getName(), span.getStartMillis(),
+            span.getDurationMillis(), span.getSource(), span.getTraceId(), span.getSpanId(),
+            span.getParents(), span.getFollowsFrom(), span.getTags(), span.getSpanLogs(),
+            defaultSource);
+        validSpans.add(span);
+        lines.add(span.getSpanLogs() == null || span.getSpanLogs().isEmpty() ||
+            !spanLogsEncoder.includesSpan() ? null : lineData.substring(mark));
+      } catch (IllegalArgumentException e) {
+        lineData.setLength(mark);
+        if (invalid == null) {
+          invalid = e;
+        }
+      }
+    }
+    spansValid.inc(validSpans.size());
+    spansInvalid.inc(spans.size() - validSpans.size());
+
+    if (!validSpans.isEmpty()) {
+      try {
+        LineEncoder encoded = LineEncoder.get().text(lineData);
+        tracingProxyConnectionHandler.sendData(encoded.array(), 0, encoded.length());
+      } catch (Exception e) {
+        spansDropped.inc(validSpans.size());
+        for (Span span : validSpans) {
+          if (span.getSpanLogs() != null && !span.getSpanLogs().isEmpty()) {
+            spanLogsDropped.inc();
+          }
+        }
+        tracingProxyConnectionHandler.incrementFailureCount();
+        throw new IOException(e);
+      }
+    }
+
+    for (int i = 0; i < validSpans.size(); i++) {
+      Span span = validSpans.get(i);
+      if (span.getSpanLogs() != null && !span.getSpanLogs().isEmpty()) {
+        sendSpanLogsData(span.getTraceId(), span.getSpanId(), span.getSpanLogs(), lines.get(i));
+      }
+    }
+    if (invalid != null) {
+      throw invalid;
+    }
+  }
+
+  private void sendSpanLogsData(UUID traceId, UUID spanId, List<SpanLog> spanLogs,
+                                @Nullable String span) {
     try {
-      String lineData = spanLogsToLineData(traceId, spanId, spanLogs, span);
+      byte[] lineData = spanLogsEncoder.encodeToBytes(traceId, spanId, spanLogs, span);
       spanLogsValid.inc();
-      tracingProxyConnectionHandler.sendData(lineData);
+      tracingProxyConnectionHandler.sendData(lineData, 0, lineData.length);
     } catch (JsonProcessingException e) {
       spanLogsInvalid.inc();
       logger.log(Level.WARNING, "unable to serialize span logs to json: traceId:" + traceId +
@@ -438,6 +971,11 @@ public class WavefrontProxyClient implements WavefrontSender, Runnable {
   }
 
   private void flushNoCheck() throws IOException {
+    if (deltaCounters != null) {
+      deltaCounters.drain((name, value, source, tags) ->
+          enqueueMetric(name, value, null, source, tags));
+    }
+
     if (metricsProxyConnectionHandler != null) {
       metricsProxyConnectionHandler.flush();
     }
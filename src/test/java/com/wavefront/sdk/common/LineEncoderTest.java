@@ -0,0 +1,86 @@
+package com.wavefront.sdk.common;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.wavefront.sdk.entities.histograms.HistogramGranularity;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for {@link LineEncoder}
+ */
+public class LineEncoderTest {
+
+  @Test
+  public void testMatchesUtilsSerializers() {
+    Map<String, String> tags = ImmutableMap.of("datacenter", "dc1", "région", "nörd 😀");
+    LineEncoder encoder = LineEncoder.get();
+
+    assertArrayEquals(bytes(Utils.metricToLineData("new-york.power.usage", 42422.5,
+        1493773500L, "localhost", tags, "default")), encoder.metric("new-york.power.usage",
+        42422.5, 1493773500L, "localhost", tags, "default").toByteArray());
+
+    assertArrayEquals(bytes(Utils.logToLineData("/var/log/app.log", 1, null, null, tags,
+        "default")), encoder.log("/var/log/app.log", 1, null, null, tags, "default").
+        toByteArray());
+
+    assertArrayEquals(bytes(Utils.histogramToLineData("request.latency",
+        Arrays.asList(new Pair<>(30.0, 20), new Pair<>(5.1, 10)),
+        ImmutableSet.of(HistogramGranularity.MINUTE, HistogramGranularity.HOUR), 1493773500L,
+        "appServer1", tags, "default")), encoder.histogram("request.latency",
+        Arrays.asList(new Pair<>(30.0, 20), new Pair<>(5.1, 10)),
+        ImmutableSet.of(HistogramGranularity.MINUTE, HistogramGranularity.HOUR), 1493773500L,
+        "appServer1", tags, "default").toByteArray());
+
+    UUID traceId = UUID.randomUUID();
+    UUID spanId = UUID.randomUUID();
+    String span = Utils.tracingSpanToLineData("getAllUsers", 1493773500L, 343500L, "localhost",
+        traceId, spanId, Collections.singletonList(UUID.randomUUID()), null,
+        Collections.singletonList(new Pair<>("application", "Wavefront")), null, "default");
+    encoder.text(span);
+    assertArrayEquals(bytes(span), encoder.toByteArray());
+    assertEquals(span, encoder.toString());
+  }
+
+  @Test
+  public void testEncodesUtf8() throws IOException {
+    String[] lines = {"ascii\n", "é ß ∆ Δ 中文\n", "emoji 😀\n", "lone surrogate \ud83d end\n",
+        "reversed \ude00\ud83d\n", Strings.repeat("∆", 20000) + "\n"};
+    for (String line : lines) {
+      LineEncoder encoder = LineEncoder.get().text(line);
+      assertArrayEquals(bytes(line), encoder.toByteArray());
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      encoder.writeTo(out);
+      assertArrayEquals(bytes(line), out.toByteArray());
+    }
+    // the buffers grown by the long line are replaced by small ones
+    LineEncoder encoder = LineEncoder.get().text("small\n");
+    assertEquals(6, encoder.length());
+    assertEquals(1536, encoder.array().length);
+  }
+
+  @Test
+  public void testRejectsInvalidLines() {
+    assertThrows(IllegalArgumentException.class, () -> LineEncoder.get().metric("metric", 1, null,
+        "source", ImmutableMap.of("key", ""), "default"));
+    // the encoder is still usable afterwards
+    assertArrayEquals(bytes("\"metric\" 1 source=\"source\"\n"), LineEncoder.get().metric(
+        "metric", 1, null, "source", null, "default").toByteArray());
+  }
+
+  private static byte[] bytes(String s) {
+    return s.getBytes(StandardCharsets.UTF_8);
+  }
+}
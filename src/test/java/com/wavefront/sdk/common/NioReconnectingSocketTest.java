@@ -0,0 +1,227 @@
+package com.wavefront.sdk.common;
+
+import com.wavefront.sdk.common.clients.buffer.BufferFullPolicy;
+import com.wavefront.sdk.common.metrics.WavefrontSdkMetricsRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link NioReconnectingSocket}
+ */
+public class NioReconnectingSocketTest {
+  private WavefrontSdkMetricsRegistry registry;
+
+  @BeforeEach
+  public void setUp() {
+    registry = new WavefrontSdkMetricsRegistry.Builder(null).
+        reportingIntervalSeconds(Integer.MAX_VALUE).
+        build();
+  }
+
+  @AfterEach
+  public void tearDown() {
+    registry.close();
+  }
+
+  @Test
+  public void testSendsLinesAndReconnects() throws Exception {
+    try (ServerSocket server = newServer(0);
+         NioReconnectingSocket socket = newSocket(server.getLocalPort()).
+             segmentBytes(1024).build()) {
+      List<String> sent = writeLines(socket, "first", 1000);
+      socket.flush();
+      try (Socket connection = server.accept()) {
+        assertEquals(sent, readLines(connection, sent.size()));
+      }
+
+      // the writer thread notices that the server closed the connection
+      waitFor(() -> !socket.isConnected());
+      sent = writeLines(socket, "second", 10);
+      socket.flush();
+      try (Socket connection = server.accept()) {
+        assertEquals(sent, readLines(connection, sent.size()));
+      }
+      assertEquals(2, registry.newDeltaCounter("socket.reset.success").count());
+      assertEquals(1010, registry.newDeltaCounter("socket.write.success").count());
+      waitFor(() -> socket.getBufferedBytes() == 0);
+    }
+  }
+
+  @Test
+  public void testSkipsTailOfLineSentToBrokenConnection() throws Exception {
+    assertSkipsTailOfLine(true);
+  }
+
+  @Test
+  public void testSkipsUnsealedTailOfLineSentToBrokenConnection() throws Exception {
+    assertSkipsTailOfLine(false);
+  }
+
+  @Test
+  public void testDropsWhenFull() throws Exception {
+    try (NioReconnectingSocket socket = newSocket(unusedPort()).bufferBytes(64).
+        segmentBytes(32).build()) {
+      // lines of 20 bytes, which span segments
+      for (int i = 0; i < 10; i++) {
+        writeLine(socket, "line.that.is.droppe");
+      }
+
+      assertEquals(3, registry.newDeltaCounter("socket.write.success").count());
+      assertEquals(7, registry.newDeltaCounter("socket.write.dropped").count());
+      assertEquals(60, socket.getBufferedBytes());
+    }
+  }
+
+  @Test
+  public void testBlocksUntilTimeout() throws Exception {
+    try (NioReconnectingSocket socket = newSocket(unusedPort()).bufferBytes(32).
+        segmentBytes(32).bufferFullPolicy(BufferFullPolicy.BLOCK).
+        blockTimeout(100, TimeUnit.MILLISECONDS).build()) {
+      // lines of 16 bytes
+      writeLine(socket, "line.that.fills");
+      writeLine(socket, "line.that.fills");
+      long start = System.nanoTime();
+      writeLine(socket, "line.that.block");
+
+      assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+      assertEquals(2, registry.newDeltaCounter("socket.write.success").count());
+      assertEquals(1, registry.newDeltaCounter("socket.write.dropped").count());
+    }
+  }
+
+  @Test
+  public void testSpillsAndReplays() throws Exception {
+    File spillDirectory = Files.createTempDirectory("spill").toFile();
+    int port = unusedPort();
+    try (NioReconnectingSocket socket = newSocket(port).bufferBytes(256).segmentBytes(64).
+        bufferFullPolicy(BufferFullPolicy.SPILL).spillDirectory(spillDirectory).build()) {
+      List<String> sent = writeLines(socket, "spilled", 100);
+      assertTrue(registry.newDeltaCounter("socket.write.spilled").count() > 0);
+      assertEquals(0, registry.newDeltaCounter("socket.write.dropped").count());
+      socket.flush();
+
+      try (ServerSocket server = newServer(port);
+           Socket connection = server.accept()) {
+        List<String> received = readLines(connection, sent.size());
+        // spilled lines are sent after the lines buffered in memory
+        received.sort(null);
+        sent.sort(null);
+        assertEquals(sent, received);
+      }
+      assertEquals(registry.newDeltaCounter("socket.write.spilled").count(),
+          registry.newDeltaCounter("socket.spill.replayed").count());
+    }
+  }
+
+  /**
+   * Writes a line spanning two segments, and drops the connection once the first segment is
+   * written but before the second one is.
+   *
+   * @param sealTail Whether the tail of the line is handed to the writer thread before it
+   *                 reconnects.
+   */
+  private void assertSkipsTailOfLine(boolean sealTail) throws Exception {
+    try (ServerSocket server = newServer(0);
+         NioReconnectingSocket socket = newSocket(server.getLocalPort()).
+             segmentBytes(16).build()) {
+      // the first 16 bytes fill a segment, which is sent right away
+      writeLine(socket, "line.spanning.two.segments");
+      try (Socket connection = server.accept()) {
+        connection.setSoTimeout(10000);
+        byte[] head = new byte[16];
+        int read = 0;
+        while (read < head.length) {
+          read += connection.getInputStream().read(head, read, head.length - read);
+        }
+        assertEquals("line.spanning.tw", new String(head, StandardCharsets.UTF_8));
+      }
+      waitFor(() -> !socket.isConnected());
+      if (sealTail) {
+        socket.flush();
+      } else {
+        waitFor(socket::isConnected);
+      }
+
+      writeLine(socket, "next.line");
+      socket.flush();
+      try (Socket connection = server.accept()) {
+        assertEquals(Arrays.asList("next.line"), readLines(connection, 1));
+      }
+    }
+  }
+
+  private NioReconnectingSocket.Builder newSocket(int port) {
+    return new NioReconnectingSocket.Builder(new InetSocketAddress("127.0.0.1", port), registry,
+        "socket");
+  }
+
+  private static ServerSocket newServer(int port) throws IOException {
+    ServerSocket server = new ServerSocket();
+    server.setReuseAddress(true);
+    server.setSoTimeout(10000);
+    server.bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port));
+    return server;
+  }
+
+  private static int unusedPort() throws IOException {
+    try (ServerSocket server = newServer(0)) {
+      return server.getLocalPort();
+    }
+  }
+
+  private static List<String> writeLines(NioReconnectingSocket socket, String prefix, int count)
+      throws IOException {
+    List<String> lines = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      String line = prefix + "." + i;
+      byte[] data = (line + "\n").getBytes(StandardCharsets.UTF_8);
+      socket.write(data, 0, data.length);
+      lines.add(line);
+    }
+    return lines;
+  }
+
+  private static void writeLine(NioReconnectingSocket socket, String line) throws IOException {
+    byte[] data = (line + "\n").getBytes(StandardCharsets.UTF_8);
+    socket.write(data, 0, data.length);
+  }
+
+  private static List<String> readLines(Socket connection, int count) throws IOException {
+    connection.setSoTimeout(10000);
+    BufferedReader reader = new BufferedReader(new InputStreamReader(
+        connection.getInputStream(), StandardCharsets.UTF_8));
+    List<String> lines = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      lines.add(reader.readLine());
+    }
+    return lines;
+  }
+
+  private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (!condition.getAsBoolean()) {
+      assertTrue(System.nanoTime() < deadline, "Timed out waiting");
+      Thread.sleep(10);
+    }
+  }
+}
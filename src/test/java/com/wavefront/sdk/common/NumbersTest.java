@@ -0,0 +1,78 @@
+package com.wavefront.sdk.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests for {@link Numbers}
+ */
+public class NumbersTest {
+
+  @Test
+  public void testFormatsDoubles() {
+    assertEquals("42422", format(42422.0));
+    assertEquals("-42422", format(-42422.0));
+    assertEquals("0", format(0.0));
+    assertEquals("5.1", format(5.1));
+    assertEquals("-0.5", format(-0.5));
+    assertEquals("0.001", format(0.001));
+    assertEquals("0.0123", format(0.0123));
+    assertEquals("1234.5678", format(1234.5678));
+    assertEquals("9007199254740991", format(9007199254740991.0));
+    // written by Double.toString
+    assertEquals("0.30000000000000004", format(0.1 + 0.2));
+    assertEquals("1.0E-10", format(1e-10));
+    assertEquals("1.0E20", format(1e20));
+    assertEquals("NaN", format(Double.NaN));
+    assertEquals("-Infinity", format(Double.NEGATIVE_INFINITY));
+  }
+
+  @Test
+  public void testRoundTrips() {
+    Random random = new Random(42);
+    for (int i = 0; i < 100000; i++) {
+      double value;
+      switch (i % 4) {
+        case 0:
+          value = random.nextDouble();
+          break;
+        case 1:
+          value = random.nextInt(1000000) / 100.0;
+          break;
+        case 2:
+          value = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(40) - 20);
+          break;
+        default:
+          value = Double.longBitsToDouble(random.nextLong());
+      }
+      String formatted = format(value);
+      if (!Double.isNaN(value)) {
+        assertEquals(Double.valueOf(value), Double.valueOf(formatted), formatted);
+      }
+      byte[] buffer = new byte[Numbers.MAX_DOUBLE_LENGTH + 2];
+      int length = Numbers.writeDouble(buffer, 2, value) - 2;
+      assertEquals(formatted, new String(buffer, 2, length, StandardCharsets.US_ASCII));
+    }
+  }
+
+  @Test
+  public void testWritesLongs() {
+    long[] values = {0, 7, -7, 1493773500L, Long.MAX_VALUE, Long.MIN_VALUE};
+    for (long value : values) {
+      byte[] buffer = new byte[Numbers.MAX_LONG_LENGTH];
+      int length = Numbers.writeLong(buffer, 0, value);
+      assertEquals(Long.toString(value), new String(buffer, 0, length, StandardCharsets.US_ASCII));
+      assertEquals(length, Numbers.longLength(value));
+    }
+  }
+
+  private static String format(double value) {
+    StringBuilder sb = new StringBuilder();
+    Numbers.appendDouble(sb, value);
+    return sb.toString();
+  }
+}
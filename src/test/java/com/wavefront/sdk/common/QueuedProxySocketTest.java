@@ -0,0 +1,180 @@
+package com.wavefront.sdk.common;
+
+import com.wavefront.sdk.common.metrics.WavefrontSdkMetricsRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link QueuedProxySocket}
+ */
+public class QueuedProxySocketTest {
+  private WavefrontSdkMetricsRegistry registry;
+
+  @BeforeEach
+  public void setUp() {
+    registry = new WavefrontSdkMetricsRegistry.Builder(null).
+        reportingIntervalSeconds(Integer.MAX_VALUE).
+        build();
+  }
+
+  @AfterEach
+  public void tearDown() {
+    registry.close();
+  }
+
+  @Test
+  public void testBatchesQueuedLines() throws Exception {
+    int port = unusedPort();
+    try (QueuedProxySocket socket = newSocket(port).
+        reconnectBackoff(10, 50, TimeUnit.MILLISECONDS).build()) {
+      // queued while the server is down, then sent with a single write
+      List<String> sent = writeLines(socket, "queued", 1000);
+      assertEquals(1000, socket.getQueueSize());
+      try (ServerSocket server = newServer(port);
+           Socket connection = server.accept()) {
+        assertEquals(sent, readLines(connection, sent.size()));
+      }
+      waitFor(() -> registry.newDeltaCounter("socket.bytes.written").count() > 0);
+      assertEquals(1, registry.newDeltaCounter("socket.batches.written").count());
+      assertEquals(1000, registry.newDeltaCounter("socket.write.success").count());
+      assertEquals(0, socket.getQueueSize());
+    }
+  }
+
+  @Test
+  public void testSendsLinesAndReconnects() throws Exception {
+    try (ServerSocket server = newServer(0);
+         QueuedProxySocket socket = newSocket(server.getLocalPort()).build()) {
+      List<String> sent = writeLines(socket, "first", 100);
+      try (Socket connection = server.accept()) {
+        assertEquals(sent, readLines(connection, sent.size()));
+      }
+
+      // the writer thread notices that the server closed the connection
+      waitFor(() -> !socket.isConnected());
+      sent = writeLines(socket, "second", 10);
+      socket.flush();
+      try (Socket connection = server.accept()) {
+        assertEquals(sent, readLines(connection, sent.size()));
+      }
+      assertEquals(2, registry.newDeltaCounter("socket.reset.success").count());
+      assertEquals(110, registry.newDeltaCounter("socket.write.success").count());
+    }
+  }
+
+  @Test
+  public void testDropsWhenFull() throws Exception {
+    try (QueuedProxySocket socket = newSocket(unusedPort()).maxQueueSize(3).build()) {
+      writeLines(socket, "dropped", 10);
+
+      assertEquals(3, registry.newDeltaCounter("socket.write.success").count());
+      assertEquals(7, registry.newDeltaCounter("socket.write.dropped").count());
+      assertEquals(3, socket.getQueueSize());
+    }
+  }
+
+  @Test
+  public void testBacksOffReconnects() throws Exception {
+    try (QueuedProxySocket socket = newSocket(unusedPort()).
+        reconnectBackoff(50, 200, TimeUnit.MILLISECONDS).build()) {
+      // attempts at 0, 50, 150, 350, 550, 750 and 950 ms
+      Thread.sleep(1000);
+      long attempts = registry.newDeltaCounter("socket.reset.errors").count();
+      assertTrue(attempts >= 3 && attempts <= 8, "Unexpected attempts: " + attempts);
+      assertEquals(0, registry.newDeltaCounter("socket.reset.success").count());
+    }
+  }
+
+  @Test
+  public void testCloseDropsDataStuckOnStalledServer() throws Exception {
+    try (ServerSocket server = newServer(0)) {
+      QueuedProxySocket socket = newSocket(server.getLocalPort()).build();
+      try (Socket connection = server.accept()) {
+        // the server never reads, so the writer thread blocks once the socket buffers are full
+        byte[] line = new byte[1024];
+        line[line.length - 1] = '\n';
+        for (int i = 0; i < 50000; i++) {
+          socket.write(line, 0, line.length);
+        }
+        waitFor(() -> registry.newDeltaCounter("socket.bytes.written").count() > 0);
+
+        long start = System.nanoTime();
+        socket.close();
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(elapsedMillis < 8000, "Close took " + elapsedMillis + " ms");
+      }
+      long written = registry.newDeltaCounter("socket.bytes.written").count() / 1024;
+      long dropped = registry.newDeltaCounter("socket.write.dropped").count();
+      assertTrue(dropped > 0);
+      assertEquals(50000, written + dropped);
+      assertEquals(0, socket.getQueueSize());
+    }
+  }
+
+  private QueuedProxySocket.Builder newSocket(int port) {
+    return new QueuedProxySocket.Builder(new InetSocketAddress("127.0.0.1", port), registry,
+        "socket");
+  }
+
+  private static ServerSocket newServer(int port) throws IOException {
+    ServerSocket server = new ServerSocket();
+    server.setReuseAddress(true);
+    server.setSoTimeout(10000);
+    server.bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port));
+    return server;
+  }
+
+  private static int unusedPort() throws IOException {
+    try (ServerSocket server = newServer(0)) {
+      return server.getLocalPort();
+    }
+  }
+
+  private static List<String> writeLines(QueuedProxySocket socket, String prefix, int count)
+      throws IOException {
+    List<String> lines = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      String line = prefix + "." + i;
+      byte[] data = (line + "\n").getBytes(StandardCharsets.UTF_8);
+      socket.write(data, 0, data.length);
+      lines.add(line);
+    }
+    return lines;
+  }
+
+  private static List<String> readLines(Socket connection, int count) throws IOException {
+    connection.setSoTimeout(10000);
+    BufferedReader reader = new BufferedReader(new InputStreamReader(
+        connection.getInputStream(), StandardCharsets.UTF_8));
+    List<String> lines = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      lines.add(reader.readLine());
+    }
+    return lines;
+  }
+
+  private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (!condition.getAsBoolean()) {
+      assertTrue(System.nanoTime() < deadline, "Timed out waiting");
+      Thread.sleep(10);
+    }
+  }
+}
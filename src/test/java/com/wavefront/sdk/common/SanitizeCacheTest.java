@@ -0,0 +1,106 @@
+package com.wavefront.sdk.common;
+
+import com.google.common.base.Strings;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableMap;
+import com.wavefront.sdk.common.metrics.WavefrontSdkMetricsRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static com.wavefront.sdk.common.Utils.logToLineData;
+import static com.wavefront.sdk.common.Utils.metricToLineData;
+import static com.wavefront.sdk.common.Utils.sanitize;
+import static com.wavefront.sdk.common.Utils.sanitizeValue;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * Tests for {@link SanitizeCache}
+ */
+public class SanitizeCacheTest {
+
+  @AfterEach
+  public void tearDown() {
+    Utils.disableSanitizeCache();
+  }
+
+  @Test
+  public void testCachesSanitizedForms() {
+    String uncached = metricToLineData("new york.power", 42422, 1493773500L, "local host",
+        ImmutableMap.of("datacenter", "dc 1"), "default");
+    Utils.enableSanitizeCache(100);
+    SanitizeCache cache = Utils.getSanitizeCache();
+
+    assertEquals(uncached, metricToLineData("new york.power", 42422, 1493773500L, "local host",
+        ImmutableMap.of("datacenter", "dc 1"), "default"));
+    CacheStats stats = cache.stats();
+    assertEquals(0, stats.hitCount());
+    assertEquals(4, stats.missCount());
+    assertEquals(4, cache.size());
+
+    assertEquals(uncached, metricToLineData("new york.power", 42422, 1493773500L, "local host",
+        ImmutableMap.of("datacenter", "dc 1"), "default"));
+    assertEquals(4, cache.stats().hitCount());
+    assertSame(sanitize("new york.power"), sanitize("new york.power"));
+    assertEquals("\"dc 1\"", sanitizeValue("dc 1"));
+  }
+
+  @Test
+  public void testCachesLogNamesWithSlashes() {
+    String uncached = logToLineData("/mnt/logs/auth.log", 42422, 1493773500L, "localhost",
+        null, "default");
+    Utils.enableSanitizeCache(100);
+    SanitizeCache cache = Utils.getSanitizeCache();
+
+    assertEquals(uncached, logToLineData("/mnt/logs/auth.log", 42422, 1493773500L, "localhost",
+        null, "default"));
+    assertEquals(uncached, logToLineData("/mnt/logs/auth.log", 42422, 1493773500L, "localhost",
+        null, "default"));
+    assertEquals(2, cache.stats().hitCount());
+    // metric names replace slashes, so they are cached apart from log names
+    assertEquals("\"-mnt-logs-auth.log\"", sanitize("/mnt/logs/auth.log"));
+    assertEquals(3, cache.size());
+  }
+
+  @Test
+  public void testReportsGlobalMetrics() {
+    WavefrontSdkMetricsRegistry registry = new WavefrontSdkMetricsRegistry.Builder(null).
+        reportingIntervalSeconds(Integer.MAX_VALUE).
+        build();
+    try {
+      Utils.enableSanitizeCache(100, registry);
+      sanitize("a");
+      sanitize("a");
+      assertEquals(1L, gauge(registry, "sanitize_cache.hits"));
+      assertEquals(1L, gauge(registry, "sanitize_cache.misses"));
+      assertEquals(1L, gauge(registry, "sanitize_cache.size"));
+
+      // the gauges follow the cache when it is replaced or disabled
+      Utils.enableSanitizeCache(100);
+      assertEquals(0L, gauge(registry, "sanitize_cache.hits"));
+      Utils.disableSanitizeCache();
+      assertEquals(0L, gauge(registry, "sanitize_cache.size"));
+    } finally {
+      registry.close();
+    }
+  }
+
+  @Test
+  public void testEvictsAndSkipsLongStrings() {
+    Utils.enableSanitizeCache(2);
+    SanitizeCache cache = Utils.getSanitizeCache();
+    sanitize("a");
+    sanitize("b");
+    sanitize("c");
+    assertEquals(1, cache.stats().evictionCount());
+    assertEquals(2, cache.size());
+
+    String longName = Strings.repeat("x", SanitizeCache.MAX_CACHED_LENGTH + 1);
+    assertEquals('"' + longName + '"', sanitize(longName));
+    assertEquals(3, cache.stats().missCount());
+  }
+
+  private static long gauge(WavefrontSdkMetricsRegistry registry, String name) {
+    return (Long) registry.newGauge(name, () -> null).getValue();
+  }
+}
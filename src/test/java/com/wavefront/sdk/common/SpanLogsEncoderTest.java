@@ -0,0 +1,78 @@
+package com.wavefront.sdk.common;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+import com.wavefront.sdk.entities.tracing.SpanLog;
+import com.wavefront.sdk.entities.tracing.SpanLogsDTO;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for {@link SpanLogsEncoder}
+ */
+public class SpanLogsEncoderTest {
+
+  private static final UUID TRACE_ID = UUID.fromString("7b3bf470-9456-11e8-9eb6-529269fb1459");
+  private static final UUID SPAN_ID = UUID.fromString("0313bafe-9457-11e8-9eb6-529269fb1459");
+
+  @Test
+  public void testMatchesObjectMapper() throws JsonProcessingException {
+    Map<String, String> fields = new HashMap<>();
+    fields.put("event", "error");
+    fields.put("message", "quote \" backslash \\ tab \t control \u0001 é 中文 😀");
+    fields.put("stack", "at Foo.bar(Foo.java:1)\n\tat Foo.main(Foo.java:2)\n");
+    fields.put("empty", null);
+    List<SpanLog> spanLogs = Arrays.asList(new SpanLog(91616745187L, fields),
+        new SpanLog(-1, Collections.emptyMap()), new SpanLog(0, null));
+    String span = "\"getAllUsers\" source=\"localhost\" traceId=" + TRACE_ID + " spanId=" +
+        SPAN_ID + " \"application\"=\"Wavefront\" 1493773500 343500\n";
+
+    for (String embedded : new String[]{span, null}) {
+      String expected = new ObjectMapper().writeValueAsString(new SpanLogsDTO(TRACE_ID, SPAN_ID,
+          spanLogs, embedded)) + "\n";
+      assertEquals(expected, SpanLogsEncoder.DEFAULT.encode(TRACE_ID, SPAN_ID, spanLogs,
+          embedded));
+      assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8),
+          SpanLogsEncoder.DEFAULT.encodeToBytes(TRACE_ID, SPAN_ID, spanLogs, embedded));
+      assertEquals(expected, Utils.spanLogsToLineData(TRACE_ID, SPAN_ID, spanLogs, embedded));
+    }
+  }
+
+  @Test
+  public void testTruncates() throws JsonProcessingException {
+    List<SpanLog> spanLogs = Collections.singletonList(new SpanLog(1,
+        ImmutableMap.of("stack", Strings.repeat("x", 9) + "😀", "kind", "error")));
+    String span = "\"getAllUsers\" source=\"localhost\" 1493773500 343500\n";
+
+    assertEquals("{\"traceId\":\"" + TRACE_ID + "\",\"spanId\":\"" + SPAN_ID + "\"," +
+            "\"logs\":[{\"timestamp\":1,\"fields\":{\"stack\":\"xxxxxxxxx\",\"kind\":\"error\"}}]," +
+            "\"span\":null}\n",
+        new SpanLogsEncoder(0, 10).encode(TRACE_ID, SPAN_ID, spanLogs, span));
+    assertEquals("{\"traceId\":\"" + TRACE_ID + "\",\"spanId\":\"" + SPAN_ID + "\"," +
+            "\"logs\":[{\"timestamp\":1,\"fields\":{\"stack\":\"xxxxxxxxx😀\",\"kind\":\"error\"}}]," +
+            "\"span\":\"\\\"getAllUsers\\\"\"}\n",
+        new SpanLogsEncoder(13, 11).encode(TRACE_ID, SPAN_ID, spanLogs, span));
+  }
+
+  @Test
+  public void testRejectsNullKeys() {
+    Map<String, String> fields = new HashMap<>();
+    fields.put(null, "value");
+    assertThrows(JsonProcessingException.class, () -> SpanLogsEncoder.DEFAULT.encode(TRACE_ID,
+        SPAN_ID, Collections.singletonList(new SpanLog(1, fields)), null));
+    assertThrows(IllegalArgumentException.class, () -> new SpanLogsEncoder(-2, -1));
+  }
+}
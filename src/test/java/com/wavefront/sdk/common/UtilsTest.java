@@ -10,12 +10,14 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 
 import static com.wavefront.sdk.common.Utils.*;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
@@ -39,11 +41,23 @@ public class UtilsTest {
     assertEquals("\"Δcomponent.heartbeat\"", sanitize("Δcomponent.heartbeat"));
     assertEquals("\"∆component.heartbeat\"", sanitize("∆component.heartbeat"));
     assertEquals("\"/mnt/logs/auth.log\"", sanitize("/mnt/logs/auth.log", true));
+    assertEquals("\"∆~component.heartbeat\"", sanitize("∆~component.heartbeat"));
+    assertEquals("\"~-component\"", sanitize("~~component"));
+    assertEquals("\"∆\"", sanitize("∆"));
+    assertEquals("\"comp-nent\"", sanitize("compönent"));
+    assertEquals("\"\"", sanitize(""));
+
+    StringBuilder sb = new StringBuilder("name=");
+    appendSanitized(sb, "hello world");
+    assertEquals("name=\"hello-world\"", sb.toString());
   }
 
   @Test
   public void testSanitizeWithoutQuotes() {
     assertEquals("hello-world", sanitizeWithoutQuotes("hello world"));
+    // clean strings are returned as is
+    String clean = "hello.world";
+    assertSame(clean, sanitizeWithoutQuotes(clean));
   }
 
   @Test
@@ -54,6 +68,12 @@ public class UtilsTest {
     assertEquals("\"hello\\\"world\\\"\"", sanitizeValue("hello\"world\""));
     assertEquals("\"hello'world\"", sanitizeValue("hello'world"));
     assertEquals("\"hello\\nworld\"", sanitizeValue("hello\nworld"));
+    assertEquals("\"hello world\"", sanitizeValue(" \thello world\n "));
+    assertEquals("\"\"", sanitizeValue("   "));
+
+    StringBuilder sb = new StringBuilder("key=");
+    appendSanitizedValue(sb, "say \"hi\"");
+    assertEquals("key=\"say \\\"hi\\\"\"", sb.toString());
   }
 
   @Test
@@ -63,31 +83,31 @@ public class UtilsTest {
       put("logGroup", "group");
       put("tag_mirror", "mirror");
     }};
-    assertEquals("\"/mnt/logs/auth.log\" 42422.0 1493773500 source=\"localhost\" " +
+    assertEquals("\"/mnt/logs/auth.log\" 42422 1493773500 source=\"localhost\" " +
             "\"logGroup\"=\"group\" \"tag_cluster\"=\"cluster\" \"tag_mirror\"=\"mirror\"\n",
             logToLineData("/mnt/logs/auth.log", 42422, 1493773500L,
                     "localhost", tags, "defaultSource"));
     // source with colon
-    assertEquals("\"/mnt/logs/auth.log\" 42422.0 1493773500 source=\"localhost:8080\" " +
+    assertEquals("\"/mnt/logs/auth.log\" 42422 1493773500 source=\"localhost:8080\" " +
                     "\"logGroup\"=\"group\" \"tag_cluster\"=\"cluster\" \"tag_mirror\"=\"mirror\"\n",
             logToLineData("/mnt/logs/auth.log", 42422, 1493773500L,
             "localhost:8080", tags, "defaultSource"));
     // null timestamp
-    assertEquals("\"/mnt/logs/auth.log\" 42422.0 source=\"localhost\" " +
+    assertEquals("\"/mnt/logs/auth.log\" 42422 source=\"localhost\" " +
                     "\"logGroup\"=\"group\" \"tag_cluster\"=\"cluster\" \"tag_mirror\"=\"mirror\"\n",
             logToLineData("/mnt/logs/auth.log", 42422, null,
             "localhost", tags, "defaultSource"));
     // null tags and null timestamp
-    assertEquals("\"/mnt/logs/auth.log\" 42422.0 source=\"localhost\"\n",
+    assertEquals("\"/mnt/logs/auth.log\" 42422 source=\"localhost\"\n",
             logToLineData("/mnt/logs/auth.log", 42422, null, "localhost", null,
                     "defaultSource"));
     // default source
-    assertEquals("\"/mnt/logs/auth.log\" 42422.0 source=\"defaultSource\"\n",
+    assertEquals("\"/mnt/logs/auth.log\" 42422 source=\"defaultSource\"\n",
             logToLineData("/mnt/logs/auth.log", 42422, null, null, null, "defaultSource"));
     // Add tag key with invalid char, val with empty space
     tags.put(" key name~1", " val name 1 ");
     // Invalid char in metrics
-    assertEquals("\"/mnt/logs/auth-log\" 42422.0 1493773500 source=\"local~host\" " +
+    assertEquals("\"/mnt/logs/auth-log\" 42422 1493773500 source=\"local~host\" " +
                     "\"-key-name-1\"=\"val name 1\" \"logGroup\"=\"group\" \"tag_cluster\"=\"cluster\" \"tag_mirror\"=\"mirror\"\n",
             logToLineData("/mnt/logs/auth:log", 42422, 1493773500L, "local~host", tags,
                     "defaultSource"));
@@ -164,32 +184,32 @@ public class UtilsTest {
     Map<String, String> tags = new HashMap<String, String>() {{
       put("datacenter", "dc1");
     }};
-    assertEquals("\"new-york.power.usage\" 42422.0 1493773500 source=\"localhost\" " +
+    assertEquals("\"new-york.power.usage\" 42422 1493773500 source=\"localhost\" " +
         "\"datacenter\"=\"dc1\"\n", metricToLineData("new-york.power.usage", 42422, 1493773500L,
         "localhost", tags, "defaultSource"));
     // source with colon
-    assertEquals("\"new-york.power.usage\" 42422.0 1493773500 source=\"localhost:8080\" " +
+    assertEquals("\"new-york.power.usage\" 42422 1493773500 source=\"localhost:8080\" " +
         "\"datacenter\"=\"dc1\"\n", metricToLineData("new-york.power.usage", 42422, 1493773500L,
         "localhost:8080", tags, "defaultSource"));
     // null timestamp
-    assertEquals("\"new-york.power.usage\" 42422.0 source=\"localhost\" " +
+    assertEquals("\"new-york.power.usage\" 42422 source=\"localhost\" " +
         "\"datacenter\"=\"dc1\"\n", metricToLineData("new-york.power.usage", 42422, null,
         "localhost", tags, "defaultSource"));
     // null tags
-    assertEquals("\"new-york.power.usage\" 42422.0 1493773500 source=\"localhost\"\n",
+    assertEquals("\"new-york.power.usage\" 42422 1493773500 source=\"localhost\"\n",
         metricToLineData("new-york.power.usage", 42422, 1493773500L,
             "localhost", null, "defaultSource"));
     // null tags and null timestamp
-    assertEquals("\"new-york.power.usage\" 42422.0 source=\"localhost\"\n",
+    assertEquals("\"new-york.power.usage\" 42422 source=\"localhost\"\n",
         metricToLineData("new-york.power.usage", 42422, null, "localhost", null,
             "defaultSource"));
     // default source
-    assertEquals("\"new-york.power.usage\" 42422.0 source=\"defaultSource\"\n",
+    assertEquals("\"new-york.power.usage\" 42422 source=\"defaultSource\"\n",
         metricToLineData("new-york.power.usage", 42422, null, null, null, "defaultSource"));
     // Add tag key with invalid char, val with empty space
     tags.put(" key name~1", " val name 1 ");
     // Invalid char in metrics
-    assertEquals("\"new-york.power.usage\" 42422.0 1493773500 source=\"local~host\" " +
+    assertEquals("\"new-york.power.usage\" 42422 1493773500 source=\"local~host\" " +
             "\"-key-name-1\"=\"val name 1\" " + "\"datacenter\"=\"dc1\"\n",
         metricToLineData("new~york.power.usage", 42422, 1493773500L, "local~host", tags,
             "defaultSource"));
@@ -259,6 +279,68 @@ public class UtilsTest {
     }
   }
 
+  @Test
+  public void testValidateMetric() {
+    Map<String, String> tags = new HashMap<String, String>() {{
+      put("datacenter", "dc1");
+    }};
+    validateMetric("new-york.power.usage", null, tags, "defaultSource");
+    try {
+      validateMetric(null, "localhost", tags, "defaultSource");
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().contains("metrics name cannot be blank"));
+    }
+    try {
+      validateMetric("new-york.power.usage", "", tags, null);
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().contains("source cannot be blank"));
+    }
+    tags.put("emptyValue", "");
+    try {
+      validateMetric("new-york.power.usage", "localhost", tags, null);
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().contains("metric point tag value cannot be blank for"));
+      assertTrue(e.getMessage().contains("emptyValue=[]"));
+    }
+  }
+
+  @Test
+  public void testHistogramToLineDataFromArrays() {
+    Map<String, String> tags = new HashMap<String, String>() {{
+      put("region", "us-west");
+    }};
+    Set<HistogramGranularity> granularities = new LinkedHashSet<>(Arrays.asList(
+        HistogramGranularity.MINUTE, HistogramGranularity.HOUR, HistogramGranularity.DAY));
+    String suffix = " #20 30 #15 5.1 \"request.latency\" source=\"appServer1\" " +
+        "\"region\"=\"us-west\"\n";
+    String expected = "!M 1493773500" + suffix + "!H 1493773500" + suffix + "!D 1493773500" +
+        suffix;
+    assertEquals(expected, histogramToLineData("request.latency", Arrays.asList(
+        new Pair<>(30.0, 20), new Pair<>(5.1, 10), new Pair<>(5.1, 5)), granularities,
+        1493773500L, "appServer1", tags, "defaultSource"));
+    assertEquals(expected, histogramToLineData("request.latency", new double[]{30.0, 5.1, 5.1},
+        new int[]{20, 10, 5}, granularities, 1493773500L, "appServer1", tags,
+        "defaultSource"));
+
+    try {
+      histogramToLineData("request.latency", new double[]{30.0, 5.1}, new int[]{20},
+          granularities, 1493773500L, "appServer1", tags, "defaultSource");
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().contains("as many counts as means"));
+    }
+    try {
+      histogramToLineData("request.latency", new double[0], new int[0], granularities,
+          1493773500L, "appServer1", tags, "defaultSource");
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().contains("at least one centroid"));
+    }
+  }
+
   @Test
   public void testHistogramToLineData() {
     Map<String, String> tags = new HashMap<String, String>() {{
@@ -266,33 +348,33 @@ public class UtilsTest {
     }};
     Set<HistogramGranularity> minGranularity = new HashSet<>();
     minGranularity.add(HistogramGranularity.MINUTE);
-    assertEquals("!M 1493773500 #20 30.0 #10 5.1 \"request.latency\" source=\"appServer1\" " +
+    assertEquals("!M 1493773500 #20 30 #10 5.1 \"request.latency\" source=\"appServer1\" " +
             "\"region\"=\"us-west\"\n",
         histogramToLineData("request.latency", Arrays.asList(new Pair<>(30.0, 20),
             new Pair<>(5.1, 10)), minGranularity,
             1493773500L, "appServer1", tags, "defaultSource"));
     // source with colon
-    assertEquals("!M 1493773500 #20 30.0 #10 5.1 \"request.latency\" source=\"appServer1:5050\" " +
+    assertEquals("!M 1493773500 #20 30 #10 5.1 \"request.latency\" source=\"appServer1:5050\" " +
             "\"region\"=\"us-west\"\n",
         histogramToLineData("request.latency", Arrays.asList(new Pair<>(30.0, 20),
             new Pair<>(5.1, 10)), minGranularity,
             1493773500L, "appServer1:5050", tags, "defaultSource"));
 
     // null timestamp
-    assertEquals("!M #20 30.0 #10 5.1 \"request.latency\" source=\"appServer1\" " +
+    assertEquals("!M #20 30 #10 5.1 \"request.latency\" source=\"appServer1\" " +
             "\"region\"=\"us-west\"\n",
         histogramToLineData("request.latency", Arrays.asList(new Pair<>(30.0, 20), new Pair<>(5.1, 10)),
             minGranularity, null, "appServer1", tags, "defaultSource"));
 
     // null tags
-    assertEquals("!M 1493773500 #20 30.0 #10 5.1 \"request.latency\" source=\"appServer1\"\n",
+    assertEquals("!M 1493773500 #20 30 #10 5.1 \"request.latency\" source=\"appServer1\"\n",
         histogramToLineData("request.latency", Arrays.asList(new Pair<>(30.0, 20),
             new Pair<>(5.1, 10)),
             minGranularity, 1493773500L, "appServer1", null, "defaultSource"));
 
     // empty centroids
     try {
-      assertEquals("!M 1493773500 #20 30.0 #10 5.1 \"request.latency\" source=\"appServer1\"\n",
+      assertEquals("!M 1493773500 #20 30 #10 5.1 \"request.latency\" source=\"appServer1\"\n",
           histogramToLineData("request.latency", new ArrayList<>(),
               minGranularity, 1493773500L, "appServer1", null, "defaultSource"));
       fail();
@@ -301,7 +383,7 @@ public class UtilsTest {
 
     // no histogram granularity specified
     try {
-      assertEquals("!M 1493773500 #20 30.0 #10 5.1 \"request.latency\" source=\"appServer1\"\n",
+      assertEquals("!M 1493773500 #20 30 #10 5.1 \"request.latency\" source=\"appServer1\"\n",
           histogramToLineData("request.latency", Arrays.asList(new Pair<>(30.0, 20),
               new Pair<>(5.1, 10)), new HashSet<>(),
               1493773500L, "appServer1", null, "defaultSource"));
@@ -323,11 +405,11 @@ public class UtilsTest {
       sb.append("\n");
     }
     // multiple granularities
-    assertEquals("!D 1493773500 #20 30.0 #10 5.1 \"request.latency\" source=\"appServer1\" " +
+    assertEquals("!D 1493773500 #20 30 #10 5.1 \"request.latency\" source=\"appServer1\" " +
             "\"region\"=\"us-west\"\n" +
-            "!H 1493773500 #20 30.0 #10 5.1 \"request.latency\" source=\"appServer1\" " +
+            "!H 1493773500 #20 30 #10 5.1 \"request.latency\" source=\"appServer1\" " +
             "\"region\"=\"us-west\"\n" +
-            "!M 1493773500 #20 30.0 #10 5.1 \"request.latency\" source=\"appServer1\" " +
+            "!M 1493773500 #20 30 #10 5.1 \"request.latency\" source=\"appServer1\" " +
             "\"region\"=\"us-west\"\n",
         sb.toString());
   }
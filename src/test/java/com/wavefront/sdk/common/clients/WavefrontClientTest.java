@@ -1,19 +1,42 @@
 package com.wavefront.sdk.common.clients;
 
 import com.wavefront.sdk.common.Pair;
+import com.wavefront.sdk.common.clients.buffer.BufferType;
+import com.wavefront.sdk.common.clients.buffer.ItemBuffer;
 import com.wavefront.sdk.common.clients.service.ReportingService;
 import com.wavefront.sdk.common.metrics.WavefrontSdkDeltaCounter;
+import com.wavefront.sdk.entities.metrics.GaugeCoalescer;
+import com.wavefront.sdk.entities.metrics.Metric;
+import com.wavefront.sdk.entities.metrics.PreparedPoint;
 import org.junit.jupiter.api.Test;
 
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
 import com.sun.net.httpserver.HttpServer;
+import java.io.File;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
 
+import static com.wavefront.sdk.common.Utils.metricToLineData;
+import static com.wavefront.sdk.common.Utils.tracingSpanToLineData;
 import static com.wavefront.sdk.common.clients.WavefrontClientFactory.parseEndpoint;
 import static org.easymock.EasyMock.createMock;
 import static org.easymock.EasyMock.expectLastCall;
@@ -21,6 +44,7 @@ import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
@@ -33,27 +57,36 @@ public class WavefrontClientTest {
 
   @Test
   public void testGetBatch() {
+    testGetBatch(BufferType.LINKED_QUEUE);
+  }
+
+  @Test
+  public void testGetBatchFromRingBuffer() {
+    testGetBatch(BufferType.RING_BUFFER);
+  }
+
+  private void testGetBatch(BufferType bufferType) {
     int batchSize = 8;
     int messageSizeBytes = 200;
 
-    LinkedBlockingQueue<String> buffer = new LinkedBlockingQueue<>();
-    buffer.offer(createString(50));   // chunk 1
-    buffer.offer(createString(50));   // chunk 1
-    buffer.offer(createString(50));   // chunk 1
-    buffer.offer(createString(100));  // chunk 2
-    buffer.offer(createString(250));  // dropped
-    buffer.offer(createString(100));  // chunk 2
-    buffer.offer(createString(200));  // chunk 3
-    buffer.offer(createString(50));   // chunk 4
-    buffer.offer(createString(50));   // chunk 4
-    buffer.offer(createString(50));   // remains in buffer
+    ItemBuffer<byte[]> buffer = bufferType.newBuffer(100);
+    buffer.offer(createItem(50));   // chunk 1
+    buffer.offer(createItem(50));   // chunk 1
+    buffer.offer(createItem(50));   // chunk 1
+    buffer.offer(createItem(100));  // chunk 2
+    buffer.offer(createItem(250));  // dropped
+    buffer.offer(createItem(100));  // chunk 2
+    buffer.offer(createItem(200));  // chunk 3
+    buffer.offer(createItem(50));   // chunk 4
+    buffer.offer(createItem(50));   // chunk 4
+    buffer.offer(createItem(50));   // remains in buffer
 
     WavefrontSdkDeltaCounter dropped = createMock(WavefrontSdkDeltaCounter.class);
     dropped.inc();
     expectLastCall().once();
 
     replay(dropped);
-    List<List<String>> batch = WavefrontClient.getBatch(buffer, batchSize,
+    List<List<byte[]>> batch = WavefrontClient.getBatch(buffer, batchSize,
         messageSizeBytes, dropped);
     verify(dropped);
 
@@ -65,8 +98,25 @@ public class WavefrontClientTest {
     assertEquals(1, buffer.size());
   }
 
-  private String createString(int size) {
-    return new String(new char[size]).replace("\0", "a");
+  @Test
+  public void testGetBatchMeasuresUtf8Bytes() {
+    ItemBuffer<byte[]> buffer = BufferType.LINKED_QUEUE.newBuffer(10);
+    // 4 characters, but 10 bytes once encoded
+    buffer.offer("∆∆∆a".getBytes(StandardCharsets.UTF_8));
+    buffer.offer("a".getBytes(StandardCharsets.UTF_8));
+
+    WavefrontSdkDeltaCounter dropped = createMock(WavefrontSdkDeltaCounter.class);
+    replay(dropped);
+    List<List<byte[]>> batch = WavefrontClient.getBatch(buffer, 10, 10, dropped);
+    verify(dropped);
+
+    assertEquals(2, batch.size());
+    assertEquals(1, batch.get(0).size());
+    assertEquals(1, batch.get(1).size());
+  }
+
+  private byte[] createItem(int size) {
+    return new String(new char[size]).replace("\0", "a").getBytes(StandardCharsets.UTF_8);
   }
 
   @Test
@@ -187,4 +237,415 @@ public class WavefrontClientTest {
     assertEquals(expectedUrl, parsed._1);
     assertEquals(expectedToken, parsed._2);
   }
+
+  @Test
+  public void testSlowEntityTypeDoesNotBlockOthers() throws Exception {
+    CountDownLatch releaseSpans = new CountDownLatch(1);
+    CountDownLatch metricReceived = new CountDownLatch(1);
+    HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/report", exchange -> {
+      try {
+        if (exchange.getRequestURI().getQuery().equals("f=trace")) {
+          releaseSpans.await();
+        } else {
+          metricReceived.countDown();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      exchange.sendResponseHeaders(202, -1);
+      exchange.close();
+    });
+    server.setExecutor(Executors.newCachedThreadPool());
+    server.start();
+
+    WavefrontClient client = new WavefrontClient.Builder("http://127.0.0.1:" +
+        server.getAddress().getPort()).includeSdkMetrics(false).flushIntervalSeconds(1).build();
+    try {
+      client.sendSpan("span", 0, 1, "source", UUID.randomUUID(), UUID.randomUUID(), null, null,
+          null, null);
+      // give the span lane time to get stuck on its request
+      Thread.sleep(1500);
+      client.sendMetric("metric", 1.0, null, "source", null);
+      assertTrue(metricReceived.await(5, TimeUnit.SECONDS));
+    } finally {
+      releaseSpans.countDown();
+      client.close();
+      server.stop(0);
+    }
+  }
+
+  @Test
+  public void testConcurrentRequests() throws Exception {
+    AtomicInteger inFlight = new AtomicInteger();
+    AtomicInteger maxInFlight = new AtomicInteger();
+    AtomicInteger received = new AtomicInteger();
+    HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/report", exchange -> {
+      maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+      try {
+        Thread.sleep(200);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      inFlight.decrementAndGet();
+      received.incrementAndGet();
+      exchange.sendResponseHeaders(202, -1);
+      exchange.close();
+    });
+    server.setExecutor(Executors.newCachedThreadPool());
+    server.start();
+
+    WavefrontClient client = new WavefrontClient.Builder("http://127.0.0.1:" +
+        server.getAddress().getPort()).includeSdkMetrics(false).flushIntervalSeconds(60).
+        messageSizeBytes(50).maxConcurrentRequests(3).build();
+    try {
+      // each point is reported in its own message
+      for (int i = 0; i < 4; i++) {
+        client.sendMetric("metric", i, null, "source", null);
+      }
+      client.flush();
+      assertEquals(4, received.get());
+      assertEquals(3, maxInFlight.get());
+    } finally {
+      client.close();
+      server.stop(0);
+    }
+  }
+
+  @Test
+  public void testEarlyFlushOnBatchSize() throws Exception {
+    CountDownLatch received = new CountDownLatch(1);
+    HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/report", exchange -> {
+      received.countDown();
+      exchange.sendResponseHeaders(202, -1);
+      exchange.close();
+    });
+    server.start();
+
+    WavefrontClient client = new WavefrontClient.Builder("http://127.0.0.1:" +
+        server.getAddress().getPort()).includeSdkMetrics(false).flushIntervalSeconds(60).
+        batchSize(2).build();
+    try {
+      client.sendMetric("metric", 1, null, "source", null);
+      assertFalse(received.await(500, TimeUnit.MILLISECONDS));
+      client.sendMetric("metric", 2, null, "source", null);
+      assertTrue(received.await(5, TimeUnit.SECONDS));
+    } finally {
+      client.close();
+      server.stop(0);
+    }
+  }
+
+  @Test
+  public void testAccumulatesDeltaCounters() throws Exception {
+    List<String> received = new CopyOnWriteArrayList<>();
+    HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/report", exchange -> {
+      received.add(new String(ByteStreams.toByteArray(
+          new GZIPInputStream(exchange.getRequestBody())), StandardCharsets.UTF_8));
+      exchange.sendResponseHeaders(202, -1);
+      exchange.close();
+    });
+    server.start();
+
+    WavefrontClient client = new WavefrontClient.Builder("http://127.0.0.1:" +
+        server.getAddress().getPort()).includeSdkMetrics(false).flushIntervalSeconds(60).
+        accumulateDeltaCounters(true).build();
+    try {
+      for (int i = 0; i < 1000; i++) {
+        client.sendDeltaCounter("requests", 1, "source", null);
+      }
+      client.flush();
+      assertEquals(1, received.size());
+      assertTrue(received.get(0).startsWith("\"∆requests\" 1000 source=\"source\""));
+
+      // invalid series are rejected when sent rather than dropped when flushed
+      assertThrows(IllegalArgumentException.class,
+          () -> client.sendDeltaCounter(null, 1, "source", null));
+      assertThrows(IllegalArgumentException.class,
+          () -> client.sendDeltaCounter("requests", 1, "source", ImmutableMap.of("", "value")));
+      client.flush();
+      assertEquals(1, received.size());
+    } finally {
+      client.close();
+      server.stop(0);
+    }
+  }
+
+  @Test
+  public void testCoalescesGauges() throws Exception {
+    List<String> received = new CopyOnWriteArrayList<>();
+    HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/report", exchange -> {
+      received.add(new String(ByteStreams.toByteArray(
+          new GZIPInputStream(exchange.getRequestBody())), StandardCharsets.UTF_8));
+      exchange.sendResponseHeaders(202, -1);
+      exchange.close();
+    });
+    server.start();
+
+    WavefrontClient client = new WavefrontClient.Builder("http://127.0.0.1:" +
+        server.getAddress().getPort()).includeSdkMetrics(false).flushIntervalSeconds(60).
+        coalesceGauges(GaugeCoalescer.Rollup.LAST).build();
+    try {
+      for (int i = 1; i <= 100; i++) {
+        client.sendMetric("gauge", i, null, "source", null);
+      }
+      // delta counters are never coalesced
+      client.sendDeltaCounter("counter", 1, "source", null);
+      client.sendDeltaCounter("counter", 1, "source", null);
+      client.flush();
+      assertEquals(1, received.size());
+      String[] lines = received.get(0).split("\n");
+      assertEquals(3, lines.length);
+      assertEquals(1, Arrays.stream(lines).filter(line -> line.startsWith("\"gauge\" 100 ")).
+          count());
+
+      // invalid points are rejected when sent rather than dropped when flushed
+      assertThrows(IllegalArgumentException.class,
+          () -> client.sendMetric(null, 1, null, "source", null));
+      assertThrows(IllegalArgumentException.class,
+          () -> client.sendMetric("gauge", 1, null, "source", ImmutableMap.of("key", "")));
+      client.flush();
+      assertEquals(1, received.size());
+    } finally {
+      client.close();
+      server.stop(0);
+    }
+  }
+
+  @Test
+  public void testPreparedPoint() throws Exception {
+    List<String> received = new CopyOnWriteArrayList<>();
+    HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/report", exchange -> {
+      received.add(new String(ByteStreams.toByteArray(
+          new GZIPInputStream(exchange.getRequestBody())), StandardCharsets.UTF_8));
+      exchange.sendResponseHeaders(202, -1);
+      exchange.close();
+    });
+    server.start();
+
+    WavefrontClient client = new WavefrontClient.Builder("http://127.0.0.1:" +
+        server.getAddress().getPort()).includeSdkMetrics(false).flushIntervalSeconds(60).build();
+    try {
+      Map<String, String> tags = ImmutableMap.of("datacenter", "dc 1", "env\"", "prod");
+      PreparedPoint point = client.preparePoint("new york.power", "local host", tags);
+      StringBuilder expected = new StringBuilder();
+      double[] values = {42422, -0.5, 1e-10, Double.NaN};
+      Long[] timestamps = {1493773500L, null, 0L, 9L};
+      for (int i = 0; i < values.length; i++) {
+        point.send(values[i], timestamps[i]);
+        expected.append(metricToLineData("new york.power", values[i], timestamps[i],
+            "local host", tags, "default"));
+      }
+      client.flush();
+      assertEquals(1, received.size());
+      assertEquals(expected.toString(), received.get(0));
+
+      assertThrows(IllegalArgumentException.class,
+          () -> client.preparePoint("metric", "source", ImmutableMap.of("key", "")));
+    } finally {
+      client.close();
+      server.stop(0);
+    }
+  }
+
+  @Test
+  public void testSendMetrics() throws Exception {
+    List<String> received = new CopyOnWriteArrayList<>();
+    HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/report", exchange -> {
+      received.add(new String(ByteStreams.toByteArray(
+          new GZIPInputStream(exchange.getRequestBody())), StandardCharsets.UTF_8));
+      exchange.sendResponseHeaders(202, -1);
+      exchange.close();
+    });
+    server.start();
+
+    WavefrontClient client = new WavefrontClient.Builder("http://127.0.0.1:" +
+        server.getAddress().getPort()).includeSdkMetrics(false).flushIntervalSeconds(60).build();
+    try {
+      Map<String, String> tags = ImmutableMap.of("env", "prod");
+      List<Metric> metrics = Arrays.asList(
+          new Metric("cpu", 1.5, 1493773500L, "host1", tags),
+          new Metric("", 2, null, "host1", tags),
+          new Metric("memory", 3, null, "host2", null));
+      // the invalid metric is skipped and reported once the valid ones are sent
+      assertThrows(IllegalArgumentException.class, () -> client.sendMetrics(metrics));
+      client.flush();
+      assertEquals(1, received.size());
+      assertEquals(metricToLineData("cpu", 1.5, 1493773500L, "host1", tags, "default") +
+          metricToLineData("memory", 3, null, "host2", null, "default"),
+          received.get(0));
+    } finally {
+      client.close();
+      server.stop(0);
+    }
+  }
+
+  @Test
+  public void testDeferredEncoding() throws Exception {
+    List<String> received = new CopyOnWriteArrayList<>();
+    HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/report", exchange -> {
+      received.add(new String(ByteStreams.toByteArray(
+          new GZIPInputStream(exchange.getRequestBody())), StandardCharsets.UTF_8));
+      exchange.sendResponseHeaders(202, -1);
+      exchange.close();
+    });
+    server.start();
+
+    WavefrontClient client = new WavefrontClient.Builder("http://127.0.0.1:" +
+        server.getAddress().getPort()).includeSdkMetrics(false).flushIntervalSeconds(60).
+        deferEncoding(true).build();
+    try {
+      Map<String, String> tags = ImmutableMap.of("env", "prod");
+      client.sendMetric("cpu", 1.5, 1493773500L, "host1", tags);
+      client.sendMetrics(Arrays.asList(new Metric("memory", 3, null, "host2", null),
+          new Metric("disk", 4, null, "host2", ImmutableMap.of("key", ""))));
+      // the name is checked by the caller, the tags only when encoding
+      assertThrows(IllegalArgumentException.class,
+          () -> client.sendMetric("", 1, null, "host1", tags));
+      UUID traceId = UUID.randomUUID();
+      UUID spanId = UUID.randomUUID();
+      List<Pair<String, String>> spanTags = Collections.singletonList(
+          new Pair<>("application", "Wavefront"));
+      client.sendSpan("getAllUsers", 1493773500L, 343500L, "localhost", traceId, spanId, null,
+          null, spanTags, null);
+      assertTrue(received.isEmpty());
+
+      client.flush();
+      assertEquals(2, received.size());
+      assertEquals(metricToLineData("cpu", 1.5, 1493773500L, "host1", tags, "default") +
+          metricToLineData("memory", 3, null, "host2", null, "default"), received.get(0));
+      assertEquals(tracingSpanToLineData("getAllUsers", 1493773500L, 343500L, "localhost",
+          traceId, spanId, null, null, spanTags, null, "default"), received.get(1));
+    } finally {
+      client.close();
+      server.stop(0);
+    }
+  }
+
+  @Test
+  public void testSpoolsFailedReportsAndReplaysAfterRestart() throws Exception {
+    AtomicInteger responseCode = new AtomicInteger(503);
+    List<String> received = new CopyOnWriteArrayList<>();
+    HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/report", exchange -> {
+      int code = responseCode.get();
+      if (code == 202) {
+        received.add(new String(ByteStreams.toByteArray(
+            new GZIPInputStream(exchange.getRequestBody())), StandardCharsets.UTF_8));
+      }
+      exchange.sendResponseHeaders(code, -1);
+      exchange.close();
+    });
+    server.start();
+    File spoolDirectory = Files.createTempDirectory("spool").toFile();
+
+    WavefrontClient.Builder builder = new WavefrontClient.Builder("http://127.0.0.1:" +
+        server.getAddress().getPort()).includeSdkMetrics(false).flushIntervalSeconds(60).
+        spoolDirectory(spoolDirectory.getPath());
+    try {
+      WavefrontClient client = builder.build();
+      client.sendMetric("first", 1, null, "source", null);
+      client.flush();
+      assertTrue(received.isEmpty());
+
+      // the failed point was spooled, and is replayed once the endpoint recovers
+      responseCode.set(202);
+      client.flush();
+      assertEquals(1, received.size());
+      assertTrue(received.get(0).startsWith("\"first\" 1 "));
+
+      // points left in memory on close are spooled and replayed by the next client
+      responseCode.set(503);
+      client.sendMetric("second", 2, null, "source", null);
+      client.close();
+      responseCode.set(202);
+      client = builder.build();
+      client.flush();
+      client.close();
+      assertEquals(2, received.size());
+      assertTrue(received.get(1).startsWith("\"second\" 2 "));
+    } finally {
+      server.stop(0);
+      MoreFiles.deleteRecursively(spoolDirectory.toPath(), RecursiveDeleteOption.ALLOW_INSECURE);
+    }
+  }
+
+  @Test
+  public void testWriteAheadLogReplaysUnacknowledgedDataAfterRestart() throws Exception {
+    AtomicInteger responseCode = new AtomicInteger(503);
+    List<String> received = new CopyOnWriteArrayList<>();
+    HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/report", exchange -> {
+      int code = responseCode.get();
+      if (code == 202) {
+        received.add(new String(ByteStreams.toByteArray(
+            new GZIPInputStream(exchange.getRequestBody())), StandardCharsets.UTF_8));
+      }
+      exchange.sendResponseHeaders(code, -1);
+      exchange.close();
+    });
+    server.start();
+    File walDirectory = Files.createTempDirectory("wal").toFile();
+
+    WavefrontClient.Builder builder = new WavefrontClient.Builder("http://127.0.0.1:" +
+        server.getAddress().getPort()).includeSdkMetrics(false).flushIntervalSeconds(60).
+        writeAheadLogDirectory(walDirectory.getPath()).
+        writeAheadLogSyncInterval(10, TimeUnit.MILLISECONDS);
+    try {
+      WavefrontClient client = builder.build();
+      client.sendMetric("first", 1, null, "source", null);
+      client.sendMetric("second", 2, null, "source", null);
+
+      // buffered points reach the disk without waiting for a flush
+      File pointsDirectory = new File(walDirectory, "points");
+      long deadline = System.currentTimeMillis() + 5000;
+      while (logBytes(pointsDirectory) == 0 && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      assertTrue(logBytes(pointsDirectory) > 0);
+
+      // unacknowledged points stay in the log
+      client.flush();
+      client.sendMetric("third", 3, null, "source", null);
+      client.close();
+      assertTrue(received.isEmpty());
+
+      responseCode.set(202);
+      client = builder.build();
+      client.flush();
+      client.close();
+      assertEquals(1, received.size());
+      assertEquals(3, received.get(0).split("\n").length);
+      assertTrue(received.get(0).contains("\"first\" 1 "));
+      assertTrue(received.get(0).contains("\"second\" 2 "));
+      assertTrue(received.get(0).contains("\"third\" 3 "));
+
+      // acknowledged points are not reported again
+      client = builder.build();
+      client.flush();
+      client.close();
+      assertEquals(1, received.size());
+    } finally {
+      server.stop(0);
+      MoreFiles.deleteRecursively(walDirectory.toPath(), RecursiveDeleteOption.ALLOW_INSECURE);
+    }
+  }
+
+  private static long logBytes(File directory) {
+    long bytes = 0;
+    File[] segments = directory.listFiles((dir, name) -> name.endsWith(".spool"));
+    if (segments != null) {
+      for (File segment : segments) {
+        bytes += segment.length();
+      }
+    }
+    return bytes;
+  }
 }
@@ -0,0 +1,74 @@
+package com.wavefront.sdk.common.clients.buffer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link ByteBoundedBuffer}
+ */
+public class ByteBoundedBufferTest {
+
+  @Test
+  public void testByteLimits() {
+    ByteBudget shared = new ByteBudget(250);
+    ByteBoundedBuffer first = new ByteBoundedBuffer(new LinkedItemBuffer<>(100),
+        new ByteBudget(200), shared);
+    ByteBoundedBuffer second = new ByteBoundedBuffer(new MpscRingBuffer<>(100),
+        new ByteBudget(Long.MAX_VALUE), shared);
+
+    assertTrue(first.offer(new byte[150]));
+    // exceeds the limit of the first buffer
+    assertFalse(first.offer(new byte[60]));
+    assertTrue(first.offer(new byte[50]));
+    assertEquals(200, first.bytes());
+
+    // exceeds the limit shared by both buffers
+    assertFalse(second.offer(new byte[60]));
+    assertTrue(second.offer(new byte[50]));
+    assertEquals(50, second.bytes());
+    assertEquals(250, shared.used());
+
+    assertEquals(150, first.poll().length);
+    assertEquals(50, first.bytes());
+    assertEquals(100, shared.used());
+    assertTrue(second.offer(new byte[60]));
+    assertEquals(2, second.size());
+    assertEquals(110, second.bytes());
+  }
+
+  @Test
+  public void testItemLimit() {
+    ByteBudget shared = new ByteBudget(Long.MAX_VALUE);
+    ByteBoundedBuffer buffer = new ByteBoundedBuffer(new LinkedItemBuffer<>(1),
+        new ByteBudget(100), shared);
+    assertTrue(buffer.offer(new byte[10]));
+    // rejected by the item limit, so no bytes should remain reserved
+    assertFalse(buffer.offer(new byte[10]));
+    assertEquals(10, buffer.bytes());
+    assertEquals(10, shared.used());
+  }
+
+  @Test
+  public void testOfferAll() {
+    ByteBudget shared = new ByteBudget(Long.MAX_VALUE);
+    ByteBoundedBuffer buffer = new ByteBoundedBuffer(new MpscRingBuffer<>(3),
+        new ByteBudget(100), shared);
+    assertEquals(2, buffer.offerAll(Arrays.asList(new byte[30], new byte[30])));
+    // rejected by the item limit, so no bytes should remain reserved for the last item
+    assertEquals(1, buffer.offerAll(Arrays.asList(new byte[10], new byte[10])));
+    assertEquals(70, buffer.bytes());
+    assertEquals(70, shared.used());
+
+    // the batch exceeds the byte limit, so items are added one at a time until one does not fit
+    buffer.poll();
+    buffer.poll();
+    assertEquals(1, buffer.offerAll(Arrays.asList(new byte[50], new byte[50])));
+    assertEquals(60, buffer.bytes());
+    assertEquals(60, shared.used());
+  }
+}
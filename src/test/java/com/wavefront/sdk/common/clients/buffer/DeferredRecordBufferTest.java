@@ -0,0 +1,78 @@
+package com.wavefront.sdk.common.clients.buffer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link DeferredRecordBuffer}
+ */
+public class DeferredRecordBufferTest {
+
+  @Test
+  public void testByteLimits() {
+    ByteBudget budget = new ByteBudget(200);
+    ByteBudget shared = new ByteBudget(250);
+    DeferredRecordBuffer<StringBuilder> deferred = new DeferredRecordBuffer<>(100,
+        StringBuilder::length, budget, shared);
+    ByteBoundedBuffer encoded = new ByteBoundedBuffer(new MpscRingBuffer<>(100), budget, shared);
+
+    assertTrue(deferred.offer(record(150)));
+    // records and encoded lines share the same budget
+    assertFalse(encoded.offer(new byte[60]));
+    assertTrue(encoded.offer(new byte[50]));
+    assertFalse(deferred.offer(record(1)));
+    assertEquals(200, budget.used());
+
+    // the charged size is released even if the estimate of the record changed since
+    StringBuilder record = deferred.poll();
+    record.setLength(0);
+    assertEquals(50, budget.used());
+    assertEquals(50, shared.used());
+    assertTrue(deferred.offer(record(150)));
+    assertEquals(200, shared.used());
+  }
+
+  @Test
+  public void testItemLimit() {
+    ByteBudget budget = new ByteBudget(100);
+    ByteBudget shared = new ByteBudget(Long.MAX_VALUE);
+    DeferredRecordBuffer<StringBuilder> buffer = new DeferredRecordBuffer<>(1,
+        StringBuilder::length, budget, shared);
+    assertTrue(buffer.offer(record(10)));
+    // rejected by the item limit, so no bytes should remain reserved
+    assertFalse(buffer.offer(record(10)));
+    assertEquals(10, budget.used());
+    assertEquals(10, shared.used());
+  }
+
+  @Test
+  public void testOfferAll() {
+    ByteBudget budget = new ByteBudget(100);
+    ByteBudget shared = new ByteBudget(Long.MAX_VALUE);
+    DeferredRecordBuffer<StringBuilder> buffer = new DeferredRecordBuffer<>(3,
+        StringBuilder::length, budget, shared);
+    assertEquals(2, buffer.offerAll(Arrays.asList(record(30), record(30))));
+    // rejected by the item limit, so no bytes should remain reserved for the last item
+    assertEquals(1, buffer.offerAll(Arrays.asList(record(10), record(10))));
+    assertEquals(70, budget.used());
+    assertEquals(70, shared.used());
+
+    // the batch exceeds the byte limit, so items are added one at a time until one does not fit
+    buffer.poll();
+    buffer.poll();
+    assertEquals(1, buffer.offerAll(Arrays.asList(record(50), record(50))));
+    assertEquals(60, budget.used());
+    assertEquals(60, shared.used());
+  }
+
+  private static StringBuilder record(int length) {
+    StringBuilder record = new StringBuilder();
+    record.setLength(length);
+    return record;
+  }
+}
@@ -0,0 +1,178 @@
+package com.wavefront.sdk.common.clients.buffer;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link DiskSpool}
+ */
+public class DiskSpoolTest {
+  private File directory;
+
+  @BeforeEach
+  public void setUp() throws IOException {
+    directory = Files.createTempDirectory("spool").toFile();
+  }
+
+  @AfterEach
+  public void tearDown() {
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    directory.delete();
+  }
+
+  @Test
+  public void testOfferAndPoll() throws IOException {
+    try (DiskSpool spool = new DiskSpool(directory, 1024 * 1024)) {
+      List<byte[]> items = new ArrayList<>();
+      for (int i = 0; i < 1000; i++) {
+        items.add(item(i));
+      }
+      assertEquals(1000, spool.offerAll(items));
+      // larger than the read buffer
+      assertTrue(spool.offer(new byte[100000]));
+      assertEquals(1001, spool.size());
+      assertEquals(1000 * (4 + item(0).length) + 4 + 100000, spool.bytes());
+
+      for (int i = 0; i < 1000; i++) {
+        assertArrayEquals(item(i), spool.poll());
+      }
+      assertEquals(100000, spool.poll().length);
+      assertNull(spool.poll());
+      assertEquals(0, spool.size());
+    }
+  }
+
+  @Test
+  public void testEvictsOldestSegments() throws IOException {
+    // segments of 120 bytes, holding 10 items of 12 bytes each
+    try (DiskSpool spool = new DiskSpool(directory, 960)) {
+      for (int i = 0; i < 100; i++) {
+        spool.offer(item(i));
+      }
+      assertEquals(80, spool.size());
+      assertEquals(960, spool.bytes());
+      assertEquals(20, spool.evicted());
+      assertArrayEquals(item(20), spool.poll());
+    }
+  }
+
+  @Test
+  public void testRecoversAfterRestart() throws IOException {
+    try (DiskSpool spool = new DiskSpool(directory, 1024 * 1024)) {
+      for (int i = 0; i < 10; i++) {
+        spool.offer(item(i));
+      }
+    }
+    // simulate a record cut short by a crash
+    File[] segments = directory.listFiles((dir, name) -> name.endsWith(".spool"));
+    assertEquals(1, segments.length);
+    try (RandomAccessFile file = new RandomAccessFile(segments[0], "rw")) {
+      file.seek(file.length());
+      file.writeInt(100);
+      file.write(new byte[10]);
+    }
+
+    try (DiskSpool spool = new DiskSpool(directory, 1024 * 1024)) {
+      assertEquals(10, spool.size());
+      spool.offer(item(10));
+      for (int i = 0; i <= 10; i++) {
+        assertArrayEquals(item(i), spool.poll());
+      }
+      assertNull(spool.poll());
+    }
+    // nothing is left to replay once everything has been read
+    assertEquals(0, directory.listFiles((dir, name) -> name.endsWith(".spool")).length);
+  }
+
+  @Test
+  public void testDoesNotReplayReadItemsAfterRestart() throws IOException {
+    try (DiskSpool spool = new DiskSpool(directory, 1024 * 1024)) {
+      for (int i = 0; i < 3; i++) {
+        spool.offer(item(i));
+      }
+      assertArrayEquals(item(0), spool.poll());
+    }
+    try (DiskSpool spool = new DiskSpool(directory, 1024 * 1024)) {
+      assertEquals(2, spool.size());
+      assertArrayEquals(item(1), spool.poll());
+      assertArrayEquals(item(2), spool.poll());
+      assertNull(spool.poll());
+    }
+  }
+
+  @Test
+  public void testReplaysUncommittedItemsAfterRestart() throws IOException {
+    try (DiskSpool spool = new DiskSpool(directory, 1024 * 1024, false)) {
+      for (int i = 0; i < 5; i++) {
+        spool.offer(item(i));
+      }
+      assertArrayEquals(item(0), spool.poll());
+      assertArrayEquals(item(1), spool.poll());
+      spool.commit();
+      assertArrayEquals(item(2), spool.poll());
+      assertEquals(2, spool.size());
+    }
+    // only committed items are consumed
+    try (DiskSpool spool = new DiskSpool(directory, 1024 * 1024, false)) {
+      assertEquals(3, spool.size());
+      for (int i = 2; i < 5; i++) {
+        assertArrayEquals(item(i), spool.poll());
+      }
+      assertNull(spool.poll());
+      spool.commit();
+    }
+    assertEquals(0, directory.listFiles((dir, name) -> name.endsWith(".spool")).length);
+  }
+
+  @Test
+  public void testCommitDeletesReadSegments() throws IOException {
+    // segments of 120 bytes, holding 10 items of 12 bytes each
+    try (DiskSpool spool = new DiskSpool(directory, 960, false)) {
+      for (int i = 0; i < 25; i++) {
+        spool.offer(item(i));
+      }
+      for (int i = 0; i < 15; i++) {
+        assertArrayEquals(item(i), spool.poll());
+      }
+      // read segments are kept until committed
+      assertEquals(300, spool.bytes());
+      spool.commit();
+      assertEquals(180, spool.bytes());
+    }
+    try (DiskSpool spool = new DiskSpool(directory, 960, false)) {
+      assertEquals(10, spool.size());
+      assertArrayEquals(item(15), spool.poll());
+    }
+  }
+
+  @Test
+  public void testDirectoryIsLocked() throws IOException {
+    try (DiskSpool spool = new DiskSpool(directory, 1024)) {
+      assertThrows(IOException.class, () -> new DiskSpool(directory, 1024));
+    }
+  }
+
+  private static byte[] item(int i) {
+    return String.format("item%04d", i).getBytes(StandardCharsets.UTF_8);
+  }
+}
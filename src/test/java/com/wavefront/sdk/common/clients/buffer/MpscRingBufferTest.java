@@ -0,0 +1,100 @@
+package com.wavefront.sdk.common.clients.buffer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link MpscRingBuffer}
+ */
+public class MpscRingBufferTest {
+
+  @Test
+  public void testOfferAndPoll() {
+    MpscRingBuffer<String> buffer = new MpscRingBuffer<>(3);
+    assertEquals(0, buffer.size());
+    assertEquals(3, buffer.remainingCapacity());
+    assertNull(buffer.poll());
+
+    assertTrue(buffer.offer("a"));
+    assertTrue(buffer.offer("b"));
+    assertTrue(buffer.offer("c"));
+    // capacity is honored exactly even though the backing array is rounded up to 4
+    assertFalse(buffer.offer("d"));
+    assertEquals(3, buffer.size());
+    assertEquals(0, buffer.remainingCapacity());
+
+    assertEquals("a", buffer.poll());
+    assertTrue(buffer.offer("d"));
+    assertEquals("b", buffer.poll());
+    assertEquals("c", buffer.poll());
+    assertEquals("d", buffer.poll());
+    assertNull(buffer.poll());
+    assertEquals(0, buffer.size());
+  }
+
+  @Test
+  public void testOfferAll() {
+    MpscRingBuffer<String> buffer = new MpscRingBuffer<>(4);
+    assertEquals(3, buffer.offerAll(Arrays.asList("a", "b", "c")));
+    // only the items that fit are added
+    assertEquals(1, buffer.offerAll(Arrays.asList("d", "e")));
+    assertEquals(0, buffer.offerAll(Arrays.asList("f")));
+    assertEquals("a", buffer.poll());
+    assertEquals(1, buffer.offerAll(Arrays.asList("e")));
+    assertEquals("b", buffer.poll());
+    assertEquals("c", buffer.poll());
+    assertEquals("d", buffer.poll());
+    assertEquals("e", buffer.poll());
+    assertNull(buffer.poll());
+  }
+
+  @Test
+  public void testConcurrentProducers() throws InterruptedException {
+    int numThreads = 8;
+    int numItems = 20000;
+    MpscRingBuffer<Integer> buffer = new MpscRingBuffer<>(1024);
+    CountDownLatch done = new CountDownLatch(numThreads);
+    AtomicInteger rejected = new AtomicInteger();
+    for (int t = 0; t < numThreads; t++) {
+      final int base = t * numItems;
+      new Thread(() -> {
+        for (int i = 0; i < numItems; i++) {
+          while (!buffer.offer(base + i)) {
+            rejected.incrementAndGet();
+            Thread.yield();
+          }
+        }
+        done.countDown();
+      }).start();
+    }
+
+    Set<Integer> seen = new HashSet<>();
+    int[] lastSeen = new int[numThreads];
+    Arrays.fill(lastSeen, -1);
+    while (seen.size() < numThreads * numItems) {
+      Integer item = buffer.poll();
+      if (item == null) {
+        Thread.yield();
+        continue;
+      }
+      assertTrue(seen.add(item), "duplicate item " + item);
+      // items from the same producer must come out in the order they were offered
+      int producer = item / numItems;
+      assertTrue(item % numItems > lastSeen[producer]);
+      lastSeen[producer] = item % numItems;
+    }
+    done.await();
+    assertNull(buffer.poll());
+    assertEquals(0, buffer.size());
+  }
+}
@@ -0,0 +1,370 @@
+package com.wavefront.sdk.common.clients.service;
+
+import com.sun.net.httpserver.HttpServer;
+import com.wavefront.sdk.common.metrics.WavefrontSdkMetricsRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Tests for the {@link ReportingService} class
+ */
+public class ReportingServiceTest {
+  private HttpServer server;
+  private final AtomicReference<String> contentEncoding = new AtomicReference<>();
+  private final AtomicReference<byte[]> body = new AtomicReference<>();
+  private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+  private volatile int responseCode = 202;
+  private volatile boolean readBody = true;
+  private volatile long responseDelayMillis = 0;
+  private final AtomicInteger bodiesRead = new AtomicInteger();
+
+  @BeforeEach
+  public void setUp() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/", exchange -> {
+      clientPorts.add(exchange.getRemoteAddress().getPort());
+      contentEncoding.set(exchange.getRequestHeaders().getFirst("Content-Encoding"));
+      if (readBody) {
+        body.set(readFully(exchange.getRequestBody()));
+        bodiesRead.incrementAndGet();
+      }
+      if (responseDelayMillis > 0) {
+        try {
+          Thread.sleep(responseDelayMillis);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      exchange.sendResponseHeaders(responseCode, -1);
+      exchange.close();
+    });
+    server.start();
+  }
+
+  @AfterEach
+  public void tearDown() {
+    server.stop(0);
+  }
+
+  @Test
+  public void testSendItemsIsGzipped() throws IOException {
+    ReportingService service = new ReportingService(serverUrl(), "token");
+    List<byte[]> items = new ArrayList<>();
+    StringBuilder expected = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      String line = "metric.name" + i + " " + i + " source=localhost\n";
+      items.add(line.getBytes(StandardCharsets.UTF_8));
+      expected.append(line);
+    }
+
+    // send twice so that the second request reuses the pooled deflater
+    for (int i = 0; i < 2; i++) {
+      assertEquals(202, service.send("wavefront", items));
+      assertEquals("gzip", contentEncoding.get());
+      assertEquals(expected.toString(), gunzip(body.get()));
+    }
+  }
+
+  @Test
+  public void testSendStream() throws IOException {
+    ReportingService service = new ReportingService(serverUrl(), null);
+    String line = "metric.name 1 source=localhost\n";
+    InputStream stream = new ByteArrayInputStream(line.getBytes(StandardCharsets.UTF_8));
+
+    assertEquals(202, service.send("wavefront", stream));
+    assertEquals(line, gunzip(body.get()));
+  }
+
+  @Test
+  public void testSendUncompressedReportsBytes() throws IOException {
+    WavefrontSdkMetricsRegistry registry = new WavefrontSdkMetricsRegistry.Builder(null).
+        reportingIntervalSeconds(Integer.MAX_VALUE).
+        build();
+    ReportingService service = new ReportingService(serverUrl(), "token", Compression.NONE,
+        Deflater.DEFAULT_COMPRESSION, registry);
+    String line = "metric.name 1 source=localhost\n";
+
+    assertEquals(202, service.send("wavefront",
+        Arrays.asList(line.getBytes(StandardCharsets.UTF_8))));
+    assertNull(contentEncoding.get());
+    assertEquals(line, new String(body.get(), StandardCharsets.UTF_8));
+    assertEquals(line.length(),
+        registry.newDeltaCounter("points.report.bytes.uncompressed").count());
+    assertEquals(line.length(),
+        registry.newDeltaCounter("points.report.bytes.compressed").count());
+  }
+
+  @Test
+  public void testSendCompressedReportsBytes() throws IOException {
+    WavefrontSdkMetricsRegistry registry = new WavefrontSdkMetricsRegistry.Builder(null).
+        reportingIntervalSeconds(Integer.MAX_VALUE).
+        build();
+    ReportingService service = new ReportingService(serverUrl(), "token", Compression.GZIP,
+        Deflater.BEST_COMPRESSION, registry);
+    List<byte[]> items = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      items.add("span.name 1 source=localhost\n".getBytes(StandardCharsets.UTF_8));
+    }
+
+    assertEquals(202, service.send("trace", items));
+    assertEquals("gzip", contentEncoding.get());
+    assertEquals(100 * items.get(0).length,
+        registry.newDeltaCounter("spans.report.bytes.uncompressed").count());
+    assertEquals(body.get().length,
+        registry.newDeltaCounter("spans.report.bytes.compressed").count());
+  }
+
+  @Test
+  public void testRetriedBodyReportsBytesOnce() {
+    WavefrontSdkMetricsRegistry registry = new WavefrontSdkMetricsRegistry.Builder(null).
+        reportingIntervalSeconds(Integer.MAX_VALUE).
+        build();
+    // writes the body a second time, as a transport retrying on a stale connection would
+    Transport transport = (url, headers, contentLength, requestBody) -> {
+      requestBody.writeTo(new ByteArrayOutputStream());
+      requestBody.writeTo(new ByteArrayOutputStream());
+      return 202;
+    };
+    ReportingService service = new ReportingService(serverUrl(), "token", Compression.NONE,
+        Deflater.DEFAULT_COMPRESSION, transport, registry);
+    String line = "metric.name 1 source=localhost\n";
+
+    assertEquals(202, service.send("wavefront",
+        Arrays.asList(line.getBytes(StandardCharsets.UTF_8))));
+    assertEquals(line.length(),
+        registry.newDeltaCounter("points.report.bytes.uncompressed").count());
+    assertEquals(line.length(),
+        registry.newDeltaCounter("points.report.bytes.compressed").count());
+  }
+
+  @Test
+  public void testSendReturnsErrorStatusCode() {
+    responseCode = 500;
+    ReportingService service = new ReportingService(serverUrl(), "token");
+
+    assertEquals(500, service.send("wavefront",
+        Arrays.asList("metric.name 1 source=localhost\n".getBytes(StandardCharsets.UTF_8))));
+  }
+
+  @Test
+  public void testPooledTransportReusesConnections() throws IOException {
+    WavefrontSdkMetricsRegistry registry = new WavefrontSdkMetricsRegistry.Builder(null).
+        reportingIntervalSeconds(Integer.MAX_VALUE).
+        build();
+    PooledHttpTransport transport = new PooledHttpTransport.Builder().
+        sdkMetricsRegistry(registry).
+        build();
+    String line = "metric.name 1 source=localhost\n";
+    List<byte[]> items = Arrays.asList(line.getBytes(StandardCharsets.UTF_8));
+    try (ReportingService gzipService = new ReportingService(serverUrl(), "token",
+        Compression.GZIP, Deflater.DEFAULT_COMPRESSION, transport, null);
+         ReportingService plainService = new ReportingService(serverUrl(), "token",
+             Compression.NONE, Deflater.DEFAULT_COMPRESSION, transport, null)) {
+      // chunked, fixed length and streamed bodies, as well as error responses
+      assertEquals(202, gzipService.send("wavefront", items));
+      assertEquals(line, gunzip(body.get()));
+      assertEquals(202, plainService.send("wavefront", items));
+      assertEquals(line, new String(body.get(), StandardCharsets.UTF_8));
+      assertEquals(202, plainService.send("wavefront",
+          new ByteArrayInputStream(items.get(0))));
+      assertEquals(line, new String(body.get(), StandardCharsets.UTF_8));
+      responseCode = 500;
+      assertEquals(500, gzipService.send("wavefront", items));
+      responseCode = 202;
+      assertEquals(202, gzipService.send("wavefront", items));
+    }
+
+    assertEquals(1, clientPorts.size());
+    assertEquals(5, registry.newDeltaCounter("http.requests").count());
+    assertEquals(1, registry.newDeltaCounter("http.connections.opened").count());
+    assertEquals(4, registry.newDeltaCounter("http.connections.reused").count());
+    assertEquals(1, registry.newDeltaCounter("http.connections.closed").count());
+    assertEquals(0, transport.getIdleConnections());
+  }
+
+  @Test
+  public void testPooledTransportReconnectsAfterServerClose() throws Exception {
+    WavefrontSdkMetricsRegistry registry = new WavefrontSdkMetricsRegistry.Builder(null).
+        reportingIntervalSeconds(Integer.MAX_VALUE).
+        build();
+    PooledHttpTransport transport = new PooledHttpTransport.Builder().
+        sdkMetricsRegistry(registry).
+        build();
+    List<byte[]> items = Arrays.asList(
+        "metric.name 1 source=localhost\n".getBytes(StandardCharsets.UTF_8));
+    try (ReportingService service = new ReportingService(serverUrl(), null, Compression.GZIP,
+        Deflater.DEFAULT_COMPRESSION, transport, null)) {
+      // the server closes the connection after responding to a request it did not read
+      readBody = false;
+      assertEquals(202, service.send("wavefront", items));
+      assertEquals(1, transport.getIdleConnections());
+      Thread.sleep(100);
+      readBody = true;
+      assertEquals(202, service.send("wavefront", items));
+    }
+
+    assertEquals(2, registry.newDeltaCounter("http.connections.opened").count());
+    assertEquals(0, registry.newDeltaCounter("http.errors").count());
+  }
+
+  @Test
+  public void testPooledTransportProbesIdleConnectionsForStreams() throws Exception {
+    WavefrontSdkMetricsRegistry registry = new WavefrontSdkMetricsRegistry.Builder(null).
+        reportingIntervalSeconds(Integer.MAX_VALUE).
+        build();
+    PooledHttpTransport transport = new PooledHttpTransport.Builder().
+        sdkMetricsRegistry(registry).
+        build();
+    byte[] line = "metric.name 1 source=localhost\n".getBytes(StandardCharsets.UTF_8);
+    try (ReportingService service = new ReportingService(serverUrl(), null, Compression.NONE,
+        Deflater.DEFAULT_COMPRESSION, transport, null)) {
+      readBody = false;
+      assertEquals(202, service.send("wavefront", new ByteArrayInputStream(line)));
+      assertEquals(1, transport.getIdleConnections());
+      // a stream cannot be sent again, so the closed connection must not be used for it
+      Thread.sleep(1100);
+      readBody = true;
+      assertEquals(202, service.send("wavefront", new ByteArrayInputStream(line)));
+    }
+
+    assertEquals(2, registry.newDeltaCounter("http.connections.opened").count());
+    assertEquals(0, registry.newDeltaCounter("http.retries").count());
+    assertEquals(0, registry.newDeltaCounter("http.errors").count());
+  }
+
+  @Test
+  public void testPooledTransportDoesNotResendAfterReadTimeout() throws Exception {
+    WavefrontSdkMetricsRegistry registry = new WavefrontSdkMetricsRegistry.Builder(null).
+        reportingIntervalSeconds(Integer.MAX_VALUE).
+        build();
+    PooledHttpTransport transport = new PooledHttpTransport.Builder().
+        readTimeoutMillis(200).
+        sdkMetricsRegistry(registry).
+        build();
+    List<byte[]> items = Arrays.asList(
+        "metric.name 1 source=localhost\n".getBytes(StandardCharsets.UTF_8));
+    try (ReportingService service = new ReportingService(serverUrl(), null, Compression.NONE,
+        Deflater.DEFAULT_COMPRESSION, transport, null)) {
+      assertEquals(202, service.send("wavefront", items));
+      assertEquals(1, transport.getIdleConnections());
+
+      // the server reads the body on the pooled connection, then responds too late
+      responseDelayMillis = 1000;
+      assertEquals(-1, service.send("wavefront", items));
+      responseDelayMillis = 0;
+      // a resent request would be read once the server is done with the first one
+      Thread.sleep(1500);
+    }
+
+    assertEquals(2, bodiesRead.get());
+    assertEquals(0, registry.newDeltaCounter("http.retries").count());
+    assertEquals(1, registry.newDeltaCounter("http.errors").count());
+  }
+
+  @Test
+  public void testHttpURLConnectionTransport() throws IOException {
+    String line = "metric.name 1 source=localhost\n";
+    try (ReportingService service = new ReportingService(serverUrl(), "token",
+        Compression.GZIP, Deflater.DEFAULT_COMPRESSION,
+        new HttpURLConnectionTransport(1000, 1000), null)) {
+      assertEquals(202, service.send("wavefront",
+          Arrays.asList(line.getBytes(StandardCharsets.UTF_8))));
+      assertEquals(line, gunzip(body.get()));
+      responseCode = 500;
+      assertEquals(500, service.send("wavefront",
+          new ByteArrayInputStream(line.getBytes(StandardCharsets.UTF_8))));
+    }
+  }
+
+  @Test
+  public void testCustomTransport() throws IOException {
+    AtomicReference<String> url = new AtomicReference<>();
+    AtomicReference<Map<String, String>> headers = new AtomicReference<>();
+    AtomicLong contentLength = new AtomicLong();
+    Transport loopback = (requestUrl, requestHeaders, requestContentLength, requestBody) -> {
+      url.set(requestUrl.toString());
+      headers.set(requestHeaders);
+      contentLength.set(requestContentLength);
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      requestBody.writeTo(out);
+      body.set(out.toByteArray());
+      return 202;
+    };
+    String line = "metric.name 1 source=localhost\n";
+    ReportingService service = new ReportingService("https://wavefront.example.com", "token",
+        Compression.NONE, Deflater.DEFAULT_COMPRESSION, loopback, null);
+
+    assertEquals(202, service.send("wavefront",
+        Arrays.asList(line.getBytes(StandardCharsets.UTF_8))));
+    assertEquals("https://wavefront.example.com/report?f=wavefront", url.get());
+    assertEquals("Bearer token", headers.get().get("Authorization"));
+    assertNull(headers.get().get("Content-Encoding"));
+    assertEquals(line.length(), contentLength.get());
+    assertEquals(line, new String(body.get(), StandardCharsets.UTF_8));
+
+    ReportingService failing = new ReportingService("https://wavefront.example.com", "token",
+        Compression.GZIP, Deflater.DEFAULT_COMPRESSION,
+        (requestUrl, requestHeaders, requestContentLength, requestBody) -> {
+          throw new IOException("unreachable");
+        }, null);
+    assertEquals(-1, failing.send("wavefront",
+        Arrays.asList(line.getBytes(StandardCharsets.UTF_8))));
+  }
+
+  @Test
+  public void testItemsInputStream() throws IOException {
+    List<byte[]> items = Arrays.asList("abc".getBytes(StandardCharsets.UTF_8), new byte[0],
+        "defgh".getBytes(StandardCharsets.UTF_8));
+    InputStream stream = new ItemsInputStream(items);
+
+    assertEquals(8, stream.available());
+    assertEquals('a', stream.read());
+    byte[] buffer = new byte[4];
+    assertEquals(4, stream.read(buffer));
+    assertEquals("bcde", new String(buffer, StandardCharsets.UTF_8));
+    assertEquals(3, stream.available());
+    assertEquals("fgh", new String(readFully(stream), StandardCharsets.UTF_8));
+    assertEquals(-1, stream.read());
+  }
+
+  private String serverUrl() {
+    return "http://127.0.0.1:" + server.getAddress().getPort();
+  }
+
+  private static String gunzip(byte[] bytes) throws IOException {
+    return new String(readFully(new GZIPInputStream(new ByteArrayInputStream(bytes))),
+        StandardCharsets.UTF_8);
+  }
+
+  private static byte[] readFully(InputStream stream) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[4096];
+    int read;
+    while ((read = stream.read(buffer)) != -1) {
+      out.write(buffer, 0, read);
+    }
+    return out.toByteArray();
+  }
+}
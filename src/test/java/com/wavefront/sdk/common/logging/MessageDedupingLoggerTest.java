@@ -5,6 +5,7 @@ import org.easymock.CaptureType;
 import org.easymock.EasyMock;
 import org.junit.jupiter.api.Test;
 
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.LogRecord;
 import java.util.logging.Logger;
@@ -64,4 +65,25 @@ public class MessageDedupingLoggerTest {
     assertEquals(Level.SEVERE, logs.getValues().get(3).getLevel());
     assertEquals("message 5", logs.getValues().get(4).getMessage());
   }
+
+  @Test
+  public void testSuppliedMessagesAreOnlyBuiltWhenLogged() {
+    Logger mockLogger = EasyMock.createMock(Logger.class);
+    expect(mockLogger.getName()).andReturn("loggerName").anyTimes();
+    expect(mockLogger.isLoggable(Level.WARNING)).andReturn(true).anyTimes();
+    expect(mockLogger.isLoggable(Level.FINE)).andReturn(false).anyTimes();
+    Capture<LogRecord> logs = Capture.newInstance(CaptureType.ALL);
+    mockLogger.log(capture(logs));
+    expectLastCall().once();
+    replay(mockLogger);
+    MessageDedupingLogger log = new MessageDedupingLogger(mockLogger, 1000, 0.1);
+    AtomicInteger built = new AtomicInteger();
+    for (int i = 0; i < 10; i++) {
+      log.log("full", Level.WARNING, () -> "dropped " + built.incrementAndGet());
+      log.log("debug", Level.FINE, () -> "debug " + built.incrementAndGet());
+    }
+    verify(mockLogger);
+    assertEquals(1, built.get());
+    assertEquals("dropped 1", logs.getValue().getMessage());
+  }
 }
@@ -0,0 +1,149 @@
+package com.wavefront.sdk.entities.metrics;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link DeltaCounterAccumulator}
+ */
+public class DeltaCounterAccumulatorTest {
+
+  @Test
+  public void testAccumulatesPerSeries() throws IOException {
+    DeltaCounterAccumulator accumulator = new DeltaCounterAccumulator(10);
+    Map<String, String> tags = new HashMap<>();
+    tags.put("env", "prod");
+    for (int i = 0; i < 10; i++) {
+      accumulator.add("∆requests", 1, "host1", tags);
+      accumulator.add("∆requests", 2, "host2", tags);
+    }
+    // the series keeps the tags it was created with
+    tags.put("env", "dev");
+    accumulator.add("∆requests", 5, "host1", ImmutableMap.of("env", "prod"));
+
+    Map<String, Double> drained = new HashMap<>();
+    accumulator.drain((name, value, source, seriesTags) ->
+        drained.put(name + " " + source + " " + seriesTags, value));
+    assertEquals(2, drained.size());
+    assertEquals(Double.valueOf(15), drained.get("∆requests host1 {env=prod}"));
+    assertEquals(Double.valueOf(20), drained.get("∆requests host2 {env=prod}"));
+
+    // idle series are removed by the next drain
+    drained.clear();
+    accumulator.drain((name, value, source, seriesTags) -> drained.put(name, value));
+    assertTrue(drained.isEmpty());
+    assertEquals(0, accumulator.size());
+  }
+
+  @Test
+  public void testConcurrentIncrements() throws Exception {
+    DeltaCounterAccumulator accumulator = new DeltaCounterAccumulator(10);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    for (int t = 0; t < 4; t++) {
+      executor.execute(() -> {
+        for (int i = 0; i < 10000; i++) {
+          accumulator.add("∆requests", 1, null, null);
+        }
+      });
+    }
+    executor.shutdown();
+    // drain while incrementing, no increment may be lost
+    double[] total = new double[1];
+    while (!executor.awaitTermination(1, TimeUnit.MILLISECONDS)) {
+      accumulator.drain((name, value, source, tags) -> total[0] += value);
+    }
+    accumulator.drain((name, value, source, tags) -> total[0] += value);
+    assertEquals(40000.0, total[0]);
+  }
+
+  @Test
+  public void testFractionalIncrementsLeaveNoResidue() throws Exception {
+    DeltaCounterAccumulator accumulator = new DeltaCounterAccumulator(10);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    for (int t = 0; t < 8; t++) {
+      executor.execute(() -> {
+        for (int i = 0; i < 100000; i++) {
+          accumulator.add("∆requests", 0.1, null, null);
+        }
+      });
+    }
+    executor.shutdown();
+    // contention spreads the sum over several cells, which are drained while incremented
+    List<Double> drained = new ArrayList<>();
+    while (!executor.awaitTermination(1, TimeUnit.MILLISECONDS)) {
+      accumulator.drain((name, value, source, tags) -> drained.add(value));
+    }
+    accumulator.drain((name, value, source, tags) -> drained.add(value));
+
+    double total = 0;
+    for (double value : drained) {
+      assertTrue(value > 0.05, "Unexpected value: " + value);
+      total += value;
+    }
+    assertEquals(80000.0, total, 1e-6);
+    // the series is idle: it reports nothing and is removed
+    accumulator.drain((name, value, source, tags) -> drained.add(value));
+    accumulator.drain((name, value, source, tags) -> drained.add(value));
+    assertEquals(0, accumulator.size());
+    assertEquals(total, drained.stream().mapToDouble(Double::doubleValue).sum(), 1e-6);
+  }
+
+  @Test
+  public void testIncrementsRacingWithRetirement() throws Exception {
+    DeltaCounterAccumulator accumulator = new DeltaCounterAccumulator(10);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    for (int t = 0; t < 8; t++) {
+      executor.execute(() -> {
+        for (int i = 0; i < 20000; i++) {
+          accumulator.add("∆requests", 1, null, null);
+          // leave the series idle between drains, so that it is retired again and again
+          Thread.yield();
+        }
+      });
+    }
+    executor.shutdown();
+    double[] total = new double[1];
+    while (!executor.awaitTermination(0, TimeUnit.MILLISECONDS)) {
+      accumulator.drain((name, value, source, tags) -> total[0] += value);
+      Thread.yield();
+    }
+    // the last increments may be in a series retired by the last drain
+    accumulator.drain((name, value, source, tags) -> total[0] += value);
+    accumulator.drain((name, value, source, tags) -> total[0] += value);
+    assertEquals(160000.0, total[0]);
+  }
+
+  @Test
+  public void testMaxSeries() throws IOException {
+    DeltaCounterAccumulator accumulator = new DeltaCounterAccumulator(1);
+    assertTrue(accumulator.add("∆first", 1, null, null));
+    assertFalse(accumulator.add("∆second", 1, null, null));
+    assertTrue(accumulator.add("∆first", 1, null, null));
+  }
+
+  @Test
+  public void testKeepsSumWhenReportFails() throws IOException {
+    DeltaCounterAccumulator accumulator = new DeltaCounterAccumulator(10);
+    accumulator.add("∆requests", 3, null, null);
+    assertThrows(IOException.class, () -> accumulator.drain((name, value, source, tags) -> {
+      throw new IOException("unavailable");
+    }));
+    double[] total = new double[1];
+    accumulator.drain((name, value, source, tags) -> total[0] += value);
+    assertEquals(3.0, total[0]);
+  }
+}
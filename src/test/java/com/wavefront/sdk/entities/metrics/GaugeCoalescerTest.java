@@ -0,0 +1,124 @@
+package com.wavefront.sdk.entities.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link GaugeCoalescer}
+ */
+public class GaugeCoalescerTest {
+
+  @Test
+  public void testLastValueWins() throws IOException {
+    GaugeCoalescer coalescer = new GaugeCoalescer(10, GaugeCoalescer.Rollup.LAST);
+    coalescer.add("cpu", 3, 1000L, "host1", null);
+    coalescer.add("cpu", 1, 2000L, "host1", null);
+    coalescer.add("cpu", 2, 3000L, "host1", null);
+    coalescer.add("cpu", 5, null, "host2", null);
+
+    Map<String, String> drained = new HashMap<>();
+    coalescer.drain((name, value, timestamp, source, tags) ->
+        drained.put(name + " " + source, value + " " + timestamp));
+    assertEquals(2, drained.size());
+    assertEquals("2.0 3000", drained.get("cpu host1"));
+    assertEquals("5.0 null", drained.get("cpu host2"));
+
+    // every drain starts a new window
+    drained.clear();
+    coalescer.drain((name, value, timestamp, source, tags) -> drained.put(name, ""));
+    assertTrue(drained.isEmpty());
+    assertEquals(0, coalescer.size());
+  }
+
+  @Test
+  public void testRollups() throws IOException {
+    assertEquals(1.0, rollup(GaugeCoalescer.Rollup.MIN), 1e-9);
+    assertEquals(6.0, rollup(GaugeCoalescer.Rollup.MAX), 1e-9);
+    assertEquals(3.0, rollup(GaugeCoalescer.Rollup.AVG), 1e-9);
+    assertEquals(2.0, rollup(GaugeCoalescer.Rollup.LAST), 1e-9);
+  }
+
+  @Test
+  public void testMaxSeries() {
+    GaugeCoalescer coalescer = new GaugeCoalescer(1, GaugeCoalescer.Rollup.LAST);
+    assertTrue(coalescer.add("first", 1, null, null, null));
+    assertFalse(coalescer.add("second", 1, null, null, null));
+    assertTrue(coalescer.add("first", 2, null, null, null));
+  }
+
+  @Test
+  public void testConcurrentDrainsReportEachWindowOnce() throws Exception {
+    GaugeCoalescer coalescer = new GaugeCoalescer(10000, GaugeCoalescer.Rollup.LAST);
+    for (int i = 0; i < 1000; i++) {
+      coalescer.add("gauge" + i, i, null, null, null);
+    }
+
+    Map<String, AtomicInteger> reported = new ConcurrentHashMap<>();
+    CountDownLatch start = new CountDownLatch(1);
+    Thread[] threads = new Thread[2];
+    IOException[] failure = new IOException[1];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread(() -> {
+        try {
+          start.await();
+          coalescer.drain((name, value, timestamp, source, tags) ->
+              reported.computeIfAbsent(name, k -> new AtomicInteger()).incrementAndGet());
+        } catch (IOException e) {
+          failure[0] = e;
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      });
+      threads[i].start();
+    }
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertEquals(null, failure[0]);
+    assertEquals(1000, reported.size());
+    for (AtomicInteger count : reported.values()) {
+      assertEquals(1, count.get());
+    }
+  }
+
+  @Test
+  public void testKeepsWindowWhenSinkFails() throws IOException {
+    GaugeCoalescer coalescer = new GaugeCoalescer(10, GaugeCoalescer.Rollup.MAX);
+    coalescer.add("cpu", 5, 1000L, "host1", null);
+    assertThrows(IOException.class, () -> coalescer.drain(
+        (name, value, timestamp, source, tags) -> {
+          throw new IOException("unavailable");
+        }));
+    // values received after the failed drain are merged with the restored window
+    coalescer.add("cpu", 3, 2000L, "host1", null);
+
+    Map<String, String> drained = new HashMap<>();
+    coalescer.drain((name, value, timestamp, source, tags) ->
+        drained.put(name + " " + source, value + " " + timestamp));
+    assertEquals(1, drained.size());
+    assertEquals("5.0 2000", drained.get("cpu host1"));
+  }
+
+  private static double rollup(GaugeCoalescer.Rollup rollup) throws IOException {
+    GaugeCoalescer coalescer = new GaugeCoalescer(10, rollup);
+    for (double value : new double[]{3, 1, 6, 2}) {
+      coalescer.add("cpu", value, null, null, null);
+    }
+    double[] drained = new double[1];
+    coalescer.drain((name, value, timestamp, source, tags) -> drained[0] = value);
+    return drained[0];
+  }
+}
@@ -22,7 +22,7 @@ public class ProxyTest {
 
     private final int THREAD_WAIT_ITERATIONS = 10;
 
-    private final static Pattern linePattern = Pattern.compile("\"dummy\" 1\\.0 [0-9]+ source=\"dummy\"");
+    private final static Pattern linePattern = Pattern.compile("\"dummy\" 1 [0-9]+ source=\"dummy\"");
 
     private final class MockServer implements Runnable {
         public void run() {